@@ -0,0 +1,497 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of query results, each a list of strings. Every entry has a
+ * group and a key within its group, and entries are invalidated a group at a
+ * time: {@link VocabDoubleList} puts the results for one searched word, or all
+ * the pages of one prefix, in a group of their own, so an edit only evicts
+ * the groups it can change.
+ *
+ * The cache is bounded either by its number of entries or by the approximate
+ * heap bytes of its entries, and evicts with one of two policies:
+ * <ul>
+ * <li>{@link Policy#LRU} evicts the least recently used entry;</li>
+ * <li>{@link Policy#TINY_LFU} keeps new entries in a small LRU window and
+ * only admits them to the main space, itself a segmented LRU, if they have
+ * been asked for more often than the entry they would push out. How often is
+ * estimated by a count-min sketch of 4-bit counters that is halved
+ * periodically, so one-off queries cannot flush the popular ones.</li>
+ * </ul>
+ *
+ * A result computed while an edit was running must not be cached after the
+ * edit invalidated its group. Readers therefore take a {@link #stamp(String)}
+ * of their group before computing, and {@link #put} drops the result if the
+ * group has been invalidated since. Stamps are kept per stripe of groups.
+ *
+ * Like Guava's cache, the cache is split into segments by the hash of the
+ * group, each with its share of the capacity, its own queues and sketch, and
+ * its own monitor, so lookups of different groups seldom wait on each other.
+ * Eviction therefore picks the victim within a segment only. The counters
+ * can be read without any monitor.
+ */
+class QueryCache {
+    /**
+     * How entries are chosen for eviction.
+     */
+    enum Policy {
+        LRU,
+        TINY_LFU
+    }
+
+    /**
+     * What the capacity counts.
+     */
+    enum Bound {
+        ENTRIES,
+        BYTES
+    }
+
+    private static final int EPOCH_STRIPES = 256;
+    private static final int MAX_SEGMENTS = 16;
+    /** The smallest capacity worth a segment of its own, in entries or in bytes. */
+    private static final long MIN_SEGMENT_ENTRIES = 64;
+    private static final long MIN_SEGMENT_BYTES = 64 << 10;
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Policy policy;
+    private final Bound bound;
+    private final long capacity;
+    private final Segment[] segments;
+    private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Static inner class representing a cached result, linked into the
+     * recency queue it currently belongs to.
+     */
+    private static class Entry {
+        String group;
+        String key;
+        List<String> value;
+        long weight;
+        int queue;
+        Entry previous = this;
+        Entry next = this;
+    }
+
+    /**
+     * Constructor to initialize an empty cache.
+     * @param policy The eviction policy.
+     * @param bound Whether the capacity counts entries or bytes.
+     * @param capacity The largest number of entries or bytes held.
+     */
+    QueryCache(Policy policy, Bound bound, long capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Cache capacity must be positive");
+        this.policy = policy;
+        this.bound = bound;
+        this.capacity = capacity;
+        long fitting = capacity / (bound == Bound.ENTRIES ? MIN_SEGMENT_ENTRIES : MIN_SEGMENT_BYTES);
+        int count = Integer.highestOneBit((int) Math.max(1, Math.min(MAX_SEGMENTS, fitting)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) segments[i] = new Segment(i, capacity / count + (i < capacity % count ? 1 : 0));
+    }
+
+    /**
+     * Parses a cache specification of the form POLICY:SIZE, where POLICY is
+     * "lru" or "tinylfu" and SIZE is a number of entries, or of bytes when it
+     * ends in "b", "kb" or "mb".
+     * @param spec The specification, such as "lru:10000" or "tinylfu:64mb".
+     * @return The cache.
+     * @throws IllegalArgumentException If the specification is malformed.
+     */
+    static QueryCache parse(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("Expected POLICY:SIZE, got '" + spec + "'");
+        String policyName = spec.substring(0, colon).trim().toLowerCase();
+        Policy policy;
+        if (policyName.equals("lru")) {
+            policy = Policy.LRU;
+        } else if (policyName.equals("tinylfu")) {
+            policy = Policy.TINY_LFU;
+        } else {
+            throw new IllegalArgumentException("Unknown cache policy '" + policyName + "'");
+        }
+        String size = spec.substring(colon + 1).trim().toLowerCase();
+        long unit = 0;
+        if (size.endsWith("mb")) {
+            unit = 1 << 20;
+        } else if (size.endsWith("kb")) {
+            unit = 1 << 10;
+        } else if (size.endsWith("b")) {
+            unit = 1;
+        }
+        String digits = unit == 0 ? size : size.substring(0, size.length() - (unit == 1 ? 1 : 2));
+        long amount;
+        try {
+            amount = Long.parseLong(digits.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad cache size '" + size + "'");
+        }
+        return unit == 0 ? new QueryCache(policy, Bound.ENTRIES, amount)
+                : new QueryCache(policy, Bound.BYTES, amount * unit);
+    }
+
+    /**
+     * Returns the current stamp of a group, to be passed to {@link #put} with
+     * the result computed afterwards.
+     * @param group The group.
+     * @return The stamp.
+     */
+    long stamp(String group) {
+        return epochs.get(stripe(group));
+    }
+
+    /**
+     * Looks up a cached result.
+     * @param group The group of the entry.
+     * @param key The key of the entry within its group.
+     * @return The cached result, which must not be modified, or null on a miss.
+     */
+    List<String> get(String group, String key) {
+        return segment(group).get(group, key);
+    }
+
+    /**
+     * Caches a result unless its group was invalidated after the stamp was taken.
+     * @param group The group of the entry.
+     * @param key The key of the entry within its group.
+     * @param value The result; the cache keeps it as it is, so it must not be modified afterwards.
+     * @param stamp The stamp of the group taken before the result was computed.
+     */
+    void put(String group, String key, List<String> value, long stamp) {
+        segment(group).put(group, key, value, stamp);
+    }
+
+    /**
+     * Drops every entry of some groups and makes results computed before this
+     * call for those groups uncacheable.
+     * @param invalidated The groups.
+     */
+    void invalidate(List<String> invalidated) {
+        for (String group : invalidated) segment(group).invalidate(group);
+    }
+
+    /**
+     * Drops every entry.
+     */
+    void invalidateAll() {
+        for (Segment segment : segments) segment.invalidateAll();
+    }
+
+    /**
+     * @return The number of cached entries.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    /**
+     * @return The total weight of the cached entries, in entries or approximate bytes.
+     */
+    long weight() {
+        long weight = 0;
+        for (Segment segment : segments) weight += segment.weight();
+        return weight;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    long invalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = hits();
+        long lookups = hitCount + misses();
+        return policy + " cache of " + capacity + (bound == Bound.BYTES ? " bytes: " : " entries: ")
+                + size() + " entries, " + weight() + (bound == Bound.BYTES ? " bytes, " : " used, ")
+                + hitCount + " hits, " + misses() + " misses ("
+                + (lookups == 0 ? 0 : 100 * hitCount / lookups) + "% hit rate), "
+                + evictions() + " evicted, " + invalidations() + " invalidated";
+    }
+
+    private Segment segment(String group) {
+        return segments[stripe(group) & (segments.length - 1)];
+    }
+
+    /**
+     * Inner class holding the entries of the groups hashed to one segment,
+     * with its share of the capacity, guarded by its own monitor.
+     */
+    private class Segment {
+        private final int index;
+        private final long capacity;
+        private final long windowCapacity;
+        private final long protectedCapacity;
+        private final HashMap<String, HashMap<String, Entry>> groups = new HashMap<>();
+        private final Entry[] queues = {new Entry(), new Entry(), new Entry()};
+        private final long[] queueWeights = new long[3];
+        private final FrequencySketch sketch;
+        private long weight;
+        private int size;
+
+        /**
+         * Constructor to initialize an empty segment.
+         * @param index The index of the segment, which is also that of its first epoch stripe.
+         * @param capacity The largest number of entries or bytes the segment holds.
+         */
+        Segment(int index, long capacity) {
+            this.index = index;
+            this.capacity = capacity;
+            this.windowCapacity = policy == Policy.TINY_LFU ? Math.max(1, capacity / 100) : capacity;
+            this.protectedCapacity = (capacity - windowCapacity) * 4 / 5;
+            long expectedEntries = bound == Bound.ENTRIES ? capacity : capacity / 256;
+            this.sketch = policy == Policy.TINY_LFU ? new FrequencySketch(expectedEntries) : null;
+        }
+
+        synchronized List<String> get(String group, String key) {
+            if (sketch != null) sketch.increment(hash(group, key));
+            HashMap<String, Entry> entries = groups.get(group);
+            Entry entry = entries == null ? null : entries.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            touch(entry);
+            return entry.value;
+        }
+
+        synchronized void put(String group, String key, List<String> value, long stamp) {
+            if (epochs.get(stripe(group)) != stamp) return;
+            long entryWeight = weigh(group, key, value);
+            if (entryWeight > capacity) return;
+            HashMap<String, Entry> entries = groups.computeIfAbsent(group, g -> new HashMap<>());
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                queueWeights[entry.queue] += entryWeight - entry.weight;
+                weight += entryWeight - entry.weight;
+                entry.value = value;
+                entry.weight = entryWeight;
+                touch(entry);
+            } else {
+                entry = new Entry();
+                entry.group = group;
+                entry.key = key;
+                entry.value = value;
+                entry.weight = entryWeight;
+                entries.put(key, entry);
+                size++;
+                weight += entryWeight;
+                link(entry, policy == Policy.TINY_LFU ? WINDOW : PROBATION);
+            }
+            evict();
+        }
+
+        synchronized void invalidate(String group) {
+            epochs.incrementAndGet(stripe(group));
+            HashMap<String, Entry> entries = groups.remove(group);
+            if (entries == null) return;
+            for (Entry entry : entries.values()) {
+                unlink(entry);
+                size--;
+                weight -= entry.weight;
+            }
+            invalidations.add(entries.size());
+        }
+
+        synchronized void invalidateAll() {
+            for (int stripe = index; stripe < EPOCH_STRIPES; stripe += segments.length) epochs.incrementAndGet(stripe);
+            invalidations.add(size);
+            groups.clear();
+            for (int queue = 0; queue < queues.length; queue++) {
+                queues[queue].previous = queues[queue];
+                queues[queue].next = queues[queue];
+                queueWeights[queue] = 0;
+            }
+            size = 0;
+            weight = 0;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long weight() {
+            return weight;
+        }
+
+        /**
+         * Records a hit on an entry: an LRU entry or a window entry moves to the
+         * front of its queue, a probation entry is promoted to the protected
+         * segment, pushing the protected segment's oldest entry back to probation
+         * when it overflows.
+         */
+        private void touch(Entry entry) {
+            if (entry.queue != PROBATION || policy == Policy.LRU) {
+                unlink(entry);
+                link(entry, entry.queue);
+                return;
+            }
+            unlink(entry);
+            link(entry, PROTECTED);
+            while (queueWeights[PROTECTED] > protectedCapacity) {
+                Entry demoted = queues[PROTECTED].previous;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        }
+
+        /**
+         * Evicts until the cache fits. Under TinyLFU, entries overflowing the
+         * window move to probation, and while the cache is too big the newest of
+         * them competes with the oldest probation entry: the less frequently
+         * asked for of the two is evicted.
+         */
+        private void evict() {
+            Entry candidate = null;
+            while (policy == Policy.TINY_LFU && queueWeights[WINDOW] > windowCapacity) {
+                candidate = queues[WINDOW].previous;
+                unlink(candidate);
+                link(candidate, PROBATION);
+            }
+            while (weight > capacity) {
+                Entry victim = oldest();
+                if (candidate != null && candidate != victim && candidate.queue == PROBATION
+                        && sketch.frequency(hash(candidate.group, candidate.key))
+                        <= sketch.frequency(hash(victim.group, victim.key))) {
+                    remove(candidate);
+                    candidate = null;
+                } else {
+                    if (victim == candidate) candidate = null;
+                    remove(victim);
+                }
+            }
+        }
+
+        private Entry oldest() {
+            for (int queue : new int[] {PROBATION, PROTECTED, WINDOW}) {
+                if (queues[queue].previous != queues[queue]) return queues[queue].previous;
+            }
+            throw new IllegalStateException("Cache weight without entries");
+        }
+
+        private void remove(Entry entry) {
+            unlink(entry);
+            HashMap<String, Entry> entries = groups.get(entry.group);
+            entries.remove(entry.key);
+            if (entries.isEmpty()) groups.remove(entry.group);
+            size--;
+            weight -= entry.weight;
+            evictions.increment();
+        }
+
+        private void link(Entry entry, int queue) {
+            Entry head = queues[queue];
+            entry.queue = queue;
+            entry.previous = head;
+            entry.next = head.next;
+            head.next.previous = entry;
+            head.next = entry;
+            queueWeights[queue] += entry.weight;
+        }
+
+        private void unlink(Entry entry) {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            entry.previous = entry;
+            entry.next = entry;
+            queueWeights[entry.queue] -= entry.weight;
+        }
+    }
+
+    private long weigh(String group, String key, List<String> value) {
+        if (bound == Bound.ENTRIES) return 1;
+        long bytes = 64 + 2L * (group.length() + key.length()) + 24 + 16 + 4L * value.size();
+        for (String item : value) bytes += 40 + 2L * item.length();
+        return bytes;
+    }
+
+    private static int stripe(String group) {
+        int h = group.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (EPOCH_STRIPES - 1);
+    }
+
+    private static int hash(String group, String key) {
+        int h = (group.hashCode() * 31 + key.hashCode()) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Static inner class estimating how often a hash has been seen, with four
+     * rows of 4-bit counters packed sixteen to a long. Once as many increments
+     * as ten times the number of counters per row have been recorded, every
+     * counter is halved so old popularity fades.
+     */
+    private static class FrequencySketch {
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int counters = Integer.highestOneBit((int) Math.min(1 << 24, Math.max(64, expectedEntries)) - 1) << 1;
+            table = new long[counters / 4];
+            mask = counters - 1;
+            sampleSize = 10 * counters;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) frequency = Math.min(frequency, count(index(hash, row), row));
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int counter = index(hash, row);
+                if (count(counter, row) < 15) {
+                    table[counter >>> 2] += 1L << shift(counter, row);
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) halve();
+        }
+
+        private void halve() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash + row) * (0x9E3779B9 + 2 * row);
+            return (h ^ (h >>> 15)) & mask;
+        }
+
+        /** Each long holds four counters of every row, as nibble 4 * (counter % 4) + row. */
+        private int shift(int counter, int row) {
+            return ((counter & 3) * 4 + row) * 4;
+        }
+
+        private int count(int counter, int row) {
+            return (int) (table[counter >>> 2] >>> shift(counter, row)) & 15;
+        }
+    }
+}
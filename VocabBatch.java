@@ -0,0 +1,299 @@
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Headless batch mode for a {@link VocabDoubleList}. Commands are read one per
+ * line, with their fields separated by tabs so that words and topic names may
+ * contain spaces:
+ * <pre>
+ * add-topic   NAME [WORD...]      appends a topic with its words
+ * add-word    TOPIC WORD          adds a word unless the topic lists it already
+ * remove-word TOPIC WORD
+ * rename      TOPIC OLD NEW
+ * search      WORD                prints WORD and the topics holding it
+ * similar     WORD [LIMIT]        prints WORD and the closest words, each as word:distance
+ * prefix      PREFIX [LIMIT]      prints the words starting with PREFIX
+ * match       PATTERN [LIMIT]     prints the words matching PATTERN, with '*' and '?' as wildcards
+ * stats       [LIMIT]             prints a "word" line per word held by the most topics, with its
+ *                                 topics and occurrences, and an "overlap" line per pair of topics
+ *                                 sharing the most words, with the shared words and Jaccard similarity
+ * save        PATH [TOPIC...]     writes the vocabulary, or only the topics named, as a text file,
+ *                                 gzipped if PATH ends in ".gz"
+ * </pre>
+ * Topics are named by their name; when several topics share a name, the first
+ * one is meant. Blank lines and lines starting with '#' are skipped.
+ *
+ * A reader thread parses the input into batches of {@link #BATCH_SIZE}
+ * commands while the calling thread applies the previous batch, so reading
+ * and applying overlap. Output goes through one buffered writer, and the
+ * journal is forced to disk once per batch instead of once per edit. Only
+ * the sync is shared: each edit still takes the vocabulary's locks on its
+ * own, so readers elsewhere can see a batch partly applied.
+ * A failing command prints an "error" line with its line number and the
+ * batch goes on.
+ */
+class VocabBatch {
+    static final int BATCH_SIZE = 4096;
+    private static final int BATCHES_AHEAD = 4;
+    private static final int SIMILAR_WORDS = 5;
+    private static final int STATISTICS_LIMIT = 10;
+    private static final List<Command> END = new ArrayList<>();
+
+    private final VocabDoubleList vocab;
+    private final Writer out;
+    private HashMap<String, Integer> topicIds;
+    private long commands;
+    private long errors;
+
+    /**
+     * Static inner class holding one parsed command line.
+     */
+    private static class Command {
+        final long line;
+        final String[] fields;
+
+        Command(long line, String[] fields) {
+            this.line = line;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Constructor to initialize a batch run over a vocabulary.
+     * @param vocab The vocabulary the commands are applied to.
+     * @param out Where the results of queries and errors are written.
+     */
+    VocabBatch(VocabDoubleList vocab, Writer out) {
+        this.vocab = vocab;
+        this.out = out;
+    }
+
+    /**
+     * @return The number of commands applied so far, failed ones included.
+     */
+    long commands() {
+        return commands;
+    }
+
+    /**
+     * @return The number of commands that failed.
+     */
+    long errors() {
+        return errors;
+    }
+
+    /**
+     * Reads and applies every command of the input, then flushes the output.
+     *
+     * @param in The command lines.
+     * @throws IOException If the input cannot be read, or the output or the journal cannot be written.
+     */
+    void run(BufferedReader in) throws IOException {
+        BlockingQueue<List<Command>> batches = new ArrayBlockingQueue<>(BATCHES_AHEAD);
+        IOException[] readFailure = new IOException[1];
+        Thread reader = new Thread(() -> {
+            try {
+                readBatches(in, batches);
+                batches.put(END);
+            } catch (IOException e) {
+                readFailure[0] = e;
+                putQuietly(batches, END);
+            } catch (InterruptedException e) {
+                // the run gave up, nobody takes the batches any more
+            }
+        }, "vocab-batch-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            for (List<Command> batch = batches.take(); batch != END; batch = batches.take()) {
+                for (Command command : batch) apply(command);
+                vocab.syncJournal();
+            }
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for commands");
+        } finally {
+            // a failed run leaves the reader blocked on a full queue otherwise
+            reader.interrupt();
+            batches.clear();
+            out.flush();
+        }
+        if (readFailure[0] != null) throw readFailure[0];
+    }
+
+    private static void readBatches(BufferedReader in, BlockingQueue<List<Command>> batches)
+            throws IOException, InterruptedException {
+        List<Command> batch = new ArrayList<>(BATCH_SIZE);
+        long lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+            lineNumber++;
+            if (line.isEmpty() || line.charAt(0) == '#') continue;
+            batch.add(new Command(lineNumber, line.split("\t")));
+            if (batch.size() == BATCH_SIZE) {
+                batches.put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) batches.put(batch);
+    }
+
+    private static void putQuietly(BlockingQueue<List<Command>> batches, List<Command> batch) {
+        try {
+            batches.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void apply(Command command) throws IOException {
+        commands++;
+        String[] fields = command.fields;
+        try {
+            switch (fields[0]) {
+                case "add-topic": {
+                    expect(fields, 2, Integer.MAX_VALUE);
+                    List<String> words = Arrays.asList(fields).subList(2, fields.length);
+                    int topicId = vocab.appendTopic(fields[1], words);
+                    topicIds().putIfAbsent(fields[1], topicId);
+                    break;
+                }
+                case "add-word":
+                    expect(fields, 3, 3);
+                    vocab.addWord(topicId(fields[1]), fields[2]);
+                    break;
+                case "remove-word":
+                    expect(fields, 3, 3);
+                    vocab.removeWord(topicId(fields[1]), fields[2]);
+                    break;
+                case "rename":
+                    expect(fields, 4, 4);
+                    vocab.changeWord(topicId(fields[1]), fields[2], fields[3]);
+                    break;
+                case "search":
+                    expect(fields, 2, 2);
+                    out.write(fields[1]);
+                    for (String topicName : vocab.searchTopics(fields[1])) {
+                        out.write('\t');
+                        out.write(topicName);
+                    }
+                    out.write('\n');
+                    break;
+                case "similar": {
+                    expect(fields, 2, 3);
+                    int limit = fields.length == 3 ? Integer.parseInt(fields[2]) : SIMILAR_WORDS;
+                    out.write(fields[1]);
+                    for (VocabDoubleList.WordMatch match : vocab.searchSimilar(fields[1], limit)) {
+                        out.write('\t');
+                        out.write(match.word + ":" + match.distance);
+                    }
+                    out.write('\n');
+                    break;
+                }
+                case "stats": {
+                    expect(fields, 1, 2);
+                    int limit = fields.length == 2 ? Integer.parseInt(fields[1]) : STATISTICS_LIMIT;
+                    VocabDoubleList.Statistics statistics = vocab.statistics(limit);
+                    for (VocabDoubleList.WordFrequency frequency : statistics.sharedWords) {
+                        out.write("word\t" + frequency.word + "\t" + frequency.topics + "\t" + frequency.occurrences + "\n");
+                    }
+                    for (VocabDoubleList.TopicOverlap overlap : statistics.overlaps) {
+                        out.write("overlap\t" + vocab.topicName(overlap.topicId) + "\t" + vocab.topicName(overlap.otherTopicId)
+                                + "\t" + overlap.sharedWords + "\t" + String.format(Locale.ROOT, "%.4f", overlap.jaccard) + "\n");
+                    }
+                    break;
+                }
+                case "prefix": {
+                    expect(fields, 2, 3);
+                    // a limited listing is one page, which the query cache can answer
+                    int limit = fields.length == 3 ? Integer.parseInt(fields[2]) : Integer.MAX_VALUE;
+                    Iterator<String> words = fields.length == 3 ? vocab.wordsStartingWith(fields[1], null, limit).iterator()
+                            : vocab.wordsStartingWith(fields[1], null);
+                    out.write(fields[1]);
+                    for (int i = 0; i < limit && words.hasNext(); i++) {
+                        out.write('\t');
+                        out.write(words.next());
+                    }
+                    out.write('\n');
+                    break;
+                }
+                case "match": {
+                    expect(fields, 2, 3);
+                    int limit = fields.length == 3 ? Integer.parseInt(fields[2]) : Integer.MAX_VALUE;
+                    Iterator<String> words = vocab.wordsMatching(fields[1], null);
+                    out.write(fields[1]);
+                    for (int i = 0; i < limit && words.hasNext(); i++) {
+                        out.write('\t');
+                        out.write(words.next());
+                    }
+                    out.write('\n');
+                    break;
+                }
+                case "save":
+                    expect(fields, 2, Integer.MAX_VALUE);
+                    int[] saved = null;
+                    if (fields.length > 2) {
+                        saved = new int[fields.length - 2];
+                        for (int i = 2; i < fields.length; i++) saved[i - 2] = topicId(fields[i]);
+                    }
+                    try {
+                        vocab.exportText(Paths.get(fields[1]), saved, fields[1].endsWith(".gz"));
+                    } catch (IOException e) {
+                        error(command, "cannot save: " + e.getMessage());
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown command '" + fields[0] + "'");
+            }
+        } catch (IllegalArgumentException | NoSuchElementException e) {
+            error(command, e.getMessage());
+        } catch (IOException e) {
+            // the journal refused the edit, nothing later can be persisted either
+            error(command, e.getMessage());
+            throw e;
+        }
+    }
+
+    private void error(Command command, String message) throws IOException {
+        errors++;
+        out.write("error\t" + command.line + "\t" + message + "\n");
+    }
+
+    private static void expect(String[] fields, int min, int max) {
+        if (fields.length < min || fields.length > max) {
+            throw new IllegalArgumentException("wrong number of fields for " + fields[0]);
+        }
+    }
+
+    private int topicId(String name) {
+        Integer topicId = topicIds().get(name);
+        if (topicId == null) throw new NoSuchElementException("no topic named '" + name + "'");
+        return topicId;
+    }
+
+    /**
+     * Returns the topic ids by name, built from the list on first use.
+     */
+    private HashMap<String, Integer> topicIds() {
+        if (topicIds == null) {
+            topicIds = new HashMap<>();
+            for (int number = 1; number <= vocab.topicCount(); number++) {
+                int topicId = vocab.topicIdAt(number);
+                String name = vocab.topicName(topicId);
+                if (name != null) topicIds.putIfAbsent(name, topicId);
+            }
+        }
+        return topicIds;
+    }
+}
@@ -0,0 +1,447 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Micro-benchmarks of the {@link VocabDoubleList} operations, runnable with
+ * nothing but the JDK:
+ * <pre>
+ * java VocabBenchmark [--topics N,...] [--words N,...] [--warmup N] [--iterations N]
+ *                     [--time MS] [--corpus-mb N] [--file PATH] [--only NAME,...]
+ * </pre>
+ * Every benchmark runs once for each combination of topic count and words per
+ * topic, on a vocabulary of generated words built for it. Like a JMH trial,
+ * a run is some warmup iterations whose results are thrown away, then the
+ * measured iterations, each calling the operation over and over for a fixed
+ * time. The score is the mean time per operation with its standard deviation
+ * over the measured iterations. Next to it come the bytes allocated per
+ * operation, summed over all threads so that parallel loading is counted,
+ * and the collections and collection time of the measured iterations.
+ *
+ * "load-file" loads the file given by --file, by default topics1.txt when it
+ * is in the working directory, and ignores the parameters. "load-corpus"
+ * loads a generated file of --corpus-mb megabytes, which may be several
+ * gigabytes, or else of the topic and word counts. Results of the operations are folded into
+ * a volatile sink so the JIT cannot drop them.
+ */
+class VocabBenchmark {
+    private static final int WORD_POOL = 1 << 16;
+
+    private final int[] topicCounts;
+    private final int[] wordCounts;
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationNanos;
+    private final long corpusBytes;
+    private final Path file;
+    private final List<String> only;
+    private final String[] pool;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private Path scratchDir;
+    private volatile int sink;
+
+    /**
+     * Static inner class describing one benchmark: how to build its state
+     * and the operation measured on it.
+     */
+    private abstract static class Benchmark {
+        final String name;
+        /** Whether the state is rebuilt before every iteration, for operations that change it. */
+        final boolean freshStatePerIteration;
+
+        Benchmark(String name, boolean freshStatePerIteration) {
+            this.name = name;
+            this.freshStatePerIteration = freshStatePerIteration;
+        }
+
+        /**
+         * Builds the state the operation runs on, outside of the measurement.
+         */
+        abstract void setup(int topics, int words) throws IOException;
+
+        /**
+         * Runs the operation once.
+         * @param invocation The number of the invocation within the iteration.
+         * @return Any value depending on the result.
+         */
+        abstract int run(int invocation) throws IOException;
+    }
+
+    /**
+     * Static inner class holding the measurements of one iteration.
+     */
+    private static class Sample {
+        final double nanosPerOp;
+        final double bytesPerOp;
+        final long collections;
+        final long collectionMillis;
+
+        Sample(double nanosPerOp, double bytesPerOp, long collections, long collectionMillis) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.collections = collections;
+            this.collectionMillis = collectionMillis;
+        }
+    }
+
+    private VocabBenchmark(int[] topicCounts, int[] wordCounts, int warmupIterations, int iterations,
+            long iterationMillis, long corpusBytes, Path file, List<String> only) {
+        this.topicCounts = topicCounts;
+        this.wordCounts = wordCounts;
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+        this.corpusBytes = corpusBytes;
+        this.file = file;
+        this.only = only;
+        this.pool = new String[WORD_POOL];
+        Random random = new Random(42);
+        for (int i = 0; i < pool.length; i++) pool[i] = randomWord(random);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] topicCounts = {100, 1000};
+        int[] wordCounts = {100, 1000};
+        int warmup = 3;
+        int iterations = 5;
+        long iterationMillis = 1000;
+        long corpusBytes = -1;
+        Path file = Paths.get("topics1.txt");
+        List<String> only = Collections.emptyList();
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--topics":
+                    topicCounts = parseInts(value);
+                    break;
+                case "--words":
+                    wordCounts = parseInts(value);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--time":
+                    iterationMillis = Long.parseLong(value);
+                    break;
+                case "--corpus-mb":
+                    corpusBytes = Long.parseLong(value) << 20;
+                    break;
+                case "--file":
+                    file = Paths.get(value);
+                    break;
+                case "--only":
+                    only = Arrays.asList(value.split(","));
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+            i++;
+        }
+        new VocabBenchmark(topicCounts, wordCounts, warmup, iterations, iterationMillis, corpusBytes, file, only)
+                .runAll();
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private void runAll() throws IOException {
+        scratchDir = Files.createTempDirectory("vocab-bench");
+        try {
+            System.out.printf(Locale.ROOT, "%-14s %7s %6s %14s %12s %14s %6s %8s%n",
+                    "Benchmark", "topics", "words", "us/op", "error", "alloc B/op", "gc", "gc ms");
+            for (Benchmark benchmark : benchmarks()) {
+                if (!only.isEmpty() && !only.contains(benchmark.name)) continue;
+                boolean parameterized = !benchmark.name.equals("load-file");
+                for (int topics : parameterized ? topicCounts : new int[] {topicCounts[0]}) {
+                    for (int words : parameterized ? wordCounts : new int[] {wordCounts[0]}) {
+                        runTrial(benchmark, topics, words, parameterized);
+                    }
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(scratchDir)) {
+                for (Path path : (Iterable<Path>) files::iterator) Files.deleteIfExists(path);
+            }
+            Files.deleteIfExists(scratchDir);
+        }
+    }
+
+    private void runTrial(Benchmark benchmark, int topics, int words, boolean parameterized) throws IOException {
+        ArrayList<Sample> samples = new ArrayList<>();
+        for (int iteration = 0; iteration < warmupIterations + iterations; iteration++) {
+            if (iteration == 0 || benchmark.freshStatePerIteration) benchmark.setup(topics, words);
+            Sample sample = measure(benchmark);
+            if (iteration >= warmupIterations) samples.add(sample);
+        }
+        double mean = 0;
+        double bytes = 0;
+        long collections = 0;
+        long collectionMillis = 0;
+        for (Sample sample : samples) {
+            mean += sample.nanosPerOp / samples.size();
+            bytes += sample.bytesPerOp / samples.size();
+            collections += sample.collections;
+            collectionMillis += sample.collectionMillis;
+        }
+        double variance = 0;
+        for (Sample sample : samples) variance += Math.pow(sample.nanosPerOp - mean, 2);
+        double deviation = samples.size() > 1 ? Math.sqrt(variance / (samples.size() - 1)) : 0;
+        System.out.printf(Locale.ROOT, "%-14s %7s %6s %14.3f %12s %14.0f %6d %8d%n", benchmark.name,
+                parameterized ? Integer.toString(topics) : "-", parameterized ? Integer.toString(words) : "-",
+                mean / 1000, String.format(Locale.ROOT, "+- %.3f", deviation / 1000), bytes, collections,
+                collectionMillis);
+    }
+
+    /**
+     * Runs one iteration: the operation over and over until the iteration time is up.
+     */
+    private Sample measure(Benchmark benchmark) throws IOException {
+        long collections = collectionCount();
+        long collectionMillis = collectionMillis();
+        long allocated = allocatedBytes();
+        int result = 0;
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            result += benchmark.run((int) operations);
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += result;
+        return new Sample((double) elapsed / operations, (double) (allocatedBytes() - allocated) / operations,
+                collectionCount() - collections, collectionMillis() - collectionMillis);
+    }
+
+    private long allocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return 0;
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Returns a vocabulary of generated topics, each holding distinct words of the pool.
+     */
+    private VocabDoubleList vocabulary(int topics, int words) throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        Random random = new Random(topics * 31L + words);
+        for (int t = 0; t < topics; t++) {
+            ArrayList<String> topicWords = new ArrayList<>(words);
+            int first = random.nextInt(pool.length);
+            for (int w = 0; w < words; w++) topicWords.add(pool[(first + w) % pool.length]);
+            vocab.appendTopic("Topic " + t, topicWords);
+        }
+        return vocab;
+    }
+
+    private static String randomWord(Random random) {
+        char[] chars = new char[4 + random.nextInt(8)];
+        for (int i = 0; i < chars.length; i++) chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    /**
+     * Writes a vocabulary file of generated topics of about the given size.
+     */
+    private Path corpus(long bytes, int words) throws IOException {
+        Path path = scratchDir.resolve("corpus-" + bytes + ".txt");
+        if (Files.exists(path)) return path;
+        Random random = new Random(bytes);
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int t = 0; written < bytes; t++) {
+                String header = "#Topic " + t + "\n";
+                writer.write(header);
+                written += header.length();
+                for (int w = 0; w < words && written < bytes; w++) {
+                    String word = pool[random.nextInt(pool.length)];
+                    writer.write(word);
+                    writer.write('\n');
+                    written += word.length() + 1;
+                }
+            }
+        }
+        return path;
+    }
+
+    private List<Benchmark> benchmarks() {
+        ArrayList<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Benchmark("load-file", false) {
+            void setup(int topics, int words) {
+            }
+
+            int run(int invocation) throws IOException {
+                if (!Files.exists(file)) return 0;
+                VocabDoubleList vocab = new VocabDoubleList();
+                vocab.loadFiles(Collections.singletonList(file));
+                return vocab.topicCount();
+            }
+        });
+        benchmarks.add(new Benchmark("load-corpus", false) {
+            Path path;
+
+            void setup(int topics, int words) throws IOException {
+                path = corpus(corpusBytes > 0 ? corpusBytes : (long) topics * words * 8, words);
+            }
+
+            int run(int invocation) throws IOException {
+                VocabDoubleList vocab = new VocabDoubleList();
+                vocab.loadFiles(Collections.singletonList(path));
+                return vocab.topicCount();
+            }
+        });
+        benchmarks.add(new Benchmark("add-word", true) {
+            VocabDoubleList vocab;
+            int topicId;
+
+            void setup(int topics, int words) throws IOException {
+                vocab = vocabulary(topics, words);
+                topicId = vocab.topicIdAt(topics);
+            }
+
+            int run(int invocation) throws IOException {
+                // new words every time, so every call really adds and the topic keeps growing
+                return vocab.addWord(topicId, "new" + invocation) ? 1 : 0;
+            }
+        });
+        benchmarks.add(new Benchmark("word-present", false) {
+            VocabDoubleList vocab;
+            int topicId;
+            List<String> words;
+
+            void setup(int topics, int wordCount) throws IOException {
+                vocab = vocabulary(topics, wordCount);
+                topicId = vocab.topicIdAt(topics);
+                words = vocab.topicWords(topicId);
+            }
+
+            int run(int invocation) throws IOException {
+                // adding a word the topic already holds only checks for it
+                return vocab.addWord(topicId, words.get(invocation % words.size())) ? 1 : 0;
+            }
+        });
+        benchmarks.add(new Benchmark("remove-word", false) {
+            VocabDoubleList vocab;
+            int topicId;
+            List<String> words;
+
+            void setup(int topics, int wordCount) throws IOException {
+                vocab = vocabulary(topics, wordCount);
+                topicId = vocab.topicIdAt(topics);
+                words = vocab.topicWords(topicId);
+            }
+
+            int run(int invocation) throws IOException {
+                // every removed word is added back, so the topic keeps its length
+                String word = words.get(invocation % words.size());
+                return (vocab.removeWord(topicId, word) ? 1 : 0) + (vocab.addWord(topicId, word) ? 1 : 0);
+            }
+        });
+        benchmarks.add(new Benchmark("change-word", false) {
+            VocabDoubleList vocab;
+            int topicId;
+            List<String> words;
+
+            void setup(int topics, int wordCount) throws IOException {
+                vocab = vocabulary(topics, wordCount);
+                topicId = vocab.topicIdAt(topics);
+                words = vocab.topicWords(topicId);
+            }
+
+            int run(int invocation) throws IOException {
+                String word = words.get(invocation % words.size());
+                return (vocab.changeWord(topicId, word, word + "x") ? 1 : 0)
+                        + (vocab.changeWord(topicId, word + "x", word) ? 1 : 0);
+            }
+        });
+        benchmarks.add(new Benchmark("search", false) {
+            VocabDoubleList vocab;
+
+            void setup(int topics, int words) throws IOException {
+                vocab = vocabulary(topics, words);
+            }
+
+            int run(int invocation) {
+                return vocab.searchTopics(pool[invocation * 7919 & (WORD_POOL - 1)]).size();
+            }
+        });
+        benchmarks.add(new Benchmark("prefix-page", false) {
+            VocabDoubleList vocab;
+
+            void setup(int topics, int words) throws IOException {
+                vocab = vocabulary(topics, words);
+            }
+
+            int run(int invocation) {
+                String letter = String.valueOf((char) ('a' + invocation % 26));
+                return vocab.wordsStartingWith(letter, null, 20).size();
+            }
+        });
+        benchmarks.add(new Benchmark("topic-at", false) {
+            VocabDoubleList vocab;
+            int topics;
+
+            void setup(int topics, int words) throws IOException {
+                vocab = vocabulary(topics, words);
+                this.topics = topics;
+            }
+
+            int run(int invocation) {
+                int topicId = vocab.topicIdAt(1 + (int) ((invocation * 2654435761L) % topics));
+                return vocab.topicName(topicId).length();
+            }
+        });
+        benchmarks.add(new Benchmark("save", false) {
+            VocabDoubleList vocab;
+            Path path;
+
+            void setup(int topics, int words) throws IOException {
+                vocab = vocabulary(topics, words);
+                path = scratchDir.resolve("save.txt");
+            }
+
+            int run(int invocation) throws IOException {
+                vocab.saveText(path);
+                return invocation;
+            }
+        });
+        return benchmarks;
+    }
+}
@@ -0,0 +1,1941 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Self-checks of the parts that are easiest to break without noticing,
+ * runnable with nothing but the JDK, like {@link VocabBenchmark}:
+ * <pre>
+ * java VocabChecks [NAME...]
+ * </pre>
+ * Every check runs unless names are given. A check compares the part against
+ * a plain {@link VocabDoubleList} holding the same data, or against a result
+ * worked out by hand, and throws on the first difference. The program prints
+ * one line per check and exits with status 1 if any failed.
+ *
+ * The journal, snapshot and watcher checks work on files in a temporary
+ * directory, deleted once the checks are done.
+ *
+ * "shard-processes" starts two "java VocabConsole --shard 0" processes with
+ * the class path of this one, so it needs the classes compiled side by side.
+ */
+class VocabChecks {
+    private final Random random = new Random(42);
+    private final Map<String, Check> checks = new LinkedHashMap<>();
+    private Path scratchDir;
+
+    /**
+     * One check; it throws an {@link AssertionError} or any exception to fail.
+     */
+    @FunctionalInterface
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    /**
+     * Constructor to initialize the list of checks.
+     */
+    VocabChecks() {
+        checks.put("word-index", this::checkWordIndex);
+        checks.put("word-store", this::checkWordStore);
+        checks.put("topic-positions", this::checkTopicPositions);
+        checks.put("prefix-pages", this::checkPrefixPages);
+        checks.put("streaming-load", this::checkStreamingLoad);
+        checks.put("parallel-load", this::checkParallelLoad);
+        checks.put("journal-torn-tail", this::checkJournalTornTail);
+        checks.put("snapshot-round-trip", this::checkSnapshotRoundTrip);
+        checks.put("snapshot-edits", this::checkSnapshotEdits);
+        checks.put("word-dictionary", this::checkWordDictionary);
+        checks.put("concurrent-edits", this::checkConcurrentEdits);
+        checks.put("console-session", this::checkConsoleSession);
+        checks.put("watcher-match", this::checkWatcherMatch);
+        checks.put("watcher-digest", this::checkWatcherDigest);
+        checks.put("watcher-reload", this::checkWatcherReload);
+        checks.put("watcher-reload-whole", this::checkWatcherReloadWhole);
+        checks.put("versions", this::checkVersions);
+        checks.put("versions-concurrent", this::checkConcurrentVersions);
+        checks.put("batch-failure", this::checkBatchFailure);
+        checks.put("server-pages", this::checkServerPages);
+        checks.put("statistics", this::checkStatistics);
+        checks.put("similar-words", this::checkSimilarWords);
+        checks.put("word-patterns", this::checkWordPatterns);
+        checks.put("query-cache", this::checkQueryCache);
+        checks.put("benchmark-run", this::checkBenchmarkRun);
+        checks.put("metrics", this::checkMetrics);
+        checks.put("lazy-queries", this::checkLazyQueries);
+        checks.put("export", this::checkExport);
+        checks.put("shard-merge-pages", this::checkMergePages);
+        checks.put("shard-encoding", this::checkEncoding);
+        checks.put("shard-pipeline-errors", this::checkPipelineErrors);
+        checks.put("shard-processes", this::checkShardProcesses);
+    }
+
+    public static void main(String[] args) throws IOException {
+        VocabChecks checks = new VocabChecks();
+        List<String> names = args.length == 0 ? new ArrayList<>(checks.checks.keySet()) : List.of(args);
+        for (String name : names) {
+            if (!checks.checks.containsKey(name)) {
+                System.err.println("Unknown check " + name + ", expected one of " + checks.checks.keySet());
+                System.exit(2);
+            }
+        }
+        int failed = checks.runAll(names);
+        System.out.println(failed == 0 ? "All " + names.size() + " checks passed."
+                : failed + " of " + names.size() + " checks failed.");
+        if (failed > 0) System.exit(1);
+    }
+
+    private int runAll(List<String> names) throws IOException {
+        scratchDir = Files.createTempDirectory("vocab-checks");
+        int failed = 0;
+        try {
+            for (String name : names) {
+                long start = System.nanoTime();
+                try {
+                    checks.get(name).run();
+                    System.out.printf("ok      %-24s %6d ms%n", name, (System.nanoTime() - start) / 1_000_000);
+                } catch (Exception | AssertionError e) {
+                    failed++;
+                    System.out.println("FAILED  " + name + ": " + e);
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(scratchDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * After random edits of every kind, searching for a word in any letter
+     * case finds the topics a scan of every topic's words finds, in list order.
+     */
+    private void checkWordIndex() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        List<ModelTopic> model = new ArrayList<>();
+        for (int step = 1; step <= 3000; step++) {
+            editRandomly(vocab, model);
+            if (step % 100 != 0) continue;
+            for (int probe = 0; probe < 40; probe++) {
+                String word = modelWord();
+                List<String> expected = new ArrayList<>();
+                for (ModelTopic topic : model) {
+                    if (indexOfFolded(topic.words, word) >= 0) expected.add(topic.name);
+                }
+                expectEqual(expected, vocab.searchTopics(word), "topics holding " + word + " after " + step + " edits");
+            }
+            expectEqual(listed(model), listed(vocab), "topics after " + step + " edits");
+        }
+    }
+
+    /**
+     * Topics that grow past a thousand words and shrink again through random
+     * adds, removals and renames keep their words in order, page them from
+     * any offset and count them, as a plain list holding the same words does.
+     */
+    private void checkWordStore() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        List<ModelTopic> model = new ArrayList<>();
+        for (int t = 0; t < 3; t++) model.add(new ModelTopic(vocab.appendTopic("T" + t, List.of()), "T" + t, List.of()));
+        for (int step = 1; step <= 20000; step++) {
+            ModelTopic topic = model.get(random.nextInt(model.size()));
+            // unique words grow the topics; the few shared ones are removed and renamed
+            String word = random.nextInt(3) == 0 ? modelWord() : "u" + step;
+            if (step > 12000 && random.nextBoolean() && !topic.words.isEmpty()) {
+                word = topic.words.get(random.nextInt(topic.words.size()));
+            }
+            switch (random.nextInt(step < 8000 ? 4 : 3)) {
+                case 0: {
+                    int at = indexOfFolded(topic.words, word);
+                    expectEqual(at >= 0, vocab.removeWord(topic.id, word), "removing " + word);
+                    if (at >= 0) topic.words.remove(at);
+                    break;
+                }
+                case 1: {
+                    int at = indexOfFolded(topic.words, word);
+                    String newWord = "r" + step;
+                    expectEqual(at >= 0, vocab.changeWord(topic.id, word, newWord), "renaming " + word);
+                    if (at >= 0) topic.words.set(at, newWord);
+                    break;
+                }
+                default: {
+                    boolean absent = indexOfFolded(topic.words, word) < 0;
+                    expectEqual(absent, vocab.addWord(topic.id, word), "adding " + word);
+                    if (absent) topic.words.add(word);
+                    break;
+                }
+            }
+            if (step % 1000 != 0) continue;
+            long total = 0;
+            for (ModelTopic each : model) {
+                total += each.words.size();
+                expectEqual(each.words.size(), vocab.topicWordCount(each.id), "word count of " + each.name);
+                expectEqual(each.words, vocab.topicWords(each.id), "words of " + each.name + " after " + step + " edits");
+                for (int page = 0; page < 5; page++) {
+                    int offset = random.nextInt(each.words.size() + 2);
+                    int limit = random.nextInt(50);
+                    List<String> expected = each.words.subList(Math.min(offset, each.words.size()),
+                            Math.min(offset + limit, each.words.size()));
+                    expectEqual(expected, vocab.topicWords(each.id, offset, limit), "words " + offset + "+" + limit + " of " + each.name);
+                }
+            }
+            expectEqual(total, vocab.wordCount(), "word count after " + step + " edits");
+        }
+    }
+
+    /**
+     * Topic numbers stay in step with a plain list of ids through thousands of
+     * insertions before and after random topics, appends and removals:
+     * every number maps to the id at that place, runs of ids come out in
+     * order, and numbers outside the list map to -1.
+     */
+    private void checkTopicPositions() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        List<Integer> ids = new ArrayList<>();
+        for (int step = 1; step <= 20000; step++) {
+            int index = ids.isEmpty() ? -1 : random.nextInt(ids.size());
+            // more inserts than removals early on, the other way round later
+            int kind = index < 0 ? 0 : random.nextInt(step < 12000 ? 5 : 7);
+            if (kind == 0) {
+                ids.add(vocab.appendTopic("T" + step, List.of()));
+            } else if (kind == 1) {
+                ids.add(index, vocab.insertTopicBefore(ids.get(index), "T" + step, List.of()));
+            } else if (kind == 2) {
+                ids.add(index + 1, vocab.insertTopicAfter(ids.get(index), "T" + step, List.of()));
+            } else {
+                expect(vocab.removeTopic(ids.remove(index)), "topic at " + (index + 1) + " was not removed");
+            }
+            if (step % 2000 != 0 && step > 50) continue;
+            expectEqual(ids.size(), vocab.topicCount(), "topic count after " + step + " edits");
+            for (int number = 1; number <= ids.size(); number++) {
+                if (vocab.topicIdAt(number) != ids.get(number - 1)) {
+                    expectEqual(ids.get(number - 1), vocab.topicIdAt(number), "id of topic " + number + " after " + step + " edits");
+                }
+            }
+            expectEqual(-1, vocab.topicIdAt(0), "id of topic 0");
+            expectEqual(-1, vocab.topicIdAt(ids.size() + 1), "id past the last topic");
+            for (int run = 0; run < 20; run++) {
+                int from = 1 + random.nextInt(ids.size() + 2);
+                int count = random.nextInt(100);
+                List<Integer> expected = ids.subList(Math.min(from - 1, ids.size()), Math.min(from - 1 + count, ids.size()));
+                expectEqual(expected, toList(vocab.topicIds(from, count)), count + " ids from topic " + from);
+            }
+        }
+    }
+
+    /**
+     * Pages of the words starting with a prefix, in any letter case, add up
+     * to the words of every topic holding it, sorted ignoring case with the
+     * forms of a word kept topic by topic in list order; a page holds at
+     * least the limit unless it is the last and never splits a word's forms.
+     */
+    private void checkPrefixPages() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        List<ModelTopic> model = new ArrayList<>();
+        for (int step = 0; step < 1500; step++) editRandomly(vocab, model);
+        for (String prefix : new String[] {"", "w", "W", "w1", "W1", "wA", "w2z", "x"}) {
+            String from = VocabDoubleList.foldWord(prefix);
+            TreeMap<String, List<String>> forms = new TreeMap<>();
+            for (ModelTopic topic : model) {
+                for (String word : topic.words) {
+                    String key = VocabDoubleList.foldWord(word);
+                    if (key.startsWith(from)) forms.computeIfAbsent(key, k -> new ArrayList<>()).add(word);
+                }
+            }
+            List<String> expected = new ArrayList<>();
+            for (List<String> words : forms.values()) expected.addAll(words);
+            expectEqual(expected, all(vocab.wordsStartingWith(prefix, null)), "words starting with " + prefix);
+            for (int limit = 1; limit <= 7; limit += 3) {
+                List<String> pages = new ArrayList<>();
+                String after = null;
+                while (true) {
+                    List<String> page = vocab.wordsStartingWith(prefix, after, limit);
+                    if (!page.isEmpty() && !pages.isEmpty()) {
+                        expect(!VocabDoubleList.foldWord(page.get(0)).equals(VocabDoubleList.foldWord(after)),
+                                "forms of " + after + " split over two pages of " + prefix);
+                    }
+                    pages.addAll(page);
+                    if (page.size() < limit) break;
+                    // the next page starts after the last word, whatever its letter case
+                    String last = page.get(page.size() - 1);
+                    after = random.nextBoolean() ? last.toUpperCase() : last.toLowerCase();
+                }
+                expectEqual(expected, pages, "pages of " + limit + " words starting with " + prefix);
+            }
+        }
+    }
+
+    /**
+     * A file larger than one load chunk, with a topic spanning the chunk
+     * boundary, CRLF and bare line ends, blank and padded lines, non-ASCII
+     * words, words before the first header and no final line end, loads as a
+     * line-by-line reading of it says.
+     */
+    private void checkStreamingLoad() throws IOException {
+        Path file = scratchDir.resolve("streaming.txt");
+        String[] pool = {"alpha", "Beta", "\u00e9t\u00e9", "x y", "\u4e2d\u6587", "in#side", "w"};
+        StringBuilder text = new StringBuilder("before\r\nthe first header\n");
+        for (int t = 0; t < 40; t++) {
+            text.append(t % 3 == 0 ? "#  Topic " : "#Topic ").append(t).append(t % 2 == 0 ? "\r\n" : "\n");
+            text.append(" #padded, so a word\n");
+            // one topic of 20 MB, past the 16 MB load chunk
+            int words = t == 20 ? 2_200_000 : random.nextInt(2000);
+            for (int k = 0; k < words; k++) {
+                String word = pool[random.nextInt(pool.length)] + random.nextInt(50);
+                if (random.nextInt(50) == 0) text.append('\n');
+                text.append(random.nextInt(20) == 0 ? " \t" + word + "  " : word).append(random.nextBoolean() ? "\r\n" : "\n");
+            }
+        }
+        text.append("# Last\nlast word");
+        Files.writeString(file, text);
+
+        List<String> expected = new ArrayList<>();
+        StringBuilder topic = null;
+        for (String line : text.toString().split("\n", -1)) {
+            if (line.startsWith("#")) {
+                if (topic != null) expected.add(topic.toString());
+                topic = new StringBuilder(line.substring(1).trim()).append(':');
+            } else if (topic != null && !line.trim().isEmpty()) {
+                topic.append(' ').append(line.trim());
+            }
+        }
+        expected.add(topic.toString());
+        text = null;
+
+        VocabDoubleList vocab = new VocabDoubleList();
+        vocab.loadFiles(List.of(file));
+        expectEqual(expected.size(), vocab.topicCount(), "topic count");
+        for (int number = 1; number <= expected.size(); number++) {
+            int topicId = vocab.topicIdAt(number);
+            StringBuilder loaded = new StringBuilder(vocab.topicName(topicId)).append(':');
+            for (String word : vocab.topicWords(topicId)) loaded.append(' ').append(word);
+            if (!expected.get(number - 1).contentEquals(loaded)) {
+                String want = expected.get(number - 1);
+                int at = 0;
+                while (at < want.length() && at < loaded.length() && want.charAt(at) == loaded.charAt(at)) at++;
+                throw new AssertionError("topic " + number + " differs at char " + at + ": expected ..."
+                        + want.substring(at, Math.min(want.length(), at + 40)) + " but was ..."
+                        + loaded.substring(at, Math.min(loaded.length(), at + 40)));
+            }
+        }
+    }
+
+    /**
+     * Many files loaded at once, in parallel and after topics already in the
+     * list, load as they do one at a time with a load log, which parses them
+     * in order on the calling thread. A missing file among them loads nothing.
+     */
+    private void checkParallelLoad() throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<String> probes = new ArrayList<>();
+        for (int f = 0; f < 24; f++) {
+            Path file = scratchDir.resolve("parallel" + f + ".txt");
+            List<String> words = writeTopics(file, 2 + random.nextInt(200));
+            probes.addAll(words.subList(0, Math.min(3, words.size())));
+            files.add(file);
+        }
+        VocabDoubleList parallel = new VocabDoubleList();
+        VocabDoubleList ordered = new VocabDoubleList();
+        for (VocabDoubleList vocab : List.of(parallel, ordered)) vocab.appendTopic("Existing", List.of("wexisting"));
+        parallel.loadFiles(files);
+        List<String> logged = new ArrayList<>();
+        ordered.setLoadLog(logged::add);
+        for (Path file : files) ordered.loadFiles(List.of(file));
+        expect(!logged.isEmpty(), "the load log got no lines");
+        expectEqual(listed(ordered), listed(parallel), "topics");
+        for (String probe : probes) {
+            expectEqual(ordered.searchTopics(probe), parallel.searchTopics(probe), "topics holding " + probe);
+        }
+        expectEqual(all(ordered.wordsStartingWith("", null)), all(parallel.wordsStartingWith("", null)), "words");
+
+        List<Path> withMissing = new ArrayList<>(files);
+        withMissing.add(files.size() / 2, scratchDir.resolve("missing.txt"));
+        List<String> before = listed(parallel);
+        try {
+            parallel.loadFiles(withMissing);
+            throw new AssertionError("a missing file loaded");
+        } catch (IOException expected) {
+            expectEqual(before, listed(parallel), "topics after a failed load");
+        }
+    }
+
+    /**
+     * The word dictionary, grown past many resizes by threads interning at
+     * once, gives every distinct word one id that decodes back to it, finds
+     * only the words interned, and maps each id to the id of its lower-case
+     * form; a file loaded a second time adds no words to it.
+     */
+    private void checkWordDictionary() throws Exception {
+        String[] stems = {"w", "Wa", "\u00c9t\u00e9", "\u00e9t\u00e9", "\u4e2d", "x y", ""};
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 60000; i++) words.add(stems[random.nextInt(stems.length)] + Integer.toString(random.nextInt(30000), 36));
+        WordDictionary dictionary = new WordDictionary();
+        Map<String, Integer> ids = new ConcurrentHashMap<>();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int first = t;
+            Thread thread = new Thread(() -> {
+                // every thread interns every word, from a different start
+                for (int i = 0; i < words.size(); i++) {
+                    String word = words.get((first * words.size() / 4 + i) % words.size());
+                    int id = dictionary.intern(word);
+                    Integer known = ids.putIfAbsent(word, id);
+                    if (known != null && known != id) failure.compareAndSet(null, word + " got ids " + known + " and " + id);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        expect(failure.get() == null, failure.get());
+
+        HashSet<String> expected = new HashSet<>(words);
+        for (String word : words) expected.add(word.toLowerCase(Locale.ROOT));
+        expectEqual(expected.size(), dictionary.size(), "distinct words");
+        HashSet<Integer> seen = new HashSet<>();
+        for (String word : expected) {
+            int id = dictionary.find(word);
+            expect(id >= 0 && seen.add(id), word + " has id " + id);
+            expectEqual(word, dictionary.word(id), "word of id " + id);
+            expectEqual(word.getBytes(StandardCharsets.UTF_8).length, dictionary.byteLength(id), "bytes of " + word);
+            expectEqual(dictionary.find(word.toLowerCase(Locale.ROOT)), dictionary.fold(id), "fold of " + word);
+        }
+        expectEqual(-1, dictionary.find("never interned"), "id of a word never interned");
+
+        Path file = scratchDir.resolve("dictionary.txt");
+        writeTopics(file, 300);
+        VocabDoubleList vocab = new VocabDoubleList();
+        vocab.loadFiles(List.of(file));
+        int distinct = vocab.distinctWordCount();
+        vocab.loadFiles(List.of(file));
+        expectEqual(distinct, vocab.distinctWordCount(), "distinct words after loading the file again");
+        for (int number = 1; number <= vocab.topicCount(); number++) {
+            expect(vocab.topicHeapBytes(vocab.topicIdAt(number)) > 0, "heap of topic " + number);
+        }
+    }
+
+    /**
+     * Threads adding, renaming and removing words in topics of their own, next
+     * to a thread inserting and removing topics between them, leave every
+     * topic as a plain list replaying that thread's edits does, while readers
+     * see each topic as it was between two edits. A writer names word n of a
+     * topic "writer-n" and keeps only the last few, so a topic read halfway
+     * through an edit would skip or repeat a number.
+     */
+    private void checkConcurrentEdits() throws Exception {
+        VocabDoubleList vocab = new VocabDoubleList();
+        int writers = 3;
+        int[][] topicIds = new int[writers][2];
+        List<List<List<String>>> models = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            models.add(List.of(new ArrayList<>(), new ArrayList<>()));
+            for (int t = 0; t < 2; t++) topicIds[w][t] = vocab.appendTopic(w + "/" + t, List.of());
+        }
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int n = 0; n < 4000; n++) {
+                        int topicId = topicIds[writer][n % 2];
+                        List<String> model = models.get(writer).get(n % 2);
+                        String word = writer + "-" + n;
+                        expect(vocab.addWord(topicId, word), word + " was not added");
+                        model.add(word);
+                        if (model.size() > 6) {
+                            expect(vocab.removeWord(topicId, model.get(0)), model.get(0) + " was not removed");
+                            model.remove(0);
+                        }
+                        if (n % 7 == 0) {
+                            String renamed = model.get(model.size() / 2) + "r";
+                            expect(vocab.changeWord(topicId, model.get(model.size() / 2), renamed), "word was not renamed");
+                            model.set(model.size() / 2, renamed);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        Thread structure = new Thread(() -> {
+            Random moves = new Random(7);
+            try {
+                while (!done.get()) {
+                    int anchor = topicIds[moves.nextInt(writers)][moves.nextInt(2)];
+                    int topicId = moves.nextBoolean() ? vocab.insertTopicAfter(anchor, "S", List.of("0-0"))
+                            : vocab.insertTopicBefore(anchor, "S", List.of("0-0"));
+                    expect(vocab.removeTopic(topicId), "topic " + topicId + " was not removed");
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        for (Thread thread : threads) thread.start();
+        structure.start();
+        int reads = 0;
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            int writer = random.nextInt(writers);
+            List<String> words = vocab.topicWords(topicIds[writer][random.nextInt(2)]);
+            for (int i = 1; i < words.size(); i++) {
+                int previous = Integer.parseInt(words.get(i - 1).replaceAll("^\\d+-|r$", ""));
+                int next = Integer.parseInt(words.get(i).replaceAll("^\\d+-|r$", ""));
+                expect(next == previous + 2, "words read halfway through an edit: " + words);
+            }
+            int count = vocab.topicCount();
+            expect(count == 2 * writers || count == 2 * writers + 1, "topic count " + count);
+            vocab.searchTopics(writer + "-" + random.nextInt(4000));
+            reads++;
+        }
+        done.set(true);
+        for (Thread thread : threads) thread.join();
+        structure.join();
+        if (!failures.isEmpty()) throw new AssertionError("editing failed", failures.get(0));
+        expect(reads > 0, "nothing read");
+
+        expectEqual(2 * writers, vocab.topicCount(), "topic count");
+        for (int w = 0; w < writers; w++) {
+            for (int t = 0; t < 2; t++) {
+                List<String> model = models.get(w).get(t);
+                expectEqual(model, vocab.topicWords(topicIds[w][t]), "words of topic " + w + "/" + t);
+                for (String word : model) expectEqual(List.of(w + "/" + t), vocab.searchTopics(word), "topics holding " + word);
+            }
+        }
+    }
+
+    /**
+     * Static inner class holding what a topic should hold, for checks that
+     * replay their edits on a plain list next to the vocabulary.
+     */
+    private static class ModelTopic {
+        final int id;
+        final String name;
+        final List<String> words;
+
+        ModelTopic(int id, String name, List<String> words) {
+            this.id = id;
+            this.name = name;
+            this.words = new ArrayList<>(words);
+        }
+    }
+
+    /**
+     * Makes one random edit, of any kind, to a vocabulary and to its model.
+     */
+    private void editRandomly(VocabDoubleList vocab, List<ModelTopic> model) throws IOException {
+        int index = model.isEmpty() ? -1 : random.nextInt(model.size());
+        ModelTopic topic = index < 0 ? null : model.get(index);
+        String name = "T" + random.nextInt(100);
+        List<String> words = new ArrayList<>();
+        for (int k = random.nextInt(6); k > 0; k--) words.add(modelWord());
+        String word = modelWord();
+        switch (topic == null ? 0 : random.nextInt(10)) {
+            case 0:
+                model.add(new ModelTopic(vocab.appendTopic(name, words), name, words));
+                break;
+            case 1:
+                model.add(index, new ModelTopic(vocab.insertTopicBefore(topic.id, name, words), name, words));
+                break;
+            case 2:
+                model.add(index + 1, new ModelTopic(vocab.insertTopicAfter(topic.id, name, words), name, words));
+                break;
+            case 3:
+                expect(vocab.removeTopic(topic.id), "topic " + topic.id + " was not removed");
+                model.remove(index);
+                break;
+            case 4:
+                vocab.replaceWords(topic.id, words);
+                topic.words.clear();
+                topic.words.addAll(words);
+                break;
+            case 5:
+            case 6: {
+                boolean absent = indexOfFolded(topic.words, word) < 0;
+                expectEqual(absent, vocab.addWord(topic.id, word), "adding " + word + " to " + topic.words);
+                if (absent) topic.words.add(word);
+                break;
+            }
+            case 7:
+            case 8: {
+                int at = indexOfFolded(topic.words, word);
+                expectEqual(at >= 0, vocab.removeWord(topic.id, word), "removing " + word + " from " + topic.words);
+                if (at >= 0) topic.words.remove(at);
+                break;
+            }
+            default: {
+                int at = indexOfFolded(topic.words, word);
+                String newWord = modelWord();
+                expectEqual(at >= 0, vocab.changeWord(topic.id, word, newWord), "renaming " + word + " in " + topic.words);
+                if (at >= 0) topic.words.set(at, newWord);
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return A word out of a few dozen, in one of several letter cases.
+     */
+    private String modelWord() {
+        String word = "w" + Integer.toString(random.nextInt(40), 36);
+        switch (random.nextInt(4)) {
+            case 0:
+                return word.toUpperCase();
+            case 1:
+                return "W" + word.substring(1);
+            default:
+                return word;
+        }
+    }
+
+    private static int indexOfFolded(List<String> words, String word) {
+        String key = VocabDoubleList.foldWord(word);
+        for (int i = 0; i < words.size(); i++) {
+            if (VocabDoubleList.foldWord(words.get(i)).equals(key)) return i;
+        }
+        return -1;
+    }
+
+    private static List<String> listed(List<ModelTopic> model) {
+        List<String> lines = new ArrayList<>();
+        for (ModelTopic topic : model) lines.add(topic.id + " " + topic.name + " " + topic.words);
+        return lines;
+    }
+
+    /**
+     * A journal ending in a record cut short replays the records before it,
+     * is truncated where the cut record starts, and takes new records after
+     * them; a replacement of all the words of a topic replays as one edit.
+     */
+    private void checkJournalTornTail() throws IOException {
+        Path snapshot = scratchDir.resolve("torn.snapshot");
+        Path journal = scratchDir.resolve("torn.journal");
+        VocabDoubleList vocab = new VocabDoubleList();
+        vocab.openJournal(snapshot, journal, 1);
+        int topicId = vocab.appendTopic("T", List.of("a"));
+        vocab.addWord(topicId, "b");
+        vocab.closeJournal();
+        long intact = Files.size(journal);
+        // the length of a record and two of its bytes
+        Files.write(journal, new byte[] {0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        vocab = new VocabDoubleList();
+        vocab.openJournal(snapshot, journal, 1);
+        expectEqual(List.of("a", "b"), vocab.topicWords(vocab.topicIdAt(1)), "words replayed before the torn record");
+        expectEqual(intact, Files.size(journal), "journal size after truncating the torn record");
+        vocab.addWord(vocab.topicIdAt(1), "c");
+        vocab.closeJournal();
+
+        vocab = new VocabDoubleList();
+        vocab.openJournal(snapshot, journal, 1);
+        expectEqual(List.of("a", "b", "c"), vocab.topicWords(vocab.topicIdAt(1)), "words replayed after the truncation");
+        vocab.replaceWords(vocab.topicIdAt(1), List.of("x", "y"));
+        vocab.closeJournal();
+
+        vocab = new VocabDoubleList();
+        vocab.openJournal(snapshot, journal, 1);
+        expectEqual(List.of("x", "y"), vocab.topicWords(vocab.topicIdAt(1)), "words replayed after a replacement");
+        expectEqual(1, vocab.topicCount(), "topic count");
+        vocab.closeJournal();
+    }
+
+    /**
+     * A snapshot reads back into the vocabulary it was written from, and a
+     * snapshot with a changed byte or cut short is refused without changing
+     * the vocabulary it was read into.
+     */
+    private void checkSnapshotRoundTrip() throws IOException {
+        Path file = scratchDir.resolve("snapshot.txt");
+        writeTopics(file, 500);
+        VocabDoubleList vocab = new VocabDoubleList();
+        vocab.loadFiles(List.of(file));
+        Path snapshot = scratchDir.resolve("vocab.snapshot");
+        vocab.writeSnapshot(snapshot);
+        String expected = savedText(vocab);
+
+        VocabDoubleList restored = new VocabDoubleList();
+        restored.readSnapshot(snapshot);
+        expectEqual(expected, savedText(restored), "text of the restored vocabulary");
+        expectEqual(vocab.topicCount(), restored.topicCount(), "topic count");
+        expectEqual(vocab.wordCount(), restored.wordCount(), "word count");
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Path bad = scratchDir.resolve("bad.snapshot");
+        for (int position : new int[] {bytes.length / 2, bytes.length - 1}) {
+            byte[] changed = bytes.clone();
+            changed[position] ^= 0x10;
+            Files.write(bad, changed);
+            expectRefused(restored, bad, "byte " + position + " changed");
+            expectEqual(expected, savedText(restored), "text after refusing a changed snapshot");
+        }
+        Files.write(bad, Arrays.copyOf(bytes, bytes.length - 5));
+        expectRefused(restored, bad, "cut short");
+        expectEqual(expected, savedText(restored), "text after refusing a cut snapshot");
+    }
+
+    /**
+     * A snapshot taken after random edits, with removed topics and renamed
+     * words, restores the topic ids, names and words, answers searches as the
+     * edited vocabulary does, and numbers new topics after the restored ones;
+     * an empty vocabulary round-trips too.
+     */
+    private void checkSnapshotEdits() throws IOException {
+        Path snapshot = scratchDir.resolve("edits.snapshot");
+        VocabDoubleList empty = new VocabDoubleList();
+        empty.writeSnapshot(snapshot);
+        VocabDoubleList restored = new VocabDoubleList();
+        restored.appendTopic("Replaced", List.of("gone"));
+        restored.readSnapshot(snapshot);
+        expectEqual(0, restored.topicCount(), "topics restored from an empty snapshot");
+
+        VocabDoubleList vocab = new VocabDoubleList();
+        List<ModelTopic> model = new ArrayList<>();
+        for (int round = 1; round <= 5; round++) {
+            for (int step = 0; step < 400; step++) editRandomly(vocab, model);
+            vocab.writeSnapshot(snapshot);
+            restored = new VocabDoubleList();
+            restored.readSnapshot(snapshot);
+            expectEqual(listed(model), listed(restored), "topics restored in round " + round);
+            for (int probe = 0; probe < 20; probe++) {
+                String word = modelWord();
+                expectEqual(vocab.searchTopics(word), restored.searchTopics(word), "topics holding " + word);
+            }
+            expectEqual(vocab.appendTopic("New", List.of()), restored.appendTopic("New", List.of()), "id of a new topic");
+            model.add(new ModelTopic(vocab.topicIdAt(vocab.topicCount()), "New", List.of()));
+        }
+    }
+
+    private static void expectRefused(VocabDoubleList vocab, Path snapshot, String what) {
+        try {
+            vocab.readSnapshot(snapshot);
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("snapshot " + what + " was read");
+    }
+
+    private String savedText(VocabDoubleList vocab) throws IOException {
+        Path text = scratchDir.resolve("saved.txt");
+        vocab.saveText(text);
+        return Files.readString(text);
+    }
+
+    /**
+     * Topics of a file are paired with the loaded topics of the same name in
+     * turn, a topic out of the order loaded is left unpaired so that it is
+     * moved, and duplicated or renamed topics are left unpaired so that they
+     * are added.
+     */
+    private void checkWatcherMatch() {
+        List<VocabWatcher.TopicEntry> loaded = entries("A", "B", "C", "A");
+        List<VocabWatcher.TopicEntry> topics = entries("B", "A", "C", "A", "D");
+        int[] matches = VocabWatcher.match(loaded, topics);
+        int paired = 0;
+        int last = -1;
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] < 0) continue;
+            expect(matches[i] > last, "pairs out of the order loaded: " + Arrays.toString(matches));
+            expectEqual(loaded.get(matches[i]).name, topics.get(i).name, "name paired with topic " + i);
+            last = matches[i];
+            paired++;
+        }
+        expectEqual(3, paired, "pairs kept of " + Arrays.toString(matches));
+        expectEqual(3, matches[3], "second A paired with the second loaded");
+        expectEqual(-1, matches[4], "new topic");
+
+        expectEqual(List.of(0, -1), toList(VocabWatcher.match(entries("X"), entries("X", "X"))), "duplicated topic");
+        expectEqual(List.of(0, -1, 2), toList(VocabWatcher.match(entries("A", "B", "C"), entries("A", "Bee", "C"))),
+                "renamed topic");
+        expectEqual(List.of(-1, -1), toList(VocabWatcher.match(entries(), entries("A", "A"))), "nothing loaded");
+        expectEqual(List.of(), toList(VocabWatcher.match(entries("A"), entries())), "empty file");
+    }
+
+    private static List<VocabWatcher.TopicEntry> entries(String... names) {
+        List<VocabWatcher.TopicEntry> entries = new ArrayList<>();
+        for (String name : names) entries.add(new VocabWatcher.TopicEntry(name, 0));
+        return entries;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<>();
+        for (int value : values) list.add(value);
+        return list;
+    }
+
+    /**
+     * Digesting a file finds its topics in order, leaves out the lines before
+     * the first, and gives topics with the same lines the same checksums and
+     * topics with other lines other ones, wherever they are in the file.
+     */
+    private void checkWatcherDigest() throws IOException {
+        Path file = scratchDir.resolve("digest.txt");
+        String text = "before\n# A\nalpha\nbeta\n# B \nalpha\n#A\nalpha\nbeta\n# \u00c9t\u00e9\nalpha\nbetb\n#C\n";
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        List<VocabWatcher.TopicEntry> topics;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            topics = VocabWatcher.digest(channel);
+        }
+        VocabDoubleList vocab = new VocabDoubleList();
+        vocab.loadFiles(List.of(file));
+        expectEqual(vocab.topicCount(), topics.size(), "topics found");
+        for (int i = 0; i < topics.size(); i++) {
+            expectEqual(vocab.topicName(vocab.topicIdAt(i + 1)), topics.get(i).name, "name of topic " + i);
+            if (i > 0) expect(topics.get(i).offset > topics.get(i - 1).offset, "offset of topic " + i);
+        }
+        VocabWatcher.TopicEntry first = topics.get(0);
+        VocabWatcher.TopicEntry moved = topics.get(2);
+        expect(first.length == moved.length && first.checksum == moved.checksum, "same lines, other checksums");
+        VocabWatcher.TopicEntry changed = topics.get(3);
+        expect(first.length == changed.length && first.checksum != changed.checksum, "other lines, same checksum");
+        expect(topics.get(1).checksum != first.checksum, "fewer lines, same checksum");
+        expectEqual(0L, topics.get(4).length, "length of an empty topic");
+    }
+
+    /**
+     * Reloading a watched file after topics were moved, changed, duplicated,
+     * renamed and removed leaves the list holding what the file holds, in its
+     * order, and keeps the ids of the topics still in place.
+     */
+    private void checkWatcherReload() throws IOException {
+        Path file = scratchDir.resolve("watched.txt");
+        Files.writeString(file, "# A\na\n# B\nb\n# C\nc\n# E\ne\n# G\ng\n");
+        VocabDoubleList vocab = new VocabDoubleList();
+        try (VocabWatcher watcher = new VocabWatcher(vocab, message -> { })) {
+            watcher.watch(file);
+            expectEqual(Files.readString(file), savedText(vocab), "text after watching");
+            int idOfC = vocab.topicIdAt(3);
+
+            Files.writeString(file, "# B\nb\n# A\na\nx\n# C\nc\n# C\nc\n# F\ne\n");
+            VocabWatcher.Reload reload = watcher.reload(file);
+            expectEqual(Files.readString(file), savedText(vocab), "text after the reload");
+            expectEqual(3, reload.added, "topics added by " + reload);
+            expectEqual(3, reload.removed, "topics removed by " + reload);
+            expectEqual(idOfC, vocab.topicIdAt(3), "id of a topic left in place");
+
+            reload = watcher.reload(file);
+            expectEqual("0 changed, 0 added, 0 removed", reload.toString(), "reload of an unchanged file");
+
+            Files.writeString(file, "# C\nc\nd\n");
+            reload = watcher.reload(file);
+            expectEqual(Files.readString(file), savedText(vocab), "text after removing topics");
+            expectEqual(1, reload.changed, "topics changed by " + reload);
+            expectEqual(idOfC, vocab.topicIdAt(1), "id of the first C");
+        }
+    }
+
+    /**
+     * Versions taken while a file is reloaded back and forth between two
+     * contents hold one of the two, never a reload half applied.
+     */
+    private void checkWatcherReloadWhole() throws Exception {
+        Path file = scratchDir.resolve("watched-whole.txt");
+        String first = "# A\na\n# B\nb\n# C\nc\n# D\nd\n";
+        String second = "# A\nx\n# C\nc\ny\n# E\ne\n# D\nd\n";
+        List<String> firstTopics = List.of("A [a]", "B [b]", "C [c]", "D [d]");
+        List<String> secondTopics = List.of("A [x]", "C [c, y]", "E [e]", "D [d]");
+        Files.writeString(file, first);
+        VocabDoubleList vocab = new VocabDoubleList();
+        try (VocabWatcher watcher = new VocabWatcher(vocab, message -> { })) {
+            watcher.watch(file);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<List<String>> torn = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                while (!done.get() && torn.get() == null) {
+                    try (VocabDoubleList.Version version = vocab.openVersion()) {
+                        List<String> topics = new ArrayList<>();
+                        for (String line : listed(version)) topics.add(line.substring(line.indexOf(' ') + 1));
+                        if (!topics.equals(firstTopics) && !topics.equals(secondTopics)) torn.set(topics);
+                    }
+                }
+            });
+            reader.start();
+            try {
+                for (int round = 0; round < 400 && torn.get() == null; round++) {
+                    Files.writeString(file, round % 2 == 0 ? second : first);
+                    watcher.reload(file);
+                }
+            } finally {
+                done.set(true);
+                reader.join();
+            }
+            expect(torn.get() == null, "version of a reload half applied: " + torn.get());
+        }
+    }
+
+    /**
+     * Versions hold the topics and words as they were when each was taken,
+     * whatever is inserted, removed or edited while they are open, and a
+     * version taken later holds the list as it is then.
+     */
+    private void checkVersions() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        // enough topics for the published order to be changed in place rather than built again
+        for (int t = 0; t < 2000; t++) vocab.appendTopic("S" + t, List.of("w" + t));
+        Map<VocabDoubleList.Version, List<String>> open = new LinkedHashMap<>();
+        for (int step = 0; step < 6000; step++) {
+            int count = vocab.topicCount();
+            // half of the edits go to a few topics, so that they are edited again while versions are open
+            int topicId = count == 0 ? -1 : vocab.topicIdAt(1 + random.nextInt(random.nextBoolean() ? Math.min(count, 20) : count));
+            List<String> words = List.of("w" + random.nextInt(50), "w" + random.nextInt(50));
+            switch (count == 0 ? 0 : random.nextInt(9)) {
+                case 0:
+                    vocab.appendTopic("T" + step, words);
+                    break;
+                case 1:
+                    vocab.insertTopicBefore(topicId, "B" + step, words);
+                    break;
+                case 2:
+                    vocab.insertTopicAfter(topicId, "A" + step, words);
+                    break;
+                case 3:
+                    vocab.removeTopic(topicId);
+                    if (count > 20) vocab.removeTopic(vocab.topicIdAt(1 + random.nextInt(count - 1)));
+                    break;
+                case 4:
+                    vocab.replaceWords(topicId, words);
+                    break;
+                case 5:
+                    vocab.removeWord(topicId, words.get(0));
+                    break;
+                case 6:
+                    vocab.changeWord(topicId, words.get(0), words.get(1) + "x");
+                    break;
+                default:
+                    vocab.addWord(topicId, words.get(0) + "y");
+                    break;
+            }
+            if (random.nextInt(50) == 0) open.put(vocab.openVersion(), listed(vocab));
+            if (random.nextInt(60) == 0 && !open.isEmpty()) {
+                VocabDoubleList.Version version = open.keySet().iterator().next();
+                expectEqual(open.remove(version), listed(version), "version closed at step " + step);
+                version.close();
+            }
+        }
+        for (Map.Entry<VocabDoubleList.Version, List<String>> entry : open.entrySet()) {
+            expectEqual(entry.getValue(), listed(entry.getKey()), "version still open");
+            entry.getKey().close();
+        }
+        try (VocabDoubleList.Version version = vocab.openVersion()) {
+            expectEqual(listed(vocab), listed(version), "version taken last");
+        }
+    }
+
+    private static List<String> listed(VocabDoubleList vocab) {
+        List<String> lines = new ArrayList<>();
+        for (int number = 1; number <= vocab.topicCount(); number++) {
+            int topicId = vocab.topicIdAt(number);
+            lines.add(topicId + " " + vocab.topicName(topicId) + " " + vocab.topicWords(topicId));
+        }
+        return lines;
+    }
+
+    private static List<String> listed(VocabDoubleList.Version version) {
+        List<String> lines = new ArrayList<>();
+        for (int number = 1; number <= version.topicCount(); number++) {
+            lines.add(version.topicIdAt(number) + " " + version.topicNameAt(number) + " " + version.topicWordsAt(number));
+        }
+        return lines;
+    }
+
+    /**
+     * Versions taken while other threads edit hold, for every editing thread,
+     * all of its edits up to some point and none after it. Each thread numbers
+     * its edits, adding word n to one of its topics, or a topic named n
+     * holding it every tenth edit, so the words give away a missing or extra edit.
+     */
+    private void checkConcurrentVersions() throws Exception {
+        VocabDoubleList vocab = new VocabDoubleList();
+        int writers = 2;
+        int topicsPerWriter = 8;
+        int[][] topicIds = new int[writers][topicsPerWriter];
+        for (int w = 0; w < writers; w++) {
+            for (int t = 0; t < topicsPerWriter; t++) topicIds[w][t] = vocab.appendTopic(w + "/" + t, List.of());
+        }
+        long end = System.nanoTime() + 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int n = 1; System.nanoTime() < end; n++) {
+                        if (n % 10 == 0) {
+                            vocab.appendTopic(writer + "/n" + n, List.of(writer + ":" + n));
+                        } else {
+                            vocab.addWord(topicIds[writer][n % topicsPerWriter], writer + ":" + n);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        int versions = 0;
+        while (System.nanoTime() < end) {
+            try (VocabDoubleList.Version version = vocab.openVersion()) {
+                expectPrefixes(version, writers);
+                versions++;
+            }
+        }
+        for (Thread thread : threads) thread.join();
+        if (!failures.isEmpty()) throw new AssertionError("editing failed", failures.get(0));
+        expect(versions > 0, "no version taken");
+    }
+
+    /**
+     * Expects the words of every writer in a version to be its words 1 to some n, each once.
+     */
+    private static void expectPrefixes(VocabDoubleList.Version version, int writers) {
+        List<HashSet<Integer>> seen = new ArrayList<>();
+        for (int w = 0; w < writers; w++) seen.add(new HashSet<>());
+        for (int number = 1; number <= version.topicCount(); number++) {
+            for (String word : version.topicWordsAt(number)) {
+                int colon = word.indexOf(':');
+                int writer = Integer.parseInt(word.substring(0, colon));
+                expect(seen.get(writer).add(Integer.parseInt(word.substring(colon + 1))), "word twice: " + word);
+            }
+        }
+        for (int w = 0; w < writers; w++) {
+            for (int n = 1; n <= seen.get(w).size(); n++) {
+                expect(seen.get(w).contains(n), "writer " + w + " has " + seen.get(w).size() + " edits but not edit " + n);
+            }
+        }
+    }
+
+    /**
+     * A console session typed ahead, with a wrong number retyped and no exit
+     * at the end of the input, makes the edits the same calls to the list
+     * make, prints what it found, and ends where the input ends.
+     */
+    private void checkConsoleSession() throws IOException {
+        Path file = scratchDir.resolve("console.txt");
+        Files.writeString(file, "# Animals\ncat\ndog\n# Colors\nred\nBlue\n# Food\nbread\n");
+        String session = String.join("\n",
+                "7", file.toString(), "n",
+                "2", "two", "3", "Fruit", "apple", "Pear", "",
+                "5", "3", "a", "plum", "a", "APPLE", "r", "pear", "c", "apple", "Apricot", "x", "0",
+                "4", "1",
+                "6", "BLUE",
+                "8", "*r*",
+                "1", "2",
+                "");
+        VocabDoubleList vocab = new VocabDoubleList();
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            new VocabConsole(vocab, new Scanner(session)).run();
+        } finally {
+            System.setOut(out);
+        }
+        String output = printed.toString(StandardCharsets.UTF_8);
+
+        VocabDoubleList expected = new VocabDoubleList();
+        expected.loadFiles(List.of(file));
+        int fruit = expected.insertTopicBefore(expected.topicIdAt(3), "Fruit", List.of("apple", "Pear"));
+        expected.addWord(fruit, "plum");
+        expected.addWord(fruit, "APPLE");
+        expected.removeWord(fruit, "pear");
+        expected.changeWord(fruit, "apple", "Apricot");
+        expected.removeTopic(expected.topicIdAt(1));
+        expectEqual(listed(expected), listed(vocab), "topics after the session");
+        for (String line : new String[] {"Invalid input 'two'", "Sorry, the word: 'APPLE' is already listed.",
+                "Found 'blue' in topic: Colors", "Apricot\nbread\nred\n", "Topic: Fruit\n1. Apricot\n2. plum\n",
+                "End of input. Exiting the program..."}) {
+            expect(output.contains(line), "the session did not print " + line);
+        }
+    }
+
+    /**
+     * A batch run whose output fails stops at the first command and leaves
+     * no reader thread behind, even with more input queued than fits.
+     */
+    private void checkBatchFailure() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 8 * VocabBatch.BATCH_SIZE; i++) input.append("search\tword\n");
+        Writer failing = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("output closed");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        VocabBatch batch = new VocabBatch(new VocabDoubleList(), failing);
+        try {
+            batch.run(new BufferedReader(new StringReader(input.toString())));
+            throw new AssertionError("a failing output was not reported");
+        } catch (IOException e) {
+            expectEqual("output closed", e.getMessage(), "reported failure");
+        }
+        expectEqual(1L, batch.commands(), "commands applied before the failure");
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (readerThreads() > 0) {
+            expect(System.nanoTime() < deadline, "the batch reader thread is still running");
+            Thread.sleep(10);
+        }
+    }
+
+    private static long readerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("vocab-batch-reader")).count();
+    }
+
+    /**
+     * Pages of /match and /prefix fetched one after the other over HTTP hold
+     * every matching word once, keep the letter cases of a word together and
+     * end with a null "next"; a lazily loaded topic whose file shrank gets a
+     * 500 instead of a dropped connection.
+     */
+    private void checkServerPages() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        String[] stems = {"apple", "apply", "ample", "maple", "pineapple", "dapple", "papal"};
+        for (int t = 0; t < 40; t++) {
+            List<String> words = new ArrayList<>();
+            for (int k = random.nextInt(5); k > 0; k--) {
+                String word = stems[random.nextInt(stems.length)] + (random.nextInt(4) == 0 ? "s" : "");
+                if (random.nextInt(3) == 0) word = word.toUpperCase();
+                else if (random.nextBoolean()) word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                words.add(word);
+            }
+            vocab.appendTopic("T" + t, words);
+        }
+        VocabServer server = new VocabServer(vocab, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        try {
+            for (String pattern : new String[] {"*ppl*", "a*e?", "*a*"}) {
+                List<String> expected = new ArrayList<>();
+                vocab.wordsMatching(pattern, null).forEachRemaining(expected::add);
+                for (int limit = 1; limit <= 3; limit++) {
+                    expectEqual(expected, fetchPages(server.port(), "/match?pattern=" + pattern, limit), pattern + " limit " + limit);
+                }
+            }
+            List<String> expected = new ArrayList<>();
+            vocab.wordsStartingWith("ap", null).forEachRemaining(expected::add);
+            expectEqual(expected, fetchPages(server.port(), "/prefix?prefix=ap", 2), "prefix pages");
+        } finally {
+            server.stop(0);
+        }
+
+        Path file = scratchDir.resolve("server-lazy.txt");
+        Files.writeString(file, "# first\napple\n# second\n" + "maple\n".repeat(100));
+        VocabDoubleList lazy = new VocabDoubleList();
+        lazy.loadFilesLazily(List.of(file));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(20);
+        }
+        server = new VocabServer(lazy, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.port()
+                    + "/topics/" + lazy.topicIdAt(2) + "/words").openConnection();
+            expectEqual(500, connection.getResponseCode(), "status for a topic that cannot be read");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Fetches the pages of a /match or /prefix query one after the other and
+     * returns their words, checking that no page splits the letter cases of a word.
+     */
+    private static List<String> fetchPages(int port, String path, int limit) throws IOException {
+        Pattern quoted = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+        List<String> all = new ArrayList<>();
+        String after = null;
+        for (int pages = 0; pages < 1000; pages++) {
+            String url = "http://localhost:" + port + path + "&limit=" + limit
+                    + (after == null ? "" : "&after=" + URLEncoder.encode(after, StandardCharsets.UTF_8));
+            String body;
+            try (InputStream in = new URL(url).openStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            int words = body.indexOf("\"words\":[");
+            int next = body.indexOf("],\"next\":");
+            List<String> page = new ArrayList<>();
+            Matcher matcher = quoted.matcher(body.substring(words + 9, next));
+            while (matcher.find()) page.add(matcher.group(1));
+            expect(!page.isEmpty() || all.isEmpty(), "empty page after " + after + " of " + path);
+            if (!all.isEmpty() && !page.isEmpty()) {
+                expect(!VocabDoubleList.foldWord(all.get(all.size() - 1)).equals(VocabDoubleList.foldWord(page.get(0))),
+                        "letter cases of " + page.get(0) + " split over two pages of " + path);
+            }
+            all.addAll(page);
+            String rest = body.substring(next + 9);
+            if (rest.startsWith("null")) return all;
+            matcher = quoted.matcher(rest);
+            expect(matcher.find(), "no next cursor in " + body);
+            after = matcher.group(1);
+            expectEqual(page.get(page.size() - 1), after, "next cursor of " + path);
+        }
+        throw new AssertionError("pages of " + path + " never end");
+    }
+
+    /**
+     * A gzipped export of a list larger than the export buffer, holding a word
+     * longer than it and topics still on disk, unzips to the saved text; an
+     * export of some topics holds those in list order and loads back into
+     * them; an export naming a missing topic leaves the file as it was.
+     */
+    private void checkExport() throws IOException {
+        Path file = scratchDir.resolve("export.txt");
+        writeTopics(file, 30000);
+        VocabDoubleList vocab = new VocabDoubleList();
+        vocab.loadFilesLazily(List.of(file));
+        for (int number = 1; number <= vocab.topicCount(); number += 7) vocab.addWord(vocab.topicIdAt(number), "wRead");
+        vocab.appendTopic("Long", List.of("x".repeat(3 << 19), "\u00e9t\u00e9"));
+        String saved = savedText(vocab);
+        expect(saved.length() > 2 << 20, "export of " + saved.length() + " chars fits in the buffer");
+
+        Path gzipped = scratchDir.resolve("export.txt.gz");
+        vocab.exportText(gzipped, null, true);
+        expectEqual(saved, gunzipped(gzipped), "gunzipped export");
+
+        List<Integer> chosen = new ArrayList<>();
+        for (int number = 1; number <= vocab.topicCount(); number++) {
+            if (random.nextInt(10) == 0) chosen.add(vocab.topicIdAt(number));
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int topicId : chosen) {
+            expected.append("# ").append(vocab.topicName(topicId)).append('\n');
+            for (String word : vocab.topicWords(topicId)) expected.append(word).append('\n');
+        }
+        Collections.shuffle(chosen, random);
+        int[] topicIds = chosen.stream().mapToInt(Integer::intValue).toArray();
+        vocab.exportText(gzipped, topicIds, true);
+        expectEqual(expected.toString(), gunzipped(gzipped), "gunzipped export of " + topicIds.length + " topics");
+        Path plain = scratchDir.resolve("export-some.txt");
+        vocab.exportText(plain, topicIds, false);
+        expectEqual(expected.toString(), Files.readString(plain), "export of " + topicIds.length + " topics");
+        VocabDoubleList reloaded = new VocabDoubleList();
+        reloaded.loadFiles(List.of(plain));
+        expectEqual(expected.toString(), savedText(reloaded), "topics loaded back from the export");
+
+        byte[] before = Files.readAllBytes(gzipped);
+        try {
+            vocab.exportText(gzipped, new int[] {topicIds[0], -5}, true);
+            throw new AssertionError("a missing topic was exported");
+        } catch (NoSuchElementException e) {
+            expect(Arrays.equals(before, Files.readAllBytes(gzipped)), "a failed export changed the file");
+        }
+        try (Stream<Path> files = Files.list(scratchDir)) {
+            expectEqual(0L, files.filter(path -> path.getFileName().toString().endsWith(".tmp")).count(),
+                    "temporary files left behind");
+        }
+    }
+
+    private static String gunzipped(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The words held by the most topics and the most similar pairs of topics
+     * are those a count over every word and every pair of topics finds,
+     * ignoring case, and a negative limit is refused.
+     */
+    private void checkStatistics() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        String[] pool = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l"};
+        List<List<String>> folded = new ArrayList<>();
+        List<Integer> topicIds = new ArrayList<>();
+        for (int t = 0; t < 60; t++) {
+            List<String> words = new ArrayList<>();
+            for (int k = random.nextInt(8); k > 0; k--) {
+                String word = pool[random.nextInt(random.nextBoolean() ? 4 : pool.length)];
+                words.add(random.nextInt(4) == 0 ? word.toUpperCase() : word);
+            }
+            topicIds.add(vocab.appendTopic("T" + t, words));
+            List<String> folds = new ArrayList<>();
+            for (String word : words) folds.add(VocabDoubleList.foldWord(word));
+            folded.add(folds);
+        }
+        // every folded word: the topics holding it and its occurrences
+        Map<String, long[]> counts = new HashMap<>();
+        long words = 0;
+        for (List<String> folds : folded) {
+            for (String fold : new HashSet<>(folds)) counts.computeIfAbsent(fold, key -> new long[2])[0]++;
+            for (String fold : folds) counts.get(fold)[1]++;
+            words += folds.size();
+        }
+        for (int limit : new int[] {0, 1, 5, 1000}) {
+            VocabDoubleList.Statistics statistics = vocab.statistics(limit);
+            expectEqual(60, statistics.topics, "topics");
+            expectEqual(words, statistics.words, "words");
+            expectEqual(counts.size(), statistics.distinctWords, "distinct words");
+            expectEqual(Math.min(limit, counts.size()), statistics.sharedWords.size(), "shared words of limit " + limit);
+            List<long[]> ranked = new ArrayList<>(counts.values());
+            ranked.sort((count, other) -> Arrays.compare(other, count));
+            for (int k = 0; k < statistics.sharedWords.size(); k++) {
+                VocabDoubleList.WordFrequency frequency = statistics.sharedWords.get(k);
+                long[] count = counts.get(VocabDoubleList.foldWord(frequency.word));
+                expect(count != null, "unknown word " + frequency.word);
+                expectEqual(count[0], (long) frequency.topics, "topics holding " + frequency.word);
+                expectEqual(count[1], frequency.occurrences, "occurrences of " + frequency.word);
+                expectEqual(List.of(ranked.get(k)[0], ranked.get(k)[1]), List.of(count[0], count[1]), "counts of word " + k);
+            }
+
+            // every pair of topics sharing a word, with its Jaccard similarity
+            List<double[]> pairs = new ArrayList<>();
+            for (int i = 0; i < folded.size(); i++) {
+                for (int j = i + 1; j < folded.size(); j++) {
+                    HashSet<String> shared = new HashSet<>(folded.get(i));
+                    shared.retainAll(folded.get(j));
+                    if (shared.isEmpty()) continue;
+                    HashSet<String> all = new HashSet<>(folded.get(i));
+                    all.addAll(folded.get(j));
+                    pairs.add(new double[] {(double) shared.size() / all.size(), shared.size(), i, j});
+                }
+            }
+            expectEqual(Math.min(limit, pairs.size()), statistics.overlaps.size(), "overlaps of limit " + limit);
+            pairs.sort(Comparator.<double[]>comparingDouble(pair -> pair[0]).thenComparingDouble(pair -> pair[1]).reversed());
+            for (int k = 0; k < statistics.overlaps.size(); k++) {
+                VocabDoubleList.TopicOverlap overlap = statistics.overlaps.get(k);
+                int i = topicIds.indexOf(overlap.topicId);
+                int j = topicIds.indexOf(overlap.otherTopicId);
+                double[] pair = pairs.stream().filter(candidate -> candidate[2] == i && candidate[3] == j).findFirst()
+                        .orElseThrow(() -> new AssertionError("topics " + i + " and " + j + " share nothing"));
+                expectEqual(pair[1], (double) overlap.sharedWords, "words shared by " + i + " and " + j);
+                expectEqual(pair[0], overlap.jaccard, "Jaccard similarity of " + i + " and " + j);
+                expectEqual(pairs.get(k)[0], overlap.jaccard, "Jaccard similarity of overlap " + k);
+                expectEqual(pairs.get(k)[1], (double) overlap.sharedWords, "shared words of overlap " + k);
+            }
+        }
+        try {
+            vocab.statistics(-1);
+            throw new AssertionError("negative limit was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Similarity searches find the words a Levenshtein distance computed for
+     * every word of the list finds, ranked the same way, for queries of every
+     * length, including those too short for their trigrams to be looked up,
+     * and leave out words no topic holds any more.
+     */
+    private void checkSimilarWords() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        String letters = "abcab\u00e9";
+        List<Integer> topicIds = new ArrayList<>();
+        for (int t = 0; t < 300; t++) {
+            List<String> words = new ArrayList<>();
+            for (int k = 1 + random.nextInt(6); k > 0; k--) words.add(randomWord(letters, 1 + random.nextInt(10)));
+            topicIds.add(vocab.appendTopic("T" + t, words));
+        }
+        for (int t = 0; t < 300; t += 3) vocab.removeTopic(topicIds.get(t));
+
+        HashSet<String> folded = new HashSet<>();
+        for (int number = 1; number <= vocab.topicCount(); number++) {
+            for (String word : vocab.topicWords(vocab.topicIdAt(number))) folded.add(VocabDoubleList.foldWord(word));
+        }
+        for (int round = 0; round < 400; round++) {
+            String query = randomWord(letters + "AXY", random.nextInt(11));
+            int limit = 1 + random.nextInt(round % 2 == 0 ? 5 : 1000);
+            String key = VocabDoubleList.foldWord(query);
+            int maxDistance = Math.max(1, Math.min(2, key.length() / 4));
+            List<String> expected = new ArrayList<>();
+            for (String word : folded) {
+                if (levenshtein(key, word) <= maxDistance) expected.add(word);
+            }
+            expected.sort(Comparator.<String>comparingInt(word -> levenshtein(key, word)).thenComparing(word -> word));
+            expected = expected.subList(0, Math.min(limit, expected.size()));
+            List<String> found = new ArrayList<>();
+            for (VocabDoubleList.WordMatch match : vocab.searchSimilar(query, limit)) {
+                expectEqual(levenshtein(key, match.word), match.distance, "distance of " + match.word + " from " + query);
+                expectEqual(vocab.searchTopics(match.word), match.topics, "topics holding " + match.word);
+                found.add(match.word);
+            }
+            expectEqual(expected, found, "words similar to '" + query + "' limit " + limit);
+        }
+    }
+
+    /**
+     * Wildcard searches, with a literal prefix, with only trigrams to look up
+     * or with neither, list the words a glob matched against every word of
+     * the list finds, ignoring case, sorted with the forms of a word kept
+     * topic by topic in list order, all at once and page by page, after
+     * words are added, removed and renamed.
+     */
+    private void checkWordPatterns() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        String letters = "abcaB (/";
+        List<ModelTopic> model = new ArrayList<>();
+        for (int t = 0; t < 200; t++) {
+            List<String> words = new ArrayList<>();
+            for (int k = random.nextInt(8); k > 0; k--) words.add(randomWord(letters, 1 + random.nextInt(9)));
+            model.add(new ModelTopic(vocab.appendTopic("T" + t, words), "T" + t, words));
+        }
+        for (int round = 0; round < 300; round++) {
+            ModelTopic topic = model.get(random.nextInt(model.size()));
+            String word = randomWord(letters, 1 + random.nextInt(9));
+            int at = indexOfFolded(topic.words, word);
+            switch (random.nextInt(3)) {
+                case 0:
+                    if (vocab.addWord(topic.id, word)) topic.words.add(word);
+                    break;
+                case 1:
+                    if (at >= 0) topic.words.remove(at);
+                    vocab.removeWord(topic.id, word);
+                    break;
+                default:
+                    if (at >= 0) {
+                        vocab.changeWord(topic.id, topic.words.get(at), word + "x");
+                        topic.words.set(at, word + "x");
+                    }
+                    break;
+            }
+            // a literal prefix, trigrams after a leading '*', or neither
+            String pattern;
+            if (round % 3 == 0) {
+                pattern = randomWord("abc", 3) + randomWord("ab*?", random.nextInt(4));
+            } else if (round % 3 == 1) {
+                pattern = "*" + randomWord("abc (", 3) + randomWord("a*?", random.nextInt(3));
+            } else {
+                pattern = randomWord("a?*", 1 + random.nextInt(4));
+            }
+            if (random.nextBoolean()) pattern = pattern.toUpperCase();
+            StringBuilder regex = new StringBuilder();
+            for (char c : VocabDoubleList.foldWord(pattern).toCharArray()) {
+                regex.append(c == '*' ? ".*" : c == '?' ? "." : Pattern.quote(String.valueOf(c)));
+            }
+            Pattern glob = Pattern.compile(regex.toString(), Pattern.DOTALL);
+            TreeMap<String, List<String>> forms = new TreeMap<>();
+            for (ModelTopic each : model) {
+                for (String form : each.words) {
+                    String key = VocabDoubleList.foldWord(form);
+                    if (glob.matcher(key).matches()) forms.computeIfAbsent(key, k -> new ArrayList<>()).add(form);
+                }
+            }
+            List<String> expected = new ArrayList<>();
+            for (List<String> words : forms.values()) expected.addAll(words);
+            expectEqual(expected, all(vocab.wordsMatching(pattern, null)), "words matching " + pattern);
+            int limit = 1 + random.nextInt(6);
+            List<String> pages = new ArrayList<>();
+            String after = null;
+            while (true) {
+                List<String> page = vocab.wordsMatching(pattern, after, limit);
+                pages.addAll(page);
+                if (page.size() < limit) break;
+                after = page.get(page.size() - 1);
+            }
+            expectEqual(expected, pages, "pages of " + limit + " words matching " + pattern);
+        }
+    }
+
+    /**
+     * With a query cache in front, renaming a word evicts the searches and
+     * prefix pages it changes and keeps the others cached; and through random
+     * edits of every kind, with caches of both policies small enough to evict,
+     * searches and prefix pages answer as the topics' words say.
+     */
+    private void checkQueryCache() throws IOException {
+        VocabDoubleList vocab = new VocabDoubleList();
+        QueryCache cache = QueryCache.parse("lru:100");
+        vocab.setQueryCache(cache);
+        int first = vocab.appendTopic("A", List.of("alpha", "beta"));
+        int second = vocab.appendTopic("B", List.of("zeta"));
+        for (int round = 0; round < 2; round++) {
+            expectEqual(List.of("A"), vocab.searchTopics("alpha"), "topics holding alpha");
+            expectEqual(List.of("B"), vocab.searchTopics("zeta"), "topics holding zeta");
+            expectEqual(List.of("A"), vocab.searchTopics("Beta"), "topics holding Beta");
+            expectEqual(List.of("alpha"), vocab.wordsStartingWith("al", null, 10), "words starting with al");
+            expectEqual(List.of("zeta"), vocab.wordsStartingWith("ze", null, 10), "words starting with ze");
+        }
+        expectEqual(5L, cache.misses(), "misses before the edits");
+        expectEqual(5L, cache.hits(), "hits before the edits");
+        vocab.changeWord(first, "alpha", "Alpine");
+        vocab.addWord(second, "BETA");
+        expectEqual(List.of(), vocab.searchTopics("ALPHA"), "topics holding a renamed word");
+        expectEqual(List.of("A"), vocab.searchTopics("alpine"), "topics holding its new name");
+        expectEqual(List.of("A", "B"), vocab.searchTopics("beta"), "topics holding a word added to a second topic");
+        expectEqual(List.of("Alpine"), vocab.wordsStartingWith("AL", null, 10), "words starting with al after the rename");
+        long hits = cache.hits();
+        expectEqual(List.of("B"), vocab.searchTopics("zeta"), "topics holding zeta after the edits");
+        expectEqual(List.of("zeta"), vocab.wordsStartingWith("ze", null, 10), "words starting with ze after the edits");
+        expectEqual(hits + 2, cache.hits(), "hits for results the edits did not change");
+
+        for (String spec : new String[] {"lru:40", "tinylfu:40", "lru:2kb", "tinylfu:2kb"}) {
+            vocab = new VocabDoubleList();
+            cache = QueryCache.parse(spec);
+            vocab.setQueryCache(cache);
+            List<ModelTopic> model = new ArrayList<>();
+            for (int step = 0; step < 1000; step++) {
+                editRandomly(vocab, model);
+                for (int probe = 0; probe < 2; probe++) {
+                    String word = modelWord();
+                    List<String> expected = new ArrayList<>();
+                    for (ModelTopic topic : model) {
+                        if (indexOfFolded(topic.words, word) >= 0) expected.add(topic.name);
+                    }
+                    expectEqual(expected, vocab.searchTopics(word), spec + ": topics holding " + word + " after " + step + " edits");
+                    String prefix = word.substring(0, random.nextInt(word.length() + 1));
+                    TreeMap<String, List<String>> forms = new TreeMap<>();
+                    for (ModelTopic topic : model) {
+                        for (String form : topic.words) {
+                            String key = VocabDoubleList.foldWord(form);
+                            if (key.startsWith(VocabDoubleList.foldWord(prefix))) forms.computeIfAbsent(key, k -> new ArrayList<>()).add(form);
+                        }
+                    }
+                    expected = new ArrayList<>();
+                    for (List<String> words : forms.values()) expected.addAll(words);
+                    List<String> page = vocab.wordsStartingWith(prefix, null, 8);
+                    expectEqual(expected.subList(0, Math.min(page.size(), expected.size())), page, spec + ": words starting with " + prefix + " after " + step + " edits");
+                    expect(page.size() >= Math.min(8, expected.size()), spec + ": short page of " + prefix);
+                }
+            }
+            expect(cache.hits() > 0 && cache.evictions() > 0 && cache.invalidations() > 0, spec + ": " + cache);
+        }
+    }
+
+    /**
+     * A short benchmark run measures every operation once per topic and word
+     * count, with a time and allocation per operation, and removes the files
+     * it generated.
+     */
+    private void checkBenchmarkRun() throws IOException {
+        Path file = scratchDir.resolve("bench.txt");
+        writeTopics(file, 50);
+        Path temp = Paths.get(System.getProperty("java.io.tmpdir"));
+        long benchDirs;
+        try (Stream<Path> files = Files.list(temp)) {
+            benchDirs = files.filter(path -> path.getFileName().toString().startsWith("vocab-bench")).count();
+        }
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            VocabBenchmark.main(new String[] {"--topics", "3,40", "--words", "5", "--warmup", "1", "--iterations", "2",
+                    "--time", "5", "--file", file.toString()});
+        } finally {
+            System.setOut(out);
+        }
+        List<String> rows = new ArrayList<>(List.of(printed.toString(StandardCharsets.UTF_8).split("\n")));
+        expect(rows.remove(0).startsWith("Benchmark"), "no header in " + rows);
+        List<String> measured = new ArrayList<>();
+        for (String row : rows) {
+            String[] fields = row.trim().split("\\s+");
+            expect(fields.length == 9 && Double.parseDouble(fields[3]) > 0 && Double.parseDouble(fields[6]) >= 0, "row " + row);
+            measured.add(fields[0] + " " + fields[1] + " " + fields[2]);
+        }
+        List<String> expected = new ArrayList<>(List.of("load-file - -"));
+        for (String name : new String[] {"load-corpus", "add-word", "word-present", "remove-word", "change-word", "search",
+                "prefix-page", "topic-at", "save"}) {
+            expected.add(name + " 3 5");
+            expected.add(name + " 40 5");
+        }
+        expectEqual(expected, measured, "benchmarks run");
+        try (Stream<Path> files = Files.list(temp)) {
+            expectEqual(benchDirs, files.filter(path -> path.getFileName().toString().startsWith("vocab-bench")).count(),
+                    "benchmark directories left behind");
+        }
+    }
+
+    /**
+     * Latencies recorded from several threads at once are all counted, with
+     * their exact mean and maximum and every percentile at most a sixteenth
+     * above the true one; a vocabulary times each operation it runs once,
+     * and the gauges and the MBean report its size.
+     */
+    private void checkMetrics() throws Exception {
+        VocabMetrics metrics = new VocabMetrics(new VocabDoubleList());
+        long[] latencies = new long[30000];
+        for (int i = 0; i < latencies.length; i++) latencies[i] = (long) Math.exp(random.nextDouble() * 20);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int first = t;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < latencies.length; i += 3) metrics.record(VocabMetrics.Operation.SEARCH, latencies[i]);
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        Arrays.sort(latencies);
+        expectEqual((long) latencies.length, metrics.count("search"), "latencies counted");
+        expectEqual(Arrays.stream(latencies).sum() / (double) latencies.length / 1000, metrics.meanMicros("search"), "mean");
+        expectEqual(latencies[latencies.length - 1] / 1000.0, metrics.maxMicros("search"), "maximum");
+        for (double percentile : new double[] {0, 1, 50, 90, 99, 99.9, 100}) {
+            long exact = latencies[Math.max(0, (int) Math.ceil(percentile / 100 * latencies.length) - 1)];
+            double reported = metrics.percentileMicros("search", percentile) * 1000;
+            expect(reported >= exact && reported <= exact + exact / 16 + 1,
+                    "percentile " + percentile + " is " + reported + " ns, exactly " + exact + " ns");
+        }
+        metrics.reset();
+        expectEqual(0L, metrics.count("search"), "latencies counted after a reset");
+
+        Path file = scratchDir.resolve("metrics.txt");
+        writeTopics(file, 20);
+        VocabDoubleList vocab = new VocabDoubleList();
+        VocabMetrics timed = new VocabMetrics(vocab);
+        vocab.setMetrics(timed);
+        vocab.loadFiles(List.of(file));
+        int topicId = vocab.appendTopic("Timed", List.of("a", "b"));
+        vocab.insertTopicBefore(topicId, "Before", List.of());
+        for (int i = 0; i < 5; i++) vocab.addWord(topicId, "added" + i);
+        for (int i = 0; i < 3; i++) vocab.removeWord(topicId, "added" + i);
+        vocab.changeWord(topicId, "a", "c");
+        vocab.replaceWords(topicId, List.of("d"));
+        for (int i = 0; i < 4; i++) vocab.searchTopics("w" + i);
+        vocab.wordsStartingWith("w", null, 5);
+        vocab.wordsMatching("w*", null, 5);
+        vocab.saveText(scratchDir.resolve("metrics-saved.txt"));
+        vocab.removeTopic(topicId);
+        Map<String, Long> expected = new LinkedHashMap<>();
+        for (String operation : timed.getOperations()) expected.put(operation, 0L);
+        expected.putAll(Map.of("load", 1L, "insert_topic", 2L, "add_word", 5L, "remove_word", 3L, "change_word", 1L,
+                "replace_words", 1L, "search", 4L, "prefix", 1L, "match", 1L, "save", 1L));
+        expected.put("remove_topic", 1L);
+        Map<String, Long> counted = new LinkedHashMap<>();
+        for (String operation : timed.getOperations()) counted.put(operation, timed.count(operation));
+        expectEqual(expected, counted, "operations timed");
+        expectEqual(vocab.topicCount(), timed.getTopicCount(), "topic count gauge");
+        expectEqual(vocab.wordCount(), timed.getWordCount(), "word count gauge");
+        expectEqual((double) vocab.wordCount() / vocab.topicCount(), timed.getAverageTopicLength(), "average topic length");
+        expect(timed.getReport().contains("search       count=4 "), "report " + timed.getReport());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        timed.register();
+        try {
+            ObjectName name = new ObjectName(VocabMetrics.OBJECT_NAME);
+            expectEqual(vocab.topicCount(), server.getAttribute(name, "TopicCount"), "topic count read through JMX");
+            expectEqual(4L, server.invoke(name, "count", new Object[] {"search"}, new String[] {"java.lang.String"}),
+                    "searches counted through JMX");
+        } finally {
+            timed.unregister();
+        }
+    }
+
+    /**
+     * A list loaded lazily, with some topics read in, some edited and the
+     * rest still on disk, lists the same words by prefix and pattern, page by
+     * page and all at once, and finds the same similar words as the list
+     * loaded whole.
+     */
+    private void checkLazyQueries() throws IOException {
+        Path file = scratchDir.resolve("lazy.txt");
+        List<String> probes = writeTopics(file, 400);
+        VocabDoubleList whole = new VocabDoubleList();
+        whole.loadFiles(List.of(file));
+        VocabDoubleList lazy = new VocabDoubleList();
+        lazy.loadFilesLazily(List.of(file));
+        lazy.setTopicBudget(4096);
+        for (int round = 0; round < 60; round++) {
+            int number = 1 + random.nextInt(whole.topicCount());
+            expectEqual(whole.topicWords(whole.topicIdAt(number)), lazy.topicWords(lazy.topicIdAt(number)), "words of topic " + number);
+            if (round % 10 == 0) {
+                whole.addWord(whole.topicIdAt(number), "wEdited" + round);
+                lazy.addWord(lazy.topicIdAt(number), "wEdited" + round);
+            }
+        }
+        for (String prefix : new String[] {"", "w", "W1", "we", "w2z", "missing"}) {
+            expectEqual(all(whole.wordsStartingWith(prefix, null)), all(lazy.wordsStartingWith(prefix, null)), "words starting with " + prefix);
+            int limit = 1 + random.nextInt(40);
+            String after = null;
+            for (List<String> page = whole.wordsStartingWith(prefix, null, limit); ; ) {
+                expectEqual(page, lazy.wordsStartingWith(prefix, after, limit), "page after " + after + " of " + prefix);
+                if (page.size() < limit) break;
+                after = page.get(page.size() - 1);
+                page = whole.wordsStartingWith(prefix, after, limit);
+            }
+        }
+        for (String pattern : new String[] {"*1?", "w*a*", "?1*", "*edited*", "w??", "*tab*"}) {
+            expectEqual(all(whole.wordsMatching(pattern, null)), all(lazy.wordsMatching(pattern, null)), "words matching " + pattern);
+            int limit = 1 + random.nextInt(40);
+            String after = null;
+            for (List<String> page = whole.wordsMatching(pattern, null, limit); ; ) {
+                expectEqual(page, lazy.wordsMatching(pattern, after, limit), "page after " + after + " of " + pattern);
+                if (page.size() < limit) break;
+                after = page.get(page.size() - 1);
+                page = whole.wordsMatching(pattern, after, limit);
+            }
+        }
+        for (String probe : probes.subList(0, Math.min(80, probes.size()))) {
+            List<String> expected = new ArrayList<>();
+            for (VocabDoubleList.WordMatch match : whole.searchSimilar(probe, 8)) expected.add(match.word + " " + match.distance + " " + match.topics);
+            List<String> found = new ArrayList<>();
+            for (VocabDoubleList.WordMatch match : lazy.searchSimilar(probe, 8)) found.add(match.word + " " + match.distance + " " + match.topics);
+            expectEqual(expected, found, "words similar to " + probe);
+        }
+    }
+
+    private static List<String> all(Iterator<String> words) {
+        List<String> list = new ArrayList<>();
+        words.forEachRemaining(list::add);
+        return list;
+    }
+
+    private String randomWord(String letters, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) word.append(letters.charAt(random.nextInt(letters.length())));
+        return word.toString();
+    }
+
+    private static int levenshtein(String word, String other) {
+        int[] row = new int[other.length() + 1];
+        for (int j = 0; j <= other.length(); j++) row[j] = j;
+        for (int i = 1; i <= word.length(); i++) {
+            int diagonal = row[0];
+            row[0] = i;
+            for (int j = 1; j <= other.length(); j++) {
+                int above = row[j];
+                row[j] = Math.min(Math.min(row[j] + 1, row[j - 1] + 1), diagonal + (word.charAt(i - 1) == other.charAt(j - 1) ? 0 : 1));
+                diagonal = above;
+            }
+        }
+        return row[other.length()];
+    }
+
+    /**
+     * Pages merged from several shards hold what one list of all the words
+     * holds, in the same order of fold keys, and end only where the fold key
+     * changes, however the letter cases of a word are spread over the shards.
+     */
+    private void checkMergePages() {
+        List<List<String>> pages = List.of(List.of("apple", "Banana", "banana"), List.of("BANANA", "cherry"), List.of());
+        expectEqual(List.of("apple", "Banana", "banana", "BANANA"), VocabShardRouter.mergePages(pages, 2), "cut at a word");
+        expectEqual(List.of("apple"), VocabShardRouter.mergePages(pages, 1), "cut before a word");
+        expectEqual(List.of(), VocabShardRouter.mergePages(pages, 0), "empty page");
+
+        String[] forms = {"ab", "Ab", "AB", "abc", "b", "B", "ba", "c"};
+        for (int round = 0; round < 500; round++) {
+            int shardCount = 1 + random.nextInt(4);
+            List<List<String>> shards = new ArrayList<>();
+            List<String> all = new ArrayList<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                List<String> words = new ArrayList<>();
+                for (int i = random.nextInt(8); i > 0; i--) words.add(forms[random.nextInt(forms.length)]);
+                words.sort(Comparator.comparing(VocabDoubleList::foldWord));
+                shards.add(words);
+                all.addAll(words);
+            }
+            all.sort(Comparator.comparing(VocabDoubleList::foldWord));
+            int limit = random.nextInt(10);
+            List<String> page = VocabShardRouter.mergePages(shards, limit);
+            int expected = Math.min(limit, all.size());
+            while (expected > 0 && expected < all.size()
+                    && VocabDoubleList.foldWord(all.get(expected)).equals(VocabDoubleList.foldWord(all.get(expected - 1)))) {
+                expected++;
+            }
+            expectEqual(expected, page.size(), "page size of " + shards + " limit " + limit);
+            for (int i = 0; i < page.size(); i++) {
+                expectEqual(VocabDoubleList.foldWord(all.get(i)), VocabDoubleList.foldWord(page.get(i)),
+                        "word " + i + " of " + shards + " limit " + limit);
+            }
+        }
+    }
+
+    /**
+     * Fields holding the escape character, the separators and line breaks,
+     * empty fields and a trailing backslash come back as they were sent.
+     */
+    private void checkEncoding() {
+        String[] pieces = {"", "a", "\\", "\t", "\n", "\r", "\\t", "\\n", " ", "\u00e9", "\\\\"};
+        for (int round = 0; round < 2000; round++) {
+            String[] fields = new String[1 + random.nextInt(5)];
+            for (int i = 0; i < fields.length; i++) {
+                StringBuilder field = new StringBuilder();
+                for (int j = random.nextInt(5); j > 0; j--) field.append(pieces[random.nextInt(pieces.length)]);
+                fields[i] = field.toString();
+            }
+            String line = VocabShardServer.encode(fields);
+            expect(line.indexOf('\n') < 0 && line.indexOf('\r') < 0, "line break in " + line);
+            expectEqual(List.of(fields), List.of(VocabShardServer.decode(line)), "round trip of " + line);
+        }
+    }
+
+    /**
+     * A topic refused in the middle of a pipelined run fails the append with
+     * the refusal, keeps the rest of its run, stops later runs and leaves the
+     * connection usable.
+     */
+    private void checkPipelineErrors() throws IOException {
+        VocabShard refusing = new VocabShard.Local(new VocabDoubleList()) {
+            @Override
+            public void appendTopics(List<String> names, List<List<String>> words) throws IOException {
+                for (String name : names) {
+                    if (name.equals("io")) throw new IOException("refused " + name);
+                    if (name.equals("arg")) throw new IllegalArgumentException("refused " + name);
+                }
+                super.appendTopics(names, words);
+            }
+        };
+        VocabShardServer server = new VocabShardServer(refusing, 0);
+        server.start();
+        try (VocabShard.Remote remote = VocabShard.Remote.parse(Integer.toString(server.port()))) {
+            int run = VocabShard.Remote.PIPELINE;
+            List<String> names = new ArrayList<>();
+            List<List<String>> words = new ArrayList<>();
+            for (int i = 0; i < 2 * run + 10; i++) {
+                names.add(i == 5 ? "io" : i == 7 ? "arg" : "t" + i);
+                words.add(List.of("w" + i, "tab\there"));
+            }
+            try {
+                remote.appendTopics(names, words);
+                throw new AssertionError("refused topics were not reported");
+            } catch (IOException e) {
+                expect(e.getMessage().contains("refused io"), "first refusal expected, got " + e.getMessage());
+            }
+            expectEqual(run - 2, remote.topicCount(), "topics kept from the refused run");
+            expectEqual(List.of("t9"), remote.searchTopics("w9"), "word of a kept topic");
+            try {
+                remote.appendTopics(List.of("ok", "arg"), List.of(List.of(), List.of()));
+                throw new AssertionError("invalid topic was not reported");
+            } catch (IllegalArgumentException e) {
+                expect(e.getMessage().contains("refused arg"), "invalid refusal expected, got " + e.getMessage());
+            }
+            expectEqual(run - 1, remote.topicCount(), "topics after the second append");
+        } finally {
+            server.stop(1);
+        }
+    }
+
+    /**
+     * Two shard processes loaded through a router answer searches and pages of
+     * prefixes like one list holding the whole file.
+     */
+    private void checkShardProcesses() throws Exception {
+        Path file = scratchDir.resolve("shards.txt");
+        List<String> probes = writeTopics(file, 2000);
+        VocabDoubleList single = new VocabDoubleList();
+        single.loadFiles(List.of(file));
+
+        List<Process> processes = new ArrayList<>();
+        List<VocabShard> shards = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), "VocabConsole", "--shard", "0")
+                        .redirectErrorStream(true).start();
+                processes.add(process);
+                shards.add(VocabShard.Remote.parse(Integer.toString(shardPort(process))));
+            }
+            try (VocabShardRouter router = new VocabShardRouter(shards)) {
+                router.loadFiles(List.of(file));
+                expectEqual(single.topicCount(), router.topicCount(), "topic count");
+                expectEqual(single.wordCount(), router.wordCount(), "word count");
+                for (String word : probes) {
+                    List<String> expected = single.searchTopics(word);
+                    expected.sort(VocabShard.TOPIC_ORDER);
+                    expectEqual(expected, router.searchTopics(word), "search " + word);
+                }
+                for (String prefix : List.of("w", "W1", "wa", "x")) {
+                    for (int limit : new int[] {1, 7, 100}) comparePages(single, router, prefix, limit);
+                }
+            }
+        } finally {
+            for (Process process : processes) process.destroy();
+            for (Process process : processes) process.waitFor();
+        }
+    }
+
+    private static int shardPort(Process process) throws IOException {
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.startsWith("Serving shard on port ")) return Integer.parseInt(line.substring(22).trim());
+        }
+        throw new IOException("Shard process ended without serving");
+    }
+
+    /**
+     * Pages through the words starting with a prefix on both, expecting the
+     * same words on every page; letter cases of one word may come in any order.
+     */
+    private static void comparePages(VocabDoubleList single, VocabShard router, String prefix, int limit) throws IOException {
+        String after = null;
+        while (true) {
+            List<String> expected = single.wordsStartingWith(prefix, after, limit);
+            List<String> page = router.wordsStartingWith(prefix, after, limit);
+            List<String> sortedExpected = new ArrayList<>(expected);
+            List<String> sortedPage = new ArrayList<>(page);
+            Collections.sort(sortedExpected);
+            Collections.sort(sortedPage);
+            expectEqual(sortedExpected, sortedPage, "page of '" + prefix + "' after " + after + " limit " + limit);
+            if (page.isEmpty()) return;
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    /**
+     * Writes a vocabulary file of random topics, with repeated names, letter
+     * cases of one word, padded lines and words holding tabs and backslashes.
+     * @return Some of its words, to search for.
+     */
+    private List<String> writeTopics(Path file, int topics) throws IOException {
+        StringBuilder text = new StringBuilder("skipped before the first topic\n");
+        List<String> probes = new ArrayList<>();
+        for (int t = 0; t < topics; t++) {
+            text.append("# Topic ").append(random.nextInt(topics * 3 / 4)).append('\n');
+            for (int k = random.nextInt(12); k >= 0; k--) {
+                String word = "w" + Integer.toString(random.nextInt(5000), 36);
+                if (random.nextInt(5) == 0) word = word.toUpperCase();
+                if (random.nextInt(9) == 0) word = word + " tab\there\\";
+                text.append(random.nextBoolean() ? "  " : "").append(word).append(" \n");
+                if (probes.size() < 300 && random.nextInt(4) == 0) probes.add(word);
+            }
+        }
+        probes.add("missing");
+        Files.writeString(file, text);
+        return probes;
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    private static void expectEqual(Object expected, Object actual, String what) {
+        if (!expected.equals(actual)) throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,834 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import javax.management.JMException;
+
+/**
+ * The interactive console menu for a {@link VocabDoubleList}. It is a thin
+ * client: it reads choices and arguments through one Scanner shared by the
+ * whole session, calls the public methods of the list and prints the results.
+ */
+public class VocabConsole {
+    private static final int WORDS_PER_PAGE = 20;
+    private static final int SIMILAR_WORDS = 5;
+    private static final String USAGE = "Usage: java VocabConsole [-v] [--data-dir DIR [--sync-every N]] [--batch FILE|-]"
+            + " [--serve PORT] [--shard PORT] [--cache POLICY:SIZE] [--metrics SECONDS] [--lazy MEGABYTES] [--merge]"
+            + " [--watch] [file...]";
+    private final VocabDoubleList vocab;
+    private final Scanner scanner;
+    /**
+     * Constructor to initialize the console over a vocabulary and an input.
+     * @param vocab The vocabulary to drive.
+     * @param scanner The input the user's answers are read from.
+     */
+    public VocabConsole(VocabDoubleList vocab, Scanner scanner) {
+        this.vocab = vocab;
+        this.scanner = scanner;
+    }
+    /**
+     * The main method that drives the vocabulary management system.
+     * Usage: {@code java VocabDoubleList [-v] [--data-dir DIR [--sync-every N]] [--batch FILE|-] [--serve PORT] [--shard PORT] [--cache POLICY:SIZE] [--metrics SECONDS] [--lazy MEGABYTES] [--merge] [--watch] [file...]}.
+     * With a data directory, the vocabulary is restored from its snapshot and
+     * journal there and every edit is journaled; the files given are only
+     * loaded while the directory holds neither yet. With {@code --batch}, the
+     * commands of the file, or of standard input for "-", are applied by
+     * {@link VocabBatch} instead of showing the menu; results go to standard
+     * output and messages to standard error, and unless {@code --sync-every}
+     * is given the journal is synced once per batch. With {@code --serve},
+     * the vocabulary is answered over HTTP by {@link VocabServer} until the
+     * process is stopped; port 0 picks a free port. With {@code --shard}, it
+     * is served likewise on the loopback address by {@link VocabShardServer},
+     * as one shard of a {@link VocabShardRouter}. With {@code --cache},
+     * searches and prefix pages are cached; see {@link QueryCache#parse(String)}.
+     * With {@code --metrics}, operations are timed into {@link VocabMetrics},
+     * published over JMX and, unless SECONDS is 0, reported on standard error
+     * that often. With {@code --lazy}, the files only have their topic headers
+     * read at startup, and topics read in later are dropped again beyond the
+     * given budget, 0 for none; see {@link VocabDoubleList#loadFilesLazily(List)}.
+     * With {@code --merge}, topics of the files that share a name are merged
+     * and duplicate words skipped; see {@link VocabDoubleList#mergeFiles(List)}.
+     * With {@code --watch}, the topics of a file are reloaded whenever it
+     * changes; see {@link VocabWatcher}. It cannot be combined with the two above.
+     */
+    public static void main(String[] args) {
+        VocabDoubleList vocabManager = new VocabDoubleList();
+        ArrayList<Path> startupFiles = new ArrayList<>();
+        Path dataDir = null;
+        int syncEvery = -1;
+        String batchFile = null;
+        int servePort = -1;
+        int shardPort = -1;
+        long metricsPeriod = -1;
+        long lazyBudget = -1;
+        boolean merge = false;
+        boolean watch = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-v")) {
+                vocabManager.setLoadLog(System.out::println);
+            } else if (args[i].equals("--data-dir") && i + 1 < args.length) {
+                dataDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--sync-every") && i + 1 < args.length) {
+                syncEvery = (int) numberOption(args[i], args[++i], Integer.MAX_VALUE);
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchFile = args[++i];
+            } else if (args[i].equals("--serve") && i + 1 < args.length) {
+                servePort = (int) numberOption(args[i], args[++i], 65535);
+            } else if (args[i].equals("--shard") && i + 1 < args.length) {
+                shardPort = (int) numberOption(args[i], args[++i], 65535);
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                try {
+                    vocabManager.setQueryCache(QueryCache.parse(args[++i]));
+                } catch (IllegalArgumentException e) {
+                    usageError("--cache: " + e.getMessage());
+                }
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsPeriod = numberOption(args[i], args[++i], Long.MAX_VALUE);
+            } else if (args[i].equals("--lazy") && i + 1 < args.length) {
+                lazyBudget = numberOption(args[i], args[++i], Long.MAX_VALUE >> 20) << 20;
+            } else if (args[i].equals("--merge")) {
+                merge = true;
+            } else if (args[i].equals("--watch")) {
+                watch = true;
+            } else {
+                startupFiles.add(Paths.get(args[i]));
+            }
+        }
+        PrintStream messages = batchFile == null ? System.out : System.err;
+        if (syncEvery < 0) syncEvery = batchFile == null ? 1 : 0;
+        if (metricsPeriod >= 0) startMetrics(vocabManager, metricsPeriod, messages);
+        if (dataDir != null) {
+            Path snapshot = dataDir.resolve("vocab.snapshot");
+            Path journalFile = dataDir.resolve("vocab.journal");
+            try {
+                // the files given were loaded into the data directory on an earlier run
+                boolean restored = Files.exists(snapshot) || VocabJournal.hasRecords(journalFile);
+                Files.createDirectories(dataDir);
+                vocabManager.openJournal(snapshot, journalFile, syncEvery);
+                messages.println("Journaling edits to " + dataDir + ".");
+                if (restored && !startupFiles.isEmpty()) {
+                    messages.println("Restored the vocabulary from " + dataDir + "; not loading the files given again.");
+                    startupFiles.clear();
+                }
+            } catch (IOException e) {
+                messages.println("Error opening journal: " + e.getMessage());
+            }
+        }
+        if (watch && (merge || lazyBudget >= 0)) {
+            messages.println("--watch cannot be combined with --merge or --lazy; not watching.");
+            watch = false;
+        }
+        VocabWatcher watcher = null;
+        if (!startupFiles.isEmpty()) {
+            try {
+                if (watch) {
+                    watcher = new VocabWatcher(vocabManager, messages::println);
+                    watcher.start();
+                    for (Path file : startupFiles) watcher.watch(file);
+                } else if (merge) {
+                    vocabManager.mergeFiles(startupFiles);
+                } else if (lazyBudget < 0) {
+                    vocabManager.loadFiles(startupFiles);
+                } else {
+                    vocabManager.setTopicBudget(lazyBudget == 0 ? Long.MAX_VALUE : lazyBudget);
+                    vocabManager.loadFilesLazily(startupFiles);
+                }
+                messages.println("Loaded " + startupFiles.size() + " file(s).");
+            } catch (IOException e) {
+                messages.println("Error loading files: " + e.getMessage()
+                        + " (" + vocabManager.topicCount() + " topic(s) in the vocabulary now)");
+            }
+        }
+        if (servePort >= 0) {
+            serve(vocabManager, servePort);
+            return;
+        }
+        if (shardPort >= 0) {
+            serveShard(vocabManager, shardPort);
+            return;
+        }
+        if (batchFile == null) {
+            try (Scanner scanner = new Scanner(System.in)) {
+                new VocabConsole(vocabManager, scanner).run();
+            }
+        } else {
+            runBatch(vocabManager, batchFile);
+        }
+        try {
+            if (watcher != null) watcher.close();
+            vocabManager.closeJournal();
+        } catch (IOException e) {
+            messages.println("Error closing journal: " + e.getMessage());
+        }
+    }
+    /**
+     * Starts timing the operations of the vocabulary and publishes the metrics.
+     * @param vocabManager The vocabulary to time.
+     * @param periodSeconds How often the report is printed to standard error, 0 for never.
+     * @param messages Where a failure to register the MBean is reported.
+     */
+    private static void startMetrics(VocabDoubleList vocabManager, long periodSeconds, PrintStream messages) {
+        VocabMetrics metrics = new VocabMetrics(vocabManager);
+        vocabManager.setMetrics(metrics);
+        try {
+            metrics.register();
+        } catch (JMException e) {
+            messages.println("Error publishing metrics over JMX: " + e.getMessage());
+        }
+        if (periodSeconds > 0) metrics.startDump(periodSeconds, System.err::print);
+    }
+    /**
+     * Applies a command file with {@link VocabBatch} and reports how it went on standard error.
+     * @param vocabManager The vocabulary to edit.
+     * @param batchFile The command file, or "-" for standard input.
+     */
+    private static void runBatch(VocabDoubleList vocabManager, String batchFile) {
+        long start = System.nanoTime();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        VocabBatch batch = new VocabBatch(vocabManager, out);
+        try (BufferedReader in = batchFile.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedReader(Paths.get(batchFile), StandardCharsets.UTF_8)) {
+            batch.run(in);
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Error running batch: " + e.getMessage());
+        }
+        System.err.println("Applied " + batch.commands() + " command(s) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms, " + batch.errors() + " error(s).");
+    }
+    /**
+     * Serves the vocabulary over HTTP until the process is stopped, then
+     * closes the journal from a shutdown hook.
+     * @param vocabManager The vocabulary to serve.
+     * @param port The port to listen on, 0 for any free port.
+     */
+    private static void serve(VocabDoubleList vocabManager, int port) {
+        VocabServer server;
+        try {
+            server = new VocabServer(vocabManager, new InetSocketAddress(port));
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            try {
+                vocabManager.closeJournal();
+            } catch (IOException e) {
+                System.out.println("Error closing journal: " + e.getMessage());
+            }
+        }, "vocab-shutdown"));
+        server.start();
+        System.out.println("Serving on http://localhost:" + server.port() + "/");
+    }
+    /**
+     * Parses the value of a numeric option, reporting a usage error unless it
+     * is a number from 0 to the given maximum.
+     * @param option The option, for the message.
+     * @param value The value given.
+     * @param max The largest value allowed.
+     * @return The number.
+     */
+    private static long numberOption(String option, String value, long max) {
+        try {
+            long number = Long.parseLong(value.trim());
+            if (number >= 0 && number <= max) return number;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        usageError(option + " expects a number from 0 to " + max + ", got '" + value + "'");
+        return -1;
+    }
+    /**
+     * Reports a bad command line with the usage and exits.
+     * @param message What is wrong.
+     */
+    private static void usageError(String message) {
+        System.err.println(message);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+    /**
+     * Serves the vocabulary as a shard in the background, closing the journal
+     * when the process is stopped.
+     * @param vocabManager The vocabulary to serve.
+     * @param port The loopback port to listen on; 0 picks a free port.
+     */
+    private static void serveShard(VocabDoubleList vocabManager, int port) {
+        VocabShardServer server;
+        try {
+            server = new VocabShardServer(new VocabShard.Local(vocabManager), port);
+        } catch (IOException e) {
+            System.out.println("Error starting shard server: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            try {
+                vocabManager.closeJournal();
+            } catch (IOException e) {
+                System.out.println("Error closing journal: " + e.getMessage());
+            }
+        }, "vocab-shutdown"));
+        server.start();
+        System.out.println("Serving shard on port " + server.port());
+    }
+    /**
+     * Shows the menu and runs the chosen options until the user exits or the input ends.
+     */
+    public void run() {
+        int choice = -1;
+
+        do {
+            try {
+                displayMenu();
+                choice = readNumber();
+                switch (choice) {
+                    case 1:
+                        browseTopic();
+                        break;
+                    case 2:
+                        addTopicBefore();
+                        break;
+                    case 3:
+                        addTopicAfter();
+                        break;
+                    case 4:
+                        removeTopic();
+                        break;
+                    case 5:
+                        modifyTopic();
+                        break;
+                    case 6:
+                        searchTopicsForWord();
+                        break;
+                    case 7:
+                        loadFromFile();
+                        break;
+                    case 8:
+                        showWordsStartingWith();
+                        break;
+                    case 9:
+                        saveToFile();
+                        break;
+                    case 10:
+                        saveSnapshot();
+                        break;
+                    case 11:
+                        restoreSnapshot();
+                        break;
+                    case 12:
+                        compactJournalNow();
+                        break;
+                    case 13:
+                        showMemoryUsage();
+                        break;
+                    case 14:
+                        showStatistics();
+                        break;
+                    case 0:
+                        System.out.println("Exiting the program...");
+                        break;
+                    default:
+                        System.out.println("Invalid choice. Please enter a number between 0 and 14.");
+                        break;
+                }
+            } catch (NoSuchElementException e) {
+                // a prompt met the end of the input, as when it is piped in
+                if (scanner.hasNextLine()) throw e;
+                System.out.println("\nEnd of input. Exiting the program...");
+                choice = 0;
+            }
+        } while (choice != 0);
+    }
+    /**
+     * Reads a number the user types, asking again as long as the input is not
+     * one, and drops the rest of its line.
+     * @return The number.
+     */
+    private int readNumber() {
+        while (true) {
+            try {
+                int number = scanner.nextInt();
+                scanner.nextLine();
+                return number;
+            } catch (InputMismatchException e) {
+                System.out.print("Invalid input '" + scanner.nextLine().trim() + "'. Please enter a valid number: ");
+            }
+        }
+    }
+    /**
+     * Displays the main menu for the vocabulary management system.
+     */
+    public void displayMenu() {
+        System.out.println("\n-----------------------------");
+        System.out.println("Vocabulary Control Center");
+        System.out.println("-----------------------------");
+        System.out.println("1 browse a topic");
+        System.out.println("2 insert a new topic before another one");
+        System.out.println("3 insert a new topic after another one");
+        System.out.println("4 remove a topic");
+        System.out.println("5 modify a topic");
+        System.out.println("6 search topics for a word");
+        System.out.println("7 load from a file");
+        System.out.println("8 show all words starting with a given prefix");
+        System.out.println("9 save to file");
+        System.out.println("10 save a binary snapshot");
+        System.out.println("11 restore a binary snapshot");
+        System.out.println("12 compact the journal");
+        System.out.println("13 show memory usage");
+        System.out.println("14 show word statistics");
+        System.out.println("0 exit");
+        System.out.println("-----------------------------");
+        System.out.print("Enter Your Choice: ");
+    }
+    /**
+     * Displays a list of all topics and allows the user to select one to browse.
+     * The user can view all words associated with the selected topic.
+     */
+    //option 1
+    public void browseTopic() {
+        System.out.println("Browsing topics:");
+        displayTopics();
+        System.out.print("\nSelect a topic number or 0 to exit: ");
+        int choice = readNumber();
+
+        if (choice == 0) return;
+        int topicId = vocab.topicIdAt(choice);
+        List<String> words = topicId == -1 ? null : vocab.topicWords(topicId);
+        if (words == null) {
+            System.out.println("Invalid topic number!");
+            return;
+        }
+
+        System.out.println("Topic: " + vocab.topicName(topicId));
+        int wordIndex = 1;
+        for (String word : words) {
+            System.out.println(wordIndex++ + ". " + word);
+        }
+    }
+    /**
+     * Inserts a new topic before a specified existing topic.
+     * Users must specify the position where the new topic should be inserted.
+     */
+    // option 2
+    public void addTopicBefore() {
+        System.out.println("\nInserting a topic before another:");
+        int anchorId = chooseAnchor();
+        if (anchorId == -1) return;
+
+        System.out.print("Enter new topic name: ");
+        String topicName = scanner.nextLine();
+        List<String> words = readWords();
+
+        try {
+            vocab.insertTopicBefore(anchorId, topicName, words);
+        } catch (IOException e) {
+            System.out.println("Error writing journal: " + e.getMessage());
+        } catch (NoSuchElementException e) {
+            System.out.println("The topic was removed meanwhile.");
+        }
+    }
+    /**
+     * Inserts a new topic after a specified existing topic.
+     * Users must specify the position after which the new topic should be inserted.
+     */
+   //option 3
+    public void addTopicAfter() {
+        System.out.println("\nInserting a topic after another:");
+        int anchorId = chooseAnchor();
+        if (anchorId == -1) return;
+
+        System.out.print("Enter new topic name: ");
+        String topicName = scanner.nextLine();
+        List<String> words = readWords();
+
+        try {
+            vocab.insertTopicAfter(anchorId, topicName, words);
+        } catch (IOException e) {
+            System.out.println("Error writing journal: " + e.getMessage());
+        } catch (NoSuchElementException e) {
+            System.out.println("The topic was removed meanwhile.");
+        }
+    }
+    /**
+     * Asks for the topic a new topic goes next to.
+     * @return The id of the chosen topic, or -1 if the user cancelled or chose no topic.
+     */
+    private int chooseAnchor() {
+        displayTopics();
+        System.out.print("\nChoose a topic number or 0 to cancel: ");
+        int choice = readNumber();
+
+        if (choice == 0) return -1;
+        int anchorId = vocab.topicIdAt(choice);
+        if (anchorId == -1) System.out.println("Invalid topic number!");
+        return anchorId;
+    }
+    /**
+     * Reads the words of a new topic, one per line, until an empty line.
+     * @return The words in the order given.
+     */
+    private List<String> readWords() {
+        System.out.println("Enter words for the topic (ENTER to finish):");
+        ArrayList<String> words = new ArrayList<>();
+        String word;
+        while (!(word = scanner.nextLine()).isEmpty()) {
+            words.add(word);
+        }
+        return words;
+    }
+    /**
+     * Removes a topic from the list based on the user's selection.
+     */
+    //option 4
+    public void removeTopic() {
+        System.out.println("\nAvailable topics:");
+        displayTopics();
+        System.out.print("\nSelect a topic number or 0 to exit: ");
+        int choice = readNumber();
+
+        if (choice == 0) return;
+        int topicId = vocab.topicIdAt(choice);
+        if (topicId == -1) {
+            System.out.println("Invalid topic number!");
+            return;
+        }
+
+        try {
+            vocab.removeTopic(topicId);
+            System.out.println("Topic removed successfully.");
+        } catch (IOException e) {
+            System.out.println("Error writing journal: " + e.getMessage());
+        }
+    }
+    /**
+     * Allows the user to modify a topic by adding, removing, or changing words.
+     */
+    //option 5
+    public void modifyTopic() {
+        System.out.println("\nModifying a topic:");
+        displayTopics();
+        System.out.print("\nSelect a topic number or 0 to exit: ");
+        int choice = readNumber();
+
+        if (choice == 0) return;
+        int topicId = vocab.topicIdAt(choice);
+        if (topicId == -1) {
+            System.out.println("Invalid topic number!");
+            return;
+        }
+
+        String action;
+        boolean exit = false;
+        while (!exit) {
+            System.out.println("\n-----------------------------");
+            System.out.println("    Modify Topics Menu");
+            System.out.println("-----------------------------");
+            System.out.println("a add a word");
+            System.out.println("r remove a word");
+            System.out.println("c change a word");
+            System.out.println("0 Exit");
+            System.out.println("-----------------------------");
+            System.out.print("Enter your choice: ");
+            action = scanner.nextLine();
+
+            try {
+                switch (action) {
+                    case "a":
+                        System.out.print("Enter a word to add: ");
+                        String wordToAdd = scanner.nextLine();
+                        if (vocab.addWord(topicId, wordToAdd)) {
+                            System.out.println("Word added successfully.");
+                        } else {
+                            System.out.println("Sorry, the word: '" + wordToAdd + "' is already listed.");
+                        }
+                        break;
+                    case "r":
+                        System.out.print("Enter a word to remove: ");
+                        String wordToRemove = scanner.nextLine();
+                        if (vocab.removeWord(topicId, wordToRemove)) {
+                            System.out.println("Word removed successfully.");
+                        } else {
+                            System.out.println("Word not found.");
+                        }
+                        break;
+                    case "c":
+                        System.out.print("Enter the word to change: ");
+                        String wordToChange = scanner.nextLine();
+                        System.out.print("Enter new word: ");
+                        String newWord = scanner.nextLine();
+                        if (vocab.changeWord(topicId, wordToChange, newWord)) {
+                            System.out.println("Word changed successfully.");
+                        } else {
+                            System.out.println("Original word not found.");
+                        }
+                        break;
+                    case "0":
+                        exit = true;
+                        break;
+                    default:
+                        System.out.println("Invalid choice. Please try again.");
+                        break;
+                }
+            } catch (IOException e) {
+                System.out.println("Error writing journal: " + e.getMessage());
+            } catch (NoSuchElementException e) {
+                System.out.println("The topic was removed meanwhile.");
+                exit = true;
+            }
+        }
+    }
+    /**
+     * Searches all topics for the specified word.
+     */
+    //option 6
+    public void searchTopicsForWord() {
+        System.out.print("Enter the word to search for: ");
+        String word = scanner.nextLine().toLowerCase();
+
+        List<String> matches = vocab.searchTopics(word);
+        if (matches.isEmpty()) {
+            System.out.println("No topics contain the word '" + word + "'.");
+            List<VocabDoubleList.WordMatch> similar = vocab.searchSimilar(word, SIMILAR_WORDS);
+            if (!similar.isEmpty()) System.out.println("Did you mean:");
+            for (VocabDoubleList.WordMatch match : similar) {
+                System.out.println("  " + match.word + " (in " + String.join(", ", match.topics) + ")");
+            }
+            return;
+        }
+        for (String topicName : matches) {
+            System.out.println("Found '" + word + "' in topic: " + topicName);
+        }
+    }
+    /**
+     * Loads topics and their words from a file, either appending its topics or
+     * merging them into the topics of the same name.
+     */
+    //option 7
+    public void loadFromFile() {
+        System.out.print("Enter filename to load from: ");
+        String filename = scanner.nextLine();
+        System.out.print("Merge topics into existing ones of the same name? (y/n): ");
+        boolean merge = scanner.nextLine().trim().equalsIgnoreCase("y");
+
+        try {
+            List<Path> files = Collections.singletonList(Paths.get(filename));
+            if (merge) {
+                vocab.mergeFiles(files);
+            } else {
+                vocab.loadFiles(files);
+            }
+            System.out.println("File loaded successfully.");
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error loading file: " + e.getMessage() + " (" + vocab.topicCount() + " topic(s) in the vocabulary now)");
+        }
+    }
+    /**
+     * Lists, page by page, all words starting with a prefix given by the user,
+     * in case-insensitive alphabetical order. A prefix holding '*' or '?' is
+     * taken as a wildcard pattern the whole word has to match instead.
+     */
+    //option 8
+    public void showWordsStartingWith() {
+        System.out.print("Enter the starting letters, or a pattern with * and ?: ");
+        String prefix = scanner.nextLine().trim().toLowerCase();
+        if (prefix.isEmpty()) {
+            System.out.println("No prefix given.");
+            return;
+        }
+
+        boolean pattern = prefix.indexOf('*') >= 0 || prefix.indexOf('?') >= 0;
+        String description = (pattern ? "matching '" : "starting with '") + prefix + "'";
+        List<String> page = pattern ? vocab.wordsMatching(prefix, null, WORDS_PER_PAGE)
+                : vocab.wordsStartingWith(prefix, null, WORDS_PER_PAGE);
+        if (page.isEmpty()) {
+            System.out.println("No words found " + description + ".");
+            return;
+        }
+        System.out.println("Words " + description + ":");
+        while (true) {
+            for (String word : page) System.out.println(word);
+            String last = page.get(page.size() - 1);
+            page = pattern ? vocab.wordsMatching(prefix, last, WORDS_PER_PAGE)
+                    : vocab.wordsStartingWith(prefix, last, WORDS_PER_PAGE);
+            if (page.isEmpty()) return;
+            System.out.print("ENTER for more, or 0 to stop: ");
+            if (scanner.nextLine().trim().equals("0")) return;
+        }
+    }
+    /**
+    * Saves all topics and their associated words to a file specified by the user,
+    * or only the topics the user lists by number. A filename ending in ".gz"
+    * is written gzipped. If no file has been loaded into the system, it will
+    * not perform the save and will notify the user accordingly.
+    */
+    //option 9
+    public void saveToFile() {
+        if (!vocab.isFileLoaded()) {
+            System.out.println("No file loaded, cannot save.");
+            return;
+        }
+
+        System.out.print("Enter filename to save to: ");
+        String filename = scanner.nextLine();
+        System.out.print("Enter topic numbers to save, separated by spaces, or nothing for all: ");
+        String numbers = scanner.nextLine().trim();
+
+        int[] topicIds = null;
+        if (!numbers.isEmpty()) {
+            String[] fields = numbers.split("\\s+");
+            topicIds = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                int number;
+                try {
+                    number = Integer.parseInt(fields[i]);
+                } catch (NumberFormatException e) {
+                    number = -1;
+                }
+                topicIds[i] = vocab.topicIdAt(number);
+                if (topicIds[i] == -1) {
+                    System.out.println("Invalid topic number: " + fields[i]);
+                    return;
+                }
+            }
+        }
+        try {
+            vocab.exportText(Paths.get(filename), topicIds, filename.endsWith(".gz"));
+            System.out.println("Data saved to file successfully.");
+        } catch (NoSuchElementException e) {
+            System.out.println("Error saving file: a topic was removed meanwhile.");
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error saving file: " + e.getMessage());
+        }
+    }
+    /**
+     * Saves the whole vocabulary to a binary snapshot file chosen by the user.
+     */
+    //option 10
+    public void saveSnapshot() {
+        System.out.print("Enter snapshot filename to save to: ");
+        String filename = scanner.nextLine();
+
+        try {
+            vocab.writeSnapshot(Paths.get(filename));
+            System.out.println("Snapshot saved successfully.");
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error saving snapshot: " + e.getMessage());
+        }
+    }
+    /**
+     * Replaces the whole vocabulary with the content of a binary snapshot file chosen by the user.
+     */
+    //option 11
+    public void restoreSnapshot() {
+        System.out.print("Enter snapshot filename to restore from: ");
+        String filename = scanner.nextLine();
+
+        try {
+            vocab.readSnapshot(Paths.get(filename));
+            System.out.println("Snapshot restored successfully.");
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error restoring snapshot: " + e.getMessage());
+        }
+    }
+    /**
+     * Compacts the journal into its snapshot, if journaling is on.
+     */
+    //option 12
+    public void compactJournalNow() {
+        if (!vocab.isJournaling()) {
+            System.out.println("Journaling is off, start with --data-dir to turn it on.");
+            return;
+        }
+        try {
+            vocab.compactJournal();
+            System.out.println("Journal compacted successfully.");
+        } catch (IOException e) {
+            System.out.println("Error compacting journal: " + e.getMessage());
+        }
+    }
+    /**
+     * Prints the approximate heap used by each topic, the shared dictionary and
+     * the word index. The figures are estimates from array lengths and object
+     * header sizes, not measurements.
+     */
+    //option 13
+    public void showMemoryUsage() {
+        long topicBytes = 0;
+        for (int number = 1; number <= vocab.topicCount(); number++) {
+            int topicId = vocab.topicIdAt(number);
+            long bytes = vocab.topicHeapBytes(topicId);
+            if (bytes < 0) continue;
+            topicBytes += bytes;
+            System.out.println(vocab.topicName(topicId) + ": " + bytes + " bytes, "
+                    + vocab.topicWordCount(topicId) + " words");
+        }
+        System.out.println("Topics: " + topicBytes + " bytes");
+        System.out.println("Dictionary: " + vocab.dictionaryHeapBytes() + " bytes, "
+                + vocab.distinctWordCount() + " distinct words");
+        System.out.println("Word index: " + vocab.indexHeapBytes() + " bytes");
+        QueryCache cache = vocab.queryCache();
+        if (cache != null) System.out.println("Query cache: " + cache);
+    }
+    /**
+     * Prints the words held by the most topics and the pairs of topics sharing
+     * the largest part of their words, ignoring case.
+     */
+    //option 14
+    public void showStatistics() {
+        System.out.print("Enter how many words and topic pairs to show: ");
+        int limit;
+        while ((limit = readNumber()) < 0) {
+            System.out.print("Please enter a number of at least 0: ");
+        }
+
+        VocabDoubleList.Statistics statistics = vocab.statistics(limit);
+        System.out.println(statistics.topics + " topics, " + statistics.words + " words, "
+                + statistics.distinctWords + " distinct words ignoring case");
+        System.out.println("Words in the most topics:");
+        for (VocabDoubleList.WordFrequency frequency : statistics.sharedWords) {
+            System.out.println("  " + frequency.word + ": in " + frequency.topics + " topics, "
+                    + frequency.occurrences + " times");
+        }
+        System.out.println("Most similar topics:");
+        for (VocabDoubleList.TopicOverlap overlap : statistics.overlaps) {
+            String name = vocab.topicName(overlap.topicId);
+            String otherName = vocab.topicName(overlap.otherTopicId);
+            if (name == null || otherName == null) continue;
+            System.out.println(String.format(Locale.ROOT, "  %s / %s: %d shared words, Jaccard %.3f",
+                    name, otherName, overlap.sharedWords, overlap.jaccard));
+        }
+    }
+    /**
+     * Displays a list of all topics currently loaded in the system.
+     * Each topic is listed with an index number. If no topics are available, it notifies the user.
+     */
+    public void displayTopics() {
+        List<String> names = vocab.topicNames();
+        if (names.isEmpty()) {
+            System.out.println("No topics available.");
+            return;
+        }
+        int index = 1;
+        for (String name : names) {
+            System.out.println(index++ + ". " + name);
+        }
+    }
+}
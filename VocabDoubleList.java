@@ -1,601 +1,5001 @@
 import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
 
 /**
  * A class that manages a double-linked list of vocabulary topics,
  * allowing for operations such as adding, removing, modifying, and searching topics and words.
+ * It does no console I/O itself: methods take their arguments and return
+ * results, and {@link VocabConsole} is the interactive menu on top of them.
+ *
+ * The list is safe to use from many threads. Three kinds of lock keep it consistent:
+ * <ul>
+ * <li>the structure lock guards the shape of the list: the links, the topic
+ * sequence tree, the topic counter and the next topic id. Inserting or removing a
+ * topic takes it exclusively; word edits take it shared so their topic stays linked;</li>
+ * <li>striped topic locks, chosen by topic id, guard the words of each topic.
+ * Word edits take the stripe of their topic exclusively, so edits of different
+ * topics run in parallel;</li>
+ * <li>the index lock guards the inverted word index, which every edit updates briefly.</li>
+ * </ul>
+ * Readers never block writers: they read under an optimistic stamp, validate it
+ * and only fall back to the read lock when a writer got in between. Lookups by
+ * topic id and prefix listing go through concurrent maps and take no lock at all.
+ * No lock is held while another of a kind taken earlier is waited for, in the
+ * order structure, topic, index, so the locks cannot deadlock. A query cache,
+ * when set, is only ever locked last.
+ *
+ * Whole-list reads such as saving work on a {@link Version}: the topics in
+ * order with their word lists as they were at one instant. Every change of
+ * the structure publishes the topic order as an array that is never changed
+ * again, and a version is numbered while edits are held up just long enough
+ * to read that array, not for a walk of the topics. Versions share the word
+ * lists, and an edit copies a list before changing it only while an open
+ * version may still read it, keeping the list it copied for that version, so
+ * a save never sees a half-made change and edits never wait for the save itself.
  */
 public class VocabDoubleList {
     private TopicNode startNode;
     private TopicNode endNode;
-    private int topicCounter;
-    private boolean isFileLoaded;
+    private volatile int topicCounter;
+    private volatile boolean isFileLoaded;
+    private static final int TOPIC_LOCK_STRIPES = 64;
+    private static final long MAX_MAP_WINDOW = 1L << 30;
+    private static final int LOAD_CHUNK_SIZE = 16 << 20;
+    private static final int SNAPSHOT_MAGIC = 0x564F4342;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int SNAPSHOT_V1_HEADER_SIZE = 24;
+    private static final int SNAPSHOT_HEADER_SIZE = 36;
+    private static final int MAX_SIMILAR_DISTANCE = 2;
+    /** Changes of the topic order kept before it is built again from the list instead. */
+    private static final int MAX_ORDER_CHANGES = 256;
+    /** Patterns starting with this many literal chars are matched along the sorted words. */
+    private static final int MIN_PATTERN_PREFIX = 3;
+    /** Cache group of the topics holding a case-folded word, followed by the word. */
+    private static final String TOPICS_GROUP = "=";
+    /** Cache group of the prefix pages of a case-folded prefix, followed by the prefix. */
+    private static final String PREFIX_GROUP = "^";
+    /** Longer prefix pages are not cached. */
+    private static final int MAX_CACHED_PAGE = 1000;
+    /** Bytes read at once when scanning a file for its topic headers. */
+    private static final int HEADER_SCAN_BUFFER = 1 << 20;
+    /**
+     * Receives a message for every line the loader reads, or null; see {@link #setLoadLog(Consumer)}.
+     */
+    private Consumer<String> loadLog;
+    /**
+     * Every distinct word, stored once; topics refer to words by their id here.
+     */
+    private final WordDictionary dictionary;
+    /**
+     * Inverted index from the dictionary id of a case-folded word to the topics
+     * containing it, with the number of occurrences of the word in each topic.
+     */
+    private TopicCounts[] wordIndex;
+    /**
+     * The case-folded words present in the word index, in sorted order, used for prefix queries.
+     */
+    private final ConcurrentSkipListSet<String> sortedWords;
+    /**
+     * Trigram postings of the case-folded words present in the word index, for
+     * similarity and pattern searches.
+     * Guarded by {@link #indexLock}.
+     */
+    private TrigramIndex wordTrigrams;
+    /**
+     * Positional index over the topic list, used to find a topic by its number.
+     */
+    private final TopicSequence topicSequence;
+    /**
+     * The topics in list order as of the last release of the structure lock, for versions.
+     */
+    private volatile TopicOrder topicOrder;
+    /**
+     * The topics inserted, and null for the topics removed, since the topic
+     * order was last published, with their positions at the time.
+     * Guarded by {@link #structureLock}.
+     */
+    private final ArrayList<TopicNode> orderChanges;
+    private final IntList orderPositions;
+    /**
+     * Whether the topic order is to be built again from the list rather than
+     * from the changes, once there were too many of them to keep.
+     * Guarded by {@link #structureLock}.
+     */
+    private boolean orderRebuild;
+    /**
+     * Topics by their stable id, which the journal uses to refer to them.
+     */
+    private final ConcurrentHashMap<Integer, TopicNode> topicsById;
+    private int nextTopicId;
+    /**
+     * Guards the shape of the topic list; see the class comment.
+     */
+    private final StampedLock structureLock;
+    /**
+     * Guard the words of the topics, striped by topic id.
+     */
+    private final StampedLock[] topicLocks;
+    /**
+     * Guards {@link #wordIndex}.
+     */
+    private final StampedLock indexLock;
+    /**
+     * Edit log the vocabulary is persisted to, or null when journaling is off.
+     */
+    private VocabJournal journal;
+    private Path snapshotPath;
+    /**
+     * Results of searches and prefix pages, or null when caching is off.
+     * Invalidated under the index lock by every change of the word index.
+     */
+    private volatile QueryCache queryCache;
+    /**
+     * Latency histograms the public operations record into, or null when off.
+     */
+    private volatile VocabMetrics metrics;
+    /**
+     * The number of word occurrences in the word index, which is every word of every topic.
+     * Guarded by {@link #indexLock}.
+     */
+    private long indexedWords;
+    /**
+     * The number of words of the topics loaded lazily whose words are not in memory.
+     * Guarded by {@link #indexLock}.
+     */
+    private long coldWords;
+    /**
+     * Topics loaded lazily whose words are in memory and still match their file,
+     * least recently used first, with the heap bytes each was counted with.
+     * Guarded by itself, which is locked after any other lock.
+     */
+    private final LinkedHashMap<TopicNode, Long> residentLazyTopics;
+    private volatile long residentLazyBytes;
+    private volatile long topicBudget;
+    /**
+     * Files topics were loaded lazily from, kept open to read their words.
+     * Guarded by {@link #structureLock}.
+     */
+    private final ArrayList<FileChannel> lazyFiles;
+    /**
+     * The numbers of the versions not closed yet.
+     * Guarded by itself while a version is taken, which is locked after any other lock.
+     */
+    private final ConcurrentSkipListSet<Long> openVersions;
+    /**
+     * The number of the last version taken; changed only while every edit is held up.
+     */
+    private volatile long lastVersion;
+    /**
+     * Closes the versions that became unreachable without being closed.
+     */
+    private static final Cleaner VERSION_CLEANER = Cleaner.create();
     /**
      * Constructor to initialize the VocabDoubleList with no topics loaded.
      */
-    public VocabDoubleList() {
-        startNode = null;
-        endNode = null;
-        topicCounter = 0;
-        isFileLoaded = false;
+    public VocabDoubleList() {
+        startNode = null;
+        endNode = null;
+        topicCounter = 0;
+        isFileLoaded = false;
+        loadLog = null;
+        dictionary = new WordDictionary();
+        wordIndex = new TopicCounts[256];
+        sortedWords = new ConcurrentSkipListSet<>();
+        wordTrigrams = new TrigramIndex();
+        topicSequence = new TopicSequence();
+        topicOrder = TopicOrder.EMPTY;
+        orderChanges = new ArrayList<>();
+        orderPositions = new IntList();
+        orderRebuild = false;
+        topicsById = new ConcurrentHashMap<>();
+        nextTopicId = 1;
+        structureLock = new StampedLock();
+        topicLocks = new StampedLock[TOPIC_LOCK_STRIPES];
+        for (int i = 0; i < TOPIC_LOCK_STRIPES; i++) topicLocks[i] = new StampedLock();
+        indexLock = new StampedLock();
+        residentLazyTopics = new LinkedHashMap<>(16, 0.75f, true);
+        topicBudget = Long.MAX_VALUE;
+        lazyFiles = new ArrayList<>();
+        openVersions = new ConcurrentSkipListSet<>();
+        lastVersion = 0;
+        journal = null;
+        snapshotPath = null;
+    }
+    /**
+     * Inner class representing a node in the double-linked list,
+     * containing topic content, and links to previous and next nodes.
+     * Each node is also a node of the {@link TopicSequence} tree.
+     */
+    private class TopicNode {
+        TopicContent topicContent;
+        TopicNode previousNode;
+        TopicNode nextNode;
+        int topicId;
+        TopicNode treeParent;
+        TopicNode treeLeft;
+        TopicNode treeRight;
+        int treePriority;
+        int treeSize;
+        /**
+         * Constructor to initialize the topic node with the given content.
+         * @param topicContent The content of the topic.
+         */
+        public TopicNode(TopicContent topicContent) {
+            this.topicContent = topicContent;
+            this.previousNode = null;
+            this.nextNode = null;
+            this.topicId = nextTopicId++;
+            this.treePriority = ThreadLocalRandom.current().nextInt();
+            this.treeSize = 1;
+        }
+    }
+    /**
+     * Inner class implementing an order-statistic tree over the topic nodes.
+     * It is a treap keyed implicitly by list position: an in-order walk visits
+     * the topics in the same order as the double-linked list, and every node
+     * knows the size of its subtree, so finding, inserting and removing a topic
+     * by its number takes O(log n) expected time. The lookups bound their walks
+     * by the size of the tree, so an optimistic read racing with a rotation
+     * ends instead of following a transient cycle.
+     */
+    private class TopicSequence {
+        TopicNode root;
+        /**
+         * Returns the topic at the given position.
+         * @param number The 1-based topic number.
+         * @return The topic node at that position.
+         */
+        public TopicNode get(int number) {
+            TopicNode node = root;
+            for (int steps = size(node); node != null && steps >= 0; steps--) {
+                int leftSize = size(node.treeLeft);
+                if (number <= leftSize) {
+                    node = node.treeLeft;
+                } else if (number == leftSize + 1) {
+                    return node;
+                } else {
+                    number -= leftSize + 1;
+                    node = node.treeRight;
+                }
+            }
+            throw new IndexOutOfBoundsException("No topic number " + number);
+        }
+        /**
+         * Returns the position of a topic in the list.
+         * @param node A topic node currently in the sequence.
+         * @return The 1-based topic number.
+         */
+        public int numberOf(TopicNode node) {
+            int number = size(node.treeLeft) + 1;
+            TopicNode parent = node.treeParent;
+            for (int steps = size(root); parent != null; steps--) {
+                if (steps < 0) throw new IllegalStateException("Topic tree changed while reading");
+                if (node == parent.treeRight) {
+                    number += size(parent.treeLeft) + 1;
+                }
+                node = parent;
+                parent = node.treeParent;
+            }
+            return number;
+        }
+        /**
+         * Inserts a node directly before an existing one.
+         * @param anchor The node already in the sequence.
+         * @param node The node to insert.
+         */
+        public void insertBefore(TopicNode anchor, TopicNode node) {
+            if (anchor.treeLeft == null) {
+                attach(anchor, node, true);
+            } else {
+                TopicNode parent = anchor.treeLeft;
+                while (parent.treeRight != null) parent = parent.treeRight;
+                attach(parent, node, false);
+            }
+        }
+        /**
+         * Inserts a node directly after an existing one.
+         * @param anchor The node already in the sequence.
+         * @param node The node to insert.
+         */
+        public void insertAfter(TopicNode anchor, TopicNode node) {
+            if (anchor.treeRight == null) {
+                attach(anchor, node, false);
+            } else {
+                TopicNode parent = anchor.treeRight;
+                while (parent.treeLeft != null) parent = parent.treeLeft;
+                attach(parent, node, true);
+            }
+        }
+        /**
+         * Appends a node after the last one.
+         * @param node The node to append.
+         */
+        public void append(TopicNode node) {
+            if (root == null) {
+                root = node;
+                return;
+            }
+            TopicNode parent = root;
+            while (parent.treeRight != null) parent = parent.treeRight;
+            attach(parent, node, false);
+        }
+        /**
+         * Removes a node from the sequence.
+         * @param node The node to remove.
+         */
+        public void remove(TopicNode node) {
+            while (node.treeLeft != null || node.treeRight != null) {
+                if (node.treeRight == null
+                        || (node.treeLeft != null && node.treeLeft.treePriority > node.treeRight.treePriority)) {
+                    rotateUp(node.treeLeft);
+                } else {
+                    rotateUp(node.treeRight);
+                }
+            }
+            TopicNode parent = node.treeParent;
+            if (parent == null) {
+                root = null;
+            } else if (parent.treeLeft == node) {
+                parent.treeLeft = null;
+            } else {
+                parent.treeRight = null;
+            }
+            for (TopicNode p = parent; p != null; p = p.treeParent) p.treeSize--;
+            node.treeParent = null;
+            node.treeSize = 1;
+        }
+        /**
+         * Hangs a new leaf under a parent and restores the heap order on priorities.
+         */
+        private void attach(TopicNode parent, TopicNode node, boolean asLeft) {
+            if (asLeft) {
+                parent.treeLeft = node;
+            } else {
+                parent.treeRight = node;
+            }
+            node.treeParent = parent;
+            for (TopicNode p = parent; p != null; p = p.treeParent) p.treeSize++;
+            while (node.treeParent != null && node.treeParent.treePriority < node.treePriority) {
+                rotateUp(node);
+            }
+        }
+        /**
+         * Rotates a node above its parent, keeping the in-order sequence.
+         */
+        private void rotateUp(TopicNode node) {
+            TopicNode parent = node.treeParent;
+            TopicNode grandParent = parent.treeParent;
+            if (parent.treeLeft == node) {
+                parent.treeLeft = node.treeRight;
+                if (node.treeRight != null) node.treeRight.treeParent = parent;
+                node.treeRight = parent;
+            } else {
+                parent.treeRight = node.treeLeft;
+                if (node.treeLeft != null) node.treeLeft.treeParent = parent;
+                node.treeLeft = parent;
+            }
+            parent.treeParent = node;
+            node.treeParent = grandParent;
+            if (grandParent == null) {
+                root = node;
+            } else if (grandParent.treeLeft == parent) {
+                grandParent.treeLeft = node;
+            } else {
+                grandParent.treeRight = node;
+            }
+            parent.treeSize = size(parent.treeLeft) + size(parent.treeRight) + 1;
+            node.treeSize = size(node.treeLeft) + size(node.treeRight) + 1;
+        }
+
+        private int size(TopicNode node) {
+            return node == null ? 0 : node.treeSize;
+        }
+    }
+    /**
+     * Static inner class holding the topics in list order, never changed once
+     * built, so a {@link Version} takes the order by reference. The topics are
+     * kept in chunks of at most {@link #MAX_CHUNK}, so inserting or removing a
+     * topic copies one chunk and the array of chunks rather than every topic.
+     */
+    private static class TopicOrder {
+        private static final int MAX_CHUNK = 512;
+        static final TopicOrder EMPTY = new TopicOrder(new TopicNode[0][]);
+        private final TopicNode[][] chunks;
+        /** The number of topics in each chunk and the chunks before it. */
+        private final int[] ends;
+        /**
+         * Constructor to initialize an order from its chunks, none of them empty.
+         * @param chunks The chunks.
+         */
+        TopicOrder(TopicNode[][] chunks) {
+            this.chunks = chunks;
+            ends = new int[chunks.length];
+            int end = 0;
+            for (int i = 0; i < chunks.length; i++) ends[i] = end += chunks[i].length;
+        }
+        /**
+         * Builds the order of a list.
+         * @param first The first topic, followed by the others through their links.
+         * @param count The number of topics.
+         * @return The order.
+         */
+        static TopicOrder of(TopicNode first, int count) {
+            int chunkSize = MAX_CHUNK / 2;
+            TopicNode[][] chunks = new TopicNode[(count + chunkSize - 1) / chunkSize][];
+            TopicNode current = first;
+            for (int c = 0; c < chunks.length; c++) {
+                chunks[c] = new TopicNode[Math.min(chunkSize, count - c * chunkSize)];
+                for (int i = 0; i < chunks[c].length; i++, current = current.nextNode) chunks[c][i] = current;
+            }
+            return new TopicOrder(chunks);
+        }
+        /**
+         * @return The number of topics.
+         */
+        int size() {
+            return ends.length == 0 ? 0 : ends[ends.length - 1];
+        }
+        /**
+         * @param index The 0-based position of the new topic, at most {@link #size()}.
+         * @param topic The topic.
+         * @return The order with the topic inserted.
+         */
+        TopicOrder insert(int index, TopicNode topic) {
+            if (chunks.length == 0) return new TopicOrder(new TopicNode[][] {{topic}});
+            // a topic appended goes to the end of the last chunk
+            int c = chunkOf(Math.min(index, size() - 1));
+            TopicNode[] chunk = chunks[c];
+            int at = index - (c == 0 ? 0 : ends[c - 1]);
+            TopicNode[] grown = new TopicNode[chunk.length + 1];
+            System.arraycopy(chunk, 0, grown, 0, at);
+            grown[at] = topic;
+            System.arraycopy(chunk, at, grown, at + 1, chunk.length - at);
+            if (grown.length <= MAX_CHUNK) return replace(c, 1, grown);
+            int half = grown.length / 2;
+            return replace(c, 1, Arrays.copyOf(grown, half), Arrays.copyOfRange(grown, half, grown.length));
+        }
+        /**
+         * @param index The 0-based position of the topic to remove.
+         * @return The order without the topic.
+         */
+        TopicOrder remove(int index) {
+            int c = chunkOf(index);
+            TopicNode[] chunk = chunks[c];
+            int at = index - (c == 0 ? 0 : ends[c - 1]);
+            // a chunk shrunk to a small part of its size takes in the next one
+            TopicNode[] next = c + 1 < chunks.length ? chunks[c + 1] : null;
+            int taken = next != null && chunk.length - 1 + next.length <= MAX_CHUNK / 2 ? next.length : 0;
+            TopicNode[] shrunk = new TopicNode[chunk.length - 1 + taken];
+            System.arraycopy(chunk, 0, shrunk, 0, at);
+            System.arraycopy(chunk, at + 1, shrunk, at, chunk.length - at - 1);
+            if (taken > 0) System.arraycopy(next, 0, shrunk, chunk.length - 1, taken);
+            int replaced = taken > 0 ? 2 : 1;
+            return shrunk.length == 0 ? replace(c, replaced) : replace(c, replaced, shrunk);
+        }
+
+        private int chunkOf(int index) {
+            int found = Arrays.binarySearch(ends, index);
+            return found >= 0 ? found + 1 : -found - 1;
+        }
+
+        private TopicOrder replace(int from, int count, TopicNode[]... parts) {
+            TopicNode[][] replaced = new TopicNode[chunks.length - count + parts.length][];
+            System.arraycopy(chunks, 0, replaced, 0, from);
+            System.arraycopy(parts, 0, replaced, from, parts.length);
+            System.arraycopy(chunks, from + count, replaced, from + parts.length, chunks.length - from - count);
+            return new TopicOrder(replaced);
+        }
+    }
+    /**
+     * Inner class holding the words of a topic in insertion order, as ids of the
+     * shared {@link WordDictionary}. Ids live in an int array of slots so
+     * appending is O(1); removed slots are set to -1 and squeezed out once they
+     * make up half of the array. A primitive map from the id of the case-folded
+     * word to its first slot, together with a per-slot link to the next slot
+     * holding the same folded word, gives expected O(1) case-insensitive lookup,
+     * removal and rename. A second map to the last slot of each folded word
+     * keeps appending O(1) however often the topic repeats a word.
+     */
+    private class WordList implements Iterable<String> {
+        private static final int INITIAL_CAPACITY = 8;
+        private int[] ids;
+        private int[] nextSame;
+        private int size;
+        private int count;
+        private final IntIntMap firstSlot;
+        private final IntIntMap lastSlot;
+        /**
+         * The number of the last {@link Version} taken before the list was made
+         * to replace another, or 0. Versions numbered above it share the list;
+         * see {@link #writableWords(TopicNode)}.
+         */
+        long madeAt;
+        /**
+         * The list this one replaced, as the versions numbered up to
+         * {@link #madeAt} still read it, or null once none of them is open.
+         */
+        volatile WordList older;
+        /**
+         * Constructor to initialize an empty word list.
+         */
+        public WordList() {
+            ids = new int[INITIAL_CAPACITY];
+            nextSame = new int[INITIAL_CAPACITY];
+            size = 0;
+            count = 0;
+            firstSlot = new IntIntMap();
+            lastSlot = new IntIntMap();
+        }
+        /**
+         * Constructor to initialize a copy of a word list, with the same slots.
+         * @param other The list to copy.
+         */
+        public WordList(WordList other) {
+            ids = other.ids.clone();
+            nextSame = other.nextSame.clone();
+            size = other.size;
+            count = other.count;
+            firstSlot = other.firstSlot.copy();
+            lastSlot = other.lastSlot.copy();
+        }
+        /**
+         * @return The number of words in the list.
+         */
+        public int count() {
+            return count;
+        }
+        /**
+         * @return The number of slots, including removed ones; see {@link #idAt(int)}.
+         */
+        public int slots() {
+            return size;
+        }
+        /**
+         * @param slot A slot below {@link #slots()}.
+         * @return The word id in that slot, or -1 if the word was removed.
+         */
+        public int idAt(int slot) {
+            return ids[slot];
+        }
+        /**
+         * Appends a word to the end of the list.
+         * @param id The dictionary id of the word to add.
+         */
+        public void add(int id) {
+            if (size == ids.length) {
+                if (count < size / 2) {
+                    compact();
+                } else {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    nextSame = Arrays.copyOf(nextSame, size * 2);
+                }
+            }
+            int slot = size++;
+            ids[slot] = id;
+            link(slot);
+            count++;
+        }
+        /**
+         * Checks whether the list holds a word, ignoring case.
+         * @param word The word to look for.
+         * @return true if the word is present.
+         */
+        public boolean contains(String word) {
+            int fold = foldIdOf(word);
+            return fold != -1 && firstSlot.get(fold) != -1;
+        }
+        /**
+         * Checks whether the list holds a word, ignoring case.
+         * @param id The dictionary id of the word to look for.
+         * @return true if the word is present in any letter case.
+         */
+        public boolean containsId(int id) {
+            return firstSlot.get(dictionary.fold(id)) != -1;
+        }
+        /**
+         * Removes the first occurrence of a word, ignoring case.
+         * @param word The word to remove.
+         * @return The id of the removed word, or -1 if it was not found.
+         */
+        public int remove(String word) {
+            int fold = foldIdOf(word);
+            int slot = fold == -1 ? -1 : firstSlot.get(fold);
+            if (slot == -1) return -1;
+            int removed = ids[slot];
+            unlinkFirst(fold, slot);
+            ids[slot] = -1;
+            count--;
+            if (count < size / 2 && size > INITIAL_CAPACITY) compact();
+            return removed;
+        }
+        /**
+         * Replaces the first occurrence of a word, ignoring case, keeping its position.
+         * @param oldWord The word to replace.
+         * @param newId The dictionary id of the replacement word.
+         * @return The id of the replaced word, or -1 if it was not found.
+         */
+        public int rename(String oldWord, int newId) {
+            int fold = foldIdOf(oldWord);
+            int slot = fold == -1 ? -1 : firstSlot.get(fold);
+            if (slot == -1) return -1;
+            int replaced = ids[slot];
+            unlinkFirst(fold, slot);
+            ids[slot] = newId;
+            link(slot);
+            return replaced;
+        }
+        /**
+         * Appends every stored form of a case-folded word to a list, in list order.
+         * @param fold The dictionary id of the case-folded word.
+         * @param out The list to append to.
+         */
+        public void collectForms(int fold, List<String> out) {
+            int[] slots = ids;
+            int[] next = nextSame;
+            // bounded so an optimistic read racing with an edit ends
+            for (int slot = firstSlot.get(fold), steps = slots.length; slot != -1 && steps > 0; slot = next[slot], steps--) {
+                out.add(dictionary.word(slots[slot]));
+            }
+        }
+        /**
+         * Copies the ids of a run of consecutive words in the list, skipping
+         * removed slots without copying the words before the run.
+         * @param offset The number of words to skip.
+         * @param limit The most ids wanted.
+         * @return The ids in list order, fewer than asked at the end of the list.
+         */
+        public int[] liveIds(int offset, int limit) {
+            int[] slots = ids;
+            int n = Math.min(size, slots.length);
+            int[] live = new int[Math.max(0, Math.min(limit, count - offset))];
+            int k = 0;
+            int skipped = 0;
+            for (int i = 0; i < n && k < live.length; i++) {
+                if (slots[i] == -1) continue;
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    live[k++] = slots[i];
+                }
+            }
+            return k == live.length ? live : Arrays.copyOf(live, k);
+        }
+        /**
+         * Copies the ids of the words in the list, in list order.
+         * @return The ids, without removed slots.
+         */
+        public int[] liveIds() {
+            int[] slots = ids;
+            int n = Math.min(size, slots.length);
+            int[] live = new int[n];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                if (slots[i] != -1) live[k++] = slots[i];
+            }
+            return k == n ? live : Arrays.copyOf(live, k);
+        }
+        /**
+         * @return The approximate number of heap bytes used by the list.
+         */
+        public long heapBytes() {
+            return 32 + 16 + 4L * ids.length + 16 + 4L * nextSame.length + firstSlot.heapBytes() + lastSlot.heapBytes();
+        }
+        /**
+         * Adds a slot to the chain of its folded word, keeping the chain in slot
+         * order. Appending a slot past the end of the chain takes O(1); only a
+         * rename into the middle of the chain walks it.
+         */
+        private void link(int slot) {
+            int fold = dictionary.fold(ids[slot]);
+            int head = firstSlot.get(fold);
+            if (head == -1 || head > slot) {
+                nextSame[slot] = head;
+                firstSlot.put(fold, slot);
+                if (head == -1) lastSlot.put(fold, slot);
+                return;
+            }
+            int last = lastSlot.get(fold);
+            if (last < slot) {
+                nextSame[slot] = -1;
+                nextSame[last] = slot;
+                lastSlot.put(fold, slot);
+                return;
+            }
+            int prev = head;
+            while (nextSame[prev] != -1 && nextSame[prev] < slot) prev = nextSame[prev];
+            nextSame[slot] = nextSame[prev];
+            nextSame[prev] = slot;
+        }
+        /**
+         * Drops the head slot from the chain of its folded word.
+         */
+        private void unlinkFirst(int fold, int slot) {
+            if (nextSame[slot] == -1) {
+                firstSlot.remove(fold);
+                lastSlot.remove(fold);
+            } else {
+                firstSlot.put(fold, nextSame[slot]);
+            }
+        }
+        /**
+         * Squeezes out removed slots and rebuilds the lookup chains.
+         */
+        private void compact() {
+            int capacity = Math.max(INITIAL_CAPACITY, count * 2);
+            int[] packed = new int[capacity];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (ids[i] != -1) packed[n++] = ids[i];
+            }
+            ids = packed;
+            nextSame = new int[capacity];
+            size = n;
+            firstSlot.clear();
+            lastSlot.clear();
+            for (int i = 0; i < size; i++) link(i);
+        }
+        /**
+         * @return An iterator over the words in insertion order, decoded from the dictionary.
+         */
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int slot = advance(0);
+
+                private int advance(int from) {
+                    while (from < size && ids[from] == -1) from++;
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return slot < size;
+                }
+
+                @Override
+                public String next() {
+                    if (slot >= size) throw new NoSuchElementException();
+                    String word = dictionary.word(ids[slot]);
+                    slot = advance(slot + 1);
+                    return word;
+                }
+            };
+        }
+    }
+    /**
+     * Static inner class implementing an open-addressing hash map from
+     * non-negative int keys to int values, without boxing.
+     */
+    private static class IntIntMap {
+        private int[] keys = new int[8];
+        private int[] values = new int[8];
+        private int size;
+        /**
+         * @param key The key.
+         * @return The value stored for the key, or -1 if there is none.
+         */
+        public int get(int key) {
+            int mask = keys.length - 1;
+            for (int bucket = mix(key) & mask; keys[bucket] != 0; bucket = (bucket + 1) & mask) {
+                if (keys[bucket] == key + 1) return values[bucket];
+            }
+            return -1;
+        }
+
+        public void put(int key, int value) {
+            int mask = keys.length - 1;
+            int bucket = mix(key) & mask;
+            while (keys[bucket] != 0 && keys[bucket] != key + 1) bucket = (bucket + 1) & mask;
+            if (keys[bucket] == 0) {
+                keys[bucket] = key + 1;
+                size++;
+            }
+            values[bucket] = value;
+            if (size * 2 > keys.length) resize(keys.length * 2);
+        }
+
+        public void remove(int key) {
+            int mask = keys.length - 1;
+            int bucket = mix(key) & mask;
+            while (keys[bucket] != key + 1) {
+                if (keys[bucket] == 0) return;
+                bucket = (bucket + 1) & mask;
+            }
+            keys[bucket] = 0;
+            size--;
+            // shift back the entries of the probe run so lookups never stop early
+            for (int next = (bucket + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = mix(keys[next] - 1) & mask;
+                if (((next - home) & mask) >= ((next - bucket) & mask)) {
+                    keys[bucket] = keys[next];
+                    values[bucket] = values[next];
+                    keys[next] = 0;
+                    bucket = next;
+                }
+            }
+        }
+
+        public void clear() {
+            keys = new int[8];
+            values = new int[8];
+            size = 0;
+        }
+
+        public IntIntMap copy() {
+            IntIntMap copy = new IntIntMap();
+            copy.keys = keys.clone();
+            copy.values = values.clone();
+            copy.size = size;
+            return copy;
+        }
+
+        public long heapBytes() {
+            return 24 + 2 * (16 + 4L * keys.length);
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) put(oldKeys[i] - 1, oldValues[i]);
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+    /**
+     * Static inner class counting the occurrences of one folded word per topic.
+     * Topic ids are kept sorted, and since new topics get increasing ids most
+     * additions land at the end.
+     */
+    private static class TopicCounts {
+        int[] topicIds = new int[2];
+        int[] counts = new int[2];
+        int size;
+        /**
+         * Adds one occurrence for a topic.
+         * @param topicId The topic id.
+         */
+        public void increment(int topicId) {
+            int at = find(topicId);
+            if (at >= 0) {
+                counts[at]++;
+                return;
+            }
+            at = -at - 1;
+            if (size == topicIds.length) {
+                topicIds = Arrays.copyOf(topicIds, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(topicIds, at, topicIds, at + 1, size - at);
+            System.arraycopy(counts, at, counts, at + 1, size - at);
+            topicIds[at] = topicId;
+            counts[at] = 1;
+            size++;
+        }
+        /**
+         * Removes one occurrence for a topic.
+         * @param topicId The topic id.
+         */
+        public void decrement(int topicId) {
+            int at = find(topicId);
+            if (at < 0) return;
+            if (--counts[at] > 0) return;
+            System.arraycopy(topicIds, at + 1, topicIds, at, size - at - 1);
+            System.arraycopy(counts, at + 1, counts, at, size - at - 1);
+            size--;
+        }
+
+        /**
+         * @return The approximate number of heap bytes used by the postings.
+         */
+        public long heapBytes() {
+            return 24 + 16 + 4L * topicIds.length + 16 + 4L * counts.length;
+        }
+
+        /**
+         * @return A copy of the topic ids, in ascending order.
+         */
+        public int[] copyTopicIds() {
+            int[] ids = topicIds;
+            return Arrays.copyOf(ids, Math.min(size, ids.length));
+        }
+
+        private int find(int topicId) {
+            if (size > 0 && topicIds[size - 1] < topicId) return -size - 1;
+            return Arrays.binarySearch(topicIds, 0, size, topicId);
+        }
+    }
+    /**
+     * Inner class implementing trigram postings over the case-folded words of
+     * the index. Each word is padded with two start and two end markers and
+     * every run of three chars of the padded word lists the word's fold id.
+     * A word within k edits of another shares all but at most 3k of its
+     * trigrams with it, which bounds the words a similarity search has to
+     * measure, and a word matching a pattern holds every trigram of the
+     * pattern's literal parts.
+     *
+     * Words of up to {@link #SHORT_LENGTH} chars are listed by their length
+     * as well: a query of one char has too few trigrams to narrow anything
+     * down, but the words within one edit of it are at most that long.
+     *
+     * Postings only grow: a word that leaves the index stays listed, and
+     * searches skip it by checking the word index. Once such stale entries
+     * outnumber the live words the postings are rebuilt.
+     * The index lock guards the postings.
+     */
+    private class TrigramIndex {
+        private static final char START = '\u0002';
+        private static final char END = '\u0003';
+        private static final int MIN_REBUILD_SIZE = 1024;
+        private static final int SHORT_LENGTH = 2;
+        /** Set above the three chars of a trigram in the keys listing short words by length. */
+        private static final long LENGTH_KEY = 1L << 48;
+        /** Open-addressing table of trigram + 1, 0 marking a free bucket. */
+        private long[] grams = new long[1024];
+        private int[][] postings = new int[1024][];
+        private int[] sizes = new int[1024];
+        private int gramCount;
+        private boolean[] listed = new boolean[256];
+        private int live;
+        private int stale;
+        /**
+         * Lists a folded word under its trigrams, or revives it if it is still listed.
+         * @param fold The dictionary id of the folded word.
+         */
+        public void add(int fold) {
+            if (fold < listed.length && listed[fold]) {
+                stale--;
+                live++;
+                return;
+            }
+            if (fold >= listed.length) listed = Arrays.copyOf(listed, Math.max(listed.length * 2, fold + 1));
+            listed[fold] = true;
+            live++;
+            String word = dictionary.word(fold);
+            for (long gram : trigrams(word)) append(gram, fold);
+            if (word.length() <= SHORT_LENGTH) append(LENGTH_KEY | word.length(), fold);
+        }
+        /**
+         * Marks a folded word as gone from the index.
+         * @param fold The dictionary id of the folded word.
+         */
+        public void remove(int fold) {
+            live--;
+            stale++;
+            if (stale > live && stale >= MIN_REBUILD_SIZE) rebuild();
+        }
+        /**
+         * Collects the indexed words within a distance of a query, narrowing
+         * the distance once enough closer words have been found.
+         *
+         * @param key The case-folded query word.
+         * @param query The distances from the query word.
+         * @param maxDistance The largest edit distance accepted.
+         * @param limit How many words are wanted.
+         * @param out Receives pairs of the fold id and the distance of each word found.
+         * @return The distance the search was narrowed to; pairs beyond it may be dropped.
+         */
+        public int searchSimilar(String key, EditDistance query, int maxDistance, int limit, IntList out) {
+            int radius = maxDistance;
+            int[] within = new int[maxDistance + 1];
+            long[] queryGrams = trigrams(key);
+            int allowedMisses = 3 * maxDistance;
+            int[] candidates = allowedMisses < queryGrams.length ? candidates(queryGrams, allowedMisses)
+                    : shortCandidates(key.length(), maxDistance);
+            for (int fold : candidates) {
+                if (fold >= wordIndex.length || wordIndex[fold] == null) continue;
+                int distance = query.to(dictionary, fold);
+                if (distance > radius) continue;
+                out.add(fold);
+                out.add(distance);
+                within[distance]++;
+                // enough words strictly closer than the radius make the rest useless
+                while (radius > 0 && countUpTo(within, radius - 1) >= limit) radius--;
+            }
+            return radius;
+        }
+        /**
+         * Returns the indexed words that hold every trigram of a pattern's
+         * literal parts, a superset of the words matching the pattern.
+         *
+         * @param pattern The case-folded pattern.
+         * @return The fold ids of the candidates, or null if the pattern has no
+         *         trigram to look up and every word is a candidate.
+         */
+        public int[] patternCandidates(String pattern) {
+            long[] required = patternTrigrams(pattern);
+            if (required.length == 0) return null;
+            IntList live = new IntList();
+            for (int fold : candidates(required, 0)) {
+                if (fold < wordIndex.length && wordIndex[fold] != null) live.add(fold);
+            }
+            return Arrays.copyOf(live.values, live.size);
+        }
+        /**
+         * @return The approximate number of heap bytes used by the postings.
+         */
+        public long heapBytes() {
+            long bytes = 48 + 3 * 16 + 12L * grams.length + 16 + listed.length;
+            for (int[] list : postings) {
+                if (list != null) bytes += 16 + 4L * list.length;
+            }
+            return bytes;
+        }
+
+        /**
+         * Returns the fold ids that may share enough trigrams with a query.
+         * A word lacking at most k of the query's n trigrams appears in at
+         * least m - k of any m of their postings, so the postings are counted
+         * from the rarest up, taking in the next one only while it is no
+         * longer than all those counted before it.
+         *
+         * @param queryGrams The distinct trigrams of the query.
+         * @param allowedMisses How many of them a match may lack, fewer than there are.
+         * @return The candidate fold ids.
+         */
+        private int[] candidates(long[] queryGrams, int allowedMisses) {
+            int n = queryGrams.length;
+            long[] bySize = new long[n];
+            for (int i = 0; i < n; i++) {
+                int bucket = find(queryGrams[i]);
+                int size = bucket < 0 ? 0 : sizes[bucket];
+                bySize[i] = (long) size << 32 | (bucket + 1);
+            }
+            Arrays.sort(bySize);
+            int counted = allowedMisses + 1;
+            long work = 0;
+            for (int i = 0; i < counted; i++) work += bySize[i] >>> 32;
+            // the hit counts are bytes
+            int maxCounted = Math.min(n, Byte.MAX_VALUE);
+            while (counted < maxCounted && (bySize[counted] >>> 32) <= work) work += bySize[counted++] >>> 32;
+            int needed = counted - allowedMisses;
+            // hit counts by fold id + 1 in a table sized by the postings counted, not by the vocabulary
+            int capacity = Integer.highestOneBit((int) Math.min(work, 1 << 28) * 2 + 15) << 1;
+            int mask = capacity - 1;
+            int[] keys = new int[capacity];
+            byte[] hits = new byte[capacity];
+            IntList found = new IntList();
+            for (int i = 0; i < counted; i++) {
+                int bucket = (int) bySize[i] - 1;
+                if (bucket < 0) continue;
+                int[] list = postings[bucket];
+                for (int j = 0, size = (int) (bySize[i] >>> 32); j < size; j++) {
+                    int fold = list[j];
+                    int slot = mix(fold) & mask;
+                    while (keys[slot] != 0 && keys[slot] != fold + 1) slot = (slot + 1) & mask;
+                    keys[slot] = fold + 1;
+                    if (hits[slot] < needed && ++hits[slot] == needed) found.add(fold);
+                }
+            }
+            return Arrays.copyOf(found.values, found.size);
+        }
+
+        /**
+         * Returns the words whose length is within a distance of a query's,
+         * for a query with too few trigrams to look up.
+         *
+         * @param length The length of the query in chars.
+         * @param maxDistance The largest edit distance accepted.
+         * @return The candidate fold ids; every listed word if the query is
+         *         longer than the words listed by length, which the distances
+         *         searches allow never call for.
+         */
+        private int[] shortCandidates(int length, int maxDistance) {
+            if (length + maxDistance > SHORT_LENGTH) return allListed();
+            IntList found = new IntList();
+            for (int l = Math.max(0, length - maxDistance); l <= length + maxDistance; l++) {
+                int bucket = find(LENGTH_KEY | l);
+                if (bucket < 0) continue;
+                int[] list = postings[bucket];
+                for (int j = 0, size = sizes[bucket]; j < size; j++) found.add(list[j]);
+            }
+            return Arrays.copyOf(found.values, found.size);
+        }
+
+        private int[] allListed() {
+            IntList all = new IntList();
+            for (int fold = 0; fold < listed.length; fold++) {
+                if (listed[fold]) all.add(fold);
+            }
+            return Arrays.copyOf(all.values, all.size);
+        }
+
+        private void append(long gram, int fold) {
+            int bucket = find(gram);
+            if (bucket < 0) {
+                if ((gramCount + 1) * 2 > grams.length) growTable();
+                bucket = slotFor(gram);
+                grams[bucket] = gram + 1;
+                postings[bucket] = new int[4];
+                gramCount++;
+            }
+            int[] list = postings[bucket];
+            if (sizes[bucket] == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                postings[bucket] = list;
+            }
+            list[sizes[bucket]++] = fold;
+        }
+
+        /**
+         * @return The bucket of a trigram, or a negative value if it has no postings.
+         */
+        private int find(long gram) {
+            long[] table = grams;
+            int mask = table.length - 1;
+            // bounded so an optimistic read over a table being filled always ends
+            for (int probe = 0, bucket = mix(gram) & mask; probe < table.length; probe++, bucket = (bucket + 1) & mask) {
+                if (table[bucket] == 0) return -1;
+                if (table[bucket] == gram + 1) return bucket;
+            }
+            return -1;
+        }
+
+        private int slotFor(long gram) {
+            int mask = grams.length - 1;
+            int bucket = mix(gram) & mask;
+            while (grams[bucket] != 0) bucket = (bucket + 1) & mask;
+            return bucket;
+        }
+
+        private void growTable() {
+            long[] oldGrams = grams;
+            int[][] oldPostings = postings;
+            int[] oldSizes = sizes;
+            long[] newGrams = new long[oldGrams.length * 2];
+            int[][] newPostings = new int[newGrams.length][];
+            int[] newSizes = new int[newGrams.length];
+            int mask = newGrams.length - 1;
+            for (int i = 0; i < oldGrams.length; i++) {
+                if (oldGrams[i] == 0) continue;
+                int bucket = mix(oldGrams[i] - 1) & mask;
+                while (newGrams[bucket] != 0) bucket = (bucket + 1) & mask;
+                newGrams[bucket] = oldGrams[i];
+                newPostings[bucket] = oldPostings[i];
+                newSizes[bucket] = oldSizes[i];
+            }
+            sizes = newSizes;
+            postings = newPostings;
+            grams = newGrams;
+        }
+
+        /**
+         * Lists the live words again in fresh arrays, dropping the stale entries.
+         */
+        private void rebuild() {
+            boolean[] oldListed = listed;
+            grams = new long[1024];
+            postings = new int[1024][];
+            sizes = new int[1024];
+            gramCount = 0;
+            listed = new boolean[oldListed.length];
+            live = 0;
+            stale = 0;
+            for (int fold = 0; fold < oldListed.length; fold++) {
+                if (oldListed[fold] && fold < wordIndex.length && wordIndex[fold] != null) add(fold);
+            }
+        }
+
+        private int countUpTo(int[] within, int distance) {
+            int count = 0;
+            for (int d = 0; d <= distance; d++) count += within[d];
+            return count;
+        }
+
+        /**
+         * Returns the distinct trigrams of a padded word, three chars packed in a long.
+         */
+        private long[] trigrams(String word) {
+            int length = word.length();
+            long[] result = new long[length + 2];
+            int count = 0;
+            for (int i = 0; i < length + 2; i++) {
+                long gram = (long) charAt(word, i - 2) << 32 | (long) charAt(word, i - 1) << 16 | charAt(word, i);
+                boolean seen = false;
+                for (int j = 0; j < count && !seen; j++) seen = result[j] == gram;
+                if (!seen) result[count++] = gram;
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        /**
+         * Returns the distinct trigrams lying wholly within the literal parts of a
+         * pattern, with the start and end markers where the pattern is anchored.
+         */
+        private long[] patternTrigrams(String pattern) {
+            StringBuilder padded = new StringBuilder(pattern.length() + 4).append(START).append(START);
+            padded.append(pattern).append(END).append(END);
+            long[] result = new long[padded.length()];
+            int count = 0;
+            for (int i = 2; i < padded.length(); i++) {
+                char a = padded.charAt(i - 2);
+                char b = padded.charAt(i - 1);
+                char c = padded.charAt(i);
+                if (isWildcard(a) || isWildcard(b) || isWildcard(c)) continue;
+                long gram = (long) a << 32 | (long) b << 16 | c;
+                boolean seen = false;
+                for (int j = 0; j < count && !seen; j++) seen = result[j] == gram;
+                if (!seen) result[count++] = gram;
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        private char charAt(String word, int index) {
+            if (index < 0) return START;
+            return index < word.length() ? word.charAt(index) : END;
+        }
+
+        private int mix(long gram) {
+            long h = gram * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 29));
+        }
+    }
+    /**
+     * Static inner class computing the Levenshtein distance from one word to
+     * many others. Words of up to 64 chars use the bit-parallel algorithm of
+     * Myers as formulated by Hyyro, one pass of a few word operations per char
+     * of the other word; longer words fall back to the classic two-row table.
+     */
+    private static class EditDistance {
+        private final char[] word;
+        private final long[] asciiMasks = new long[128];
+        private char[] otherChars = new char[0];
+        private long[] otherMasks = new long[0];
+        private byte[] bytes = new byte[32];
+        private char[] text = new char[32];
+        private int[] row;
+        /**
+         * Constructor to prepare the distances from a word.
+         * @param word The word distances are measured from.
+         */
+        public EditDistance(String word) {
+            this.word = word.toCharArray();
+            if (this.word.length > 64) {
+                row = new int[this.word.length + 1];
+                return;
+            }
+            for (int i = 0; i < this.word.length; i++) {
+                char c = this.word[i];
+                if (c < 128) {
+                    asciiMasks[c] |= 1L << i;
+                    continue;
+                }
+                int at = 0;
+                while (at < otherChars.length && otherChars[at] != c) at++;
+                if (at == otherChars.length) {
+                    otherChars = Arrays.copyOf(otherChars, at + 1);
+                    otherMasks = Arrays.copyOf(otherMasks, at + 1);
+                    otherChars[at] = c;
+                }
+                otherMasks[at] |= 1L << i;
+            }
+        }
+        /**
+         * @param dictionary The dictionary holding the other word.
+         * @param id The dictionary id of the other word.
+         * @return The edit distance between the two words.
+         */
+        public int to(WordDictionary dictionary, int id) {
+            int length = dictionary.byteLength(id);
+            if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+            dictionary.copyBytes(id, bytes, 0);
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) ascii = bytes[i] >= 0;
+            if (ascii) {
+                if (text.length < length) text = new char[Math.max(length, text.length * 2)];
+                for (int i = 0; i < length; i++) text[i] = (char) bytes[i];
+                return to(text, length);
+            }
+            return to(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        /**
+         * @param other The other word.
+         * @return The edit distance between the two words.
+         */
+        public int to(String other) {
+            if (text.length < other.length()) text = new char[Math.max(other.length(), text.length * 2)];
+            other.getChars(0, other.length(), text, 0);
+            return to(text, other.length());
+        }
+
+        private int to(char[] other, int length) {
+            int m = word.length;
+            if (m == 0) return length;
+            if (row != null) return table(other, length);
+            long last = 1L << (m - 1);
+            long positive = -1L;
+            long negative = 0;
+            int distance = m;
+            for (int j = 0; j < length; j++) {
+                long equal = mask(other[j]);
+                long vertical = equal | negative;
+                long horizontal = (((equal & positive) + positive) ^ positive) | equal;
+                long horizontalUp = negative | ~(horizontal | positive);
+                long horizontalDown = positive & horizontal;
+                if ((horizontalUp & last) != 0) {
+                    distance++;
+                } else if ((horizontalDown & last) != 0) {
+                    distance--;
+                }
+                horizontalUp = (horizontalUp << 1) | 1;
+                horizontalDown <<= 1;
+                positive = horizontalDown | ~(vertical | horizontalUp);
+                negative = horizontalUp & vertical;
+            }
+            return distance;
+        }
+
+        private long mask(char c) {
+            if (c < 128) return asciiMasks[c];
+            for (int i = 0; i < otherChars.length; i++) {
+                if (otherChars[i] == c) return otherMasks[i];
+            }
+            return 0;
+        }
+
+        private int table(char[] other, int length) {
+            int m = word.length;
+            for (int i = 0; i <= m; i++) row[i] = i;
+            for (int j = 1; j <= length; j++) {
+                int diagonal = row[0];
+                row[0] = j;
+                for (int i = 1; i <= m; i++) {
+                    int above = row[i];
+                    int substitute = diagonal + (word[i - 1] == other[j - 1] ? 0 : 1);
+                    row[i] = Math.min(substitute, Math.min(above, row[i - 1]) + 1);
+                    diagonal = above;
+                }
+            }
+            return row[m];
+        }
+    }
+    /**
+     * Static inner class implementing a growable list of ints, without boxing.
+     */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        public void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        public int get(int index) {
+            return values[index];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+    }
+    /**
+     * Inner class representing the content of a topic,
+     * containing the name of the topic and its list of words.
+     */
+    private class TopicContent {
+        String topicName;
+        /**
+         * The words, or null while a topic loaded lazily is not in memory.
+         */
+        volatile WordList words;
+        /**
+         * Where the words of a topic loaded lazily are in its file, or null once
+         * the topic has been edited and only lives in memory.
+         */
+        volatile TopicSource source;
+        /**
+         * Constructor to initialize the topic content with a topic name.
+         * @param topicName The name of the topic.
+         */
+        public TopicContent(String topicName) {
+            this.topicName = topicName;
+            words = new WordList();
+        }
+        /**
+         * Constructor to initialize the content of a topic whose words stay on disk until needed.
+         * @param topicName The name of the topic.
+         * @param source Where its words are.
+         */
+        public TopicContent(String topicName, TopicSource source) {
+            this.topicName = topicName;
+            this.source = source;
+        }
+        /**
+         * Adds a word to the end of the list of words for this topic.
+         * @param word The word to add.
+         */
+        public void addWord(String word) {
+            words.add(dictionary.intern(word));
+        }
+        /**
+         * @return The approximate number of heap bytes used by the topic, its node and its words.
+         */
+        public long heapBytes() {
+            return 48 + 24 + 40L + 2L * topicName.length() + (words == null ? 32 : words.heapBytes());
+        }
+    }
+    /**
+     * Static inner class locating the words of a topic loaded lazily: the
+     * lines between its header and the next one in an open file. A Bloom
+     * filter of the case-folded words, about a byte per word, tells which
+     * topics cannot hold a word without reading them.
+     */
+    private static class TopicSource {
+        private static final int FILTER_HASHES = 3;
+
+        final FileChannel channel;
+        final long offset;
+        final int length;
+        final int wordCount;
+        private final long[] filter;
+
+        TopicSource(FileChannel channel, long offset, int length, int wordCount, IntList wordHashes) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+            this.wordCount = wordCount;
+            int bits = Math.max(64, Integer.highestOneBit(Math.max(1, wordHashes.size() * 8 - 1)) * 2);
+            this.filter = new long[bits >>> 6];
+            for (int i = 0; i < wordHashes.size(); i++) {
+                int hash = wordHashes.get(i);
+                int step = Integer.rotateLeft(hash, 16) | 1;
+                for (int k = 0; k < FILTER_HASHES; k++, hash += step) filter[(hash & (bits - 1)) >>> 6] |= 1L << hash;
+            }
+        }
+
+        /**
+         * @param wordHash The {@link #foldHash} of a word.
+         * @return false if the topic surely does not hold the word.
+         */
+        boolean mayHold(int wordHash) {
+            int bits = filter.length << 6;
+            int hash = wordHash;
+            int step = Integer.rotateLeft(hash, 16) | 1;
+            for (int k = 0; k < FILTER_HASHES; k++, hash += step) {
+                if ((filter[(hash & (bits - 1)) >>> 6] & 1L << hash) == 0) return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return The lines of the topic as UTF-8 bytes.
+         * @throws IOException If the file cannot be read or has shrunk.
+         */
+        byte[] read() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Vocabulary file changed since it was loaded");
+                }
+            }
+            return buffer.array();
+        }
+    }
+    /**
+     * Inner class holding the whole list as it was at one instant, taken with
+     * {@link #openVersion()}. A version shares the word lists of the topics
+     * instead of copying them: taking one only numbers it, and an edit copies
+     * a list before changing it while a version numbered after the list was
+     * made is open, so a version never changes and the topics nobody edits
+     * stay shared between the list and all its versions.
+     * Reading a version takes no lock, so edits go on meanwhile.
+     *
+     * A version keeps the words it shares in memory until it is closed; one
+     * that is dropped without being closed is closed once it is garbage
+     * collected. Topics loaded lazily and not in memory are read from their
+     * file, which is closed when the vocabulary is cleared or restored.
+     */
+    public class Version implements AutoCloseable {
+        private final int[] topicIds;
+        private final String[] topicNames;
+        private final WordList[] topicWords;
+        private final TopicSource[] topicSources;
+        private final int nextTopicId;
+        private final long journalSequence;
+        private final Cleaner.Cleanable cleanable;
+
+        Version(long number, int[] topicIds, String[] topicNames, WordList[] topicWords, TopicSource[] topicSources,
+                int nextTopicId, long journalSequence) {
+            this.topicIds = topicIds;
+            this.topicNames = topicNames;
+            this.topicWords = topicWords;
+            this.topicSources = topicSources;
+            this.nextTopicId = nextTopicId;
+            this.journalSequence = journalSequence;
+            this.cleanable = VERSION_CLEANER.register(this, new VersionRelease(openVersions, number));
+        }
+        /**
+         * @return The number of topics.
+         */
+        public int topicCount() {
+            return topicIds.length;
+        }
+        /**
+         * @param number The 1-based topic number.
+         * @return The id of the topic, or -1 if there is no topic with that number.
+         */
+        public int topicIdAt(int number) {
+            return number < 1 || number > topicIds.length ? -1 : topicIds[number - 1];
+        }
+        /**
+         * @param number The 1-based topic number.
+         * @return The name of the topic, or null if there is no topic with that number.
+         */
+        public String topicNameAt(int number) {
+            return number < 1 || number > topicIds.length ? null : topicNames[number - 1];
+        }
+        /**
+         * @param number The 1-based topic number.
+         * @return The words of the topic in order, or null if there is no topic with that number.
+         * @throws UncheckedIOException If the topic was loaded lazily and its file cannot be read.
+         */
+        public List<String> topicWordsAt(int number) {
+            if (number < 1 || number > topicIds.length) return null;
+            if (topicWords[number - 1] == null) return wordsOnDisk(number - 1);
+            ArrayList<String> words = new ArrayList<>();
+            for (String word : topicWords[number - 1]) words.add(word);
+            return words;
+        }
+        /**
+         * Finds the topics holding a word, ignoring case, by looking the word
+         * up in every topic, so the result matches the rest of the version.
+         *
+         * @param word The word to look for.
+         * @return The names of the topics holding the word, in list order.
+         * @throws UncheckedIOException If a topic was loaded lazily and its file cannot be read.
+         */
+        public List<String> searchTopics(String word) {
+            String key = foldWord(word);
+            int fold = dictionary.find(key);
+            ArrayList<String> names = new ArrayList<>();
+            for (int i = 0; i < topicIds.length; i++) {
+                boolean holds;
+                if (topicWords[i] != null) {
+                    holds = fold != -1 && topicWords[i].containsId(fold);
+                } else {
+                    try {
+                        holds = holdsFolded(topicSources[i].read(), key);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                if (holds) names.add(topicNames[i]);
+            }
+            return names;
+        }
+        /**
+         * Lets edits change the shared word lists in place again, unless another version still shares them.
+         */
+        @Override
+        public void close() {
+            cleanable.clean();
+        }
+
+        private List<String> wordsOnDisk(int index) {
+            try {
+                return decodeWords(topicSources[index].read());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    /**
+     * Static inner class forgetting a version once it is closed or unreachable.
+     * It must not refer to the version itself.
+     */
+    private static class VersionRelease implements Runnable {
+        private final ConcurrentSkipListSet<Long> openVersions;
+        private final long number;
+
+        VersionRelease(ConcurrentSkipListSet<Long> openVersions, long number) {
+            this.openVersions = openVersions;
+            this.number = number;
+        }
+
+        @Override
+        public void run() {
+            openVersions.remove(number);
+        }
+    }
+    /**
+     * Sets where the loader reports every line it reads and every word it
+     * skips, or turns the reports off. While reporting, files are parsed on
+     * the calling thread so the lines arrive in file order.
+     * @param loadLog Receives one message per line, or null for no reports.
+     */
+    public void setLoadLog(Consumer<String> loadLog) {
+        this.loadLog = loadLog;
+    }
+    /**
+     * Puts a cache in front of {@link #searchTopics(String)} and
+     * {@link #wordsStartingWith(String, String, int)}. Every edit evicts only
+     * the cached results it changes: those for the words it adds or removes
+     * and for the prefixes of these words. Loading files or a snapshot drops
+     * every cached result once instead.
+     *
+     * @param queryCache The cache, or null to stop caching.
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        long stamp = indexLock.writeLock();
+        try {
+            if (queryCache != null) queryCache.invalidateAll();
+            this.queryCache = queryCache;
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * @return The cache in front of the searches, or null when caching is off.
+     */
+    public QueryCache queryCache() {
+        return queryCache;
+    }
+    /**
+     * Times every load, save, search, listing and edit into a set of metrics.
+     *
+     * @param metrics The metrics, or null to stop timing.
+     */
+    public void setMetrics(VocabMetrics metrics) {
+        this.metrics = metrics;
+    }
+    /**
+     * @return The metrics operations are timed into, or null when timing is off.
+     */
+    public VocabMetrics metrics() {
+        return metrics;
+    }
+    /**
+     * @return The start time of an operation, or 0 when timing is off.
+     */
+    private long timerStart() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+    /**
+     * Records the latency of an operation started at {@link #timerStart()}.
+     */
+    private void timerStop(VocabMetrics.Operation operation, long start) {
+        VocabMetrics current = metrics;
+        if (current != null && start != 0) current.record(operation, System.nanoTime() - start);
+    }
+    /**
+     * Starts the interactive console; see {@link VocabConsole#main(String[])}.
+     */
+    public static void main(String[] args) {
+        VocabConsole.main(args);
+    }
+    /**
+     * @return The number of topics.
+     */
+    public int topicCount() {
+        return topicCounter;
+    }
+    /**
+     * Returns the stable id of the topic at a position. Unlike its number, the id
+     * of a topic never changes while it is in the list, so edits address topics by id.
+     *
+     * @param number The 1-based topic number.
+     * @return The topic id, or -1 if there is no topic with that number.
+     */
+    public int topicIdAt(int number) {
+        return optimisticRead(structureLock,
+                () -> number < 1 || number > topicCounter ? -1 : topicSequence.get(number).topicId);
+    }
+    /**
+     * Returns the ids of a run of consecutive topics, for listing them page by page.
+     *
+     * @param fromNumber The 1-based number of the first topic.
+     * @param count The most ids wanted.
+     * @return The ids in list order, fewer than asked at the end of the list.
+     */
+    public int[] topicIds(int fromNumber, int count) {
+        int from = Math.max(fromNumber, 1);
+        return optimisticRead(structureLock, () -> {
+            int n = Math.max(0, Math.min(count, topicCounter - from + 1));
+            int[] ids = new int[n];
+            TopicNode current = n == 0 ? null : topicSequence.get(from);
+            for (int i = 0; i < n && current != null; i++) {
+                ids[i] = current.topicId;
+                current = current.nextNode;
+            }
+            return ids;
+        });
+    }
+    /**
+     * @param topicId A topic id.
+     * @return The name of the topic, or null if there is no topic with that id.
+     */
+    public String topicName(int topicId) {
+        TopicNode topic = topicsById.get(topicId);
+        return topic == null ? null : topic.topicContent.topicName;
+    }
+    /**
+     * Returns the names of all topics, in list order.
+     *
+     * @return The topic names.
+     */
+    public List<String> topicNames() {
+        long stamp = structureLock.readLock();
+        try {
+            ArrayList<String> names = new ArrayList<>(topicCounter);
+            for (TopicNode current = startNode; current != null; current = current.nextNode) {
+                names.add(current.topicContent.topicName);
+            }
+            return names;
+        } finally {
+            structureLock.unlockRead(stamp);
+        }
+    }
+    /**
+     * Returns the words of a topic in list order.
+     *
+     * @param topicId A topic id.
+     * @return A copy of the words, or null if there is no topic with that id.
+     */
+    public List<String> topicWords(int topicId) {
+        TopicNode topic = topicsById.get(topicId);
+        if (topic == null) return null;
+        WordList topicWords = residentWords(topic);
+        int[] ids = optimisticRead(topicLock(topic), topicWords::liveIds);
+        ArrayList<String> words = new ArrayList<>(ids.length);
+        for (int id : ids) words.add(dictionary.word(id));
+        return words;
+    }
+    /**
+     * Returns a run of consecutive words of a topic, for listing them page by
+     * page without copying the whole topic.
+     *
+     * @param topicId A topic id.
+     * @param offset The number of words to skip.
+     * @param limit The most words wanted.
+     * @return The words in list order, fewer than asked at the end of the topic,
+     *         or null if there is no topic with that id.
+     */
+    public List<String> topicWords(int topicId, int offset, int limit) {
+        TopicNode topic = topicsById.get(topicId);
+        if (topic == null) return null;
+        WordList topicWords = residentWords(topic);
+        int[] ids = optimisticRead(topicLock(topic), () -> topicWords.liveIds(offset, limit));
+        ArrayList<String> words = new ArrayList<>(ids.length);
+        for (int id : ids) words.add(dictionary.word(id));
+        return words;
+    }
+    /**
+     * Returns the names of the topics containing a word, ignoring case, in list order.
+     *
+     * @param word The word to look for.
+     * @return The topic names, empty if no topic holds the word.
+     */
+    public List<String> searchTopics(String word) {
+        long start = timerStart();
+        try {
+            return namesOfTopicsHolding(word);
+        } finally {
+            timerStop(VocabMetrics.Operation.SEARCH, start);
+        }
+    }
+    /**
+     * Returns the names of the topics containing a word, through the query cache when there is one.
+     */
+    private List<String> namesOfTopicsHolding(String word) {
+        QueryCache cache = queryCache;
+        String group = null;
+        long cacheStamp = 0;
+        if (cache != null) {
+            group = TOPICS_GROUP + foldWord(word);
+            List<String> cached = cache.get(group, "");
+            if (cached != null) return new ArrayList<>(cached);
+            cacheStamp = cache.stamp(group);
+        }
+        // cold topics first, so a topic loaded meanwhile is found in the index
+        List<TopicNode> cold = hasColdTopics() ? coldTopicsHolding(foldWord(word)) : Collections.emptyList();
+        ArrayList<TopicNode> indexed = topicsContaining(foldIdOf(word));
+        List<TopicNode> matches = indexed;
+        if (!cold.isEmpty()) {
+            HashSet<TopicNode> seen = new HashSet<>(indexed);
+            for (TopicNode topic : cold) {
+                if (seen.add(topic)) indexed.add(topic);
+            }
+            matches = optimisticRead(structureLock, () -> inListOrder(indexed));
+        }
+        ArrayList<String> names = new ArrayList<>(matches.size());
+        for (TopicNode topic : matches) names.add(topic.topicContent.topicName);
+        if (cache != null) cache.put(group, "", new ArrayList<>(names), cacheStamp);
+        return names;
+    }
+    /**
+     * Static inner class holding one result of a similarity search: a word
+     * close to the query, its edit distance from the query and the topics holding it.
+     */
+    public static class WordMatch {
+        public final String word;
+        public final int distance;
+        public final List<String> topics;
+
+        WordMatch(String word, int distance, List<String> topics) {
+            this.word = word;
+            this.distance = distance;
+            this.topics = topics;
+        }
+    }
+    /**
+     * Finds the words closest to a possibly misspelt word, ignoring case.
+     * Words are ranked by their Levenshtein distance from the query, then
+     * alphabetically, and only words within a distance that grows with the
+     * length of the query are considered: one edit for up to seven chars
+     * and two beyond. Trigram postings kept up to date
+     * by every edit narrow the search down to the words sharing enough
+     * trigrams with the query, so only a small part of the vocabulary is measured.
+     * Topics loaded lazily and not in memory are read and measured word by word.
+     *
+     * @param word The word to look for.
+     * @param limit The largest number of words returned.
+     * @return The closest words in their case-folded form, nearest first, each
+     *         with the topics holding it in list order.
+     */
+    public List<WordMatch> searchSimilar(String word, int limit) {
+        long start = timerStart();
+        try {
+            if (limit <= 0) return new ArrayList<>();
+            String key = foldWord(word);
+            int maxDistance = Math.max(1, Math.min(MAX_SIMILAR_DISTANCE, key.length() / 4));
+            EditDistance query = new EditDistance(key);
+            IntList found = new IntList();
+            int radius = optimisticRead(indexLock, () -> {
+                found.clear();
+                return wordTrigrams.searchSimilar(key, query, maxDistance, limit, found);
+            });
+            ArrayList<WordMatch> candidates = new ArrayList<>();
+            for (int i = 0; i < found.size(); i += 2) {
+                if (found.get(i + 1) <= radius) {
+                    candidates.add(new WordMatch(dictionary.word(found.get(i)), found.get(i + 1), null));
+                }
+            }
+            if (hasColdTopics()) {
+                HashSet<String> seen = new HashSet<>();
+                for (WordMatch candidate : candidates) seen.add(candidate.word);
+                for (String cold : coldForms(other -> query.to(other) <= maxDistance).keySet()) {
+                    if (seen.add(cold)) candidates.add(new WordMatch(cold, query.to(cold), null));
+                }
+            }
+            candidates.sort(Comparator.<WordMatch>comparingInt(match -> match.distance).thenComparing(match -> match.word));
+            ArrayList<WordMatch> matches = new ArrayList<>(Math.min(limit, candidates.size()));
+            for (WordMatch candidate : candidates) {
+                if (matches.size() == limit) break;
+                List<String> topics = namesOfTopicsHolding(candidate.word);
+                // skip a word whose last topic went away since the tree was read
+                if (!topics.isEmpty()) matches.add(new WordMatch(candidate.word, candidate.distance, topics));
+            }
+            return matches;
+        } finally {
+            timerStop(VocabMetrics.Operation.SIMILAR, start);
+        }
+    }
+    /**
+     * Static inner class holding how widely a word is used: the number of
+     * topics holding it and its number of occurrences in all of them.
+     */
+    public static class WordFrequency {
+        public final String word;
+        public final int topics;
+        public final long occurrences;
+
+        WordFrequency(String word, int topics, long occurrences) {
+            this.word = word;
+            this.topics = topics;
+            this.occurrences = occurrences;
+        }
+    }
+    /**
+     * Static inner class holding the overlap of two topics: the number of
+     * distinct words they share, ignoring case, and their Jaccard similarity,
+     * the shared words over the distinct words of both together.
+     */
+    public static class TopicOverlap {
+        public final int topicId;
+        public final int otherTopicId;
+        public final int sharedWords;
+        public final double jaccard;
+
+        TopicOverlap(int topicId, int otherTopicId, int sharedWords, double jaccard) {
+            this.topicId = topicId;
+            this.otherTopicId = otherTopicId;
+            this.sharedWords = sharedWords;
+            this.jaccard = jaccard;
+        }
+    }
+    /**
+     * Static inner class holding the result of {@link #statistics(int)}.
+     */
+    public static class Statistics {
+        public final int topics;
+        public final long words;
+        public final int distinctWords;
+        /** The words held by the most topics, most shared first. */
+        public final List<WordFrequency> sharedWords;
+        /** The pairs of topics with the highest Jaccard similarity, most similar first. */
+        public final List<TopicOverlap> overlaps;
+
+        Statistics(int topics, long words, int distinctWords, List<WordFrequency> sharedWords, List<TopicOverlap> overlaps) {
+            this.topics = topics;
+            this.words = words;
+            this.distinctWords = distinctWords;
+            this.sharedWords = sharedWords;
+            this.overlaps = overlaps;
+        }
+    }
+    /**
+     * Computes how words spread over the topics, ignoring case: the words held
+     * by the most topics, with their occurrences, and the pairs of topics
+     * sharing the largest part of their words. The statistics are computed on
+     * a {@link Version}, so edits go on meanwhile and are not counted. Every
+     * topic is first turned into the sorted ids of its case-folded words, in
+     * parallel on the common ForkJoinPool; topics loaded lazily are read from
+     * their file without being kept. Postings from each folded word to the
+     * topics holding it then give every topic the number of words it shares
+     * with each later topic, again in parallel, so the work grows with the
+     * pairs of topics sharing a word, not with all pairs.
+     *
+     * @param limit The number of words and of topic pairs wanted.
+     * @return The statistics.
+     * @throws IllegalArgumentException If the limit is negative.
+     * @throws UncheckedIOException If the file of a topic loaded lazily cannot be read.
+     */
+    public Statistics statistics(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        long start = timerStart();
+        try (Version version = openVersion()) {
+            int n = version.topicCount();
+            int[][] folds = new int[n][];
+            int[][] occurrences = new int[n][];
+            // words of topics on disk that the dictionary lacks get ids past it, without being interned
+            int known = dictionary.size();
+            HashMap<String, Integer> unknownIds = new HashMap<>();
+            ArrayList<String> unknownWords = new ArrayList<>();
+            int grain = Math.max(1, n / (8 * ForkJoinPool.getCommonPoolParallelism()));
+            ForkJoinPool.commonPool().invoke(new TopicRangeTask(0, n, grain, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int[] ids;
+                    if (version.topicWords[i] != null) {
+                        ids = version.topicWords[i].liveIds();
+                        for (int k = 0; k < ids.length; k++) ids[k] = dictionary.fold(ids[k]);
+                    } else {
+                        List<String> words = version.wordsOnDisk(i);
+                        ids = new int[words.size()];
+                        for (int k = 0; k < ids.length; k++) {
+                            String key = foldWord(words.get(k));
+                            int fold = dictionary.find(key);
+                            if (fold == -1 || fold >= known) {
+                                synchronized (unknownIds) {
+                                    fold = unknownIds.computeIfAbsent(key, unknown -> {
+                                        unknownWords.add(unknown);
+                                        return known + unknownWords.size() - 1;
+                                    });
+                                }
+                            }
+                            ids[k] = fold;
+                        }
+                    }
+                    Arrays.sort(ids);
+                    int distinct = 0;
+                    int[] counts = new int[ids.length];
+                    for (int k = 0; k < ids.length; k++) {
+                        if (distinct > 0 && ids[distinct - 1] == ids[k]) {
+                            counts[distinct - 1]++;
+                        } else {
+                            ids[distinct] = ids[k];
+                            counts[distinct++] = 1;
+                        }
+                    }
+                    folds[i] = Arrays.copyOf(ids, distinct);
+                    occurrences[i] = Arrays.copyOf(counts, distinct);
+                }
+            }));
+
+            // postings of each folded word: the indexes of its topics, ascending
+            int foldCount = known + unknownWords.size();
+            int[] postingStarts = new int[foldCount + 1];
+            long[] wordOccurrences = new long[foldCount];
+            long words = 0;
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < folds[i].length; k++) {
+                    postingStarts[folds[i][k] + 1]++;
+                    wordOccurrences[folds[i][k]] += occurrences[i][k];
+                    words += occurrences[i][k];
+                }
+            }
+            int distinctWords = 0;
+            PriorityQueue<Integer> widest = new PriorityQueue<>(Comparator.<Integer>comparingInt(f -> postingStarts[f + 1])
+                    .thenComparingLong(f -> wordOccurrences[f]).thenComparing(Comparator.<Integer>reverseOrder()));
+            for (int fold = 0; fold < foldCount; fold++) {
+                if (postingStarts[fold + 1] == 0) continue;
+                distinctWords++;
+                if (limit <= 0) continue;
+                widest.add(fold);
+                if (widest.size() > limit) widest.poll();
+            }
+            ArrayList<WordFrequency> sharedWords = new ArrayList<>(widest.size());
+            while (!widest.isEmpty()) {
+                int fold = widest.poll();
+                String word = fold < known ? dictionary.word(fold) : unknownWords.get(fold - known);
+                sharedWords.add(new WordFrequency(word, postingStarts[fold + 1], wordOccurrences[fold]));
+            }
+            Collections.reverse(sharedWords);
+            for (int fold = 0; fold < foldCount; fold++) postingStarts[fold + 1] += postingStarts[fold];
+            int[] postings = new int[postingStarts[foldCount]];
+            int[] filled = Arrays.copyOf(postingStarts, foldCount);
+            for (int i = 0; i < n; i++) {
+                for (int fold : folds[i]) postings[filled[fold]++] = i;
+            }
+
+            Comparator<TopicOverlap> similarity = Comparator.<TopicOverlap>comparingDouble(overlap -> overlap.jaccard)
+                    .thenComparingInt(overlap -> overlap.sharedWords)
+                    .thenComparing(Comparator.<TopicOverlap>comparingInt(overlap -> overlap.topicId)
+                            .thenComparingInt(overlap -> overlap.otherTopicId).reversed());
+            ArrayList<TopicOverlap> candidates = new ArrayList<>();
+            if (limit > 0) {
+                ForkJoinPool.commonPool().invoke(new TopicRangeTask(0, n, grain, (from, to) -> {
+                    int[] shared = new int[n];
+                    int[] touched = new int[n];
+                    PriorityQueue<TopicOverlap> best = new PriorityQueue<>(similarity);
+                    for (int i = from; i < to; i++) {
+                        int touchedCount = 0;
+                        for (int fold : folds[i]) {
+                            for (int p = postingStarts[fold + 1] - 1; p >= postingStarts[fold] && postings[p] > i; p--) {
+                                if (shared[postings[p]]++ == 0) touched[touchedCount++] = postings[p];
+                            }
+                        }
+                        for (int t = 0; t < touchedCount; t++) {
+                            int j = touched[t];
+                            int common = shared[j];
+                            shared[j] = 0;
+                            double jaccard = (double) common / (folds[i].length + folds[j].length - common);
+                            best.add(new TopicOverlap(version.topicIds[i], version.topicIds[j], common, jaccard));
+                            if (best.size() > limit) best.poll();
+                        }
+                    }
+                    synchronized (candidates) {
+                        candidates.addAll(best);
+                    }
+                }));
+            }
+            candidates.sort(similarity.reversed());
+            List<TopicOverlap> overlaps = new ArrayList<>(candidates.subList(0, Math.min(limit, candidates.size())));
+            return new Statistics(n, words, distinctWords, sharedWords, overlaps);
+        } finally {
+            timerStop(VocabMetrics.Operation.STATISTICS, start);
+        }
+    }
+    /**
+     * Work on a range of topics, given by their indexes.
+     */
+    private interface TopicRangeWork {
+        void run(int from, int to);
+    }
+    /**
+     * Fork-join task running work on a range of topics, splitting it in halves
+     * until at most a given number of topics is left.
+     */
+    private static class TopicRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final transient TopicRangeWork work;
+
+        TopicRangeTask(int from, int to, int grain, TopicRangeWork work) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                if (from < to) work.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TopicRangeTask(from, middle, grain, work), new TopicRangeTask(middle, to, grain, work));
+        }
+    }
+    /**
+     * Adds a word to the end of a topic, unless the topic already holds it in any letter case.
+     *
+     * @param topicId The topic id.
+     * @param word The word to add.
+     * @return true if the word was added, false if it was already listed.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     * @throws NoSuchElementException If there is no topic with that id.
+     */
+    public boolean addWord(int topicId, String word) throws IOException {
+        long start = timerStart();
+        try {
+            return editTopic(topicId, topic -> {
+                if (topic.topicContent.words.contains(word)) return false;
+                applyAddWord(topic, word);
+                return true;
+            });
+        } finally {
+            timerStop(VocabMetrics.Operation.ADD_WORD, start);
+        }
+    }
+    /**
+     * Removes the first occurrence of a word from a topic, ignoring case.
+     *
+     * @param topicId The topic id.
+     * @param word The word to remove.
+     * @return true if the word was removed, false if it was not found.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     * @throws NoSuchElementException If there is no topic with that id.
+     */
+    public boolean removeWord(int topicId, String word) throws IOException {
+        long start = timerStart();
+        try {
+            return editTopic(topicId, topic -> applyRemoveWord(topic, word));
+        } finally {
+            timerStop(VocabMetrics.Operation.REMOVE_WORD, start);
+        }
+    }
+    /**
+     * Replaces the first occurrence of a word in a topic, ignoring case, keeping its position.
+     *
+     * @param topicId The topic id.
+     * @param oldWord The word to replace.
+     * @param newWord The replacement.
+     * @return true if the word was replaced, false if it was not found.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     * @throws NoSuchElementException If there is no topic with that id.
+     */
+    public boolean changeWord(int topicId, String oldWord, String newWord) throws IOException {
+        long start = timerStart();
+        try {
+            return editTopic(topicId, topic -> applyChangeWord(topic, oldWord, newWord));
+        } finally {
+            timerStop(VocabMetrics.Operation.CHANGE_WORD, start);
+        }
+    }
+    /**
+     * Replaces all the words of a topic, keeping its id, name and position.
+     * When journaling, this is logged as one record, so the topic is never
+     * replayed half replaced.
+     *
+     * @param topicId The topic id.
+     * @param words The new words, in order.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     * @throws NoSuchElementException If there is no topic with that id.
+     */
+    public void replaceWords(int topicId, List<String> words) throws IOException {
+        long start = timerStart();
+        try {
+            editTopic(topicId, topic -> applyReplaceWords(topic, words));
+        } finally {
+            timerStop(VocabMetrics.Operation.REPLACE_WORDS, start);
+        }
+    }
+    /**
+     * Inserts a new topic directly before another one.
+     *
+     * @param anchorId The id of the topic to insert before.
+     * @param name The name of the new topic.
+     * @param words The words of the new topic.
+     * @return The id of the new topic.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     * @throws NoSuchElementException If there is no topic with the anchor id.
+     */
+    public int insertTopicBefore(int anchorId, String name, List<String> words) throws IOException {
+        return insertTopic(anchorId, VocabJournal.BEFORE, name, words);
+    }
+    /**
+     * Inserts a new topic directly after another one.
+     *
+     * @param anchorId The id of the topic to insert after.
+     * @param name The name of the new topic.
+     * @param words The words of the new topic.
+     * @return The id of the new topic.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     * @throws NoSuchElementException If there is no topic with the anchor id.
+     */
+    public int insertTopicAfter(int anchorId, String name, List<String> words) throws IOException {
+        return insertTopic(anchorId, VocabJournal.AFTER, name, words);
+    }
+    /**
+     * Appends a new topic at the end of the list.
+     *
+     * @param name The name of the new topic.
+     * @param words The words of the new topic.
+     * @return The id of the new topic.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    public int appendTopic(String name, List<String> words) throws IOException {
+        return insertTopic(0, VocabJournal.APPEND, name, words);
+    }
+    /**
+     * Removes a topic and all its words.
+     *
+     * @param topicId The topic id.
+     * @return true if the topic was removed, false if there is no topic with that id.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    public boolean removeTopic(int topicId) throws IOException {
+        long start = timerStart();
+        try {
+            long stamp = structureLock.writeLock();
+            try {
+                TopicNode topic = topicsById.get(topicId);
+                if (topic == null) return false;
+                applyRemoveTopic(topic);
+                return true;
+            } finally {
+                unlockStructure(stamp);
+            }
+        } finally {
+            timerStop(VocabMetrics.Operation.REMOVE_TOPIC, start);
+        }
+    }
+    /**
+     * Edits run together by {@link #editTogether(Edits)}.
+     */
+    @FunctionalInterface
+    public interface Edits<T> {
+        T apply(Editor editor) throws IOException;
+    }
+    /**
+     * Inner class making the edits of {@link #editTogether(Edits)}. It is only
+     * valid while they run, and its methods behave like those of the list.
+     */
+    public class Editor {
+        private Editor() {
+        }
+
+        public String topicName(int topicId) {
+            return VocabDoubleList.this.topicName(topicId);
+        }
+
+        public void replaceWords(int topicId, List<String> words) throws IOException {
+            long start = timerStart();
+            try {
+                lockedEdit(linkedTopic(topicId), topic -> applyReplaceWords(topic, words));
+            } finally {
+                timerStop(VocabMetrics.Operation.REPLACE_WORDS, start);
+            }
+        }
+
+        public int insertTopicBefore(int anchorId, String name, List<String> words) throws IOException {
+            return insertTopic(anchorId, VocabJournal.BEFORE, name, words);
+        }
+
+        public int insertTopicAfter(int anchorId, String name, List<String> words) throws IOException {
+            return insertTopic(anchorId, VocabJournal.AFTER, name, words);
+        }
+
+        public int appendTopic(String name, List<String> words) throws IOException {
+            return insertTopic(0, VocabJournal.APPEND, name, words);
+        }
+
+        public boolean removeTopic(int topicId) throws IOException {
+            long start = timerStart();
+            try {
+                TopicNode topic = topicsById.get(topicId);
+                if (topic == null) return false;
+                applyRemoveTopic(topic);
+                return true;
+            } finally {
+                timerStop(VocabMetrics.Operation.REMOVE_TOPIC, start);
+            }
+        }
+
+        private int insertTopic(int anchorId, byte position, String name, List<String> words) throws IOException {
+            long start = timerStart();
+            try {
+                TopicContent content = new TopicContent(name);
+                for (String word : words) content.addWord(word);
+                return applyInsertTopic(anchorId, position, content);
+            } finally {
+                timerStop(VocabMetrics.Operation.INSERT_TOPIC, start);
+            }
+        }
+
+        private TopicNode linkedTopic(int topicId) {
+            TopicNode topic = topicsById.get(topicId);
+            if (topic == null) throw new NoSuchElementException("No topic with id " + topicId);
+            return topic;
+        }
+    }
+    /**
+     * Runs several edits as one, holding the structure lock exclusively
+     * throughout: other edits wait, and no {@link Version}, and so no save,
+     * export or statistics, sees them half applied. Each edit is journaled as
+     * usual, so a crash may still replay only the first ones. The edits should
+     * be prepared beforehand, since readers of the topic order wait too.
+     *
+     * @param edits The edits, made through the {@link Editor} they are given.
+     * @return What the edits return.
+     * @throws IOException If an edit cannot be written to the journal; the edits before it stay applied.
+     */
+    public <T> T editTogether(Edits<T> edits) throws IOException {
+        T result;
+        long stamp = structureLock.writeLock();
+        try {
+            result = edits.apply(new Editor());
+        } finally {
+            unlockStructure(stamp);
+        }
+        evictOverBudget(null);
+        return result;
+    }
+    /**
+     * An edit of the words of one topic, run while holding the topic's lock.
+     */
+    private interface TopicEdit {
+        boolean apply(TopicNode topic) throws IOException;
+    }
+    /**
+     * Runs a word edit on a topic, holding the structure lock shared so the
+     * topic stays linked and the topic's stripe exclusively.
+     *
+     * @param topicId The topic id.
+     * @param edit The edit.
+     * @return The result of the edit.
+     * @throws IOException If the edit cannot be written to the journal.
+     * @throws NoSuchElementException If there is no topic with that id.
+     */
+    private boolean editTopic(int topicId, TopicEdit edit) throws IOException {
+        long stamp = structureLock.readLock();
+        TopicNode topic;
+        boolean changed;
+        try {
+            topic = topicsById.get(topicId);
+            if (topic == null) throw new NoSuchElementException("No topic with id " + topicId);
+            changed = lockedEdit(topic, edit);
+        } finally {
+            structureLock.unlockRead(stamp);
+        }
+        evictOverBudget(topic);
+        return changed;
+    }
+    /**
+     * Runs a word edit holding the topic's stripe exclusively. The caller holds
+     * the structure lock, shared or exclusive. A topic loaded lazily is read in
+     * first, and once edited it no longer matches its file, so it stays in memory.
+     */
+    private boolean lockedEdit(TopicNode topic, TopicEdit edit) throws IOException {
+        StampedLock lock = topicLock(topic);
+        long stamp = lock.writeLock();
+        try {
+            if (topic.topicContent.words == null) loadLocked(topic);
+            boolean changed = edit.apply(topic);
+            if (changed && topic.topicContent.source != null) {
+                topic.topicContent.source = null;
+                forgetResident(topic);
+            }
+            return changed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * @param topic A topic.
+     * @return The lock stripe guarding the words of the topic.
+     */
+    private StampedLock topicLock(TopicNode topic) {
+        return topicLocks[topic.topicId & (TOPIC_LOCK_STRIPES - 1)];
+    }
+    /**
+     * Runs a read under an optimistic stamp and returns its result if no writer
+     * got in between; otherwise, or if the read tripped over a half-made change,
+     * runs it again under the read lock. The read must have no side effects.
+     *
+     * @param lock The lock guarding the data read.
+     * @param read The read.
+     * @return The result of the read.
+     */
+    private static <T> T optimisticRead(StampedLock lock, Supplier<T> read) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = read.get();
+                if (lock.validate(stamp)) return result;
+            } catch (RuntimeException e) {
+                // a writer changed the data underneath, retry under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    /**
+     * Takes a version of the whole list: the topics in order with their names
+     * and words, as they are at this instant. Edits are held up only while the
+     * version is numbered and the published topic order is read, which takes
+     * as long as the edits already under way; the topics are walked afterwards
+     * without any lock.
+     *
+     * @return The version; close it once read.
+     */
+    public Version openVersion() {
+        long number;
+        TopicOrder order;
+        int next;
+        long sequence;
+        long[] stamps = lockEdits();
+        try {
+            number = registerVersion();
+            order = topicOrder;
+            next = nextTopicId;
+            sequence = journal == null ? 0 : journal.sequence();
+        } finally {
+            unlockEdits(stamps);
+        }
+        return capture(number, order, next, sequence);
+    }
+    /**
+     * Takes a version. The caller blocks every edit, through
+     * {@link #lockEdits()} or the exclusive structure lock.
+     */
+    private Version captureLocked() {
+        publishOrder();
+        return capture(registerVersion(), topicOrder, nextTopicId, journal == null ? 0 : journal.sequence());
+    }
+    /**
+     * Numbers a new version and counts it as open. The caller blocks every edit,
+     * so an edit sees the version open exactly when it comes after it.
+     */
+    private long registerVersion() {
+        synchronized (openVersions) {
+            long number = lastVersion + 1;
+            openVersions.add(number);
+            lastVersion = number;
+            return number;
+        }
+    }
+    /**
+     * Collects the topics of a numbered version, without locks: the words of
+     * each topic are its list as it was when the version was numbered, found
+     * by following the lists that replaced it back to the first made before.
+     */
+    private Version capture(long number, TopicOrder order, int next, long sequence) {
+        boolean done = false;
+        try {
+            int count = order.size();
+            int[] topicIds = new int[count];
+            String[] topicNames = new String[count];
+            WordList[] topicWords = new WordList[count];
+            TopicSource[] topicSources = new TopicSource[count];
+            int i = 0;
+            for (TopicNode[] chunk : order.chunks) {
+                for (TopicNode topic : chunk) {
+                    TopicContent content = topic.topicContent;
+                    topicIds[i] = topic.topicId;
+                    topicNames[i] = content.topicName;
+                    while (true) {
+                        // the words are read in before the source is dropped by an edit
+                        WordList words = content.words;
+                        if (words != null) {
+                            while (words.madeAt >= number) words = words.older;
+                            topicWords[i] = words;
+                            break;
+                        }
+                        TopicSource source = content.source;
+                        if (source != null) {
+                            topicSources[i] = source;
+                            break;
+                        }
+                    }
+                    i++;
+                }
+            }
+            Version version = new Version(number, topicIds, topicNames, topicWords, topicSources, next, sequence);
+            done = true;
+            return version;
+        } finally {
+            if (!done) openVersions.remove(number);
+        }
+    }
+    /**
+     * Returns the words of a topic ready to be changed: the list itself, or a
+     * copy that replaces it when an open version may still read the list. The
+     * caller holds the topic's stripe exclusively, so no version is numbered meanwhile.
+     *
+     * @param topic The topic about to be edited.
+     * @return The words to change.
+     */
+    private WordList writableWords(TopicNode topic) {
+        WordList words = topic.topicContent.words;
+        if (openVersions.ceiling(words.madeAt + 1) == null) {
+            forgetOlder(words);
+            return words;
+        }
+        WordList copy = new WordList(words);
+        replaceList(topic, copy);
+        return copy;
+    }
+    /**
+     * Makes a new list the words of a topic, keeping the list it replaces for
+     * the open versions. The caller holds the topic's stripe exclusively.
+     *
+     * @param topic The topic.
+     * @param words The new list, not shared yet.
+     */
+    private void replaceList(TopicNode topic, WordList words) {
+        WordList old = topic.topicContent.words;
+        words.madeAt = lastVersion;
+        if (!openVersions.isEmpty()) {
+            forgetOlder(old);
+            words.older = old;
+        }
+        topic.topicContent.words = words;
+    }
+    /**
+     * Drops the list a list replaced once no open version can read it.
+     */
+    private void forgetOlder(WordList words) {
+        if (words.older != null && openVersions.floor(words.madeAt) == null) words.older = null;
+    }
+    /**
+     * Blocks every edit: structural ones through the structure lock, word edits
+     * through all topic stripes. Readers are not held up.
+     *
+     * @return The stamps to pass to {@link #unlockEdits(long[])}.
+     */
+    private long[] lockEdits() {
+        long[] stamps = new long[TOPIC_LOCK_STRIPES + 1];
+        stamps[0] = structureLock.readLock();
+        for (int i = 0; i < TOPIC_LOCK_STRIPES; i++) stamps[i + 1] = topicLocks[i].readLock();
+        return stamps;
+    }
+
+    private void unlockEdits(long[] stamps) {
+        for (int i = TOPIC_LOCK_STRIPES - 1; i >= 0; i--) topicLocks[i].unlockRead(stamps[i + 1]);
+        structureLock.unlockRead(stamps[0]);
+    }
+    /**
+     * Adds a word to the end of a topic's word list and records it in the word index.
+     * The caller holds the topic's stripe exclusively.
+     *
+     * @param topic The topic to add the word to.
+     * @param word The word to add.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    private void applyAddWord(TopicNode topic, String word) throws IOException {
+        if (journal != null) journal.logAddWord(topic.topicId, word);
+        int id = dictionary.intern(word);
+        writableWords(topic).add(id);
+        long stamp = indexLock.writeLock();
+        try {
+            indexWord(topic, id);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Removes a specified word from the topic's word list.
+     * The caller holds the topic's stripe exclusively.
+     * 
+     * @param topic The topic from which the word should be removed.
+     * @param word The word to be removed.
+     * @return true if the word was successfully removed, false if the word was not found.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    private boolean applyRemoveWord(TopicNode topic, String word) throws IOException {
+        if (!topic.topicContent.words.contains(word)) return false;
+        if (journal != null) journal.logRemoveWord(topic.topicId, word);
+        int removed = writableWords(topic).remove(word);
+        if (removed == -1) return false;
+        long stamp = indexLock.writeLock();
+        try {
+            unindexWord(topic, removed);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+        return true;
+    }
+    /**
+     * Changes a specified word to a new word within the topic's word list.
+     * The caller holds the topic's stripe exclusively.
+     * 
+     * @param topic The topic containing the word to be changed.
+     * @param oldWord The word to be replaced.
+     * @param newWord The new word that will replace the old word.
+     * @return true if the old word was found and successfully replaced, false otherwise.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    private boolean applyChangeWord(TopicNode topic, String oldWord, String newWord) throws IOException {
+        if (!topic.topicContent.words.contains(oldWord)) return false;
+        if (journal != null) journal.logRenameWord(topic.topicId, oldWord, newWord);
+        int newId = dictionary.intern(newWord);
+        int replaced = writableWords(topic).rename(oldWord, newId);
+        if (replaced == -1) return false;
+        long stamp = indexLock.writeLock();
+        try {
+            unindexWord(topic, replaced);
+            indexWord(topic, newId);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+        return true;
+    }
+    /**
+     * Replaces the word list of a topic with a new one and moves the word index
+     * over. The old list is left as it was for the versions sharing it.
+     * The caller holds the topic's stripe exclusively.
+     *
+     * @param topic The topic whose words are replaced.
+     * @param words The new words.
+     * @return Always true.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    private boolean applyReplaceWords(TopicNode topic, List<String> words) throws IOException {
+        WordList old = topic.topicContent.words;
+        if (journal != null) journal.logReplaceWords(topic.topicId, words, words.size());
+        WordList replacement = new WordList();
+        for (String word : words) replacement.add(dictionary.intern(word));
+        replaceList(topic, replacement);
+        long stamp = indexLock.writeLock();
+        try {
+            // new words first, so that the words kept never drop out of the index
+            for (int slot = 0; slot < replacement.slots(); slot++) indexWord(topic, replacement.idAt(slot));
+            for (int slot = 0; slot < old.slots(); slot++) {
+                if (old.idAt(slot) != -1) unindexWord(topic, old.idAt(slot));
+            }
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+        return true;
+    }
+    /**
+     * Builds a new topic and links it into the list next to an anchor topic.
+     * The words are interned before the structure lock is taken.
+     *
+     * @param anchorId The id of the topic to insert next to, ignored when appending.
+     * @param position {@link VocabJournal#BEFORE}, {@link VocabJournal#AFTER} or {@link VocabJournal#APPEND}.
+     * @param name The name of the new topic.
+     * @param words The words of the new topic.
+     * @return The id of the new topic.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    private int insertTopic(int anchorId, byte position, String name, List<String> words) throws IOException {
+        long start = timerStart();
+        try {
+            TopicContent content = new TopicContent(name);
+            for (String word : words) content.addWord(word);
+            long stamp = structureLock.writeLock();
+            try {
+                return applyInsertTopic(anchorId, position, content);
+            } finally {
+                unlockStructure(stamp);
+            }
+        } finally {
+            timerStop(VocabMetrics.Operation.INSERT_TOPIC, start);
+        }
+    }
+    /**
+     * Journals a new topic and links it into the list next to an anchor topic.
+     * The caller holds the structure lock exclusively.
+     *
+     * @param anchorId The id of the topic to insert next to, ignored when appending.
+     * @param position {@link VocabJournal#BEFORE}, {@link VocabJournal#AFTER} or {@link VocabJournal#APPEND}.
+     * @param content The name and words of the new topic.
+     * @return The id of the new topic.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    private int applyInsertTopic(int anchorId, byte position, TopicContent content) throws IOException {
+        TopicNode anchor = null;
+        if (position != VocabJournal.APPEND) {
+            anchor = topicsById.get(anchorId);
+            if (anchor == null) throw new NoSuchElementException("No topic with id " + anchorId);
+        }
+        TopicNode newNode = new TopicNode(content);
+        if (journal != null) {
+            journal.logInsertTopic(newNode.topicId, anchor == null ? 0 : anchor.topicId, position,
+                    content.topicName, content.words, content.words.count());
+        }
+        linkTopic(newNode, anchor, position);
+        return newNode.topicId;
+    }
+    /**
+     * Unlinks a topic from the list and drops its words from the index.
+     * The caller holds the structure lock exclusively.
+     *
+     * @param topic The topic to remove.
+     * @throws IOException If the edit cannot be written to the journal; nothing is changed then.
+     */
+    private void applyRemoveTopic(TopicNode topic) throws IOException {
+        if (journal != null) journal.logRemoveTopic(topic.topicId);
+        noteOrderChange(topic, false);
+        if (topic.previousNode == null) {
+            startNode = topic.nextNode;
+        } else {
+            topic.previousNode.nextNode = topic.nextNode;
+        }
+        if (topic.nextNode == null) {
+            endNode = topic.previousNode;
+        } else {
+            topic.nextNode.previousNode = topic.previousNode;
+        }
+        topicSequence.remove(topic);
+        topicsById.remove(topic.topicId);
+        topicCounter--;
+        unindexTopic(topic);
+        forgetResident(topic);
+    }
+    /**
+     * Links a topic into the list and the indexes without journaling it.
+     * The caller holds the structure lock exclusively.
+     *
+     * @param newNode The topic to link.
+     * @param anchor The topic to link next to, ignored when appending.
+     * @param position {@link VocabJournal#BEFORE}, {@link VocabJournal#AFTER} or {@link VocabJournal#APPEND}.
+     */
+    private void linkTopic(TopicNode newNode, TopicNode anchor, byte position) {
+        if (position == VocabJournal.APPEND || startNode == null) {
+            newNode.previousNode = endNode;
+            if (endNode == null) {
+                startNode = newNode;
+            } else {
+                endNode.nextNode = newNode;
+            }
+            endNode = newNode;
+            topicSequence.append(newNode);
+        } else if (position == VocabJournal.BEFORE) {
+            newNode.nextNode = anchor;
+            newNode.previousNode = anchor.previousNode;
+            if (anchor.previousNode == null) {
+                startNode = newNode;
+            } else {
+                anchor.previousNode.nextNode = newNode;
+            }
+            anchor.previousNode = newNode;
+            topicSequence.insertBefore(anchor, newNode);
+        } else {
+            newNode.previousNode = anchor;
+            newNode.nextNode = anchor.nextNode;
+            if (anchor.nextNode == null) {
+                endNode = newNode;
+            } else {
+                anchor.nextNode.previousNode = newNode;
+            }
+            anchor.nextNode = newNode;
+            topicSequence.insertAfter(anchor, newNode);
+        }
+        topicsById.put(newNode.topicId, newNode);
+        topicCounter++;
+        noteOrderChange(newNode, true);
+        indexTopic(newNode);
+    }
+    /**
+     * Remembers a topic just linked or about to be unlinked, for the next
+     * {@link #publishOrder()}. The caller holds the structure lock exclusively.
+     *
+     * @param topic The topic, still in the topic sequence.
+     * @param linked Whether the topic was linked rather than is being unlinked.
+     */
+    private void noteOrderChange(TopicNode topic, boolean linked) {
+        if (orderRebuild) return;
+        if (orderChanges.size() == MAX_ORDER_CHANGES) {
+            orderRebuild = true;
+            orderChanges.clear();
+            orderPositions.clear();
+            return;
+        }
+        orderChanges.add(linked ? topic : null);
+        orderPositions.add(topicSequence.numberOf(topic) - 1);
+    }
+    /**
+     * Publishes the topic order after changes of the structure, from the
+     * changes themselves when there are few of them, otherwise from the list.
+     * The caller holds the structure lock exclusively, or shared when nothing changed.
+     */
+    private void publishOrder() {
+        if (!orderRebuild && orderChanges.isEmpty()) return;
+        TopicOrder order = topicOrder;
+        if (orderRebuild || (long) orderChanges.size() * (order.chunks.length + TopicOrder.MAX_CHUNK) > topicCounter) {
+            order = TopicOrder.of(startNode, topicCounter);
+        } else {
+            for (int i = 0; i < orderChanges.size(); i++) {
+                TopicNode topic = orderChanges.get(i);
+                order = topic == null ? order.remove(orderPositions.get(i)) : order.insert(orderPositions.get(i), topic);
+            }
+        }
+        topicOrder = order;
+        orderRebuild = false;
+        orderChanges.clear();
+        orderPositions.clear();
+    }
+    /**
+     * Publishes the topic order and releases the exclusive structure lock.
+     * @param stamp The stamp of the lock.
+     */
+    private void unlockStructure(long stamp) {
+        try {
+            publishOrder();
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Returns the case-folded form of a word, which is how the indexes compare words.
+     *
+     * @param word The word to fold.
+     * @return The case-folded form of the word.
+     */
+    static String foldWord(String word) {
+        return word.toLowerCase(Locale.ROOT);
+    }
+    /**
+     * Returns the dictionary id of the case-folded form of a word. Every word in
+     * the dictionary has its folded form interned too, so this finds any word
+     * stored in any letter case.
+     *
+     * @param word The word to look up.
+     * @return The id of its folded form, or -1 if no topic ever held the word.
+     */
+    private int foldIdOf(String word) {
+        return dictionary.find(foldWord(word));
+    }
+    /**
+     * Records one occurrence of a word in the given topic.
+     * The caller holds the index lock exclusively.
+     *
+     * @param topic The topic containing the word.
+     * @param wordId The dictionary id of the word to record.
+     */
+    private void indexWord(TopicNode topic, int wordId) {
+        int fold = dictionary.fold(wordId);
+        if (fold >= wordIndex.length) {
+            wordIndex = Arrays.copyOf(wordIndex, Math.max(wordIndex.length * 2, dictionary.size()));
+        }
+        TopicCounts topics = wordIndex[fold];
+        if (topics == null) {
+            topics = new TopicCounts();
+            wordIndex[fold] = topics;
+            sortedWords.add(dictionary.word(fold));
+            wordTrigrams.add(fold);
+        }
+        int topicCount = topics.size;
+        topics.increment(topic.topicId);
+        indexedWords++;
+        invalidateQueries(fold, topics.size != topicCount);
+    }
+    /**
+     * Forgets one occurrence of a word in the given topic. The topic is dropped
+     * from the word's entry once its last occurrence is gone.
+     * The caller holds the index lock exclusively.
+     *
+     * @param topic The topic the word was removed from.
+     * @param wordId The dictionary id of the word to forget.
+     */
+    private void unindexWord(TopicNode topic, int wordId) {
+        int fold = dictionary.fold(wordId);
+        TopicCounts topics = fold < wordIndex.length ? wordIndex[fold] : null;
+        if (topics == null) return;
+        int topicCount = topics.size;
+        topics.decrement(topic.topicId);
+        indexedWords--;
+        if (topics.size == 0) {
+            wordIndex[fold] = null;
+            sortedWords.remove(dictionary.word(fold));
+            wordTrigrams.remove(fold);
+        }
+        invalidateQueries(fold, topics.size != topicCount);
+    }
+    /**
+     * Evicts the cached results an occurrence of a word added or removed can
+     * change: the pages of every prefix of the word, which list its forms, and
+     * its own search when the set of topics holding it changed. Every caller
+     * has already changed the topic's words, so a result computed after the
+     * eviction sees the edit.
+     * The caller holds the index lock exclusively.
+     *
+     * @param fold The dictionary id of the case-folded word.
+     * @param topicsChanged Whether a topic started or stopped holding the word.
+     */
+    private void invalidateQueries(int fold, boolean topicsChanged) {
+        QueryCache cache = queryCache;
+        if (cache == null) return;
+        String word = dictionary.word(fold);
+        ArrayList<String> groups = new ArrayList<>(word.length() + 2);
+        if (topicsChanged) groups.add(TOPICS_GROUP + word);
+        for (int length = 0; length <= word.length(); length++) groups.add(PREFIX_GROUP + word.substring(0, length));
+        cache.invalidate(groups);
+    }
+    /**
+     * Records every word of a newly linked topic in the word index. Of a topic
+     * whose words are still on disk, only the number of words is counted.
+     *
+     * @param topic The topic to index.
+     */
+    private void indexTopic(TopicNode topic) {
+        WordList words = topic.topicContent.words;
+        long stamp = indexLock.writeLock();
+        try {
+            if (words == null) {
+                coldWords += topic.topicContent.source.wordCount;
+                return;
+            }
+            for (int slot = 0; slot < words.slots(); slot++) {
+                if (words.idAt(slot) != -1) indexWord(topic, words.idAt(slot));
+            }
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Removes every word of an unlinked topic from the word index, or its count
+     * of words still on disk.
+     *
+     * @param topic The topic to drop from the index.
+     */
+    private void unindexTopic(TopicNode topic) {
+        WordList words = topic.topicContent.words;
+        long stamp = indexLock.writeLock();
+        try {
+            if (words == null) {
+                coldWords -= topic.topicContent.source.wordCount;
+                // which searches found the topic on disk is unknown
+                if (queryCache != null) queryCache.invalidateAll();
+                return;
+            }
+            for (int slot = 0; slot < words.slots(); slot++) {
+                if (words.idAt(slot) != -1) unindexWord(topic, words.idAt(slot));
+            }
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+    /**
+     * Returns the topics containing a case-folded word, in list order. The
+     * postings and the topic order are each read optimistically; a topic removed
+     * between the two reads is left out.
+     *
+     * @param fold The dictionary id of the case-folded word, or -1.
+     * @return The topics, empty if none holds the word.
+     */
+    private ArrayList<TopicNode> topicsContaining(int fold) {
+        if (fold < 0) return new ArrayList<>();
+        int[] topicIds = optimisticRead(indexLock, () -> {
+            TopicCounts topics = fold < wordIndex.length ? wordIndex[fold] : null;
+            return topics == null ? new int[0] : topics.copyTopicIds();
+        });
+        if (topicIds.length == 0) return new ArrayList<>();
+        return optimisticRead(structureLock, () -> {
+            ArrayList<TopicNode> matches = new ArrayList<>(topicIds.length);
+            for (int topicId : topicIds) {
+                TopicNode topic = topicsById.get(topicId);
+                if (topic != null) matches.add(topic);
+            }
+            return inListOrder(matches);
+        });
+    }
+    /**
+     * Sorts topics by their number, leaving out those no longer in the list.
+     * The caller reads under the structure lock or its optimistic stamp.
+     *
+     * @param topics The topics.
+     * @return A sorted copy.
+     */
+    private ArrayList<TopicNode> inListOrder(List<TopicNode> topics) {
+        ArrayList<TopicNode> sorted = new ArrayList<>(topics.size());
+        for (TopicNode topic : topics) {
+            if (topicsById.get(topic.topicId) == topic) sorted.add(topic);
+        }
+        sorted.sort(Comparator.comparingInt(topicSequence::numberOf));
+        return sorted;
+    }
+    /**
+     * Appends the topics of UTF-8 vocabulary files to the end of the list, in
+     * the order the files are given. Each file is memory-mapped and cut into
+     * chunks of about {@link #LOAD_CHUNK_SIZE} bytes, preferably at '#' topic
+     * headers. The chunks are parsed in parallel on the common ForkJoinPool and
+     * the resulting topics are then spliced into the list in file order.
+     * With a load log set, the chunks are parsed one after another so the echo of
+     * the lines keeps the file order. Parsing runs without any lock; only the
+     * splicing holds the structure lock. When journaling, the journal is
+     * compacted afterwards instead of logging every loaded word.
+     *
+     * @param paths The files to load.
+     * @throws IOException If one of the files cannot be read, and nothing is loaded then;
+     *                     or if the splice stops partway because a topic loaded lazily
+     *                     cannot be read back, or the journal cannot be compacted, and
+     *                     the topics spliced so far stay loaded then, as the message says.
+     */
+    public void loadFiles(List<Path> paths) throws IOException {
+        loadFiles(paths, false);
+    }
+    /**
+     * Loads UTF-8 vocabulary files like {@link #loadFiles(List)}, but merges
+     * topics by name instead of appending them blindly. A topic named like one
+     * already in the list, or like one earlier in the files, adds its words to
+     * that topic, and a word is skipped wherever its topic holds it already,
+     * ignoring case, as {@link #addWord(int, String)} would. The words are
+     * deduplicated within each topic while the chunks are parsed in parallel,
+     * by the id of their case-folded form; the splice then looks topics up by
+     * name in a hash map built from the list. With a load log set, every
+     * merged topic and skipped word is reported.
+     *
+     * @param paths The files to load.
+     * @throws IOException As for {@link #loadFiles(List)}.
+     */
+    public void mergeFiles(List<Path> paths) throws IOException {
+        loadFiles(paths, true);
+    }
+
+    private void loadFiles(List<Path> paths, boolean merging) throws IOException {
+        long start = timerStart();
+        try {
+            ArrayList<LoadChunk> chunks = new ArrayList<>();
+            for (Path path : paths) planChunks(path, chunks, merging);
+
+            if (loadLog != null) {
+                for (LoadChunk chunk : chunks) chunk.parse();
+            } else {
+                ForkJoinPool.commonPool().invoke(new ParseChunksTask(chunks, 0, chunks.size()));
+            }
+
+            long stamp = structureLock.writeLock();
+            // evicting the cached results word by word would cost more than the splice
+            QueryCache cache = queryCache;
+            setQueryCache(null);
+            try {
+                spliceChunks(chunks, merging);
+                isFileLoaded = true;
+                if (journal != null) {
+                    try {
+                        compactJournalLocked();
+                    } catch (IOException e) {
+                        throw new IOException("Files loaded, but the journal could not be compacted: " + e.getMessage(), e);
+                    }
+                }
+            } finally {
+                setQueryCache(cache);
+                unlockStructure(stamp);
+            }
+        } finally {
+            timerStop(VocabMetrics.Operation.LOAD, start);
+        }
+    }
+    /**
+     * Splices parsed chunks into the list in file order. Called with the
+     * structure write lock held.
+     * @throws IOException If a topic loaded lazily cannot be read back to add words to it;
+     *                     the topics spliced before it stay.
+     */
+    private void spliceChunks(List<LoadChunk> chunks, boolean merging) throws IOException {
+        HashMap<String, TopicNode> topicsByName = merging ? topicsByName() : null;
+        TopicNode lastTopic = null;
+        int spliced = 0;
+        try {
+            for (LoadChunk chunk : chunks) {
+                if (chunk.firstInFile) {
+                    if (loadLog != null) {
+                        for (String word : chunk.parser.leadingWords) {
+                            loadLog.accept("Skipping word outside of a topic: " + word);
+                        }
+                    }
+                } else if (lastTopic != null && chunk.parser.leadingWords.count() > 0) {
+                    appendWords(lastTopic, chunk.parser.leadingWords, merging);
+                }
+                if (chunk.firstInFile) lastTopic = null;
+                for (TopicContent topic : chunk.parser.topics) {
+                    TopicNode same = merging ? topicsByName.get(topic.topicName) : null;
+                    if (same != null) {
+                        if (loadLog != null) loadLog.accept("Merging topic: " + topic.topicName);
+                        appendWords(same, topic.words, true);
+                        lastTopic = same;
+                        continue;
+                    }
+                    lastTopic = new TopicNode(topic);
+                    linkTopic(lastTopic, null, VocabJournal.APPEND);
+                    spliced++;
+                    if (merging) topicsByName.put(topic.topicName, lastTopic);
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("Loading stopped after " + spliced + " new topic(s): " + e.getMessage(), e);
+        }
+    }
+    /**
+     * Returns the topics by name, the first of the list for a name several
+     * topics share. Called with the structure lock held.
+     */
+    private HashMap<String, TopicNode> topicsByName() {
+        HashMap<String, TopicNode> topics = new HashMap<>(Math.max(16, topicCounter * 2));
+        for (TopicNode current = startNode; current != null; current = current.nextNode) {
+            topics.putIfAbsent(current.topicContent.topicName, current);
+        }
+        return topics;
+    }
+    /**
+     * Appends loaded words to a topic already in the list and indexes them,
+     * without journaling them. Called with the structure write lock held.
+     *
+     * @param topic The topic.
+     * @param words The words.
+     * @param merging Whether to skip the words the topic holds already, ignoring case.
+     */
+    private void appendWords(TopicNode topic, WordList words, boolean merging) throws IOException {
+        lockedEdit(topic, target -> {
+            WordList list = writableWords(target);
+            boolean changed = false;
+            long indexStamp = indexLock.writeLock();
+            try {
+                for (int slot = 0; slot < words.slots(); slot++) {
+                    int word = words.idAt(slot);
+                    if (word == -1) continue;
+                    if (merging && list.containsId(word)) {
+                        if (loadLog != null) loadLog.accept("Skipping duplicate word: " + dictionary.word(word));
+                        continue;
+                    }
+                    list.add(word);
+                    indexWord(target, word);
+                    changed = true;
+                }
+            } finally {
+                indexLock.unlockWrite(indexStamp);
+            }
+            return changed;
+        });
+    }
+    /**
+     * Appends the topics of UTF-8 vocabulary files to the end of the list
+     * without reading their words. Each file is only scanned for its '#'
+     * headers, and every topic remembers where its lines are and how many
+     * words they hold, so loading takes time and memory in proportion to the
+     * number of topics. The words of a topic are read in when it is first
+     * browsed or edited, and dropped again, least recently used first, while
+     * the topics read in take more than {@link #setTopicBudget(long) the budget};
+     * an edited topic no longer matches its file and stays in memory.
+     *
+     * Searching for a word also reads the topics not in memory, without
+     * keeping them. So do listing words by prefix or pattern and the
+     * similarity search, which have no filter to go by and read every topic
+     * not in memory on each call. Words before the first header of
+     * a file are skipped. The files are kept open and must not change while
+     * their topics are in use.
+     *
+     * @param paths The files to load, in order.
+     * @throws IOException If a file cannot be read, or a topic is larger than 2 GiB.
+     */
+    public void loadFilesLazily(List<Path> paths) throws IOException {
+        long start = timerStart();
+        try {
+            ArrayList<FileChannel> channels = new ArrayList<>();
+            ArrayList<TopicContent> topics = new ArrayList<>();
+            try {
+                for (Path path : paths) {
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                    channels.add(channel);
+                    scanTopics(channel, topics);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (FileChannel channel : channels) {
+                    try {
+                        channel.close();
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw e;
+            }
+            long stamp = structureLock.writeLock();
+            // searches may have been answered without the new topics on disk
+            QueryCache cache = queryCache;
+            setQueryCache(null);
+            try {
+                lazyFiles.addAll(channels);
+                for (TopicContent topic : topics) linkTopic(new TopicNode(topic), null, VocabJournal.APPEND);
+                isFileLoaded = true;
+                if (journal != null) compactJournalLocked();
+            } finally {
+                setQueryCache(cache);
+                unlockStructure(stamp);
+            }
+        } finally {
+            timerStop(VocabMetrics.Operation.LOAD, start);
+        }
+    }
+    /**
+     * Sets how much heap the topics loaded lazily may take once read in,
+     * dropping the least recently used ones that are not edited until they fit.
+     *
+     * @param bytes The budget in approximate heap bytes; Long.MAX_VALUE keeps every topic read in.
+     */
+    public void setTopicBudget(long bytes) {
+        topicBudget = bytes;
+        evictOverBudget(null);
+    }
+    /**
+     * Reads a file a buffer at a time and makes a topic of every '#' header,
+     * covering the lines up to the next header or the end of the file.
+     *
+     * @param channel The file.
+     * @param topics The list to append the topics to.
+     * @throws IOException If the file cannot be read or a topic is larger than 2 GiB.
+     */
+    private void scanTopics(FileChannel channel, List<TopicContent> topics) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SCAN_BUFFER);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        byte[] line = new byte[64];
+        int lineLength = 0;
+        IntList wordHashes = new IntList();
+        String name = null;
+        long bodyStart = 0;
+        boolean lineStart = true;
+        boolean inHeader = false;
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer.clear(), position)) >= 0) {
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                byte b = bytes[i];
+                if (lineStart && b == '#') {
+                    if (name != null) topics.add(new TopicContent(name, topicSource(channel, bodyStart, position + i, wordHashes)));
+                    header.reset();
+                    inHeader = true;
+                    lineStart = false;
+                } else if (b == '\n') {
+                    if (inHeader) {
+                        name = header.toString(StandardCharsets.UTF_8).trim();
+                        bodyStart = position + i + 1;
+                        wordHashes = new IntList();
+                        inHeader = false;
+                    } else {
+                        addWordHash(line, lineLength, wordHashes);
+                    }
+                    lineLength = 0;
+                    lineStart = true;
+                } else {
+                    if (inHeader) {
+                        header.write(b);
+                    } else {
+                        if (lineLength == line.length) line = Arrays.copyOf(line, lineLength * 2);
+                        line[lineLength++] = b;
+                    }
+                    lineStart = false;
+                }
+            }
+            position += read;
+        }
+        if (inHeader) {
+            name = header.toString(StandardCharsets.UTF_8).trim();
+            bodyStart = position;
+            wordHashes = new IntList();
+        } else {
+            addWordHash(line, lineLength, wordHashes);
+        }
+        if (name != null) topics.add(new TopicContent(name, topicSource(channel, bodyStart, position, wordHashes)));
+    }
+    /**
+     * Counts a line as a word of the topic being scanned, if it holds one, by
+     * adding the hash of its trimmed, case-folded form.
+     */
+    private static void addWordHash(byte[] line, int length, IntList wordHashes) {
+        int start = 0;
+        int end = length;
+        while (start < end && (line[start] & 0xff) <= ' ') start++;
+        while (end > start && (line[end - 1] & 0xff) <= ' ') end--;
+        if (start < end) wordHashes.add(foldHash(line, start, end));
+    }
+
+    private static TopicSource topicSource(FileChannel channel, long start, long end, IntList wordHashes) throws IOException {
+        if (end - start > Integer.MAX_VALUE) throw new IOException("Topic at offset " + start + " is larger than 2 GiB");
+        return new TopicSource(channel, start, (int) (end - start), wordHashes.size(), wordHashes);
+    }
+    /**
+     * Hashes the case-folded form of a word given as UTF-8 bytes, already
+     * trimmed. ASCII is folded byte by byte, anything else through
+     * {@link #foldWord(String)}, so every letter case of a word hashes alike.
+     */
+    private static int foldHash(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < 0) {
+                byte[] folded = foldWord(new String(bytes, start, end - start, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+                return asciiFoldHash(folded, 0, folded.length);
+            }
+        }
+        return asciiFoldHash(bytes, start, end);
+    }
+    private static int asciiFoldHash(byte[] bytes, int start, int end) {
+        int hash = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            int c = bytes[i];
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            hash = (hash ^ c) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+    /**
+     * Reads the words of a topic loaded lazily from its file, interning them,
+     * with the same trimming of lines as {@link #loadFiles(List)}.
+     *
+     * @param source Where the words are.
+     * @return The words, not indexed.
+     * @throws IOException If the file cannot be read.
+     */
+    private WordList readWords(TopicSource source) throws IOException {
+        byte[] bytes = source.read();
+        WordList words = new WordList();
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') continue;
+            int start = lineStart;
+            int end = i;
+            lineStart = i + 1;
+            while (start < end && (bytes[start] & 0xff) <= ' ') start++;
+            while (end > start && (bytes[end - 1] & 0xff) <= ' ') end--;
+            if (start < end) words.add(dictionary.intern(bytes, start, end - start));
+        }
+        return words;
+    }
+    /**
+     * Decodes the words of a topic loaded lazily without interning them, with
+     * the same trimming of lines as {@link #readWords(TopicSource)}, for reads
+     * that must not grow the dictionary.
+     *
+     * @param bytes The lines of the topic.
+     * @return The words.
+     */
+    private static List<String> decodeWords(byte[] bytes) {
+        ArrayList<String> words = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') continue;
+            int start = lineStart;
+            int end = i;
+            lineStart = i + 1;
+            while (start < end && (bytes[start] & 0xff) <= ' ') start++;
+            while (end > start && (bytes[end - 1] & 0xff) <= ' ') end--;
+            if (start < end) words.add(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+        }
+        return words;
+    }
+    /**
+     * Returns the words of a topic, reading them in first if the topic was
+     * loaded lazily and is not in memory; other topics read in may be dropped
+     * afterwards to stay within the budget. Takes and releases the structure
+     * lock and the topic's stripe, so the caller holds no lock.
+     *
+     * @param topic The topic.
+     * @return The words; they stay valid to read even if the topic is dropped meanwhile.
+     * @throws UncheckedIOException If the file of the topic cannot be read.
+     */
+    private WordList residentWords(TopicNode topic) {
+        StampedLock lock = topicLock(topic);
+        WordList words = optimisticRead(lock, () -> topic.topicContent.words);
+        if (words != null) {
+            if (topic.topicContent.source != null) {
+                synchronized (residentLazyTopics) {
+                    residentLazyTopics.get(topic);
+                }
+            }
+            return words;
+        }
+        long stamp = structureLock.readLock();
+        try {
+            // a topic removed meanwhile is never indexed again
+            if (topicsById.get(topic.topicId) != topic) return new WordList();
+            long topicStamp = lock.writeLock();
+            try {
+                words = loadLocked(topic);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlockWrite(topicStamp);
+            }
+        } finally {
+            structureLock.unlockRead(stamp);
+        }
+        evictOverBudget(topic);
+        return words;
+    }
+    /**
+     * Reads in the words of a topic loaded lazily and indexes them.
+     * The caller holds the structure lock, shared or exclusive, and the topic's stripe exclusively.
+     *
+     * @param topic The topic.
+     * @return Its words.
+     * @throws IOException If the file of the topic cannot be read.
+     */
+    private WordList loadLocked(TopicNode topic) throws IOException {
+        TopicContent content = topic.topicContent;
+        if (content.words != null) return content.words;
+        WordList words = readWords(content.source);
+        long stamp = indexLock.writeLock();
+        try {
+            content.words = words;
+            coldWords -= content.source.wordCount;
+            for (int slot = 0; slot < words.slots(); slot++) {
+                if (words.idAt(slot) != -1) indexWord(topic, words.idAt(slot));
+            }
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+        long bytes = content.heapBytes();
+        synchronized (residentLazyTopics) {
+            residentLazyTopics.put(topic, bytes);
+            residentLazyBytes += bytes;
+        }
+        return words;
+    }
+    /**
+     * Stops counting a topic against the budget, because it was edited or removed.
+     */
+    private void forgetResident(TopicNode topic) {
+        synchronized (residentLazyTopics) {
+            Long bytes = residentLazyTopics.remove(topic);
+            if (bytes != null) residentLazyBytes -= bytes;
+        }
+    }
+    /**
+     * Drops the words of the least recently used topics loaded lazily until
+     * they fit in the budget. The caller holds no lock.
+     *
+     * @param keep A topic just used, which is not dropped, or null.
+     */
+    private void evictOverBudget(TopicNode keep) {
+        while (residentLazyBytes > topicBudget) {
+            TopicNode victim = null;
+            synchronized (residentLazyTopics) {
+                for (TopicNode topic : residentLazyTopics.keySet()) {
+                    if (topic != keep) {
+                        victim = topic;
+                        break;
+                    }
+                }
+            }
+            if (victim == null) return;
+            unload(victim);
+        }
+    }
+    /**
+     * Drops the words of a topic loaded lazily from memory and from the index;
+     * they are read from the file again when needed.
+     */
+    private void unload(TopicNode topic) {
+        long stamp = structureLock.readLock();
+        try {
+            StampedLock lock = topicLock(topic);
+            long topicStamp = lock.writeLock();
+            try {
+                TopicContent content = topic.topicContent;
+                WordList words = content.words;
+                if (topicsById.get(topic.topicId) == topic && content.source != null && words != null) {
+                    long indexStamp = indexLock.writeLock();
+                    try {
+                        for (int slot = 0; slot < words.slots(); slot++) {
+                            if (words.idAt(slot) != -1) unindexWord(topic, words.idAt(slot));
+                        }
+                        coldWords += content.source.wordCount;
+                        content.words = null;
+                    } finally {
+                        indexLock.unlockWrite(indexStamp);
+                    }
+                }
+            } finally {
+                lock.unlockWrite(topicStamp);
+            }
+        } finally {
+            structureLock.unlockRead(stamp);
+        }
+        forgetResident(topic);
+    }
+    /**
+     * @return true if some topic loaded lazily has words that are not in memory.
+     */
+    private boolean hasColdTopics() {
+        return optimisticRead(indexLock, () -> coldWords > 0);
+    }
+    /**
+     * Returns the topics loaded lazily and not in memory that hold a word.
+     * Their filters are checked under the structure lock, then only the topics
+     * that may hold the word are read from disk, without any lock held and
+     * without keeping their words.
+     *
+     * @param key The case-folded word.
+     * @return The topics, not sorted; some may have been removed meanwhile.
+     */
+    private List<TopicNode> coldTopicsHolding(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = foldHash(keyBytes, 0, keyBytes.length);
+        ArrayList<TopicNode> candidates = new ArrayList<>();
+        ArrayList<TopicSource> sources = new ArrayList<>();
+        long stamp = structureLock.readLock();
+        try {
+            for (TopicNode current = startNode; current != null; current = current.nextNode) {
+                TopicContent content = current.topicContent;
+                // read without the stripe: a stale view only costs a needless read or a miss the index covers
+                TopicSource source = content.source;
+                if (source != null && content.words == null && source.mayHold(hash)) {
+                    candidates.add(current);
+                    sources.add(source);
+                }
+            }
+        } finally {
+            structureLock.unlockRead(stamp);
+        }
+        ArrayList<TopicNode> found = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            try {
+                if (holdsFolded(sources.get(i).read(), key)) found.add(candidates.get(i));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return found;
+    }
+    /**
+     * Reads the topics loaded lazily and not in memory from disk, without any
+     * lock held and without keeping their words, for the queries the index
+     * cannot narrow down for them.
+     *
+     * @param test Which case-folded words are wanted.
+     * @return The stored forms of the words wanted, by case-folded word in order, then by topic.
+     * @throws UncheckedIOException If the file of a topic cannot be read.
+     */
+    private TreeMap<String, HashMap<TopicNode, List<String>>> coldForms(Predicate<String> test) {
+        ArrayList<TopicNode> topics = new ArrayList<>();
+        ArrayList<TopicSource> sources = new ArrayList<>();
+        long stamp = structureLock.readLock();
+        try {
+            for (TopicNode current = startNode; current != null; current = current.nextNode) {
+                TopicContent content = current.topicContent;
+                TopicSource source = content.source;
+                if (source != null && content.words == null) {
+                    topics.add(current);
+                    sources.add(source);
+                }
+            }
+        } finally {
+            structureLock.unlockRead(stamp);
+        }
+        TreeMap<String, HashMap<TopicNode, List<String>>> forms = new TreeMap<>();
+        for (int i = 0; i < topics.size(); i++) {
+            List<String> words;
+            try {
+                words = decodeWords(sources.get(i).read());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            TopicNode topic = topics.get(i);
+            for (String word : words) {
+                String key = foldWord(word);
+                if (!test.test(key)) continue;
+                forms.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(topic, t -> new ArrayList<>(2)).add(word);
+            }
+        }
+        return forms;
+    }
+    /**
+     * Tells whether the lines of a topic hold a word in any letter case.
+     * Lines of ASCII are compared byte by byte, others are decoded and folded.
+     */
+    private static boolean holdsFolded(byte[] lines, String key) {
+        int lineStart = 0;
+        for (int i = 0; i <= lines.length; i++) {
+            if (i < lines.length && lines[i] != '\n') continue;
+            int start = lineStart;
+            int end = i;
+            lineStart = i + 1;
+            while (start < end && (lines[start] & 0xff) <= ' ') start++;
+            while (end > start && (lines[end - 1] & 0xff) <= ' ') end--;
+            boolean ascii = true;
+            for (int j = start; j < end && ascii; j++) ascii = lines[j] >= 0;
+            if (!ascii) {
+                if (foldWord(new String(lines, start, end - start, StandardCharsets.UTF_8)).equals(key)) return true;
+                continue;
+            }
+            if (end - start != key.length()) continue;
+            int j = 0;
+            while (j < key.length()) {
+                int c = lines[start + j];
+                if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+                if (c != key.charAt(j)) break;
+                j++;
+            }
+            if (j == key.length()) return true;
+        }
+        return false;
+    }
+    /**
+     * Maps a file and cuts it into line-aligned chunks, preferring to end a
+     * chunk just before a '#' topic header once it has reached the target size.
+     * The chunks are slices of windows of up to {@link #MAX_MAP_WINDOW} bytes,
+     * each window mapped once and shared by all the chunks cut from it, so no
+     * more than the file is mapped.
+     *
+     * @param path The file to cut.
+     * @param chunks The list to append the chunks to.
+     * @param merging Whether the chunks skip duplicate words within a topic.
+     * @throws IOException If the file cannot be mapped or has an overlong line.
+     */
+    private void planChunks(Path path, List<LoadChunk> chunks, boolean merging) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            boolean firstInFile = true;
+            while (position < size) {
+                int length = (int) Math.min(MAX_MAP_WINDOW, size - position);
+                boolean endOfFile = position + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int offset = 0;
+                while (offset < length) {
+                    int remaining = length - offset;
+                    ByteBuffer rest = window.slice(offset, remaining);
+                    int end = remaining;
+                    if (!endOfFile || remaining > LOAD_CHUNK_SIZE) {
+                        end = chunkEnd(rest, Math.min(LOAD_CHUNK_SIZE, remaining), remaining, endOfFile);
+                        // no line ends in the rest of the window: map the next one from here
+                        if (end == 0) break;
+                    }
+                    chunks.add(new LoadChunk(rest, end, firstInFile, merging));
+                    firstInFile = false;
+                    offset += end;
+                }
+                if (offset == 0) throw new IOException("Line longer than " + MAX_MAP_WINDOW + " bytes at offset " + position);
+                position += offset;
+            }
+        }
+    }
+    /**
+     * Finds where a chunk should end within a mapped window.
+     *
+     * @param window The mapped bytes.
+     * @param target The preferred chunk length.
+     * @param length The number of mapped bytes.
+     * @param endOfFile Whether the window reaches the end of the file.
+     * @return The chunk length: just after the first newline at or past the target
+     *         that is followed by '#', else after the last newline in the window,
+     *         or the whole window if it ends the file; 0 if no line ends in it.
+     */
+    private static int chunkEnd(ByteBuffer window, int target, int length, boolean endOfFile) {
+        for (int i = Math.max(target - 1, 0); i < length - 1; i++) {
+            if (window.get(i) == '\n' && window.get(i + 1) == '#') return i + 1;
+        }
+        if (endOfFile) return length;
+        int end = length;
+        while (end > 0 && window.get(end - 1) != '\n') end--;
+        return end;
+    }
+    /**
+     * Inner class holding one line-aligned piece of a file and the result of parsing it.
+     */
+    private class LoadChunk {
+        final ByteBuffer bytes;
+        final int length;
+        final boolean firstInFile;
+        final TopicParser parser;
+        /**
+         * Constructor to initialize a chunk over the first bytes of a buffer.
+         * @param bytes The mapped bytes.
+         * @param length The number of bytes belonging to this chunk.
+         * @param firstInFile Whether the chunk starts its file.
+         * @param merging Whether to skip duplicate words within a topic.
+         */
+        public LoadChunk(ByteBuffer bytes, int length, boolean firstInFile, boolean merging) {
+            this.bytes = bytes;
+            this.length = length;
+            this.firstInFile = firstInFile;
+            this.parser = new TopicParser(merging);
+        }
+        /**
+         * Parses the chunk into its topics.
+         */
+        public void parse() {
+            parser.parse(bytes, 0, length);
+        }
+    }
+    /**
+     * Fork-join task parsing a range of chunks, splitting it in halves until
+     * a single chunk is left.
+     */
+    private static class ParseChunksTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<LoadChunk> chunks;
+        private final int from;
+        private final int to;
+
+        ParseChunksTask(List<LoadChunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) chunks.get(from).parse();
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParseChunksTask(chunks, from, middle), new ParseChunksTask(chunks, middle, to));
+        }
+    }
+    /**
+     * Inner class that turns the bytes of a vocabulary file into topics.
+     * A line starting with '#' opens a new topic; every other non-blank line
+     * is a word of the current topic. Lines are trimmed directly in the buffer
+     * and words are interned into the dictionary from their UTF-8 bytes, so no
+     * String is built for them. When merging, a word the current topic holds
+     * already in any letter case is skipped.
+     */
+    private class TopicParser {
+        final ArrayList<TopicContent> topics = new ArrayList<>();
+        final WordList leadingWords = new WordList();
+        private final boolean skipDuplicates;
+        private TopicContent currentTopic;
+        private byte[] scratch = new byte[256];
+        /**
+         * Constructor to initialize a parser with no topics yet.
+         * @param skipDuplicates Whether to skip the words a topic holds already.
+         */
+        public TopicParser(boolean skipDuplicates) {
+            this.skipDuplicates = skipDuplicates;
+        }
+        /**
+         * Parses the complete lines in a range of a buffer.
+         * @param buffer The buffer holding the file bytes.
+         * @param from The offset of the first byte to parse.
+         * @param to The offset just past the last byte to parse.
+         */
+        public void parse(ByteBuffer buffer, int from, int to) {
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = lineStart;
+                while (lineEnd < to && buffer.get(lineEnd) != '\n') lineEnd++;
+                parseLine(buffer, lineStart, lineEnd);
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        private void parseLine(ByteBuffer buffer, int start, int end) {
+            if (loadLog != null) loadLog.accept("Processing line: " + decode(buffer, start, end));
+            if (start < end && buffer.get(start) == '#') {
+                currentTopic = new TopicContent(decodeTrimmed(buffer, start + 1, end));
+                topics.add(currentTopic);
+                return;
+            }
+            while (start < end && (buffer.get(start) & 0xff) <= ' ') start++;
+            while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') end--;
+            if (start == end) return;
+            int length = end - start;
+            if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            buffer.get(start, scratch, 0, length);
+            int word = dictionary.intern(scratch, 0, length);
+            WordList words = currentTopic == null ? leadingWords : currentTopic.words;
+            if (skipDuplicates && words.containsId(word)) {
+                if (loadLog != null) loadLog.accept("Skipping duplicate word: " + dictionary.word(word));
+                return;
+            }
+            words.add(word);
+        }
+
+        private String decodeTrimmed(ByteBuffer buffer, int start, int end) {
+            while (start < end && (buffer.get(start) & 0xff) <= ' ') start++;
+            while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') end--;
+            return start == end ? "" : decode(buffer, start, end);
+        }
+
+        private String decode(ByteBuffer buffer, int start, int end) {
+            int length = end - start;
+            if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            buffer.get(start, scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns a page of the words starting with a prefix, ignoring case, in
+     * case-insensitive alphabetical order, one entry per occurrence. A page never
+     * splits the occurrences of one word, so it may run past the limit by the
+     * other letter cases of its last word.
+     *
+     * @param prefix The prefix to match.
+     * @param afterWord If not null, only words sorting after this word are returned;
+     *                  pass the last word of a page to get the next page.
+     * @param limit The number of words wanted.
+     * @return The words, fewer than the limit only on the last page.
+     */
+    public List<String> wordsStartingWith(String prefix, String afterWord, int limit) {
+        long start = timerStart();
+        try {
+            QueryCache cache = limit <= MAX_CACHED_PAGE ? queryCache : null;
+            String group = null;
+            String key = null;
+            long cacheStamp = 0;
+            if (cache != null) {
+                String from = foldWord(prefix);
+                String after = afterWord == null ? "" : foldWord(afterWord);
+                group = PREFIX_GROUP + from;
+                key = limit + (after.compareTo(from) >= 0 ? ":" + after : "");
+                List<String> cached = cache.get(group, key);
+                if (cached != null) return new ArrayList<>(cached);
+                cacheStamp = cache.stamp(group);
+            }
+            ArrayList<String> page = new ArrayList<>(Math.min(limit, 1024));
+            TreeMap<String, HashMap<TopicNode, List<String>>> cold = coldPrefixForms(prefix, afterWord);
+            Iterator<String> words = prefixRange(prefix, afterWord).iterator();
+            if (cold != null) words = mergeKeys(words, cold.keySet().iterator());
+            while (page.size() < limit && words.hasNext()) {
+                String word = words.next();
+                collectForms(word, page, cold == null ? null : cold.get(word));
+            }
+            if (cache != null) cache.put(group, key, new ArrayList<>(page), cacheStamp);
+            return page;
+        } finally {
+            timerStop(VocabMetrics.Operation.PREFIX, start);
+        }
+    }
+    /**
+     * Returns an iterator over all words starting with a prefix, ignoring case,
+     * in case-insensitive alphabetical order. Words are produced lazily from the
+     * sorted word index, so a page costs O(log n + page size).
+     *
+     * @param prefix The prefix to match.
+     * @param afterWord If not null, only words sorting after this word are returned;
+     *                  pass the last word of a page to get the next page.
+     * @return An iterator over the matching words, one entry per occurrence.
+     */
+    public Iterator<String> wordsStartingWith(String prefix, String afterWord) {
+        TreeMap<String, HashMap<TopicNode, List<String>>> cold = coldPrefixForms(prefix, afterWord);
+        Iterator<String> words = prefixRange(prefix, afterWord).iterator();
+        return formsOf(cold == null ? words : mergeKeys(words, cold.keySet().iterator()), cold);
+    }
+    /**
+     * Reads the words starting with a prefix from the topics not in memory.
+     *
+     * @param prefix The prefix to match.
+     * @param afterWord If not null, only words sorting after this word are returned.
+     * @return The forms of the words, or null while every topic is in memory.
+     */
+    private TreeMap<String, HashMap<TopicNode, List<String>>> coldPrefixForms(String prefix, String afterWord) {
+        if (!hasColdTopics()) return null;
+        String from = foldWord(prefix);
+        String after = afterWord == null ? null : foldWord(afterWord);
+        return coldForms(key -> key.startsWith(from) && (after == null || key.compareTo(after) > 0));
+    }
+    /**
+     * Returns a page of the words matching a wildcard pattern, ignoring case,
+     * in case-insensitive alphabetical order, one entry per occurrence. In the
+     * pattern '*' stands for any run of chars, the empty one included, and '?'
+     * for any single char; every other char stands for itself, so "*ing",
+     * "take*" and "*(with*" are all valid patterns. Like a prefix page, a page
+     * never splits the occurrences of one word.
+     *
+     * @param pattern The pattern the whole word has to match.
+     * @param afterWord If not null, only words sorting after this word are returned;
+     *                  pass the last word of a page to get the next page.
+     * @param limit The number of words wanted.
+     * @return The words, fewer than the limit only on the last page.
+     */
+    public List<String> wordsMatching(String pattern, String afterWord, int limit) {
+        long start = timerStart();
+        try {
+            ArrayList<String> page = new ArrayList<>(Math.min(limit, 1024));
+            TreeMap<String, HashMap<TopicNode, List<String>>> cold = coldMatchingForms(pattern, afterWord);
+            String after = afterWord;
+            while (page.size() < limit) {
+                // a word removed meanwhile yields no form, so ask again past the last one
+                Iterator<String> keys;
+                if (cold == null) {
+                    keys = matchingKeys(pattern, after, limit - page.size());
+                } else {
+                    // cut postings would skip words between them and the words read from disk
+                    Iterator<String> coldKeys = (after == null ? cold : cold.tailMap(foldWord(after), false)).keySet().iterator();
+                    keys = mergeKeys(matchingKeys(pattern, after, Integer.MAX_VALUE), coldKeys);
+                }
+                if (!keys.hasNext()) break;
+                while (page.size() < limit && keys.hasNext()) {
+                    after = keys.next();
+                    collectForms(after, page, cold == null ? null : cold.get(after));
+                }
+            }
+            return page;
+        } finally {
+            timerStop(VocabMetrics.Operation.MATCH, start);
+        }
+    }
+    /**
+     * Returns an iterator over all words matching a wildcard pattern, ignoring
+     * case, in case-insensitive alphabetical order; see
+     * {@link #wordsMatching(String, String, int)} for the pattern syntax.
+     * A pattern starting with a few literal chars is matched lazily along the
+     * sorted words holding that prefix, as the iterator advances. Otherwise the
+     * words holding every trigram of the pattern's literal parts are looked up
+     * in the trigram postings, and only those are matched and sorted; a
+     * pattern with no trigram at all is matched along all sorted words.
+     *
+     * @param pattern The pattern the whole word has to match.
+     * @param afterWord If not null, only words sorting after this word are returned.
+     * @return An iterator over the matching words, one entry per occurrence.
+     */
+    public Iterator<String> wordsMatching(String pattern, String afterWord) {
+        TreeMap<String, HashMap<TopicNode, List<String>>> cold = coldMatchingForms(pattern, afterWord);
+        Iterator<String> keys = matchingKeys(pattern, afterWord, Integer.MAX_VALUE);
+        return formsOf(cold == null ? keys : mergeKeys(keys, cold.keySet().iterator()), cold);
+    }
+    /**
+     * Reads the words matching a wildcard pattern from the topics not in memory.
+     *
+     * @param pattern The pattern the whole word has to match.
+     * @param afterWord If not null, only words sorting after this word are returned.
+     * @return The forms of the words, or null while every topic is in memory.
+     */
+    private TreeMap<String, HashMap<TopicNode, List<String>>> coldMatchingForms(String pattern, String afterWord) {
+        if (!hasColdTopics()) return null;
+        String folded = foldWord(pattern);
+        String after = afterWord == null ? null : foldWord(afterWord);
+        return coldForms(key -> (after == null || key.compareTo(after) > 0) && globMatches(folded, key));
+    }
+    /**
+     * Returns the case-folded words of the index matching a pattern, in order.
+     *
+     * @param pattern The pattern.
+     * @param afterWord If not null, only words sorting after this word are returned.
+     * @param wanted How many words are needed at least; words looked up in the
+     *               trigram postings are cut to the first this many.
+     * @return An iterator over the matching folded words.
+     */
+    private Iterator<String> matchingKeys(String pattern, String afterWord, int wanted) {
+        String folded = foldWord(pattern);
+        String after = afterWord == null ? null : foldWord(afterWord);
+        int literal = 0;
+        while (literal < folded.length() && !isWildcard(folded.charAt(literal))) literal++;
+        int[] candidates = literal >= MIN_PATTERN_PREFIX ? null
+                : optimisticRead(indexLock, () -> wordTrigrams.patternCandidates(folded));
+        if (candidates == null) {
+            Iterator<String> range = prefixRange(folded.substring(0, literal), afterWord).iterator();
+            return new Iterator<String>() {
+                private String next = advance();
+
+                private String advance() {
+                    while (range.hasNext()) {
+                        String key = range.next();
+                        if (globMatches(folded, key)) return key;
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public String next() {
+                    if (next == null) throw new NoSuchElementException();
+                    String key = next;
+                    next = advance();
+                    return key;
+                }
+            };
+        }
+        // keep only the first words wanted, the greatest on top
+        PriorityQueue<String> first = new PriorityQueue<>(Comparator.reverseOrder());
+        ArrayList<String> all = new ArrayList<>();
+        for (int fold : candidates) {
+            String key = dictionary.word(fold);
+            if ((after != null && key.compareTo(after) <= 0) || !globMatches(folded, key)) continue;
+            if (wanted >= candidates.length) {
+                all.add(key);
+            } else if (first.size() < wanted) {
+                first.add(key);
+            } else if (key.compareTo(first.peek()) < 0) {
+                first.poll();
+                first.add(key);
+            }
+        }
+        all.addAll(first);
+        all.sort(null);
+        return all.iterator();
+    }
+    /**
+     * Turns an iterator over case-folded words into one over their stored
+     * forms, collecting the forms of each word only when it is reached.
+     *
+     * @param keys The case-folded words, in order.
+     * @param cold The forms read from the topics not in memory, or null.
+     * @return An iterator over the stored forms.
+     */
+    private Iterator<String> formsOf(Iterator<String> keys, Map<String, HashMap<TopicNode, List<String>>> cold) {
+        return new Iterator<String>() {
+            private final ArrayList<String> pending = new ArrayList<>();
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (next == pending.size() && keys.hasNext()) {
+                    pending.clear();
+                    next = 0;
+                    String key = keys.next();
+                    collectForms(key, pending, cold == null ? null : cold.get(key));
+                }
+                return next < pending.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return pending.get(next++);
+            }
+        };
+    }
+    /**
+     * Merges two iterators over case-folded words in order into one, yielding
+     * a word held by both once.
+     */
+    private static Iterator<String> mergeKeys(Iterator<String> first, Iterator<String> second) {
+        return new Iterator<String>() {
+            private String nextFirst = first.hasNext() ? first.next() : null;
+            private String nextSecond = second.hasNext() ? second.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return nextFirst != null || nextSecond != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int order = nextFirst == null ? 1 : nextSecond == null ? -1 : nextFirst.compareTo(nextSecond);
+                String key = order <= 0 ? nextFirst : nextSecond;
+                if (order <= 0) nextFirst = first.hasNext() ? first.next() : null;
+                if (order >= 0) nextSecond = second.hasNext() ? second.next() : null;
+                return key;
+            }
+        };
+    }
+    private static boolean isWildcard(char c) {
+        return c == '*' || c == '?';
     }
     /**
-     * Inner class representing a node in the double-linked list,
-     * containing topic content, and links to previous and next nodes.
+     * Matches a whole word against a wildcard pattern, backtracking only to the
+     * last '*' seen, so a match costs at most the product of the two lengths.
+     *
+     * @param pattern The pattern, with '*' for any run of chars and '?' for any char.
+     * @param word The word.
+     * @return true if the pattern matches the whole word.
      */
-    private class TopicNode {
-        TopicContent topicContent;
-        TopicNode previousNode;
-        TopicNode nextNode;
-        /**
-         * Constructor to initialize the topic node with the given content.
-         * @param topicContent The content of the topic.
-         */
-        public TopicNode(TopicContent topicContent) {
-            this.topicContent = topicContent;
-            this.previousNode = null;
-            this.nextNode = null;
+    private static boolean globMatches(String pattern, String word) {
+        int p = 0;
+        int w = 0;
+        int star = -1;
+        int starWord = 0;
+        while (w < word.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == word.charAt(w))) {
+                p++;
+                w++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                starWord = w;
+            } else if (star >= 0) {
+                p = star + 1;
+                w = ++starWord;
+            } else {
+                return false;
+            }
         }
+        while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+        return p == pattern.length();
     }
     /**
-     * Static inner class representing a node in a singly-linked list of words within a topic.
+     * Returns the case-folded words of the index starting with a prefix. The
+     * view is backed by a concurrent set, so walking it takes no lock and sees
+     * words added or removed meanwhile.
+     *
+     * @param prefix The prefix to match.
+     * @param afterWord If not null, only words sorting after this word are returned.
+     * @return The matching folded words, in order.
      */
-    private static class WordNode {
-        String word;
-        WordNode nextWord;
-        /**
-         * Constructor to initialize the word node with a word.
-         * @param word The word to be stored in this node.
-         */
-        public WordNode(String word) {
-            this.word = word;
-            this.nextWord = null;
+    private SortedSet<String> prefixRange(String prefix, String afterWord) {
+        String from = foldWord(prefix);
+        String to = from + Character.MAX_VALUE;
+        if (afterWord != null && foldWord(afterWord).compareTo(from) >= 0) {
+            String after = foldWord(afterWord);
+            if (after.compareTo(to) >= 0) return Collections.emptySortedSet();
+            return sortedWords.subSet(after, false, to, false);
         }
+        return sortedWords.subSet(from, to);
     }
     /**
-     * Inner class representing the content of a topic,
-     * containing the name of the topic and a linked list of words.
+     * Appends every stored form of a case-folded word to a list, topic by topic
+     * in list order, reading each topic's words optimistically.
+     *
+     * @param key The case-folded word.
+     * @param out The list to append to.
+     * @param cold The forms of the word read from the topics not in memory, or null.
      */
-    private class TopicContent {
-        String topicName;
-        WordNode wordHead;
-        /**
-         * Constructor to initialize the topic content with a topic name.
-         * @param topicName The name of the topic.
-         */
-        public TopicContent(String topicName) {
-            this.topicName = topicName;
-            wordHead = null;
-        }
-        /**
-         * Adds a word to the end of the linked list of words for this topic.
-         * @param word The word to add.
-         */
-        public void addWord(String word) {
-            WordNode newWordNode = new WordNode(word);
-            if (wordHead == null) {
-                wordHead = newWordNode;
-            } else {
-                WordNode temp = wordHead;
-                while (temp.nextWord != null) {
-                    temp = temp.nextWord;
-                }
-                temp.nextWord = newWordNode;
+    private void collectForms(String key, List<String> out, Map<TopicNode, List<String>> cold) {
+        int fold = dictionary.find(key);
+        List<TopicNode> topics = topicsContaining(fold);
+        HashSet<TopicNode> indexed = null;
+        if (cold != null) {
+            // the index is read after the files, so a topic read in meanwhile is in both and found in the index
+            indexed = new HashSet<>(topics);
+            ArrayList<TopicNode> all = new ArrayList<>(topics);
+            for (TopicNode topic : cold.keySet()) {
+                if (!indexed.contains(topic)) all.add(topic);
             }
+            topics = optimisticRead(structureLock, () -> inListOrder(all));
         }
-        /**
-         * Lists all words in this topic to standard output.
-         */
-        public void listWords() {
-            WordNode temp = wordHead;
-            int wordIndex = 1; 
-            while (temp != null) {
-                System.out.println(wordIndex++ + ". " + temp.word); 
-                temp = temp.nextWord;
+        for (TopicNode topic : topics) {
+            WordList words = topic.topicContent.words;
+            List<String> read = cold == null ? null : cold.get(topic);
+            if (read != null && (words == null || !indexed.contains(topic))) {
+                out.addAll(read);
+                continue;
             }
+            // dropped from memory since the index was read
+            if (words == null) continue;
+            out.addAll(optimisticRead(topicLock(topic), () -> {
+                ArrayList<String> forms = new ArrayList<>(2);
+                words.collectForms(fold, forms);
+                return forms;
+            }));
         }
     }
     /**
-     * Displays the main menu for the vocabulary management system.
+     * @return true once topics have been loaded from a file, a snapshot or the journal.
      */
-    public void displayMenu() {
-        System.out.println("\n-----------------------------");
-        System.out.println("Vocabulary Control Center");
-        System.out.println("-----------------------------");
-        System.out.println("1 browse a topic");
-        System.out.println("2 insert a new topic before another one");
-        System.out.println("3 insert a new topic after another one");
-        System.out.println("4 remove a topic");
-        System.out.println("5 modify a topic");
-        System.out.println("6 search topics for a word");
-        System.out.println("7 load from a file");
-        System.out.println("8 show all words starting with a given letter");
-        System.out.println("9 save to file");
-        System.out.println("0 exit");
-        System.out.println("-----------------------------");
-        System.out.print("Enter Your Choice: ");
+    public boolean isFileLoaded() {
+        return isFileLoaded;
     }
     /**
-     * The main method that drives the vocabulary management system.
+     * @return true while edits are being journaled.
      */
-    public static void main(String[] args) {
-        VocabDoubleList vocabManager = new VocabDoubleList();
-        Scanner scanner = new Scanner(System.in);
-        int choice = -1;
-
-        do {
+    public boolean isJournaling() {
+        return optimisticRead(structureLock, () -> journal != null);
+    }
+    /**
+     * Saves all topics and their associated words to a UTF-8 text file, each
+     * topic preceded by a line with a "#" and its name, then one word per line.
+     * The file holds the list as it was at one instant, read from a
+     * {@link Version}, so edits go on while it is written.
+     *
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void saveText(Path path) throws IOException {
+        exportText(path, null, false);
+    }
+    /**
+     * Saves some or all topics in the format of {@link #saveText(Path)},
+     * optionally gzipped. Words are copied as UTF-8 straight from the dictionary
+     * into a reusable direct buffer that is written through a file channel, and
+     * topics loaded lazily are copied from their file without being read in.
+     * Like {@link #saveText(Path)}, it writes a {@link Version}, so edits go on
+     * meanwhile. The file is written to a temporary file of its own next to its
+     * destination, forced to disk and only then moved over it, so a failed or
+     * interrupted export leaves the destination as it was, and exports to one
+     * file do not write into each other's.
+     *
+     * @param path The file to write.
+     * @param topicIds The ids of the topics to save, written in list order; null saves all topics.
+     * @param compress Whether to gzip the file.
+     * @throws IOException If the file cannot be written.
+     * @throws NoSuchElementException If there is no topic with one of the ids.
+     */
+    public void exportText(Path path, int[] topicIds, boolean compress) throws IOException {
+        long start = timerStart();
+        try (Version version = openVersion()) {
+            boolean[] chosen = new boolean[version.topicCount()];
+            if (topicIds == null) {
+                Arrays.fill(chosen, true);
+            } else {
+                HashMap<Integer, Integer> indexes = new HashMap<>();
+                for (int i = 0; i < version.topicIds.length; i++) indexes.put(version.topicIds[i], i);
+                for (int topicId : topicIds) {
+                    Integer index = indexes.get(topicId);
+                    if (index == null) throw new NoSuchElementException("No topic with id " + topicId);
+                    chosen[index] = true;
+                }
+            }
+            Path temp = tempFileFor(path);
+            boolean written = false;
             try {
-                vocabManager.displayMenu();
-                choice = scanner.nextInt();
-                scanner.nextLine();  
-                switch (choice) {
-                    case 1:
-                        vocabManager.browseTopic();
-                        break;
-                    case 2:
-                        vocabManager.addTopicBefore();
-                        break;
-                    case 3:
-                        vocabManager.addTopicAfter();
-                        break;
-                    case 4:
-                        vocabManager.removeTopic();
-                        break;
-                    case 5:
-                        vocabManager.modifyTopic();
-                        break;
-                    case 6:
-                        vocabManager.searchTopicsForWord();
-                        break;
-                    case 7:
-                        vocabManager.loadFromFile();
-                        break;
-                    case 8:
-                        vocabManager.showWordsStartingWith();
-                        break;
-                    case 9:
-                        vocabManager.saveToFile();
-                        break;
-                    case 0:
-                        System.out.println("Exiting the program...");
-                        break;
-                    default:
-                        System.out.println("Invalid choice. Please enter a number between 0 and 9.");
-                        break;
+                try (TextOutput out = new TextOutput(FileChannel.open(temp, StandardOpenOption.WRITE), compress)) {
+                    for (int i = 0; i < chosen.length; i++) {
+                        if (!chosen[i]) continue;
+                        byte[] header = ("# " + version.topicNames[i]).getBytes(StandardCharsets.UTF_8);
+                        out.putLine(header, 0, header.length);
+                        WordList words = version.topicWords[i];
+                        if (words == null) {
+                            out.putLines(version.topicSources[i].read());
+                            continue;
+                        }
+                        for (int slot = 0; slot < words.slots(); slot++) {
+                            int id = words.idAt(slot);
+                            if (id != -1) out.putWord(dictionary, id);
+                        }
+                    }
+                    out.finish();
                 }
-            } catch (NumberFormatException e) {
-                System.out.println("Invalid input. Please enter a valid number.");
-                scanner.nextLine();  
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                written = true;
+            } finally {
+                if (!written) Files.deleteIfExists(temp);
             }
-        } while (choice != 0);
-        scanner.close();
+        } finally {
+            timerStop(VocabMetrics.Operation.SAVE, start);
+        }
     }
     /**
-     * Displays a list of all topics and allows the user to select one to browse.
-     * The user can view all words associated with the selected topic.
+     * Returns the approximate heap used by a topic, its node and its words,
+     * estimated from array lengths and object header sizes.
+     *
+     * @param topicId A topic id.
+     * @return The number of bytes, or -1 if there is no topic with that id.
      */
-    //option 1
-    public void browseTopic() {
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("Browsing topics:");
-        displayTopics();
-        System.out.print("\nSelect a topic number or 0 to exit: ");
-        int choice = scanner.nextInt();
-
-        if (choice == 0) return;
-        if (choice < 1 || choice > topicCounter) {
-            System.out.println("Invalid topic number!");
-            return;
-        }
-
-        TopicNode current = startNode;
-        for (int i = 1; i < choice; i++) current = current.nextNode;
-        System.out.println("Topic: " + current.topicContent.topicName);
-        current.topicContent.listWords();
+    public long topicHeapBytes(int topicId) {
+        TopicNode topic = topicsById.get(topicId);
+        if (topic == null) return -1;
+        return optimisticRead(topicLock(topic), topic.topicContent::heapBytes);
     }
     /**
-     * Inserts a new topic before a specified existing topic.
-     * Users must specify the position where the new topic should be inserted.
+     * @param topicId A topic id.
+     * @return The number of words in the topic, or -1 if there is no topic with that id.
      */
-    // option 2
-    public void addTopicBefore() {
-        Scanner scanner = new Scanner(System.in);
-        int choice;
-        System.out.println("\nInserting a topic before another:");
-        displayTopics();
-        System.out.print("\nChoose a topic number or 0 to cancel: ");
-        choice = scanner.nextInt();
-        scanner.nextLine();  
-
-        if (choice == 0) return;
-        if (choice < 1 || choice > topicCounter) {
-            System.out.println("Invalid topic number!");
-            return;
+    public int topicWordCount(int topicId) {
+        TopicNode topic = topicsById.get(topicId);
+        if (topic == null) return -1;
+        TopicContent content = topic.topicContent;
+        return optimisticRead(topicLock(topic), () -> content.words == null ? content.source.wordCount : content.words.count());
+    }
+    /**
+     * @return The number of words in all topics together.
+     */
+    public long wordCount() {
+        return optimisticRead(indexLock, () -> indexedWords + coldWords);
+    }
+    /**
+     * @return The approximate heap used by all topics together; see {@link #topicHeapBytes(int)}.
+     */
+    public long topicsHeapBytes() {
+        long stamp = structureLock.readLock();
+        try {
+            long bytes = 0;
+            for (TopicNode current = startNode; current != null; current = current.nextNode) {
+                bytes += optimisticRead(topicLock(current), current.topicContent::heapBytes);
+            }
+            return bytes;
+        } finally {
+            structureLock.unlockRead(stamp);
         }
-
-        System.out.print("Enter new topic name: ");
-        String topicName = scanner.nextLine();
-        TopicContent newTopic = new TopicContent(topicName);
-
-        System.out.println("Enter words for the topic (ENTER to finish):");
-        String word;
-        while (!(word = scanner.nextLine()).isEmpty()) {
-            newTopic.addWord(word);
+    }
+    /**
+     * @return The approximate heap used by the shared word dictionary.
+     */
+    public long dictionaryHeapBytes() {
+        return dictionary.heapBytes();
+    }
+    /**
+     * @return The number of distinct words ever stored, in any letter case.
+     */
+    public int distinctWordCount() {
+        return dictionary.size();
+    }
+    /**
+     * @return The approximate heap used by the inverted word index.
+     */
+    public long indexHeapBytes() {
+        long stamp = indexLock.readLock();
+        try {
+            long bytes = 16L + 4L * wordIndex.length + wordTrigrams.heapBytes();
+            for (TopicCounts postings : wordIndex) {
+                if (postings != null) bytes += postings.heapBytes();
+            }
+            return bytes;
+        } finally {
+            indexLock.unlockRead(stamp);
         }
-
-        TopicNode current = startNode;
-        for (int i = 1; i < choice; i++) current = current.nextNode;
-        TopicNode newNode = new TopicNode(newTopic);
-        newNode.nextNode = current;
-        newNode.previousNode = current.previousNode;
-        if (current.previousNode == null) {
-            startNode = newNode;
-        } else {
-            current.previousNode.nextNode = newNode;
+    }
+    /**
+     * Writes the whole vocabulary to a binary snapshot file. All values are big-endian:
+     * <pre>
+     * int    magic "VOCB"
+     * int    format version
+     * int    topic count
+     * int    string count
+     * long   total word count
+     * int    next topic id
+     * long   sequence number of the last journal record included
+     * int[]  string offsets (string count + 1 entries, into the string data)
+     * byte[] string data, UTF-8, each distinct topic name and word once
+     * int[]  topic name string ids (topic count entries)
+     * int[]  topic ids (topic count entries)
+     * int[]  topic word offsets (topic count + 1 entries, into the word ids)
+     * int[]  word string ids (total word count entries)
+     * int    CRC32C of all the bytes above
+     * </pre>
+     * Version 1 files lack the topic ids, the next topic id and the journal sequence.
+     * The file is written to a temporary sibling of its own through a FileChannel
+     * and then moved over the target, so an existing snapshot is never left
+     * half-written and snapshots to one file do not write into each other's;
+     * the sibling is deleted if writing fails.
+     * The snapshot is written from a {@link Version}, so edits only wait while
+     * it is taken and a snapshot always holds a state the list was in.
+     *
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written or would exceed 2 GiB.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        long start = timerStart();
+        try {
+            try (Version version = openVersion()) {
+                writeSnapshotFile(path, version);
+            }
+        } finally {
+            timerStop(VocabMetrics.Operation.SNAPSHOT, start);
         }
-        current.previousNode = newNode;
-        topicCounter++;
     }
     /**
-     * Inserts a new topic after a specified existing topic.
-     * Users must specify the position after which the new topic should be inserted.
+     * Writes the snapshot file of a version.
      */
-   //option 3
-    public void addTopicAfter() {
-        Scanner scanner = new Scanner(System.in);
-        int choice;
-        System.out.println("\nInserting a topic after another:");
-        displayTopics();
-        System.out.print("\nChoose a topic number or 0 to cancel: ");
-        choice = scanner.nextInt();
-        scanner.nextLine(); 
+    private void writeSnapshotFile(Path path, Version version) throws IOException {
+        // string table entries: a dictionary id, or -(index + 1) into the other strings:
+        // topic names and the words of topics on disk, which are not interned
+        int[] strings = new int[16];
+        int stringCount = 0;
+        int[] wordStringIds = new int[dictionary.size()];
+        Arrays.fill(wordStringIds, -1);
+        HashMap<String, Integer> otherStringIds = new HashMap<>();
+        ArrayList<byte[]> others = new ArrayList<>();
+        int topicCount = version.topicCount();
+        int[] nameIds = new int[topicCount];
+        int[] topicIds = version.topicIds;
+        int[] wordOffsets = new int[topicCount + 1];
+        int[] wordIds = new int[16];
+        int wordCount = 0;
+        long stringBytes = 0;
 
-        if (choice == 0) return;
-        if (choice < 1 || choice > topicCounter) {
-            System.out.println("Invalid topic number!");
-            return;
+        for (int topicIndex = 0; topicIndex < topicCount; topicIndex++) {
+            String topicName = version.topicNames[topicIndex];
+            Integer nameId = otherStringIds.get(topicName);
+            if (nameId == null) {
+                byte[] name = topicName.getBytes(StandardCharsets.UTF_8);
+                others.add(name);
+                stringBytes += name.length;
+                if (stringCount == strings.length) strings = Arrays.copyOf(strings, stringCount * 2);
+                strings[stringCount] = -others.size();
+                nameId = stringCount++;
+                otherStringIds.put(topicName, nameId);
+            }
+            nameIds[topicIndex] = nameId;
+            WordList words = version.topicWords[topicIndex];
+            if (words == null) {
+                for (String word : decodeWords(version.topicSources[topicIndex].read())) {
+                    Integer wordId = otherStringIds.get(word);
+                    if (wordId == null) {
+                        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                        others.add(bytes);
+                        stringBytes += bytes.length;
+                        if (stringCount == strings.length) strings = Arrays.copyOf(strings, stringCount * 2);
+                        strings[stringCount] = -others.size();
+                        wordId = stringCount++;
+                        otherStringIds.put(word, wordId);
+                    }
+                    if (wordCount == wordIds.length) wordIds = Arrays.copyOf(wordIds, wordCount * 2);
+                    wordIds[wordCount++] = wordId;
+                }
+                wordOffsets[topicIndex + 1] = wordCount;
+                continue;
+            }
+            for (int slot = 0; slot < words.slots(); slot++) {
+                int word = words.idAt(slot);
+                if (word == -1) continue;
+                if (word >= wordStringIds.length) {
+                    // interned after the version was taken, by a topic read in from disk
+                    int known = wordStringIds.length;
+                    wordStringIds = Arrays.copyOf(wordStringIds, Math.max(dictionary.size(), known * 2));
+                    Arrays.fill(wordStringIds, known, wordStringIds.length, -1);
+                }
+                if (wordStringIds[word] == -1) {
+                    stringBytes += dictionary.byteLength(word);
+                    if (stringCount == strings.length) strings = Arrays.copyOf(strings, stringCount * 2);
+                    strings[stringCount] = word;
+                    wordStringIds[word] = stringCount++;
+                }
+                if (wordCount == wordIds.length) wordIds = Arrays.copyOf(wordIds, wordCount * 2);
+                wordIds[wordCount++] = wordStringIds[word];
+            }
+            wordOffsets[topicIndex + 1] = wordCount;
         }
-
-        System.out.print("Enter new topic name: ");
-        String topicName = scanner.nextLine();
-        TopicContent newTopic = new TopicContent(topicName);
-
-        System.out.println("Enter words for the topic (ENTER to finish):");
-        String word;
-        while (!(word = scanner.nextLine()).isEmpty()) {
-            newTopic.addWord(word);
+        long fileSize = SNAPSHOT_HEADER_SIZE + 4L * (stringCount + 1) + stringBytes
+                + 8L * topicCount + 4L * (topicCount + 1) + 4L * wordCount + 4;
+        if (stringBytes > Integer.MAX_VALUE || fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot would exceed 2 GiB");
         }
 
-        TopicNode current = startNode;
-        for (int i = 1; i < choice; i++) current = current.nextNode;
-        TopicNode newNode = new TopicNode(newTopic);
-        newNode.previousNode = current;
-        newNode.nextNode = current.nextNode;
-        if (current.nextNode == null) {
-            endNode = newNode;
-        } else {
-            current.nextNode.previousNode = newNode;
+        Path temp = tempFileFor(path);
+        boolean written = false;
+        try {
+            try (SnapshotOutput out = new SnapshotOutput(FileChannel.open(temp, StandardOpenOption.WRITE))) {
+                out.putInt(SNAPSHOT_MAGIC);
+                out.putInt(SNAPSHOT_VERSION);
+                out.putInt(topicCount);
+                out.putInt(stringCount);
+                out.putLong(wordCount);
+                out.putInt(version.nextTopicId);
+                out.putLong(version.journalSequence);
+                int offset = 0;
+                out.putInt(offset);
+                for (int i = 0; i < stringCount; i++) {
+                    offset += strings[i] < 0 ? others.get(-strings[i] - 1).length : dictionary.byteLength(strings[i]);
+                    out.putInt(offset);
+                }
+                byte[] scratch = new byte[256];
+                for (int i = 0; i < stringCount; i++) {
+                    if (strings[i] < 0) {
+                        byte[] other = others.get(-strings[i] - 1);
+                        out.putBytes(other, other.length);
+                    } else {
+                        int length = dictionary.byteLength(strings[i]);
+                        if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+                        dictionary.copyBytes(strings[i], scratch, 0);
+                        out.putBytes(scratch, length);
+                    }
+                }
+                for (int nameId : nameIds) out.putInt(nameId);
+                for (int topicId : topicIds) out.putInt(topicId);
+                for (int wordOffset : wordOffsets) out.putInt(wordOffset);
+                for (int i = 0; i < wordCount; i++) out.putInt(wordIds[i]);
+                out.finish();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written = true;
+        } finally {
+            if (!written) Files.deleteIfExists(temp);
         }
-        current.nextNode = newNode;
-        topicCounter++;
     }
     /**
-     * Removes a topic from the list based on the user's selection.
+     * Creates an empty file to write next to a destination before moving it
+     * over it, with a name of its own, so that writers of the same destination
+     * do not write into each other's file.
+     *
+     * @param path The destination.
+     * @return The new file, in the directory of the destination.
+     * @throws IOException If the file cannot be created.
      */
-    //option 4
-    public void removeTopic() {
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("\nAvailable topics:");
-        displayTopics();
-        System.out.print("\nSelect a topic number or 0 to exit: ");
-        int choice = scanner.nextInt();
-
-        if (choice == 0) return;
-        if (choice < 1 || choice > topicCounter) {
-            System.out.println("Invalid topic number!");
-            return;
-        }
-
-        TopicNode current = startNode;
-        for (int i = 1; i < choice; i++) current = current.nextNode;
-        if (current.previousNode == null) {
-            startNode = current.nextNode;
-        } else {
-            current.previousNode.nextNode = current.nextNode;
-        }
-        if (current.nextNode == null) {
-            endNode = current.previousNode;
-        } else {
-            current.nextNode.previousNode = current.previousNode;
+    private static Path tempFileFor(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        return Files.createTempFile(absolute.getParent(), absolute.getFileName() + ".", ".tmp");
+    }
+    /**
+     * Replaces the whole vocabulary with the content of a binary snapshot written by
+     * {@link #writeSnapshot(Path)}. The file is memory-mapped and its checksum is
+     * verified before anything is changed, so a truncated or corrupted snapshot
+     * leaves the current vocabulary untouched. When journaling, the journal is
+     * compacted afterwards so the restored state becomes its new base.
+     *
+     * @param path The snapshot file.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public void readSnapshot(Path path) throws IOException {
+        long start = timerStart();
+        try {
+            long stamp = structureLock.writeLock();
+            try {
+                readSnapshotFile(path);
+                if (journal != null) compactJournalLocked();
+            } finally {
+                unlockStructure(stamp);
+            }
+        } finally {
+            timerStop(VocabMetrics.Operation.RESTORE, start);
         }
-        topicCounter--;
-        System.out.println("Topic removed successfully.");
     }
     /**
-     * Allows the user to modify a topic by adding, removing, or changing words.
+     * Replaces the whole vocabulary with the content of a binary snapshot.
+     * The caller holds the structure lock exclusively.
+     *
+     * @param path The snapshot file.
+     * @return The sequence number of the last journal record contained in the snapshot.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
      */
-    //option 5
-    public void modifyTopic() {
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("\nModifying a topic:");
-        displayTopics();
-        System.out.print("\nSelect a topic number or 0 to exit: ");
-        int choice = scanner.nextInt();
-        scanner.nextLine();  
+    private long readSnapshotFile(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SNAPSHOT_V1_HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a snapshot file: unexpected size " + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int bodySize = buffer.capacity() - 4;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(bodySize));
+        if ((int) crc.getValue() != buffer.getInt(bodySize)) {
+            throw new IOException("Snapshot checksum mismatch, the file is truncated or corrupted");
+        }
+        if (buffer.getInt(0) != SNAPSHOT_MAGIC) throw new IOException("Not a snapshot file");
+        int version = buffer.getInt(4);
+        if (version != 1 && version != SNAPSHOT_VERSION) throw new IOException("Unsupported snapshot version " + version);
+        boolean hasIds = version >= 2;
+        int topicCount = buffer.getInt(8);
+        int stringCount = buffer.getInt(12);
+        long wordCount = buffer.getLong(16);
+        int storedNextTopicId = hasIds ? buffer.getInt(24) : topicCount + 1;
+        long journalSequence = hasIds ? buffer.getLong(28) : 0;
 
-        if (choice == 0) return;
-        if (choice < 1 || choice > topicCounter) {
-            System.out.println("Invalid topic number!");
-            return;
+        int stringOffsetsAt = hasIds ? SNAPSHOT_HEADER_SIZE : SNAPSHOT_V1_HEADER_SIZE;
+        int stringDataAt = stringOffsetsAt + 4 * (stringCount + 1);
+        int stringDataSize = buffer.getInt(stringOffsetsAt + 4 * stringCount);
+        int nameIdsAt = stringDataAt + stringDataSize;
+        int topicIdsAt = nameIdsAt + 4 * topicCount;
+        int wordOffsetsAt = topicIdsAt + (hasIds ? 4 * topicCount : 0);
+        int wordIdsAt = wordOffsetsAt + 4 * (topicCount + 1);
+        if ((long) wordIdsAt + 4 * wordCount != bodySize) throw new IOException("Snapshot layout is inconsistent");
+
+        try {
+            int previous = 0;
+            for (int i = 0; i <= stringCount; i++) {
+                int offset = buffer.getInt(stringOffsetsAt + 4 * i);
+                if (offset < previous || stringDataAt + offset > nameIdsAt) throw new IndexOutOfBoundsException();
+                previous = offset;
+            }
+            previous = 0;
+            for (int t = 0; t <= topicCount; t++) {
+                int offset = buffer.getInt(wordOffsetsAt + 4 * t);
+                if (offset < previous || offset > wordCount) throw new IndexOutOfBoundsException();
+                previous = offset;
+                if (t < topicCount) Objects.checkIndex(buffer.getInt(nameIdsAt + 4 * t), stringCount);
+            }
+            for (long w = 0; w < wordCount; w++) Objects.checkIndex(buffer.getInt(wordIdsAt + 4 * (int) w), stringCount);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Snapshot refers to data outside the file", e);
         }
 
-        TopicNode current = startNode;
-        for (int i = 1; i < choice; i++) current = current.nextNode;
-
-        String action;
-        boolean exit = false;
-        while (!exit) {
-            System.out.println("\n-----------------------------");
-            System.out.println("    Modify Topics Menu");
-            System.out.println("-----------------------------");
-            System.out.println("a add a word");
-            System.out.println("r remove a word");
-            System.out.println("c change a word");
-            System.out.println("0 Exit");
-            System.out.println("-----------------------------");
-            System.out.print("Enter your choice: ");
-            action = scanner.nextLine();
-
-            switch (action) {
-                case "a":
-                    System.out.print("Enter a word to add: ");
-                    String wordToAdd = scanner.nextLine();
-                    if (isWordPresent(current.topicContent, wordToAdd)) {
-                        System.out.println("Sorry, the word: '" + wordToAdd + "' is already listed.");
-                    } else {
-                        current.topicContent.addWord(wordToAdd);
-                        System.out.println("Word added successfully.");
-                    }
-                    break;
-                case "r":
-                    System.out.print("Enter a word to remove: ");
-                    String wordToRemove = scanner.nextLine();
-                    if (removeWord(current.topicContent, wordToRemove)) {
-                        System.out.println("Word removed successfully.");
-                    } else {
-                        System.out.println("Word not found.");
-                    }
-                    break;
-                case "c":
-                    System.out.print("Enter the word to change: ");
-                    String wordToChange = scanner.nextLine();
-                    System.out.print("Enter new word: ");
-                    String newWord = scanner.nextLine();
-                    if (changeWord(current.topicContent, wordToChange, newWord)) {
-                        System.out.println("Word changed successfully.");
-                    } else {
-                        System.out.println("Original word not found.");
+        // the cached results are dropped once at the end instead of word by word
+        QueryCache cache = queryCache;
+        setQueryCache(null);
+        try {
+            clear();
+            // words are interned straight from the mapped bytes the first time a string is used
+            int[] wordIdOf = new int[stringCount];
+            Arrays.fill(wordIdOf, -1);
+            byte[] scratch = new byte[256];
+            for (int t = 0; t < topicCount; t++) {
+                int nameId = buffer.getInt(nameIdsAt + 4 * t);
+                int start = buffer.getInt(stringOffsetsAt + 4 * nameId);
+                int length = buffer.getInt(stringOffsetsAt + 4 * (nameId + 1)) - start;
+                if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+                buffer.get(stringDataAt + start, scratch, 0, length);
+                TopicContent topic = new TopicContent(new String(scratch, 0, length, StandardCharsets.UTF_8));
+                int from = buffer.getInt(wordOffsetsAt + 4 * t);
+                int to = buffer.getInt(wordOffsetsAt + 4 * (t + 1));
+                for (int w = from; w < to; w++) {
+                    int stringId = buffer.getInt(wordIdsAt + 4 * w);
+                    if (wordIdOf[stringId] == -1) {
+                        start = buffer.getInt(stringOffsetsAt + 4 * stringId);
+                        length = buffer.getInt(stringOffsetsAt + 4 * (stringId + 1)) - start;
+                        if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+                        buffer.get(stringDataAt + start, scratch, 0, length);
+                        wordIdOf[stringId] = dictionary.intern(scratch, 0, length);
                     }
-                    break;
-                case "0":
-                    exit = true;
-                    break;
-                default:
-                    System.out.println("Invalid choice. Please try again.");
-                    break;
+                    topic.words.add(wordIdOf[stringId]);
+                }
+                TopicNode newNode = new TopicNode(topic);
+                if (hasIds) newNode.topicId = buffer.getInt(topicIdsAt + 4 * t);
+                linkTopic(newNode, null, VocabJournal.APPEND);
             }
+        } finally {
+            setQueryCache(cache);
         }
+        nextTopicId = storedNextTopicId;
+        isFileLoaded = true;
+        return journalSequence;
     }
     /**
-     * Checks if a specified word is present in the topic's word list.
-     * 
-     * @param topic The topic content to check within.
-     * @param word The word to search for.
-     * @return true if the word is present in the topic's word list, false otherwise.
-     */
-    private boolean isWordPresent(TopicContent topic, String word) {
-        WordNode temp = topic.wordHead;
-        while (temp != null) {
-            if (temp.word.equalsIgnoreCase(word)) {
-                return true;
+     * Starts persisting every edit to an append-only journal. The snapshot, if it
+     * exists, replaces the current vocabulary, and the journal records written
+     * after it are replayed on top. From then on each edit is appended to the
+     * journal before it is applied.
+     *
+     * @param snapshot The snapshot file written by {@link #compactJournal()}.
+     * @param journalFile The journal file, created if missing.
+     * @param syncEvery Force the journal to disk after this many edits; 0 leaves it
+     *                  to the operating system until the journal is compacted or closed.
+     * @throws IOException If the snapshot or the journal cannot be read.
+     */
+    public void openJournal(Path snapshot, Path journalFile, int syncEvery) throws IOException {
+        long stamp = structureLock.writeLock();
+        try {
+            closeJournalLocked();
+            long snapshotSequence = 0;
+            if (Files.exists(snapshot)) {
+                snapshotSequence = readSnapshotFile(snapshot);
             }
-            temp = temp.nextWord;
+            journal = VocabJournal.open(journalFile, snapshotSequence, syncEvery, new JournalReplayer());
+            snapshotPath = snapshot;
+            if (topicCounter > 0) isFileLoaded = true;
+        } finally {
+            unlockStructure(stamp);
         }
-        return false;
     }
     /**
-     * Removes a specified word from the topic's word list.
-     * 
-     * @param topic The topic content from which the word should be removed.
-     * @param word The word to be removed.
-     * @return true if the word was successfully removed, false if the word was not found.
+     * Forces the journaled edits to disk, if journaling is on. Callers applying
+     * many edits at once can open the journal without periodic syncing and call
+     * this once per batch.
+     * @throws IOException If the journal cannot be synced.
      */
-    private boolean removeWord(TopicContent topic, String word) {
-        WordNode temp = topic.wordHead;
-        WordNode prev = null;
-        while (temp != null) {
-            if (temp.word.equalsIgnoreCase(word)) {
-                if (prev == null) {
-                    topic.wordHead = temp.nextWord;
-                } else {
-                    prev.nextWord = temp.nextWord;
-                }
-                return true;
-            }
-            prev = temp;
-            temp = temp.nextWord;
+    public void syncJournal() throws IOException {
+        long stamp = structureLock.readLock();
+        try {
+            if (journal != null) journal.sync();
+        } finally {
+            structureLock.unlockRead(stamp);
         }
-        return false;
     }
     /**
-     * Changes a specified word to a new word within the topic's word list.
-     * 
-     * @param topic The topic content containing the word to be changed.
-     * @param oldWord The word to be replaced.
-     * @param newWord The new word that will replace the old word.
-     * @return true if the old word was found and successfully replaced, false otherwise.
+     * Writes the current vocabulary to the journal's snapshot file and empties the journal.
+     * Edits wait until it is done; readers do not.
+     * @throws IOException If the snapshot cannot be written.
      */
-    private boolean changeWord(TopicContent topic, String oldWord, String newWord) {
-        WordNode temp = topic.wordHead;
-        while (temp != null) {
-            if (temp.word.equalsIgnoreCase(oldWord)) {
-                temp.word = newWord;
-                return true;
-            }
-            temp = temp.nextWord;
+    public void compactJournal() throws IOException {
+        long[] stamps = lockEdits();
+        try {
+            compactJournalLocked();
+        } finally {
+            unlockEdits(stamps);
         }
-        return false;
     }
     /**
-     * Searches all topics for the specified word.
+     * Compacts the journal. The caller blocks every edit, through
+     * {@link #lockEdits()} or the exclusive structure lock.
+     */
+    private void compactJournalLocked() throws IOException {
+        if (journal == null) return;
+        journal.sync();
+        try (Version version = captureLocked()) {
+            writeSnapshotFile(snapshotPath, version);
+        }
+        journal.reset();
+    }
+    /**
+     * Flushes and closes the journal; later edits are no longer persisted.
+     * @throws IOException If the journal cannot be synced.
      */
-    //option 6
-    public void searchTopicsForWord() {
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("Enter the word to search for: ");
-        String word = scanner.nextLine().toLowerCase();
+    public void closeJournal() throws IOException {
+        long stamp = structureLock.writeLock();
+        try {
+            closeJournalLocked();
+        } finally {
+            unlockStructure(stamp);
+        }
+    }
 
-        boolean found = false;
-        TopicNode current = startNode;
-        while (current != null) {
-            WordNode wordNode = current.topicContent.wordHead;
-            while (wordNode != null) {
-                if (wordNode.word.equalsIgnoreCase(word)) {
-                    System.out.println("Found '" + word + "' in topic: " + current.topicContent.topicName);
-                    found = true;
-                    break;
-                }
-                wordNode = wordNode.nextWord;
-            }
-            current = current.nextNode;
+    private void closeJournalLocked() throws IOException {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } finally {
+            journal = null;
+            snapshotPath = null;
+        }
+    }
+    /**
+     * Inner class applying replayed journal records to this list. The journal
+     * is not attached yet while it replays, so nothing is logged twice. Replay
+     * runs under the exclusive structure lock taken by {@link #openJournal}.
+     */
+    private class JournalReplayer implements VocabJournal.Replayer {
+        @Override
+        public void addWord(int topicId, String word) throws IOException {
+            lockedEdit(topic(topicId), topic -> {
+                applyAddWord(topic, word);
+                return true;
+            });
+        }
+
+        @Override
+        public void removeWord(int topicId, String word) throws IOException {
+            lockedEdit(topic(topicId), topic -> applyRemoveWord(topic, word));
+        }
+
+        @Override
+        public void renameWord(int topicId, String oldWord, String newWord) throws IOException {
+            lockedEdit(topic(topicId), topic -> applyChangeWord(topic, oldWord, newWord));
+        }
+
+        @Override
+        public void insertTopic(int topicId, int anchorId, byte position, String name, List<String> words)
+                throws IOException {
+            TopicContent content = new TopicContent(name);
+            for (String word : words) content.addWord(word);
+            TopicNode newNode = new TopicNode(content);
+            newNode.topicId = topicId;
+            nextTopicId = Math.max(nextTopicId, topicId + 1);
+            linkTopic(newNode, position == VocabJournal.APPEND ? null : topic(anchorId), position);
         }
 
-        if (!found) {
-            System.out.println("No topics contain the word '" + word + "'.");
+        @Override
+        public void removeTopic(int topicId) throws IOException {
+            applyRemoveTopic(topic(topicId));
+        }
+
+        @Override
+        public void replaceWords(int topicId, List<String> words) throws IOException {
+            lockedEdit(topic(topicId), topic -> applyReplaceWords(topic, words));
+        }
+
+        private TopicNode topic(int topicId) throws IOException {
+            TopicNode topic = topicsById.get(topicId);
+            if (topic == null) throw new IOException("Journal refers to unknown topic " + topicId);
+            return topic;
+        }
+    }
+    /**
+     * Drops every topic and empties the indexes. The dictionary is kept, so word
+     * ids held by concurrent readers stay valid.
+     * The caller holds the structure lock exclusively.
+     */
+    private void clear() {
+        synchronized (residentLazyTopics) {
+            residentLazyTopics.clear();
+            residentLazyBytes = 0;
+        }
+        for (FileChannel channel : lazyFiles) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing is read from it anymore
+            }
+        }
+        lazyFiles.clear();
+        startNode = null;
+        endNode = null;
+        topicCounter = 0;
+        topicSequence.root = null;
+        topicsById.clear();
+        orderRebuild = true;
+        nextTopicId = 1;
+        long stamp = indexLock.writeLock();
+        try {
+            wordIndex = new TopicCounts[256];
+            indexedWords = 0;
+            coldWords = 0;
+            sortedWords.clear();
+            wordTrigrams = new TrigramIndex();
+            if (queryCache != null) queryCache.invalidateAll();
+        } finally {
+            indexLock.unlockWrite(stamp);
         }
     }
     /**
-     * Loads topics and their words from a file.
+     * Static inner class writing lines of UTF-8 text to a channel through a
+     * reusable direct buffer. When compressing, a raw {@link Deflater} works
+     * from that buffer into a second direct one, framed by a gzip header and a
+     * trailer with the CRC-32 and length of the text.
      */
-    //option 7
-    public void loadFromFile() {
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("Enter filename to load from: ");
-        String filename = scanner.nextLine();
+    private static class TextOutput implements Closeable {
+        private static final int BUFFER_SIZE = 1 << 20;
+        private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 4, (byte) 0xff};
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Deflater deflater;
+        private final ByteBuffer compressed;
+        private final CRC32 crc = new CRC32();
+        private long textBytes;
+        private byte[] scratch = new byte[256];
+        /**
+         * Constructor to initialize the output over an open channel.
+         * @param channel The channel to write to; it is closed with the output.
+         * @param compress Whether to write gzip instead of plain text.
+         */
+        public TextOutput(FileChannel channel, boolean compress) {
+            this.channel = channel;
+            if (compress) {
+                deflater = new Deflater(Deflater.BEST_SPEED, true);
+                compressed = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                compressed.put(GZIP_HEADER);
+            } else {
+                deflater = null;
+                compressed = null;
+            }
+        }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            TopicContent currentTopic = null;
-            while ((line = reader.readLine()) != null) {
-                System.out.println("Processing line: " + line);  
-                if (line.startsWith("#")) {
-                    String topicName = line.substring(1).trim();
-                    currentTopic = new TopicContent(topicName);
-                    TopicNode newNode = new TopicNode(currentTopic);
-                    if (startNode == null) {
-                        startNode = newNode;
-                        endNode = newNode;
-                    } else {
-                        endNode.nextNode = newNode;
-                        newNode.previousNode = endNode;
-                        endNode = newNode;
-                    }
-                    topicCounter++;
-                } else if (!line.trim().isEmpty()) {  
-                    currentTopic.addWord(line.trim());
-                }
+        public void putLine(byte[] bytes, int offset, int length) throws IOException {
+            int end = offset + length;
+            while (offset < end) {
+                if (!buffer.hasRemaining()) drain();
+                int chunk = Math.min(buffer.remaining(), end - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
             }
-            isFileLoaded = true;
-            System.out.println("File loaded successfully.");
-        } catch (IOException e) {
-            System.out.println("Error loading file: " + e.getMessage());
-        }
-    }
-
-    public void showWordsStartingWith() {
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("Enter the starting letter: ");
-        char letter = scanner.next().toLowerCase().charAt(0);
-        scanner.nextLine();  
-        ArrayList<String> sortedWords = new ArrayList<>();
-        TopicNode current = startNode;
-        while (current != null) {
-            WordNode wordNode = current.topicContent.wordHead;
-            while (wordNode != null) {
-                String word = wordNode.word;
-                if (!word.isEmpty() && Character.toLowerCase(word.charAt(0)) == letter) {
-                    int i = 0;
-                    
-                    while (i < sortedWords.size() && sortedWords.get(i).compareToIgnoreCase(word) < 0) {
-                        i++;
-                    }
-                    sortedWords.add(i, word);  
-                }
-                wordNode = wordNode.nextWord;
+            if (!buffer.hasRemaining()) drain();
+            buffer.put((byte) '\n');
+        }
+
+        public void putWord(WordDictionary dictionary, int id) throws IOException {
+            int length = dictionary.byteLength(id);
+            if (buffer.remaining() <= length) drain();
+            if (buffer.remaining() > length) {
+                dictionary.copyBytes(id, buffer);
+                buffer.put((byte) '\n');
+            } else {
+                if (length > scratch.length) scratch = new byte[length];
+                dictionary.copyBytes(id, scratch, 0);
+                putLine(scratch, 0, length);
+            }
+        }
+        /**
+         * Writes the lines of a topic read from its file, trimmed and without
+         * blank lines, as {@link #loadFiles(List)} would read them.
+         */
+        public void putLines(byte[] bytes) throws IOException {
+            int lineStart = 0;
+            for (int i = 0; i <= bytes.length; i++) {
+                if (i < bytes.length && bytes[i] != '\n') continue;
+                int start = lineStart;
+                int end = i;
+                lineStart = i + 1;
+                while (start < end && (bytes[start] & 0xff) <= ' ') start++;
+                while (end > start && (bytes[end - 1] & 0xff) <= ' ') end--;
+                if (start < end) putLine(bytes, start, end - start);
+            }
+        }
+        /**
+         * Writes out everything buffered, ends the gzip stream if compressing
+         * and forces the data to disk.
+         */
+        public void finish() throws IOException {
+            drain();
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) deflate();
+                if (compressed.remaining() < 8) writeCompressed();
+                compressed.putInt((int) crc.getValue());
+                compressed.putInt((int) textBytes);
+                writeCompressed();
             }
-            current = current.nextNode;
+            channel.force(true);
         }
 
-        if (sortedWords.isEmpty()) {
-            System.out.println("No words found starting with '" + letter + "'.");
-        } else {
-            System.out.println("Words starting with '" + letter + "':");
-            for (String word : sortedWords) {
-                System.out.println(word);
+        private void drain() throws IOException {
+            buffer.flip();
+            if (deflater == null) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            } else {
+                textBytes += buffer.remaining();
+                // the deflater keeps the buffer it is given, so it gets a view that clearing cannot refill
+                deflater.setInput(buffer.duplicate());
+                crc.update(buffer);
+                while (!deflater.needsInput()) deflate();
             }
+            buffer.clear();
         }
-    
-    }
-    /**
-    * Saves all topics and their associated words to a file specified by the user.
-    * This method will prompt the user for a filename and write each topic and its words to that file,
-    * preceded by a "#" symbol for topics. If no file has been loaded into the system, it will not perform the save
-    * and will notify the user accordingly.
-    */
-    //option 8
-    public void saveToFile() {
-        if (!isFileLoaded) {
-            System.out.println("No file loaded, cannot save.");
-            return;
+
+        private void deflate() throws IOException {
+            deflater.deflate(compressed);
+            if (!compressed.hasRemaining()) writeCompressed();
         }
 
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("Enter filename to save to: ");
-        String filename = scanner.nextLine();
+        private void writeCompressed() throws IOException {
+            compressed.flip();
+            while (compressed.hasRemaining()) channel.write(compressed);
+            compressed.clear();
+        }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            TopicNode current = startNode;
-            while (current != null) {
-                writer.write("# " + current.topicContent.topicName);
-                writer.newLine();
-                WordNode wordNode = current.topicContent.wordHead;
-                while (wordNode != null) {
-                    writer.write(wordNode.word);
-                    writer.newLine();
-                    wordNode = wordNode.nextWord;
-                }
-                current = current.nextNode;
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                if (deflater != null) deflater.end();
             }
-            System.out.println("Data saved to file successfully.");
-        } catch (IOException e) {
-            System.out.println("Error saving file: " + e.getMessage());
         }
     }
     /**
-     * Displays a list of all topics currently loaded in the system.
-     * Each topic is listed with an index number. If no topics are available, it notifies the user.
+     * Static inner class writing big-endian values to a channel through a reusable
+     * direct buffer, keeping a running CRC32C of everything written.
      */
-    public void displayTopics() {
-        if (startNode == null) {
-            System.out.println("No topics available.");
-            return;
+    private static class SnapshotOutput implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private final CRC32C crc = new CRC32C();
+        /**
+         * Constructor to initialize the output over an open channel.
+         * @param channel The channel to write to; it is closed with the output.
+         */
+        public SnapshotOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        public void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) drain();
+            buffer.putInt(value);
+        }
+
+        public void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) drain();
+            buffer.putLong(value);
+        }
+
+        public void putBytes(byte[] bytes, int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                if (!buffer.hasRemaining()) drain();
+                int length = Math.min(buffer.remaining(), count - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+        /**
+         * Appends the checksum of everything written so far and forces the data to disk.
+         */
+        public void finish() throws IOException {
+            drain();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+            channel.force(true);
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
         }
-        int index = 1;
-        TopicNode current = startNode;
-        while (current != null) {
-            System.out.println(index++ + ". " + current.topicContent.topicName);
-            current = current.nextNode;
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
         }
     }
 
@@ -0,0 +1,364 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of the edits made to a {@link VocabDoubleList}.
+ * Every edit is written as one small record, so persisting it costs an append
+ * instead of rewriting the whole vocabulary. On startup the records written
+ * after the last snapshot are replayed on top of it.
+ *
+ * A record is laid out as an int length, an int CRC32C and a body of that
+ * length: a long sequence number, a one-byte operation and its fields.
+ * Strings are stored as an int length followed by UTF-8 bytes. A torn
+ * record at the end of the file, left by a crash, is dropped on open.
+ *
+ * Appends are synchronized, so editors of different topics can log
+ * concurrently; each record is written whole before the next one starts.
+ * A record that cannot be written is cut off the file again and its edit
+ * refused. A record that is written but cannot be synced is kept, so its
+ * edit goes ahead, but the journal then refuses every later record until a
+ * compaction has reset it, since their durability could not be promised.
+ */
+class VocabJournal implements Closeable {
+    static final byte ADD_WORD = 1;
+    static final byte REMOVE_WORD = 2;
+    static final byte RENAME_WORD = 3;
+    static final byte INSERT_TOPIC = 4;
+    static final byte REMOVE_TOPIC = 5;
+    static final byte REPLACE_WORDS = 6;
+    /** Insert position for {@link #logInsertTopic}: before the anchor topic. */
+    static final byte BEFORE = 0;
+    /** Insert position for {@link #logInsertTopic}: after the anchor topic. */
+    static final byte AFTER = 1;
+    /** Insert position for {@link #logInsertTopic}: at the end of the list, no anchor. */
+    static final byte APPEND = 2;
+
+    private static final int MAGIC = 0x564F434A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Receives the edits read back from a journal.
+     */
+    interface Replayer {
+        void addWord(int topicId, String word) throws IOException;
+
+        void removeWord(int topicId, String word) throws IOException;
+
+        void renameWord(int topicId, String oldWord, String newWord) throws IOException;
+
+        void insertTopic(int topicId, int anchorId, byte position, String name, List<String> words) throws IOException;
+
+        void removeTopic(int topicId) throws IOException;
+
+        void replaceWords(int topicId, List<String> words) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final int syncEvery;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private long sequence;
+    private int unsynced;
+    /** Where the next record goes: just past the last record written whole. */
+    private long end;
+    /** Why the journal stopped taking records, or null while it takes them. */
+    private IOException failure;
+
+    private VocabJournal(FileChannel channel, int syncEvery, long sequence) {
+        this.channel = channel;
+        this.syncEvery = syncEvery;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Opens a journal, creating it if needed, and replays the records that are
+     * newer than the snapshot it is applied on top of.
+     *
+     * @param path The journal file.
+     * @param snapshotSequence The sequence number of the last record already contained
+     *                         in the snapshot; older records are skipped.
+     * @param syncEvery Force the file to disk after this many records; 0 only forces on
+     *                  {@link #sync()} and {@link #close()}.
+     * @param replayer Receives the replayed edits.
+     * @return The journal, positioned to append after the last valid record.
+     * @throws IOException If the file cannot be read, is not a journal, or replay fails.
+     */
+    static VocabJournal open(Path path, long snapshotSequence, int syncEvery, Replayer replayer) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                writeHeader(channel);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                if (header.getInt(0) != MAGIC) throw new IOException("Not a journal file: " + path);
+                if (header.getInt(4) != VERSION) throw new IOException("Unsupported journal version " + header.getInt(4));
+            }
+            VocabJournal journal = new VocabJournal(channel, syncEvery, snapshotSequence);
+            journal.replay(snapshotSequence, replayer);
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tells whether a journal file holds any record, valid or not, without opening it.
+     * @param path The journal file.
+     * @return false if the file does not exist or holds only its header.
+     * @throws IOException If the file size cannot be read.
+     */
+    static boolean hasRecords(Path path) throws IOException {
+        return Files.exists(path) && Files.size(path) > HEADER_SIZE;
+    }
+
+    /**
+     * @return The sequence number of the last record written or replayed.
+     */
+    synchronized long sequence() {
+        return sequence;
+    }
+
+    synchronized void logAddWord(int topicId, String word) throws IOException {
+        begin(ADD_WORD).putInt(topicId);
+        putString(word);
+        commit();
+    }
+
+    synchronized void logRemoveWord(int topicId, String word) throws IOException {
+        begin(REMOVE_WORD).putInt(topicId);
+        putString(word);
+        commit();
+    }
+
+    synchronized void logRenameWord(int topicId, String oldWord, String newWord) throws IOException {
+        begin(RENAME_WORD).putInt(topicId);
+        putString(oldWord);
+        putString(newWord);
+        commit();
+    }
+
+    synchronized void logInsertTopic(int topicId, int anchorId, byte position, String name, Iterable<String> words, int wordCount)
+            throws IOException {
+        begin(INSERT_TOPIC).putInt(topicId);
+        ensure(5);
+        record.putInt(anchorId).put(position);
+        putString(name);
+        ensure(4);
+        record.putInt(wordCount);
+        for (String word : words) putString(word);
+        commit();
+    }
+
+    synchronized void logReplaceWords(int topicId, Iterable<String> words, int wordCount) throws IOException {
+        begin(REPLACE_WORDS).putInt(topicId);
+        ensure(4);
+        record.putInt(wordCount);
+        for (String word : words) putString(word);
+        commit();
+    }
+
+    synchronized void logRemoveTopic(int topicId) throws IOException {
+        begin(REMOVE_TOPIC).putInt(topicId);
+        commit();
+    }
+
+    /**
+     * Forces every record written so far to disk.
+     * @throws IOException If the file cannot be synced; later records are refused then.
+     */
+    synchronized void sync() throws IOException {
+        if (unsynced > 0) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Drops every record after a compaction has written them into a snapshot.
+     * The sequence numbers keep counting from where they were.
+     * @throws IOException If the file cannot be truncated.
+     */
+    synchronized void reset() throws IOException {
+        channel.truncate(HEADER_SIZE);
+        channel.force(true);
+        end = HEADER_SIZE;
+        unsynced = 0;
+        failure = null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer begin(byte operation) {
+        record.clear();
+        record.position(RECORD_HEADER_SIZE);
+        ensure(13);
+        record.putLong(sequence + 1).put(operation);
+        ensure(4);
+        return record;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        record.putInt(bytes.length).put(bytes);
+    }
+
+    private void ensure(int bytes) {
+        if (record.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+            record.flip();
+            grown.put(record);
+            record = grown;
+        }
+    }
+
+    /**
+     * Writes the record built since {@link #begin(byte)} after the last whole
+     * record. If the write fails, the file is cut back to where it was, so no
+     * torn bytes are left for later records to follow; a failed sync after a
+     * whole write does not fail this record but every later one.
+     */
+    private void commit() throws IOException {
+        if (failure != null) throw new IOException("Journal refuses edits after an earlier failure: " + failure.getMessage(), failure);
+        int bodyLength = record.position() - RECORD_HEADER_SIZE;
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER_SIZE, bodyLength);
+        record.putInt(0, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        try {
+            long position = end;
+            while (record.hasRemaining()) position += channel.write(record, position);
+        } catch (IOException e) {
+            try {
+                channel.truncate(end);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+                failure = e;
+            }
+            throw e;
+        }
+        end += RECORD_HEADER_SIZE + bodyLength;
+        sequence++;
+        unsynced++;
+        if (syncEvery > 0 && unsynced >= syncEvery) {
+            try {
+                sync();
+            } catch (IOException e) {
+                // the record is written and its edit goes ahead; the next record reports the failure
+            }
+        }
+    }
+
+    private void replay(long snapshotSequence, Replayer replayer) throws IOException {
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int bodyLength = header.getInt(0);
+            if (bodyLength < 9 || position + RECORD_HEADER_SIZE + bodyLength > size) break;
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(channel, body, position + RECORD_HEADER_SIZE);
+            crc.reset();
+            crc.update(body.array(), 0, bodyLength);
+            if ((int) crc.getValue() != header.getInt(4)) break;
+
+            long recordSequence = body.getLong();
+            if (recordSequence > snapshotSequence) {
+                apply(body.get(), body, replayer);
+                sequence = recordSequence;
+            }
+            position += RECORD_HEADER_SIZE + bodyLength;
+        }
+        if (position < size) channel.truncate(position);
+        end = position;
+    }
+
+    private static void apply(byte operation, ByteBuffer body, Replayer replayer) throws IOException {
+        switch (operation) {
+            case ADD_WORD:
+                replayer.addWord(body.getInt(), getString(body));
+                break;
+            case REMOVE_WORD:
+                replayer.removeWord(body.getInt(), getString(body));
+                break;
+            case RENAME_WORD:
+                replayer.renameWord(body.getInt(), getString(body), getString(body));
+                break;
+            case INSERT_TOPIC: {
+                int topicId = body.getInt();
+                int anchorId = body.getInt();
+                byte position = body.get();
+                String name = getString(body);
+                int wordCount = body.getInt();
+                ArrayList<String> words = new ArrayList<>(wordCount);
+                for (int i = 0; i < wordCount; i++) words.add(getString(body));
+                replayer.insertTopic(topicId, anchorId, position, name, words);
+                break;
+            }
+            case REMOVE_TOPIC:
+                replayer.removeTopic(body.getInt());
+                break;
+            case REPLACE_WORDS: {
+                int topicId = body.getInt();
+                int wordCount = body.getInt();
+                ArrayList<String> words = new ArrayList<>(wordCount);
+                for (int i = 0; i < wordCount; i++) words.add(getString(body));
+                replayer.replaceWords(topicId, words);
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal operation " + operation);
+        }
+    }
+
+    private static String getString(ByteBuffer body) {
+        int length = body.getInt();
+        String value = new String(body.array(), body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.truncate(0);
+        while (header.hasRemaining()) channel.write(header, header.position());
+        channel.force(true);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException();
+        }
+        buffer.flip();
+    }
+}
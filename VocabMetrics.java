@@ -0,0 +1,293 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Latency histograms of the {@link VocabDoubleList} operations, and gauges of
+ * its size. A vocabulary records into its metrics once they are set with
+ * {@link VocabDoubleList#setMetrics(VocabMetrics)}; without metrics it only
+ * reads one volatile field per operation.
+ *
+ * Recording is lock-free: a latency lands in one bucket of an
+ * {@link AtomicLongArray}, bucketed like HdrHistogram with sixteen buckets
+ * per power of two, so every percentile is within about 6% of the true
+ * value. The gauges are computed from the vocabulary when they are read.
+ *
+ * The metrics can be published as an MBean with {@link #register()} and
+ * written out as text every few seconds with {@link #startDump(long, Consumer)}.
+ */
+class VocabMetrics implements VocabMetricsMBean {
+    static final String OBJECT_NAME = "VocabDoubleList:type=Metrics";
+
+    /**
+     * The operations timed.
+     */
+    enum Operation {
+        LOAD,
+        SAVE,
+        SNAPSHOT,
+        RESTORE,
+        SEARCH,
+        SIMILAR,
+        PREFIX,
+        MATCH,
+        ADD_WORD,
+        REMOVE_WORD,
+        CHANGE_WORD,
+        REPLACE_WORDS,
+        INSERT_TOPIC,
+        REMOVE_TOPIC,
+        STATISTICS
+    }
+
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+
+    private final VocabDoubleList vocab;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+    private ScheduledExecutorService dumper;
+
+    /**
+     * Static inner class recording latencies in log-linear buckets: values
+     * below 32 ns get a bucket each, larger ones one of the 16 buckets that
+     * split their power of two evenly.
+     */
+    private static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            totalNanos.add(value);
+            maxNanos.accumulate(value);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double meanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) totalNanos.sum() / n;
+        }
+
+        long maxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * Returns the highest value of the bucket holding a percentile, never
+         * more than the largest value recorded.
+         */
+        long percentileNanos(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValueOf(i), maxNanos());
+            }
+            return maxNanos();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+
+        private static int bucketOf(long value) {
+            if (value < 2 * SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long highestValueOf(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+        }
+    }
+
+    /**
+     * Constructor to initialize empty histograms for a vocabulary.
+     * @param vocab The vocabulary the gauges read.
+     */
+    VocabMetrics(VocabDoubleList vocab) {
+        this.vocab = vocab;
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Records the latency of one operation.
+     * @param operation The operation.
+     * @param nanos How long it took.
+     */
+    void record(Operation operation, long nanos) {
+        histograms[operation.ordinal()].record(nanos);
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server as {@value #OBJECT_NAME}.
+     * @throws JMException If the name is taken or the MBean cannot be registered.
+     */
+    void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new StandardMBean(this, VocabMetricsMBean.class), new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if they were registered.
+     * @throws JMException If the MBean cannot be unregistered.
+     */
+    void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+    }
+
+    /**
+     * Hands the text report to a consumer periodically, on a daemon thread,
+     * until {@link #stopDump()} is called.
+     * @param periodSeconds The time between two reports.
+     * @param out Receives the reports.
+     */
+    synchronized void startDump(long periodSeconds, Consumer<String> out) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "vocab-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> out.accept(getReport()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic report, if one was started.
+     */
+    synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    @Override
+    public int getTopicCount() {
+        return vocab.topicCount();
+    }
+
+    @Override
+    public long getWordCount() {
+        return vocab.wordCount();
+    }
+
+    @Override
+    public double getAverageTopicLength() {
+        int topics = vocab.topicCount();
+        return topics == 0 ? 0 : (double) vocab.wordCount() / topics;
+    }
+
+    @Override
+    public long getEstimatedHeapBytes() {
+        return vocab.topicsHeapBytes() + vocab.dictionaryHeapBytes() + vocab.indexHeapBytes();
+    }
+
+    @Override
+    public String[] getOperations() {
+        Operation[] operations = Operation.values();
+        String[] names = new String[operations.length];
+        for (int i = 0; i < operations.length; i++) names[i] = operations[i].name().toLowerCase(Locale.ROOT);
+        return names;
+    }
+
+    /**
+     * Returns the gauges, then one line per operation that ran: its count and
+     * its mean, percentile and maximum latencies in microseconds.
+     */
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "topics=%d words=%d avgTopicLength=%.1f heapBytes=%d%n",
+                getTopicCount(), getWordCount(), getAverageTopicLength(), getEstimatedHeapBytes()));
+        QueryCache cache = vocab.queryCache();
+        if (cache != null) report.append("cache: ").append(cache).append(System.lineSeparator());
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = histograms[operation.ordinal()];
+            if (histogram.count() == 0) continue;
+            report.append(String.format(Locale.ROOT, "%-12s count=%d mean=%.1fus",
+                    operation.name().toLowerCase(Locale.ROOT), histogram.count(), histogram.meanNanos() / 1000));
+            for (double percentile : REPORTED_PERCENTILES) {
+                report.append(String.format(Locale.ROOT, " p%s=%.1fus", formatPercentile(percentile),
+                        histogram.percentileNanos(percentile) / 1000.0));
+            }
+            report.append(String.format(Locale.ROOT, " max=%.1fus%n", histogram.maxNanos() / 1000.0));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public long count(String operation) {
+        return histogram(operation).count();
+    }
+
+    @Override
+    public double meanMicros(String operation) {
+        return histogram(operation).meanNanos() / 1000;
+    }
+
+    @Override
+    public double percentileMicros(String operation, double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        return histogram(operation).percentileNanos(percentile) / 1000.0;
+    }
+
+    @Override
+    public double maxMicros(String operation) {
+        return histogram(operation).maxNanos() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) histogram.reset();
+    }
+
+    private LatencyHistogram histogram(String operation) {
+        try {
+            return histograms[Operation.valueOf(operation.toUpperCase(Locale.ROOT)).ordinal()];
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown operation '" + operation + "'");
+        }
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+}
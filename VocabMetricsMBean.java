@@ -0,0 +1,30 @@
+/**
+ * JMX management interface of {@link VocabMetrics}. Latencies are reported in
+ * microseconds, per operation named as in {@link #getOperations()}.
+ */
+public interface VocabMetricsMBean {
+    int getTopicCount();
+
+    long getWordCount();
+
+    double getAverageTopicLength();
+
+    long getEstimatedHeapBytes();
+
+    String[] getOperations();
+
+    String getReport();
+
+    long count(String operation);
+
+    double meanMicros(String operation);
+
+    double percentileMicros(String operation, double percentile);
+
+    double maxMicros(String operation);
+
+    /**
+     * Clears every latency histogram.
+     */
+    void reset();
+}
@@ -0,0 +1,435 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-only HTTP front end for a {@link VocabDoubleList}, built on the JDK's
+ * own HTTP server. Every endpoint answers GET requests with JSON:
+ * <pre>
+ * /topics?offset=0&amp;limit=50            {"total":N,"offset":0,"topics":[{"id":1,"name":"..."},...]}
+ * /topics/ID/words?offset=0&amp;limit=100  {"id":ID,"name":"...","total":N,"words":["...",...]}
+ * /search?word=W                       {"word":"W","topics":["...",...]}
+ * /similar?word=W&amp;limit=5              {"word":"W","matches":[{"word":"...","distance":1,"topics":["...",...]},...]}
+ * /prefix?prefix=P&amp;after=W&amp;limit=20   {"prefix":"P","words":["...",...],"next":"W"}
+ * /match?pattern=P&amp;after=W&amp;limit=20   {"pattern":"P","words":["...",...],"next":"W"}
+ * </pre>
+ * "next" is the word to pass as "after" for the following page, or null on
+ * the last page. A pattern may use '*' and '?' as wildcards. A prefix or
+ * pattern page keeps all letter cases of its last word together, so it may
+ * hold a few more words than the limit. Bad parameters get a 400, unknown
+ * topics or paths a 404 and a topic whose file cannot be read back a 500,
+ * with a body of {"error":"..."}.
+ *
+ * Responses are written straight to the connection with chunked encoding, so
+ * a large page is never built as a whole string. Each request runs on its own
+ * virtual thread when the running JDK provides them, and on a fixed pool of
+ * platform threads otherwise; the list's readers never block each other either way.
+ */
+class VocabServer {
+    private static final int DEFAULT_TOPIC_PAGE = 50;
+    private static final int DEFAULT_WORD_PAGE = 100;
+    private static final int DEFAULT_PREFIX_PAGE = 20;
+    private static final int DEFAULT_SIMILAR_WORDS = 5;
+    private static final int MAX_SIMILAR_WORDS = 100;
+    private static final int MAX_PAGE = 10_000;
+
+    private final VocabDoubleList vocab;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor binding the server; requests are served once it is started.
+     * @param vocab The vocabulary to serve.
+     * @param address The address to listen on; port 0 picks a free port.
+     * @throws IOException If the address cannot be bound.
+     */
+    VocabServer(VocabDoubleList vocab, InetSocketAddress address) throws IOException {
+        this.vocab = vocab;
+        this.server = HttpServer.create(address, 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/topics", this::handleTopics);
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/prefix", this::handlePrefix);
+        server.createContext("/similar", this::handleSimilar);
+        server.createContext("/match", this::handleMatch);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                sendError(exchange, 404, "no such resource");
+            }
+        });
+    }
+
+    /**
+     * Starts answering requests in the background.
+     */
+    void start() {
+        server.start();
+    }
+
+    /**
+     * @return The port the server listens on, useful after binding port 0.
+     */
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, letting requests in flight finish for up to a few seconds.
+     * @param delaySeconds The most seconds to wait for requests in flight.
+     */
+    void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor when the JDK has one, looked up
+     * reflectively so the code still builds and runs on JDK 17, and a fixed pool
+     * of daemon platform threads otherwise.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger threads = new AtomicInteger();
+            ThreadFactory daemons = task -> {
+                Thread thread = new Thread(task, "vocab-http-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newFixedThreadPool(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()), daemons);
+        }
+    }
+
+    private void handleTopics(HttpExchange exchange) throws IOException {
+        try {
+            if (!checkGet(exchange)) return;
+            String path = exchange.getRequestURI().getPath();
+            HashMap<String, String> query = query(exchange.getRequestURI());
+            if (path.equals("/topics") || path.equals("/topics/")) {
+                listTopics(exchange, query);
+                return;
+            }
+            String[] parts = path.split("/");
+            if (parts.length != 4 || !parts[3].equals("words")) {
+                sendError(exchange, 404, "no such resource");
+                return;
+            }
+            int topicId;
+            try {
+                topicId = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException e) {
+                sendError(exchange, 404, "no such resource");
+                return;
+            }
+            listWords(exchange, topicId, query);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (UncheckedIOException e) {
+            // a topic loaded lazily could not be read back from its file
+            sendError(exchange, 500, e.getCause().getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void listTopics(HttpExchange exchange, HashMap<String, String> query) throws IOException {
+        int offset = intParameter(query, "offset", 0, Integer.MAX_VALUE - 1);
+        int limit = intParameter(query, "limit", DEFAULT_TOPIC_PAGE, MAX_PAGE);
+        int total = vocab.topicCount();
+        int[] ids = vocab.topicIds(offset + 1, limit);
+        try (Writer out = startJson(exchange, 200)) {
+            out.write("{\"total\":" + total + ",\"offset\":" + offset + ",\"topics\":[");
+            boolean first = true;
+            for (int topicId : ids) {
+                // a topic removed since the ids were read is left out
+                String name = vocab.topicName(topicId);
+                if (name == null) continue;
+                if (!first) out.write(',');
+                first = false;
+                out.write("{\"id\":" + topicId + ",\"name\":");
+                writeString(out, name);
+                out.write('}');
+            }
+            out.write("]}");
+        }
+    }
+
+    private void listWords(HttpExchange exchange, int topicId, HashMap<String, String> query) throws IOException {
+        int offset = intParameter(query, "offset", 0, Integer.MAX_VALUE);
+        int limit = intParameter(query, "limit", DEFAULT_WORD_PAGE, MAX_PAGE);
+        String name = vocab.topicName(topicId);
+        int total = vocab.topicWordCount(topicId);
+        List<String> words = vocab.topicWords(topicId, offset, limit);
+        if (name == null || total < 0 || words == null) {
+            sendError(exchange, 404, "no topic with id " + topicId);
+            return;
+        }
+        try (Writer out = startJson(exchange, 200)) {
+            out.write("{\"id\":" + topicId + ",\"name\":");
+            writeString(out, name);
+            out.write(",\"total\":" + total + ",\"words\":[");
+            for (int i = 0; i < words.size(); i++) {
+                if (i > 0) out.write(',');
+                writeString(out, words.get(i));
+            }
+            out.write("]}");
+        }
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try {
+            if (!checkGet(exchange)) return;
+            String word = requiredParameter(query(exchange.getRequestURI()), "word");
+            List<String> topics = vocab.searchTopics(word);
+            try (Writer out = startJson(exchange, 200)) {
+                out.write("{\"word\":");
+                writeString(out, word);
+                out.write(",\"topics\":[");
+                for (int i = 0; i < topics.size(); i++) {
+                    if (i > 0) out.write(',');
+                    writeString(out, topics.get(i));
+                }
+                out.write("]}");
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (UncheckedIOException e) {
+            // a topic loaded lazily could not be read back from its file
+            sendError(exchange, 500, e.getCause().getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSimilar(HttpExchange exchange) throws IOException {
+        try {
+            if (!checkGet(exchange)) return;
+            HashMap<String, String> query = query(exchange.getRequestURI());
+            String word = requiredParameter(query, "word");
+            int limit = intParameter(query, "limit", DEFAULT_SIMILAR_WORDS, MAX_SIMILAR_WORDS);
+            List<VocabDoubleList.WordMatch> matches = vocab.searchSimilar(word, limit);
+            try (Writer out = startJson(exchange, 200)) {
+                out.write("{\"word\":");
+                writeString(out, word);
+                out.write(",\"matches\":[");
+                for (int i = 0; i < matches.size(); i++) {
+                    VocabDoubleList.WordMatch match = matches.get(i);
+                    if (i > 0) out.write(',');
+                    out.write("{\"word\":");
+                    writeString(out, match.word);
+                    out.write(",\"distance\":" + match.distance + ",\"topics\":[");
+                    for (int j = 0; j < match.topics.size(); j++) {
+                        if (j > 0) out.write(',');
+                        writeString(out, match.topics.get(j));
+                    }
+                    out.write("]}");
+                }
+                out.write("]}");
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (UncheckedIOException e) {
+            // a topic loaded lazily could not be read back from its file
+            sendError(exchange, 500, e.getCause().getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handlePrefix(HttpExchange exchange) throws IOException {
+        try {
+            if (!checkGet(exchange)) return;
+            HashMap<String, String> query = query(exchange.getRequestURI());
+            String prefix = requiredParameter(query, "prefix");
+            int limit = intParameter(query, "limit", DEFAULT_PREFIX_PAGE, MAX_PAGE);
+            List<String> words = vocab.wordsStartingWith(prefix, query.get("after"), limit);
+            String last = words.isEmpty() ? null : words.get(words.size() - 1);
+            boolean more = last != null && vocab.wordsStartingWith(prefix, last).hasNext();
+            writePage(exchange, "prefix", prefix, words, more);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (UncheckedIOException e) {
+            // a topic loaded lazily could not be read back from its file
+            sendError(exchange, 500, e.getCause().getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMatch(HttpExchange exchange) throws IOException {
+        try {
+            if (!checkGet(exchange)) return;
+            HashMap<String, String> query = query(exchange.getRequestURI());
+            String pattern = requiredParameter(query, "pattern");
+            int limit = intParameter(query, "limit", DEFAULT_PREFIX_PAGE, MAX_PAGE);
+            // one word past the page tells whether another page follows
+            List<String> words = vocab.wordsMatching(pattern, query.get("after"), limit + 1);
+            int end = pageEnd(words, limit);
+            boolean more = end < words.size();
+            if (!more && end > limit) {
+                // the words past the limit were all forms of the last word, so nothing was seen beyond it
+                more = !vocab.wordsMatching(pattern, words.get(end - 1), 1).isEmpty();
+            }
+            writePage(exchange, "pattern", pattern, words.subList(0, end), more);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (UncheckedIOException e) {
+            // a topic loaded lazily could not be read back from its file
+            sendError(exchange, 500, e.getCause().getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns where a page of at most the limit ends in words fetched past it,
+     * keeping the letter cases of the word at the limit together.
+     */
+    private static int pageEnd(List<String> words, int limit) {
+        if (words.size() <= limit) return words.size();
+        String key = VocabDoubleList.foldWord(words.get(limit - 1));
+        int end = limit;
+        while (end < words.size() && VocabDoubleList.foldWord(words.get(end)).equals(key)) end++;
+        return end;
+    }
+
+    /**
+     * Writes a page of words, with the last one as the "next" cursor when more follow.
+     */
+    private static void writePage(HttpExchange exchange, String name, String value, List<String> words, boolean more)
+            throws IOException {
+        try (Writer out = startJson(exchange, 200)) {
+            out.write("{\"" + name + "\":");
+            writeString(out, value);
+            out.write(",\"words\":[");
+            for (int i = 0; i < words.size(); i++) {
+                if (i > 0) out.write(',');
+                writeString(out, words.get(i));
+            }
+            out.write("],\"next\":");
+            if (more) {
+                writeString(out, words.get(words.size() - 1));
+            } else {
+                out.write("null");
+            }
+            out.write('}');
+        }
+    }
+
+    private static boolean checkGet(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestMethod().equals("GET")) return true;
+        exchange.getResponseHeaders().set("Allow", "GET");
+        sendError(exchange, 405, "only GET is supported");
+        return false;
+    }
+
+    /**
+     * Sends the response headers with chunked encoding and returns a buffered
+     * writer over the body; closing it ends the response.
+     */
+    private static Writer startJson(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 8192);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        try (Writer out = startJson(exchange, status)) {
+            out.write("{\"error\":");
+            writeString(out, message == null ? "bad request" : message);
+            out.write('}');
+        }
+    }
+
+    /**
+     * Writes a JSON string literal, escaping quotes, backslashes and control characters.
+     */
+    static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            out.write(value, start, i - start);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+                    break;
+            }
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+    private static HashMap<String, String> query(URI uri) {
+        HashMap<String, String> parameters = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null || raw.isEmpty()) return parameters;
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static String requiredParameter(HashMap<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("missing parameter '" + name + "'");
+        return value;
+    }
+
+    private static int intParameter(HashMap<String, String> query, String name, int defaultValue, int max) {
+        String value = query.get(name);
+        if (value == null) return defaultValue;
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("parameter '" + name + "' is not a number");
+        }
+        if (parsed < 0 || parsed > max) {
+            throw new IllegalArgumentException("parameter '" + name + "' must be between 0 and " + max);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One partition of a sharded vocabulary, as seen by {@link VocabShardRouter}.
+ * Topics are named by their name; when several topics share a name, the
+ * first one is meant, as in {@link VocabBatch}. A shard is either a
+ * {@link Local} vocabulary in this process or a {@link Remote} one served
+ * by a {@link VocabShardServer} in another process.
+ *
+ * Results come sorted, so that the router can merge the results of its
+ * shards: topic names in {@link #TOPIC_ORDER}, words in the case-insensitive
+ * order of {@link VocabDoubleList#wordsStartingWith(String, String, int)}.
+ */
+interface VocabShard extends Closeable {
+    /**
+     * Case-insensitive alphabetical order, letter case breaking ties.
+     */
+    Comparator<String> TOPIC_ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    /**
+     * Appends topics with their words, in order.
+     * @param names The topic names.
+     * @param words The words of each topic.
+     * @throws IOException If the topics cannot be journaled or sent.
+     */
+    void appendTopics(List<String> names, List<List<String>> words) throws IOException;
+
+    boolean addWord(String topic, String word) throws IOException;
+
+    boolean removeWord(String topic, String word) throws IOException;
+
+    boolean changeWord(String topic, String oldWord, String newWord) throws IOException;
+
+    /**
+     * @return false if there is no topic with that name.
+     */
+    boolean removeTopic(String topic) throws IOException;
+
+    /**
+     * @return The names of the topics holding a word, ignoring case, in {@link #TOPIC_ORDER}.
+     */
+    List<String> searchTopics(String word) throws IOException;
+
+    List<String> wordsStartingWith(String prefix, String afterWord, int limit) throws IOException;
+
+    List<String> wordsMatching(String pattern, String afterWord, int limit) throws IOException;
+
+    int topicCount() throws IOException;
+
+    long wordCount() throws IOException;
+
+    /**
+     * Static inner class serving a vocabulary of this process as a shard.
+     * The ids of the topics of each name are kept in a map, in list order,
+     * filled from the list once and kept up to date as the shard appends and
+     * removes topics, so the list must not gain or lose topics around the shard.
+     */
+    class Local implements VocabShard {
+        private final VocabDoubleList vocab;
+        /** The ids of the topics of each name; the lists are replaced, never changed. */
+        private final ConcurrentHashMap<String, List<Integer>> topicIds = new ConcurrentHashMap<>();
+
+        /**
+         * Constructor to initialize a shard over a vocabulary.
+         * @param vocab The vocabulary, which may hold topics already.
+         */
+        Local(VocabDoubleList vocab) {
+            this.vocab = vocab;
+            for (int id : vocab.topicIds(1, vocab.topicCount())) {
+                String topicName = vocab.topicName(id);
+                if (topicName != null) mapTopic(topicName, id);
+            }
+        }
+
+        @Override
+        public void appendTopics(List<String> names, List<List<String>> words) throws IOException {
+            for (int i = 0; i < names.size(); i++) {
+                mapTopic(names.get(i), vocab.appendTopic(names.get(i), words.get(i)));
+            }
+        }
+
+        @Override
+        public boolean addWord(String topic, String word) throws IOException {
+            return vocab.addWord(topicId(topic), word);
+        }
+
+        @Override
+        public boolean removeWord(String topic, String word) throws IOException {
+            return vocab.removeWord(topicId(topic), word);
+        }
+
+        @Override
+        public boolean changeWord(String topic, String oldWord, String newWord) throws IOException {
+            return vocab.changeWord(topicId(topic), oldWord, newWord);
+        }
+
+        @Override
+        public boolean removeTopic(String topic) throws IOException {
+            int topicId;
+            try {
+                topicId = topicId(topic);
+            } catch (NoSuchElementException e) {
+                return false;
+            }
+            boolean removed = vocab.removeTopic(topicId);
+            // the next topic of the same name, if any, is meant from now on
+            topicIds.computeIfPresent(topic, (name, ids) -> {
+                ArrayList<Integer> rest = new ArrayList<>(ids);
+                rest.remove(Integer.valueOf(topicId));
+                return rest.isEmpty() ? null : List.copyOf(rest);
+            });
+            return removed;
+        }
+
+        @Override
+        public List<String> searchTopics(String word) {
+            List<String> names = vocab.searchTopics(word);
+            names.sort(TOPIC_ORDER);
+            return names;
+        }
+
+        @Override
+        public List<String> wordsStartingWith(String prefix, String afterWord, int limit) {
+            return vocab.wordsStartingWith(prefix, afterWord, limit);
+        }
+
+        @Override
+        public List<String> wordsMatching(String pattern, String afterWord, int limit) {
+            return vocab.wordsMatching(pattern, afterWord, limit);
+        }
+
+        @Override
+        public int topicCount() {
+            return vocab.topicCount();
+        }
+
+        @Override
+        public long wordCount() {
+            return vocab.wordCount();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void mapTopic(String name, int topicId) {
+            topicIds.compute(name, (key, ids) -> {
+                if (ids == null) return List.of(topicId);
+                ArrayList<Integer> more = new ArrayList<>(ids);
+                more.add(topicId);
+                return List.copyOf(more);
+            });
+        }
+
+        private int topicId(String name) {
+            List<Integer> ids = topicIds.get(name);
+            if (ids == null) throw new NoSuchElementException("no topic named '" + name + "'");
+            return ids.get(0);
+        }
+    }
+
+    /**
+     * Static inner class reaching a shard served by a {@link VocabShardServer},
+     * usually another JVM on the same machine. Connections are kept open and
+     * reused; a call borrows one, so calls from several threads run side by side.
+     * Topics are appended in runs of {@link #PIPELINE} commands sent before
+     * their replies are read, so loading does not wait for a round trip per topic.
+     * When the server refuses a topic, the other topics of its run are still
+     * appended, later runs are not sent, and the first refusal is thrown.
+     */
+    class Remote implements VocabShard {
+        static final int PIPELINE = 1024;
+
+        private final InetSocketAddress address;
+        private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+        private boolean closed;
+
+        /**
+         * Static inner class holding one open connection to the server.
+         */
+        private static class Connection implements Closeable {
+            final Socket socket;
+            final BufferedReader in;
+            final BufferedWriter out;
+
+            Connection(InetSocketAddress address) throws IOException {
+                socket = new Socket();
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.connect(address);
+                    in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+            }
+
+            void send(String... fields) throws IOException {
+                out.write(VocabShardServer.encode(fields));
+                out.write('\n');
+            }
+
+            String[] receive() throws IOException {
+                String line = in.readLine();
+                if (line == null) throw new IOException("Shard at " + socket.getRemoteSocketAddress() + " closed the connection");
+                return VocabShardServer.decode(line);
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        }
+
+        /**
+         * Constructor to initialize a shard; connections are opened when needed.
+         * @param address Where its {@link VocabShardServer} listens.
+         */
+        Remote(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Parses a shard address.
+         * @param address "HOST:PORT", or "PORT" for the loopback address.
+         * @return The shard.
+         * @throws IllegalArgumentException If the address cannot be parsed.
+         */
+        static Remote parse(String address) {
+            int colon = address.lastIndexOf(':');
+            try {
+                int port = Integer.parseInt(address.substring(colon + 1));
+                String host = colon < 0 ? "localhost" : address.substring(0, colon);
+                return new Remote(new InetSocketAddress(host, port));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Bad shard address '" + address + "', expected HOST:PORT");
+            }
+        }
+
+        @Override
+        public void appendTopics(List<String> names, List<List<String>> words) throws IOException {
+            Connection connection = borrow();
+            Exception failure = null;
+            try {
+                for (int from = 0; from < names.size() && failure == null; from += PIPELINE) {
+                    int to = Math.min(names.size(), from + PIPELINE);
+                    for (int i = from; i < to; i++) {
+                        String[] fields = new String[words.get(i).size() + 2];
+                        fields[0] = "add-topic";
+                        fields[1] = names.get(i);
+                        for (int j = 0; j < words.get(i).size(); j++) fields[j + 2] = words.get(i).get(j);
+                        connection.send(fields);
+                    }
+                    connection.out.flush();
+                    // every reply is read even after a refusal, so the connection stays in step
+                    for (int i = from; i < to; i++) {
+                        String[] reply = connection.receive();
+                        try {
+                            check(reply);
+                        } catch (IOException | RuntimeException e) {
+                            if (failure == null) failure = e;
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            giveBack(connection);
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure != null) throw (RuntimeException) failure;
+        }
+
+        @Override
+        public boolean addWord(String topic, String word) throws IOException {
+            return Boolean.parseBoolean(call("add-word", topic, word)[1]);
+        }
+
+        @Override
+        public boolean removeWord(String topic, String word) throws IOException {
+            return Boolean.parseBoolean(call("remove-word", topic, word)[1]);
+        }
+
+        @Override
+        public boolean changeWord(String topic, String oldWord, String newWord) throws IOException {
+            return Boolean.parseBoolean(call("rename", topic, oldWord, newWord)[1]);
+        }
+
+        @Override
+        public boolean removeTopic(String topic) throws IOException {
+            return Boolean.parseBoolean(call("remove-topic", topic)[1]);
+        }
+
+        @Override
+        public List<String> searchTopics(String word) throws IOException {
+            return results(call("search", word));
+        }
+
+        @Override
+        public List<String> wordsStartingWith(String prefix, String afterWord, int limit) throws IOException {
+            return results(call("prefix", prefix, afterWord == null ? "" : afterWord, Integer.toString(limit)));
+        }
+
+        @Override
+        public List<String> wordsMatching(String pattern, String afterWord, int limit) throws IOException {
+            return results(call("match", pattern, afterWord == null ? "" : afterWord, Integer.toString(limit)));
+        }
+
+        @Override
+        public int topicCount() throws IOException {
+            return Integer.parseInt(call("count")[1]);
+        }
+
+        @Override
+        public long wordCount() throws IOException {
+            return Long.parseLong(call("count")[2]);
+        }
+
+        /**
+         * Closes the idle connections; those of calls under way are closed when the calls end.
+         */
+        @Override
+        public void close() throws IOException {
+            ArrayList<Connection> connections;
+            synchronized (idle) {
+                closed = true;
+                connections = new ArrayList<>(idle);
+                idle.clear();
+            }
+            for (Connection connection : connections) connection.close();
+        }
+
+        /**
+         * Sends one command and returns the fields of its reply, "ok" first.
+         */
+        private String[] call(String... fields) throws IOException {
+            Connection connection = borrow();
+            String[] reply;
+            try {
+                connection.send(fields);
+                connection.out.flush();
+                reply = connection.receive();
+            } catch (IOException | RuntimeException e) {
+                // the reply may be half read, so the connection cannot be reused
+                connection.close();
+                throw e;
+            }
+            giveBack(connection);
+            return check(reply);
+        }
+
+        private static String[] check(String[] reply) throws IOException {
+            switch (reply[0]) {
+                case "ok":
+                    return reply;
+                case "missing":
+                    throw new NoSuchElementException(reply.length > 1 ? reply[1] : "no such topic");
+                case "invalid":
+                    throw new IllegalArgumentException(reply.length > 1 ? reply[1] : "bad request");
+                default:
+                    throw new IOException("Shard failed: " + (reply.length > 1 ? reply[1] : reply[0]));
+            }
+        }
+
+        private static List<String> results(String[] reply) {
+            return new ArrayList<>(Arrays.asList(reply).subList(1, reply.length));
+        }
+
+        private Connection borrow() throws IOException {
+            synchronized (idle) {
+                if (closed) throw new IOException("Shard at " + address + " is closed");
+                Connection connection = idle.poll();
+                if (connection != null) return connection;
+            }
+            return new Connection(address);
+        }
+
+        private void giveBack(Connection connection) throws IOException {
+            synchronized (idle) {
+                if (!closed) {
+                    idle.push(connection);
+                    return;
+                }
+            }
+            connection.close();
+        }
+    }
+}
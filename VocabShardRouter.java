@@ -0,0 +1,398 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A vocabulary partitioned over several {@link VocabShard}s, each a
+ * {@link VocabDoubleList} of its own, in this process or in other JVMs
+ * reached through a {@link VocabShardServer}. Every topic lives on exactly
+ * one shard, picked by the hash of its name, so that an edit of a topic
+ * named by the user goes to the one shard owning it without a directory,
+ * and all topics of one name share a shard. String hashes are the same in
+ * every JVM, so routers started anywhere agree on the owners.
+ *
+ * A query goes to every shard at once, and the sorted results are merged
+ * with a k-way merge: topic names in {@link VocabShard#TOPIC_ORDER}, and pages
+ * of words in the same case-insensitive order as a single vocabulary pages
+ * them, never splitting the letter cases of a word. As shards hold no common
+ * list order, search results come alphabetically rather than in list order.
+ *
+ * Memory grows with the largest shard rather than with the whole vocabulary,
+ * and queries run on all shards in parallel, so more shards in more JVMs hold
+ * a larger vocabulary and answer more queries, as long as there are cores to
+ * run them on.
+ *
+ * Run as a program, the router loads the files given and then answers
+ * commands from standard input in the protocol of {@link VocabShardServer}:
+ * <pre>
+ * java VocabShardRouter [--local N] [--shard [HOST:]PORT]... [file...]
+ * </pre>
+ * --local adds N shards in this process; --shard adds one served by
+ * "java VocabConsole --shard PORT" on another JVM.
+ */
+class VocabShardRouter implements VocabShard {
+    /**
+     * The number of topics sent to a shard at a time while loading.
+     */
+    static final int LOAD_BATCH = 4096;
+
+    private final VocabShard[] shards;
+    private final ExecutorService executor;
+
+    /**
+     * One call made on every shard, given the shard and its index.
+     */
+    @FunctionalInterface
+    interface ShardCall<T> {
+        T call(VocabShard shard, int index) throws IOException;
+    }
+
+    /**
+     * Static inner class walking one sorted result during a k-way merge,
+     * holding the sort key of its current entry.
+     */
+    private static class Cursor {
+        final List<String> results;
+        final int shard;
+        int next;
+        String key;
+
+        Cursor(List<String> results, int shard) {
+            this.results = results;
+            this.shard = shard;
+        }
+
+        String current() {
+            return results.get(next);
+        }
+    }
+
+    /**
+     * Constructor to initialize a router over its shards, in a fixed order:
+     * a topic belongs to the shard its name hashes to, so the same shards
+     * must always be given in the same order.
+     * @param shards The shards.
+     */
+    VocabShardRouter(List<VocabShard> shards) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("A router needs at least one shard");
+        this.shards = shards.toArray(new VocabShard[0]);
+        this.executor = VocabServer.newRequestExecutor();
+    }
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<VocabShard> shards = new ArrayList<>();
+        ArrayList<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--local") && i + 1 < args.length) {
+                int count = Integer.parseInt(args[++i]);
+                for (int j = 0; j < count; j++) shards.add(new VocabShard.Local(new VocabDoubleList()));
+            } else if (args[i].equals("--shard") && i + 1 < args.length) {
+                shards.add(VocabShard.Remote.parse(args[++i]));
+            } else {
+                files.add(Paths.get(args[i]));
+            }
+        }
+        if (shards.isEmpty()) shards.add(new VocabShard.Local(new VocabDoubleList()));
+        try (VocabShardRouter router = new VocabShardRouter(shards)) {
+            long start = System.nanoTime();
+            router.loadFiles(files);
+            if (!files.isEmpty()) {
+                System.err.println("Loaded " + files.size() + " file(s) into " + shards.size() + " shard(s) in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            }
+            VocabShardServer.serve(router, new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the shard owning the topics of a name.
+     * @param topic The topic name.
+     * @return The index of its shard.
+     */
+    int shardOf(String topic) {
+        return Math.floorMod(topic.hashCode(), shards.length);
+    }
+
+    /**
+     * Reads vocabulary files and appends their topics to the shards owning
+     * them, in batches of {@link #LOAD_BATCH} topics per shard. A batch is
+     * sent while the file is read on, with one batch under way per shard, so
+     * that the topics of each shard stay in file order. As when a single
+     * vocabulary loads a file, a line starting with '#' names a topic, lines
+     * before the first one are skipped, and words are trimmed lines.
+     *
+     * @param paths The files.
+     * @throws IOException If a file cannot be read or a shard refuses its topics.
+     */
+    void loadFiles(List<Path> paths) throws IOException {
+        ArrayList<List<String>> names = new ArrayList<>();
+        ArrayList<List<List<String>>> words = new ArrayList<>();
+        ArrayList<Future<Void>> sending = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            names.add(new ArrayList<>());
+            words.add(new ArrayList<>());
+            sending.add(null);
+        }
+        try {
+            for (Path path : paths) {
+                try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    List<String> topicWords = null;
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("#")) {
+                            String name = line.substring(1).trim();
+                            int shard = shardOf(name);
+                            if (names.get(shard).size() == LOAD_BATCH) {
+                                send(shard, names, words, sending);
+                            }
+                            topicWords = new ArrayList<>();
+                            names.get(shard).add(name);
+                            words.get(shard).add(topicWords);
+                        } else if (topicWords != null) {
+                            String word = line.trim();
+                            if (!word.isEmpty()) topicWords.add(word);
+                        }
+                    }
+                }
+            }
+            for (int shard = 0; shard < shards.length; shard++) {
+                if (!names.get(shard).isEmpty()) send(shard, names, words, sending);
+            }
+        } finally {
+            for (int shard = 0; shard < shards.length; shard++) await(sending.get(shard));
+        }
+    }
+
+    /**
+     * Sends the pending batch of a shard once its previous batch is through.
+     */
+    private void send(int shard, List<List<String>> names, List<List<List<String>>> words, List<Future<Void>> sending)
+            throws IOException {
+        await(sending.get(shard));
+        List<String> batchNames = names.get(shard);
+        List<List<String>> batchWords = words.get(shard);
+        names.set(shard, new ArrayList<>());
+        words.set(shard, new ArrayList<>());
+        sending.set(shard, executor.submit(() -> {
+            shards[shard].appendTopics(batchNames, batchWords);
+            return null;
+        }));
+    }
+
+    @Override
+    public void appendTopics(List<String> names, List<List<String>> words) throws IOException {
+        ArrayList<List<String>> shardNames = new ArrayList<>();
+        ArrayList<List<List<String>>> shardWords = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            shardNames.add(new ArrayList<>());
+            shardWords.add(new ArrayList<>());
+        }
+        for (int i = 0; i < names.size(); i++) {
+            int shard = shardOf(names.get(i));
+            shardNames.get(shard).add(names.get(i));
+            shardWords.get(shard).add(words.get(i));
+        }
+        scatter((shard, index) -> {
+            if (!shardNames.get(index).isEmpty()) shard.appendTopics(shardNames.get(index), shardWords.get(index));
+            return null;
+        });
+    }
+
+    @Override
+    public boolean addWord(String topic, String word) throws IOException {
+        return shards[shardOf(topic)].addWord(topic, word);
+    }
+
+    @Override
+    public boolean removeWord(String topic, String word) throws IOException {
+        return shards[shardOf(topic)].removeWord(topic, word);
+    }
+
+    @Override
+    public boolean changeWord(String topic, String oldWord, String newWord) throws IOException {
+        return shards[shardOf(topic)].changeWord(topic, oldWord, newWord);
+    }
+
+    @Override
+    public boolean removeTopic(String topic) throws IOException {
+        return shards[shardOf(topic)].removeTopic(topic);
+    }
+
+    @Override
+    public List<String> searchTopics(String word) throws IOException {
+        List<List<String>> results = scatter((shard, index) -> shard.searchTopics(word));
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> {
+            int order = TOPIC_ORDER.compare(a.current(), b.current());
+            return order != 0 ? order : Integer.compare(a.shard, b.shard);
+        });
+        int total = 0;
+        for (int i = 0; i < results.size(); i++) {
+            total += results.get(i).size();
+            if (!results.get(i).isEmpty()) heads.add(new Cursor(results.get(i), i));
+        }
+        ArrayList<String> names = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            Cursor head = heads.poll();
+            names.add(head.current());
+            if (++head.next < head.results.size()) heads.add(head);
+        }
+        return names;
+    }
+
+    @Override
+    public List<String> wordsStartingWith(String prefix, String afterWord, int limit) throws IOException {
+        return mergePages(scatter((shard, index) -> shard.wordsStartingWith(prefix, afterWord, limit)), limit);
+    }
+
+    @Override
+    public List<String> wordsMatching(String pattern, String afterWord, int limit) throws IOException {
+        return mergePages(scatter((shard, index) -> shard.wordsMatching(pattern, afterWord, limit)), limit);
+    }
+
+    @Override
+    public int topicCount() throws IOException {
+        int count = 0;
+        for (int shardCount : scatter((shard, index) -> shard.topicCount())) count += shardCount;
+        return count;
+    }
+
+    @Override
+    public long wordCount() throws IOException {
+        long count = 0;
+        for (long shardCount : scatter((shard, index) -> shard.wordCount())) count += shardCount;
+        return count;
+    }
+
+    /**
+     * Closes every shard and stops the threads querying them.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        IOException failure = null;
+        for (VocabShard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Merges one page of words from every shard into one page of the whole
+     * vocabulary. Each shard page holds the limit, or all its remaining words,
+     * and never splits the letter cases of a word; the merge stops once the
+     * limit is reached and the next word differs, so it never needs a word
+     * past the end of a shard page: by the time one shard page is used up,
+     * its words alone fill the limit.
+     *
+     * @param pages A page of each shard.
+     * @param limit The number of words wanted.
+     * @return The merged page.
+     */
+    static List<String> mergePages(List<List<String>> pages, int limit) {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> {
+            int order = a.key.compareTo(b.key);
+            return order != 0 ? order : Integer.compare(a.shard, b.shard);
+        });
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).isEmpty()) continue;
+            Cursor cursor = new Cursor(pages.get(i), i);
+            cursor.key = VocabDoubleList.foldWord(cursor.current());
+            heads.add(cursor);
+        }
+        ArrayList<String> page = new ArrayList<>(Math.min(limit, 1024));
+        String lastKey = null;
+        while (!heads.isEmpty()) {
+            Cursor head = heads.poll();
+            if (page.size() >= limit && !head.key.equals(lastKey)) break;
+            page.add(head.current());
+            lastKey = head.key;
+            if (++head.next < head.results.size()) {
+                head.key = VocabDoubleList.foldWord(head.current());
+                heads.add(head);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Makes a call on every shard in parallel and waits for all of them.
+     *
+     * @param call The call.
+     * @return The result of each shard, in shard order.
+     * @throws IOException The first failure of a shard, once every call is over.
+     */
+    <T> List<T> scatter(ShardCall<T> call) throws IOException {
+        ArrayList<T> results = new ArrayList<>(shards.length);
+        if (shards.length == 1) {
+            results.add(call.call(shards[0], 0));
+            return results;
+        }
+        ArrayList<Future<T>> futures = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int index = i;
+            futures.add(executor.submit(() -> call.call(shards[index], index)));
+        }
+        IOException ioFailure = null;
+        RuntimeException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(get(future));
+            } catch (IOException e) {
+                if (ioFailure == null && failure == null) ioFailure = e;
+            } catch (RuntimeException e) {
+                if (ioFailure == null && failure == null) failure = e;
+            }
+        }
+        if (ioFailure != null) throw ioFailure;
+        if (failure != null) throw failure;
+        return results;
+    }
+
+    private static void await(Future<Void> future) throws IOException {
+        if (future != null) get(future);
+    }
+
+    /**
+     * Waits for a shard call, rethrowing what it threw.
+     */
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shard");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a {@link VocabShard} to {@link VocabShard.Remote} clients over plain
+ * sockets, one command per line and one reply line per command. Fields are
+ * separated by tabs, with backslash, tab, newline and carriage return escaped
+ * as \\, \t, \n and \r:
+ * <pre>
+ * add-topic    NAME [WORD...]           ok
+ * add-word     TOPIC WORD               ok true|false
+ * remove-word  TOPIC WORD               ok true|false
+ * rename       TOPIC OLD NEW            ok true|false
+ * remove-topic TOPIC                    ok true|false
+ * search       WORD                     ok [TOPIC...]
+ * prefix       PREFIX AFTER LIMIT       ok [WORD...]
+ * match        PATTERN AFTER LIMIT      ok [WORD...]
+ * count                                 ok TOPICS WORDS
+ * </pre>
+ * An empty AFTER starts at the first word. A command on a topic that does
+ * not exist is answered with "missing MESSAGE", a malformed one with
+ * "invalid MESSAGE" and one that fails with "error MESSAGE".
+ *
+ * Each connection is served on a thread of its own for as long as it stays
+ * open, since clients keep their connections for reuse. Replies are flushed
+ * only once no further command is waiting, so a client may send many commands
+ * before reading their replies. The server listens on the loopback address only.
+ */
+class VocabShardServer {
+    private final VocabShard shard;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private Thread acceptor;
+
+    /**
+     * Constructor binding the server to the loopback address; connections are
+     * accepted once it is started.
+     * @param shard The shard to serve.
+     * @param port The port to listen on; 0 picks a free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    VocabShardServer(VocabShard shard, int port) throws IOException {
+        this.shard = shard;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "vocab-shard-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts accepting connections in the background. Like the HTTP server's,
+     * the accepting thread keeps the JVM running until the server is stopped.
+     */
+    synchronized void start() {
+        if (acceptor != null) return;
+        acceptor = new Thread(this::acceptConnections, "vocab-shard-accept");
+        acceptor.start();
+    }
+
+    /**
+     * @return The port the server listens on, useful after binding port 0.
+     */
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and waits a few seconds for commands under way.
+     * @param delaySeconds The most seconds to wait.
+     */
+    void stop(int delaySeconds) {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // closed by stop()
+                return;
+            }
+            executor.execute(() -> {
+                try (Socket connection = socket) {
+                    connection.setTcpNoDelay(true);
+                    serve(shard,
+                            new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)),
+                            new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)));
+                } catch (SocketException e) {
+                    // the client went away
+                } catch (IOException e) {
+                    System.err.println("Shard connection failed: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers the commands of a reader until it ends. Also used by
+     * {@link VocabShardRouter} to take commands from standard input.
+     *
+     * @param shard The shard the commands are applied to.
+     * @param in The command lines.
+     * @param out Where the replies are written.
+     * @throws IOException If a command cannot be read or a reply written.
+     */
+    static void serve(VocabShard shard, BufferedReader in, Writer out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            out.write(encode(apply(shard, decode(line))));
+            out.write('\n');
+            if (!in.ready()) out.flush();
+        }
+        out.flush();
+    }
+
+    private static String[] apply(VocabShard shard, String[] fields) {
+        try {
+            switch (fields[0]) {
+                case "add-topic":
+                    expect(fields, 2, Integer.MAX_VALUE);
+                    shard.appendTopics(List.of(fields[1]), List.of(Arrays.asList(fields).subList(2, fields.length)));
+                    return new String[] {"ok"};
+                case "add-word":
+                    expect(fields, 3, 3);
+                    return reply(shard.addWord(fields[1], fields[2]));
+                case "remove-word":
+                    expect(fields, 3, 3);
+                    return reply(shard.removeWord(fields[1], fields[2]));
+                case "rename":
+                    expect(fields, 4, 4);
+                    return reply(shard.changeWord(fields[1], fields[2], fields[3]));
+                case "remove-topic":
+                    expect(fields, 2, 2);
+                    return reply(shard.removeTopic(fields[1]));
+                case "search":
+                    expect(fields, 2, 2);
+                    return reply(shard.searchTopics(fields[1]));
+                case "prefix":
+                    expect(fields, 4, 4);
+                    return reply(shard.wordsStartingWith(fields[1], fields[2].isEmpty() ? null : fields[2], limit(fields[3])));
+                case "match":
+                    expect(fields, 4, 4);
+                    return reply(shard.wordsMatching(fields[1], fields[2].isEmpty() ? null : fields[2], limit(fields[3])));
+                case "count":
+                    expect(fields, 1, 1);
+                    return new String[] {"ok", Integer.toString(shard.topicCount()), Long.toString(shard.wordCount())};
+                default:
+                    throw new IllegalArgumentException("unknown command '" + fields[0] + "'");
+            }
+        } catch (NoSuchElementException e) {
+            return new String[] {"missing", String.valueOf(e.getMessage())};
+        } catch (IllegalArgumentException e) {
+            return new String[] {"invalid", String.valueOf(e.getMessage())};
+        } catch (IOException | RuntimeException e) {
+            return new String[] {"error", String.valueOf(e.getMessage())};
+        }
+    }
+
+    private static String[] reply(boolean result) {
+        return new String[] {"ok", Boolean.toString(result)};
+    }
+
+    private static String[] reply(List<String> results) {
+        String[] fields = new String[results.size() + 1];
+        fields[0] = "ok";
+        for (int i = 0; i < results.size(); i++) fields[i + 1] = results.get(i);
+        return fields;
+    }
+
+    private static void expect(String[] fields, int min, int max) {
+        if (fields.length < min || fields.length > max) {
+            throw new IllegalArgumentException("wrong number of fields for " + fields[0]);
+        }
+    }
+
+    private static int limit(String value) {
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit >= 0) return limit;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("bad limit '" + value + "'");
+    }
+
+    /**
+     * Joins fields into one line, escaping what would break it apart.
+     */
+    static String encode(String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) line.append('\t');
+            String field = fields[i];
+            for (int j = 0; j < field.length(); j++) {
+                char c = field.charAt(j);
+                switch (c) {
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    default:
+                        line.append(c);
+                        break;
+                }
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Splits a line into its fields, undoing {@link #encode(String...)}.
+     */
+    static String[] decode(String line) {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                field.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,510 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the topics of a {@link VocabDoubleList} in step with the vocabulary
+ * files they were loaded from. A watched file is loaded once, and every time
+ * a {@link WatchService} reports it changed, it is compared with what was
+ * loaded topic by topic, and only the differences are applied to the live list:
+ * <ul>
+ * <li>a topic whose lines changed gets its words replaced, keeping its id and place;</li>
+ * <li>a new topic is inserted after the topic preceding it in the file;</li>
+ * <li>a topic no longer in the file is removed.</li>
+ * </ul>
+ * Topics are matched by name, the n-th topic of a name in the file with the
+ * n-th one loaded, and compared by the length and the CRC-32C and CRC-32 of
+ * their lines. Finding what changed takes one sequential pass over the file:
+ * headers are found eight bytes at a time and the checksums are computed by
+ * intrinsics, so only the changed topics are parsed and indexed. Topics moved
+ * within the file are removed and added again, keeping the list in file order.
+ * The changed topics are read first, and the changes are then applied
+ * together through {@link VocabDoubleList#editTogether}, so other edits wait
+ * and no version or save of the list sees a reload half applied. Each change
+ * is still journaled as an edit of its own.
+ *
+ * A file is reloaded once it has not changed for {@link #QUIET_MILLIS}, so a
+ * file being written is not read half-way; one that is deleted keeps its
+ * topics until it reappears. The files must not be loaded lazily as well,
+ * since their topics would be read from a file that was rewritten.
+ */
+class VocabWatcher implements Closeable {
+    static final long QUIET_MILLIS = 250;
+    private static final int SCAN_BUFFER = 1 << 20;
+    private static final long HASH_BYTES = 0x2323232323232323L;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final VocabDoubleList vocab;
+    private final Consumer<String> log;
+    private final WatchService watchService;
+    /**
+     * The topics of every watched file, in file order, by absolute path.
+     */
+    private final HashMap<Path, List<TopicEntry>> files = new HashMap<>();
+    /**
+     * Changed files waiting to be reloaded, with when they last changed in nanoseconds.
+     */
+    private final HashMap<Path, Long> pending = new HashMap<>();
+    private final HashSet<Path> directories = new HashSet<>();
+    private Thread thread;
+
+    /**
+     * Static inner class describing one topic of a file: its name, where its
+     * lines are, their checksums and the id of the topic loaded from them.
+     */
+    static class TopicEntry {
+        final String name;
+        final long offset;
+        long length;
+        long checksum;
+        int topicId;
+
+        TopicEntry(String name, long offset) {
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Static inner class counting the topics a reload changed, added and removed.
+     */
+    static class Reload {
+        int changed;
+        int added;
+        int removed;
+
+        @Override
+        public String toString() {
+            return changed + " changed, " + added + " added, " + removed + " removed";
+        }
+    }
+
+    /**
+     * Constructor to initialize a watcher with no files yet.
+     * @param vocab The vocabulary to keep in step.
+     * @param log Receives a message for every reload and every error.
+     * @throws IOException If the file system cannot be watched.
+     */
+    VocabWatcher(VocabDoubleList vocab, Consumer<String> log) throws IOException {
+        this.vocab = vocab;
+        this.log = log;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Appends the topics of a file to the list and starts watching it. Meant
+     * to be called before anything else edits the list, since the topics
+     * loaded are found by their numbers.
+     *
+     * @param path The file.
+     * @throws IOException If the file cannot be read or its directory watched.
+     */
+    synchronized void watch(Path path) throws IOException {
+        Path file = path.toAbsolutePath().normalize();
+        if (files.containsKey(file)) return;
+        Path directory = file.getParent();
+        if (directories.add(directory)) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        List<TopicEntry> topics;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            topics = digest(channel);
+        }
+        int before = vocab.topicCount();
+        vocab.loadFiles(Collections.singletonList(file));
+        int[] topicIds = vocab.topicIds(before + 1, vocab.topicCount() - before);
+        boolean same = topicIds.length == topics.size();
+        for (int i = 0; same && i < topicIds.length; i++) same = topics.get(i).name.equals(vocab.topicName(topicIds[i]));
+        if (!same) {
+            // the file changed while it was loaded: compare all its topics again soon
+            topics = new ArrayList<>();
+            for (int topicId : topicIds) {
+                TopicEntry topic = new TopicEntry(vocab.topicName(topicId), 0);
+                topic.length = -1;
+                topics.add(topic);
+            }
+            pending.put(file, System.nanoTime());
+        }
+        for (int i = 0; i < topicIds.length; i++) topics.get(i).topicId = topicIds[i];
+        files.put(file, topics);
+    }
+
+    /**
+     * Starts reloading changed files in the background, on a daemon thread.
+     */
+    synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this::run, "vocab-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching; a reload under way is finished first.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        Thread running;
+        synchronized (this) {
+            running = thread;
+        }
+        if (running == null) return;
+        running.interrupt();
+        try {
+            running.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Compares a watched file with the topics loaded from it and applies the differences.
+     *
+     * @param path The file, as given to {@link #watch(Path)}.
+     * @return What changed.
+     * @throws IOException If the file cannot be read or an edit cannot be journaled.
+     * @throws IllegalArgumentException If the file is not watched.
+     */
+    synchronized Reload reload(Path path) throws IOException {
+        Path file = path.toAbsolutePath().normalize();
+        List<TopicEntry> loaded = files.get(file);
+        if (loaded == null) throw new IllegalArgumentException("Not watching " + file);
+        Reload reload = new Reload();
+        boolean[] consumed = new boolean[loaded.size()];
+        ArrayList<TopicEntry> applied = new ArrayList<>();
+        boolean done = false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<TopicEntry> topics = digest(channel);
+            int[] matches = match(loaded, topics);
+            // the words are read before the edits, which hold up readers of the list
+            List<List<String>> words = new ArrayList<>(topics.size());
+            for (int i = 0; i < topics.size(); i++) {
+                TopicEntry topic = topics.get(i);
+                TopicEntry old = matches[i] < 0 ? null : loaded.get(matches[i]);
+                boolean same = old != null && old.length == topic.length && old.checksum == topic.checksum;
+                words.add(same ? null : readWords(channel, topic));
+            }
+            vocab.editTogether(editor -> {
+                int previousId = 0;
+                for (int i = 0; i < topics.size(); i++) {
+                    TopicEntry topic = topics.get(i);
+                    TopicEntry old = matches[i] < 0 ? null : loaded.get(matches[i]);
+                    boolean linked = old != null && editor.topicName(old.topicId) != null;
+                    if (linked && words.get(i) != null) {
+                        editor.replaceWords(old.topicId, words.get(i));
+                        reload.changed++;
+                    }
+                    if (linked) {
+                        topic.topicId = old.topicId;
+                    } else {
+                        // new to the file, moved within it, or removed from the list since it was loaded
+                        List<String> topicWords = words.get(i) != null ? words.get(i) : readWords(channel, topic);
+                        topic.topicId = insert(editor, previousId, loaded, topic.name, topicWords);
+                        reload.added++;
+                    }
+                    if (old != null) consumed[matches[i]] = true;
+                    applied.add(topic);
+                    previousId = topic.topicId;
+                }
+                for (int i = 0; i < loaded.size(); i++) {
+                    if (consumed[i]) continue;
+                    if (editor.removeTopic(loaded.get(i).topicId)) reload.removed++;
+                    consumed[i] = true;
+                }
+                return null;
+            });
+            done = true;
+        } finally {
+            if (!done) {
+                // what was applied stays applied; the rest is compared again on the next reload
+                for (int i = 0; i < loaded.size(); i++) {
+                    if (consumed[i]) continue;
+                    loaded.get(i).length = -1;
+                    applied.add(loaded.get(i));
+                }
+            }
+            files.put(file, applied);
+        }
+        return reload;
+    }
+
+    /**
+     * Pairs the topics of a file with the topics loaded from it: the n-th
+     * topic of a name with the n-th loaded of that name. Of the pairs, only
+     * the longest run still in the order loaded is kept, so that the other
+     * topics are moved by adding them again where they now are.
+     *
+     * @param loaded The topics loaded.
+     * @param topics The topics of the file.
+     * @return For each topic of the file, the index of its loaded topic, or -1.
+     */
+    static int[] match(List<TopicEntry> loaded, List<TopicEntry> topics) {
+        // the first unmatched loaded topic of each name, chained to the next one of the same name
+        HashMap<String, Integer> firstByName = new HashMap<>(loaded.size() * 4 / 3 + 1);
+        int[] nextOfName = new int[loaded.size()];
+        for (int i = loaded.size() - 1; i >= 0; i--) {
+            Integer next = firstByName.put(loaded.get(i).name, i);
+            nextOfName[i] = next == null ? -1 : next;
+        }
+        int[] matches = new int[topics.size()];
+        for (int i = 0; i < matches.length; i++) {
+            String name = topics.get(i).name;
+            Integer index = firstByName.get(name);
+            matches[i] = index == null ? -1 : index;
+            if (index == null) continue;
+            if (nextOfName[index] < 0) firstByName.remove(name);
+            else firstByName.put(name, nextOfName[index]);
+        }
+        // longest increasing subsequence of the loaded indices, by patience sorting
+        int[] tails = new int[matches.length];
+        int[] previous = new int[matches.length];
+        int length = 0;
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] < 0) continue;
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (matches[tails[middle]] < matches[i]) low = middle + 1;
+                else high = middle;
+            }
+            previous[i] = low == 0 ? -1 : tails[low - 1];
+            tails[low] = i;
+            if (low == length) length++;
+        }
+        boolean[] inOrder = new boolean[matches.length];
+        for (int i = length == 0 ? -1 : tails[length - 1]; i >= 0; i = previous[i]) inOrder[i] = true;
+        for (int i = 0; i < matches.length; i++) {
+            if (!inOrder[i]) matches[i] = -1;
+        }
+        return matches;
+    }
+
+    /**
+     * Inserts a topic new to a file after the topic before it in the file, or
+     * before the first topic loaded from the file, or at the end of the list.
+     */
+    private static int insert(VocabDoubleList.Editor editor, int previousId, List<TopicEntry> loaded, String name,
+            List<String> words) throws IOException {
+        try {
+            if (previousId != 0) return editor.insertTopicAfter(previousId, name, words);
+            if (!loaded.isEmpty()) return editor.insertTopicBefore(loaded.get(0).topicId, name, words);
+        } catch (NoSuchElementException e) {
+            // the anchor was removed from the list meanwhile
+        }
+        return editor.appendTopic(name, words);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                boolean waiting;
+                synchronized (this) {
+                    waiting = !pending.isEmpty();
+                }
+                WatchKey key = waiting ? watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS) : watchService.take();
+                if (key != null) {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changedIn(directory);
+                        } else {
+                            changed(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                reloadQuietFiles();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private synchronized void changed(Path file) {
+        if (files.containsKey(file)) pending.put(file, System.nanoTime());
+    }
+
+    private synchronized void changedIn(Path directory) {
+        for (Path file : files.keySet()) {
+            if (file.getParent().equals(directory)) pending.put(file, System.nanoTime());
+        }
+    }
+
+    private synchronized void reloadQuietFiles() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, Long>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Path, Long> change = i.next();
+            if (now - change.getValue() < TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS)) continue;
+            i.remove();
+            Path file = change.getKey();
+            long start = System.nanoTime();
+            try {
+                Reload reload = reload(file);
+                log.accept("Reloaded " + file.getFileName() + " in " + (System.nanoTime() - start) / 1_000_000 + " ms: " + reload);
+            } catch (NoSuchFileException e) {
+                // deleted, or being replaced: wait for it to come back
+            } catch (IOException | RuntimeException e) {
+                log.accept("Error reloading " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads a file once and returns its topics in order, each with the length
+     * and checksums of its lines. As when loading, a line starting with '#'
+     * opens a topic and lines before the first one are left out.
+     *
+     * @param channel The file.
+     * @return The topics, with no topic ids yet.
+     * @throws IOException If the file cannot be read.
+     */
+    static List<TopicEntry> digest(FileChannel channel) throws IOException {
+        ArrayList<TopicEntry> topics = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] bytes = buffer.array();
+        CRC32C crc32c = new CRC32C();
+        CRC32 crc32 = new CRC32();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        boolean inHeader = false;
+        boolean lineStart = true;
+        TopicEntry current = null;
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer.clear(), position)) > 0) {
+            int from = 0;
+            while (from < read) {
+                if (inHeader) {
+                    int end = indexOf(bytes, (byte) '\n', from, read);
+                    header.write(bytes, from, end - from);
+                    if (end == read) {
+                        from = read;
+                        break;
+                    }
+                    current = new TopicEntry(header.toString(StandardCharsets.UTF_8).trim(), position + end + 1);
+                    topics.add(current);
+                    crc32c.reset();
+                    crc32.reset();
+                    inHeader = false;
+                    from = end + 1;
+                    lineStart = true;
+                }
+                int next = nextHeader(buffer, from, read, lineStart);
+                if (current != null) {
+                    crc32c.update(bytes, from, next - from);
+                    crc32.update(bytes, from, next - from);
+                }
+                if (next == read) {
+                    lineStart = bytes[read - 1] == '\n';
+                    from = read;
+                    break;
+                }
+                if (current != null) finish(current, position + next, crc32c, crc32);
+                current = null;
+                header.reset();
+                inHeader = true;
+                from = next + 1;
+            }
+            position += read;
+        }
+        if (inHeader) {
+            current = new TopicEntry(header.toString(StandardCharsets.UTF_8).trim(), position);
+            topics.add(current);
+            crc32c.reset();
+            crc32.reset();
+        }
+        if (current != null) finish(current, position, crc32c, crc32);
+        return topics;
+    }
+
+    private static void finish(TopicEntry topic, long end, CRC32C crc32c, CRC32 crc32) {
+        topic.length = end - topic.offset;
+        topic.checksum = crc32c.getValue() << 32 | crc32.getValue();
+    }
+
+    /**
+     * Finds the next '#' starting a line, testing eight bytes at a time for a
+     * '#' and only then whether a line starts there.
+     *
+     * @param buffer The bytes, in little-endian order.
+     * @param from The first byte to look at.
+     * @param to The end of the bytes.
+     * @param lineStart Whether a line starts at the first byte of the buffer.
+     * @return The offset of the '#', or {@code to} if there is none.
+     */
+    private static int nextHeader(ByteBuffer buffer, int from, int to, boolean lineStart) {
+        int i = from;
+        while (i + 8 <= to) {
+            long word = buffer.getLong(i) ^ HASH_BYTES;
+            long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+            while (found != 0) {
+                int at = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                if (at == 0 ? lineStart : buffer.get(at - 1) == '\n') return at;
+                found &= found - 1;
+            }
+            i += 8;
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == '#' && (i == 0 ? lineStart : buffer.get(i - 1) == '\n')) return i;
+        }
+        return to;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) return i;
+        }
+        return to;
+    }
+
+    /**
+     * Reads the words of a topic: its lines, trimmed, without blank ones.
+     */
+    private static List<String> readWords(FileChannel channel, TopicEntry topic) throws IOException {
+        if (topic.length > Integer.MAX_VALUE) throw new IOException("Topic '" + topic.name + "' is larger than 2 GiB");
+        ByteBuffer buffer = ByteBuffer.allocate((int) topic.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, topic.offset + buffer.position()) < 0) throw new IOException("File shrank while read");
+        }
+        byte[] bytes = buffer.array();
+        ArrayList<String> words = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') continue;
+            int start = lineStart;
+            int end = i;
+            lineStart = i + 1;
+            while (start < end && (bytes[start] & 0xff) <= ' ') start++;
+            while (end > start && (bytes[end - 1] & 0xff) <= ' ') end--;
+            if (start < end) words.add(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,253 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A shared dictionary storing each distinct word once, as UTF-8 bytes in a
+ * single growing byte arena, and handing out dense int ids for them. Topics keep
+ * these ids in primitive arrays instead of one String object per occurrence.
+ *
+ * Every id also knows the id of its case-folded form, which is interned as a
+ * word of its own, so case-insensitive comparisons become id comparisons.
+ * Words are never removed, not even when the vocabulary is restored from a
+ * snapshot, so an id stays valid for as long as the dictionary lives.
+ *
+ * Interning takes a write lock, so parser and editor threads can intern
+ * concurrently. Lookups by content are optimistic reads that fall back to the
+ * read lock only when they race with an intern. Reading a word by an id the
+ * caller already holds takes no lock at all: the arrays are replaced, never
+ * shrunk, when they grow and are published through volatile fields.
+ */
+class WordDictionary {
+    private static final int NONE = -1;
+
+    private volatile byte[] arena = new byte[1 << 12];
+    private final StampedLock lock = new StampedLock();
+    private int arenaSize;
+    private volatile int[] starts = new int[257];
+    private int[] hashes = new int[256];
+    private volatile int[] folds = new int[256];
+    private volatile int count;
+    /** Open-addressing table of id + 1, 0 marking a free bucket. */
+    private int[] table = new int[512];
+    private byte[] scratch = new byte[256];
+
+    /**
+     * @return The number of distinct words stored.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the id of a word, adding the word if it is new.
+     * @param word The word.
+     * @return Its id.
+     */
+    int intern(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the id of a UTF-8 encoded word, adding the word if it is new.
+     * @param utf8 The buffer holding the word.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return Its id.
+     */
+    int intern(byte[] utf8, int offset, int length) {
+        long stamp = lock.writeLock();
+        try {
+            return internLocked(utf8, offset, length);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the id of a word without adding it.
+     * @param word The word.
+     * @return Its id, or -1 if the dictionary does not hold it.
+     */
+    int find(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes, 0, bytes.length);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int id = find(bytes, 0, bytes.length, hash);
+                if (lock.validate(stamp)) return id;
+            } catch (RuntimeException e) {
+                // an intern resized the arrays underneath, retry under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return find(bytes, 0, bytes.length, hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param id A word id.
+     * @return The id of the case-folded form of the word.
+     */
+    int fold(int id) {
+        return folds[id];
+    }
+
+    /**
+     * Decodes a word.
+     * @param id A word id.
+     * @return The word.
+     */
+    String word(int id) {
+        int[] bounds = starts;
+        return new String(arena, bounds[id], bounds[id + 1] - bounds[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param id A word id.
+     * @return The length of the word in UTF-8 bytes.
+     */
+    int byteLength(int id) {
+        int[] bounds = starts;
+        return bounds[id + 1] - bounds[id];
+    }
+
+    /**
+     * Copies the UTF-8 bytes of a word.
+     * @param id A word id.
+     * @param target The array to copy to.
+     * @param offset Where the first byte goes.
+     */
+    void copyBytes(int id, byte[] target, int offset) {
+        int[] bounds = starts;
+        System.arraycopy(arena, bounds[id], target, offset, bounds[id + 1] - bounds[id]);
+    }
+
+    /**
+     * Copies the UTF-8 bytes of a word straight from the arena into a buffer.
+     * @param id A word id.
+     * @param target The buffer to copy to, with at least {@link #byteLength(int)} bytes remaining.
+     */
+    void copyBytes(int id, ByteBuffer target) {
+        int[] bounds = starts;
+        target.put(arena, bounds[id], bounds[id + 1] - bounds[id]);
+    }
+
+    /**
+     * @return The approximate number of heap bytes used by the dictionary.
+     */
+    long heapBytes() {
+        long stamp = lock.readLock();
+        try {
+            return 16L + arena.length + 4L * (starts.length + hashes.length + folds.length + table.length) + 4 * 16;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int internLocked(byte[] utf8, int offset, int length) {
+        int hash = hash(utf8, offset, length);
+        int id = find(utf8, offset, length, hash);
+        if (id != NONE) return id;
+        int fold = foldOf(utf8, offset, length);
+        return add(utf8, offset, length, hash, fold);
+    }
+
+    private int find(byte[] utf8, int offset, int length, int hash) {
+        int[] buckets = table;
+        int mask = buckets.length - 1;
+        // bounded so an optimistic read over a table being filled always ends
+        for (int probe = 0, bucket = hash & mask; probe < buckets.length; probe++, bucket = (bucket + 1) & mask) {
+            int entry = buckets[bucket];
+            if (entry == 0) return NONE;
+            int id = entry - 1;
+            if (hashes[id] == hash && equalBytes(id, utf8, offset, length)) return id;
+        }
+        return NONE;
+    }
+
+    private int add(byte[] utf8, int offset, int length, int hash, int fold) {
+        int id = count;
+        if (id + 1 == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            folds = Arrays.copyOf(folds, folds.length * 2);
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        System.arraycopy(utf8, offset, arena, arenaSize, length);
+        arenaSize += length;
+        starts[id + 1] = arenaSize;
+        hashes[id] = hash;
+        folds[id] = fold == NONE ? id : fold;
+        count++;
+        if (count * 2 > table.length) rehash();
+        insert(id);
+        return id;
+    }
+
+    /**
+     * Interns the case-folded form of a word when it differs from the word.
+     * @return The id of the folded form, or -1 if the word is already folded.
+     */
+    private int foldOf(byte[] utf8, int offset, int length) {
+        boolean ascii = true;
+        boolean upper = false;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = utf8[i];
+            if (b < 0) {
+                ascii = false;
+                break;
+            }
+            if (b >= 'A' && b <= 'Z') upper = true;
+        }
+        byte[] folded;
+        if (ascii) {
+            if (!upper) return NONE;
+            if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            for (int i = 0; i < length; i++) {
+                byte b = utf8[offset + i];
+                scratch[i] = b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+            }
+            folded = Arrays.copyOf(scratch, length);
+        } else {
+            String word = new String(utf8, offset, length, StandardCharsets.UTF_8);
+            String lower = word.toLowerCase(Locale.ROOT);
+            if (lower.equals(word)) return NONE;
+            folded = lower.getBytes(StandardCharsets.UTF_8);
+        }
+        return internLocked(folded, 0, folded.length);
+    }
+
+    private boolean equalBytes(int id, byte[] utf8, int offset, int length) {
+        int start = starts[id];
+        if (starts[id + 1] - start != length) return false;
+        return Arrays.equals(arena, start, start + length, utf8, offset, offset + length);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        for (int id = 0; id < count - 1; id++) insert(id);
+    }
+
+    private void insert(int id) {
+        int mask = table.length - 1;
+        int bucket = hashes[id] & mask;
+        while (table[bucket] != 0) bucket = (bucket + 1) & mask;
+        table[bucket] = id + 1;
+    }
+
+    private static int hash(byte[] utf8, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) hash = 31 * hash + utf8[i];
+        return hash ^ (hash >>> 16) ^ (hash >>> 7);
+    }
+}